@@ -2,12 +2,14 @@ package com.bmsedge.mqtt;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * MQTT Service Application
  * Main entry point for MQTT data collection service
  */
 @SpringBootApplication
+@EnableScheduling
 public class MqttServiceApplication {
 
     public static void main(String[] args) {
@@ -4,26 +4,26 @@ import com.bmsedge.mqtt.service.MqttDataService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.channel.DirectChannel;
-import org.springframework.integration.core.MessageProducer;
 import org.springframework.integration.mqtt.core.DefaultMqttPahoClientFactory;
 import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
-import org.springframework.integration.mqtt.inbound.MqttPahoMessageDrivenChannelAdapter;
-import org.springframework.integration.mqtt.support.DefaultPahoMessageConverter;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.X509Certificate;
 
 /**
  * MQTT Configuration
  * Configures MQTT client and message handling for HiveMQ Cloud
+ * (inbound connections are built by MqttInboundConnectionPool)
  */
 @Slf4j
 @Configuration
@@ -50,6 +50,7 @@ public class MqttConfig {
             options.setKeepAliveInterval(mqttProperties.getConnection().getKeepAliveInterval());
             options.setConnectionTimeout(mqttProperties.getConnection().getConnectionTimeout());
             options.setAutomaticReconnect(mqttProperties.getConnection().isAutomaticReconnect());
+            options.setMaxReconnectDelay(mqttProperties.getConnection().getMaxReconnectDelay() * 1000);
             options.setCleanSession(mqttProperties.getConnection().isCleanSession());
 
             // Set credentials
@@ -65,23 +66,7 @@ public class MqttConfig {
             // For HiveMQ Cloud SSL - trust all certificates (for development)
             if (brokerUrl.startsWith("ssl://")) {
                 log.info("🔐 Configuring SSL for HiveMQ Cloud");
-
-                // Create a trust manager that accepts all certificates
-                TrustManager[] trustAllCerts = new TrustManager[]{
-                        new X509TrustManager() {
-                            public X509Certificate[] getAcceptedIssuers() {
-                                return null;
-                            }
-                            public void checkClientTrusted(X509Certificate[] certs, String authType) {
-                            }
-                            public void checkServerTrusted(X509Certificate[] certs, String authType) {
-                            }
-                        }
-                };
-
-                SSLContext sslContext = SSLContext.getInstance("TLS");
-                sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-                options.setSocketFactory(sslContext.getSocketFactory());
+                options.setSocketFactory(trustAllSslContext().getSocketFactory());
             }
 
             factory.setConnectionOptions(options);
@@ -108,28 +93,47 @@ public class MqttConfig {
     }
 
     /**
-     * MQTT Message Producer (Subscriber)
+     * MQTT v5 connection options (same broker settings as the v3 factory)
+     * Used by shared-subscription connections
      */
     @Bean
-    public MessageProducer inbound() {
-        String[] topics = mqttProperties.getTopics().toArray(new String[0]);
+    public MqttConnectionOptions mqttv5ConnectionOptions() {
+        MqttProperties.SharedSubscriptionConfig shared = mqttProperties.getSharedSubscription();
+        MqttConnectionOptions options = new MqttConnectionOptions();
 
-        MqttPahoMessageDrivenChannelAdapter adapter = new MqttPahoMessageDrivenChannelAdapter(
-                mqttProperties.getBroker().getClientId(),
-                mqttClientFactory(),
-                topics
-        );
+        try {
+            String brokerUrl = mqttProperties.getBroker().getUrl();
+            String username = mqttProperties.getBroker().getUsername();
+            String password = mqttProperties.getBroker().getPassword();
 
-        adapter.setCompletionTimeout(5000);
-        adapter.setConverter(new DefaultPahoMessageConverter());
-        adapter.setQos(mqttProperties.getQos());
-        adapter.setOutputChannel(mqttInputChannel());
+            options.setServerURIs(new String[]{brokerUrl});
+            options.setKeepAliveInterval(mqttProperties.getConnection().getKeepAliveInterval());
+            options.setConnectionTimeout(mqttProperties.getConnection().getConnectionTimeout());
+            options.setAutomaticReconnect(mqttProperties.getConnection().isAutomaticReconnect());
+            options.setAutomaticReconnectDelay(1, mqttProperties.getConnection().getMaxReconnectDelay());
+            options.setCleanStart(mqttProperties.getConnection().isCleanSession());
+            if (!mqttProperties.getConnection().isCleanSession()) {
+                // Keep the session (and queued QoS 1 messages) across short disconnects
+                options.setSessionExpiryInterval(shared.getSessionExpiryInterval());
+            }
 
-        log.info("✅ MQTT Subscriber configured");
-        log.info("🆔 Client ID: {}", mqttProperties.getBroker().getClientId());
-        log.info("📊 QoS: {}", mqttProperties.getQos());
+            if (username != null && !username.trim().isEmpty()) {
+                options.setUserName(username);
+            }
+            if (password != null && !password.trim().isEmpty()) {
+                options.setPassword(password.getBytes(StandardCharsets.UTF_8));
+            }
+
+            if (brokerUrl.startsWith("ssl://")) {
+                options.setSocketFactory(trustAllSslContext().getSocketFactory());
+            }
+
+        } catch (Exception e) {
+            log.error("❌ Error configuring MQTT v5 connection options: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to configure MQTT v5", e);
+        }
 
-        return adapter;
+        return options;
     }
 
     /**
@@ -141,13 +145,11 @@ public class MqttConfig {
         return message -> {
             try {
                 String topic = (String) message.getHeaders().get("mqtt_receivedTopic");
-                String payload = (String) message.getPayload();
+                byte[] payload = (byte[]) message.getPayload();
 
-                log.info("📨 MQTT Message Received!");
-                log.info("📋 Topic: {}", topic);
-                log.info("📦 Payload: {}", payload);
+                log.debug("📨 MQTT Message Received on {} ({} bytes)", topic, payload.length);
 
-                // Process message
+                // Parse and enqueue only - DB writes happen on the ingest writer thread
                 mqttDataService.processMqttMessage(payload);
 
             } catch (Exception e) {
@@ -155,4 +157,26 @@ public class MqttConfig {
             }
         };
     }
-}
\ No newline at end of file
+
+    /**
+     * SSL context that accepts all certificates (HiveMQ Cloud, development)
+     */
+    private SSLContext trustAllSslContext() throws Exception {
+        // Create a trust manager that accepts all certificates
+        TrustManager[] trustAllCerts = new TrustManager[]{
+                new X509TrustManager() {
+                    public X509Certificate[] getAcceptedIssuers() {
+                        return null;
+                    }
+                    public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                    }
+                    public void checkServerTrusted(X509Certificate[] certs, String authType) {
+                    }
+                }
+        };
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
+        return sslContext;
+    }
+}
@@ -0,0 +1,252 @@
+package com.bmsedge.mqtt.config;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * mqtt_data Partition Manager
+ *
+ * Keeps mqtt_data (created by the Flyway migrations) range-partitioned on
+ * timestamp, by day or week:
+ *   1. plain table   -> convert in one transaction: the old heap becomes the
+ *                       partition mqtt_data_legacy FOR VALUES FROM (MINVALUE)
+ *                       TO (end of the period holding its newest row); its
+ *                       primary key is rebuilt as (id, timestamp) and its
+ *                       indexes are recreated on the parent (and attached)
+ *   2. every run     -> DEFAULT partition, partitions for the current period and
+ *                       mqtt.partitioning.premake periods ahead, retention
+ *
+ * Retention detaches (and by default drops) whole partitions whose upper bound
+ * is older than mqtt.partitioning.retention-days - no bulk DELETE, no vacuum debt.
+ * Queries filtering on timestamp BETWEEN :from AND :to prune to the partitions
+ * of that window.
+ *
+ * ⚠️ The conversion scans the old table once (ATTACH validation) under an
+ * exclusive lock; run it in a maintenance window for large tables.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class MqttDataPartitionManager implements InitializingBean {
+
+    private static final String TABLE = "mqtt_data";
+    private static final String LEGACY_PARTITION = "mqtt_data_legacy";
+    private static final String DEFAULT_PARTITION = "mqtt_data_default";
+    private static final String PARTITION_PREFIX = "mqtt_data_p";
+
+    private static final DateTimeFormatter BOUND = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Pattern RANGE = Pattern.compile("FROM \\((.+?)\\) TO \\((.+?)\\)");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MqttProperties.PartitioningConfig config;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        String kind = jdbcTemplate.queryForObject(
+                "SELECT COALESCE((SELECT relkind::text FROM pg_class WHERE oid = to_regclass('" + TABLE + "')), '')",
+                String.class);
+
+        if ("r".equals(kind)) {
+            convertPlainTable();
+        }
+
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + DEFAULT_PARTITION + " PARTITION OF " + TABLE + " DEFAULT");
+        maintain();
+    }
+
+    /**
+     * Pre-create upcoming partitions and apply retention (daily, and at startup)
+     */
+    @Scheduled(cron = "${mqtt.partitioning.maintenance-cron:0 5 0 * * *}")
+    public void maintain() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        try {
+            createAhead();
+            applyRetention();
+        } catch (Exception e) {
+            log.error("❌ mqtt_data partition maintenance failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /* ------------------ BOOTSTRAP ------------------ */
+
+    private void convertPlainTable() {
+        LocalDateTime newest = jdbcTemplate.queryForObject("SELECT MAX(timestamp) FROM " + TABLE, LocalDateTime.class);
+        LocalDate legacyEnd = nextPeriodStart(newest != null ? newest.toLocalDate() : LocalDate.now().minusDays(1));
+        // No gap between the legacy range and the current period
+        legacyEnd = legacyEnd.isBefore(periodStart(LocalDate.now())) ? periodStart(LocalDate.now()) : legacyEnd;
+
+        String primaryKey = jdbcTemplate.queryForObject("""
+                SELECT COALESCE((SELECT conname FROM pg_constraint
+                                 WHERE conrelid = to_regclass('mqtt_data') AND contype = 'p'), '')
+                """, String.class);
+
+        // Secondary indexes (migrations) move to the parent under their own names
+        List<Map<String, Object>> indexes = jdbcTemplate.queryForList("""
+                SELECT indexname, indexdef FROM pg_indexes
+                WHERE schemaname = current_schema() AND tablename = 'mqtt_data' AND indexname <> ?
+                """, primaryKey);
+
+        List<String> statements = new ArrayList<>();
+        statements.add("UPDATE " + TABLE + " SET timestamp = COALESCE(created_at, now()) WHERE timestamp IS NULL");
+        statements.add("ALTER TABLE " + TABLE + " ALTER COLUMN timestamp SET NOT NULL");
+        statements.add("ALTER TABLE " + TABLE + " RENAME TO " + LEGACY_PARTITION);
+        // A partition's primary key must match the parent's (id, timestamp); attached instead of rebuilt
+        if (!primaryKey.isEmpty()) {
+            statements.add("ALTER TABLE " + LEGACY_PARTITION + " DROP CONSTRAINT " + primaryKey);
+        }
+        statements.add("ALTER TABLE " + LEGACY_PARTITION + " ADD CONSTRAINT " + LEGACY_PARTITION
+                + "_pkey PRIMARY KEY (id, timestamp)");
+        for (Map<String, Object> index : indexes) {
+            statements.add("ALTER INDEX " + index.get("indexname") + " RENAME TO " + index.get("indexname") + "_legacy");
+        }
+        // Same column types as the old table
+        statements.add("CREATE TABLE " + TABLE + " (LIKE " + LEGACY_PARTITION + " INCLUDING DEFAULTS)"
+                + " PARTITION BY RANGE (timestamp)");
+        statements.add("ALTER TABLE " + TABLE + " ADD PRIMARY KEY (id, timestamp)");
+        statements.add("ALTER TABLE " + TABLE + " ATTACH PARTITION " + LEGACY_PARTITION
+                + " FOR VALUES FROM (MINVALUE) TO ('" + legacyEnd.atStartOfDay().format(BOUND) + "')");
+        // Definitions still read "ON mqtt_data" - now the parent; the legacy copies are attached, not rebuilt
+        for (Map<String, Object> index : indexes) {
+            statements.add((String) index.get("indexdef"));
+        }
+
+        long started = System.currentTimeMillis();
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : statements) {
+                    statement.execute(sql);
+                }
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+
+        log.info("✅ Converted mqtt_data to a partitioned table in {} ms (existing rows in {} up to {})",
+                System.currentTimeMillis() - started, LEGACY_PARTITION, legacyEnd);
+    }
+
+    /* ------------------ MAINTENANCE ------------------ */
+
+    private void createAhead() {
+        List<Partition> existing = partitions();
+        LocalDate from = periodStart(LocalDate.now());
+
+        for (int i = 0; i <= config.getPremake(); i++) {
+            LocalDate to = nextPeriodStart(from);
+            LocalDateTime start = from.atStartOfDay();
+            LocalDateTime end = to.atStartOfDay();
+
+            boolean covered = existing.stream().anyMatch(p -> p.overlaps(start, end));
+            if (!covered) {
+                String name = PARTITION_PREFIX + from.format(DateTimeFormatter.BASIC_ISO_DATE);
+                try {
+                    jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + TABLE
+                            + " FOR VALUES FROM ('" + start.format(BOUND) + "') TO ('" + end.format(BOUND) + "')");
+                    log.info("✅ Created partition {} [{} - {})", name, from, to);
+                } catch (Exception e) {
+                    // Typically rows for this range already sit in the DEFAULT partition
+                    log.error("❌ Could not create partition {}: {}", name, e.getMessage());
+                }
+            }
+            from = to;
+        }
+    }
+
+    private void applyRetention() {
+        if (config.getRetentionDays() <= 0) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDate.now().minusDays(config.getRetentionDays()).atStartOfDay();
+
+        for (Partition partition : partitions()) {
+            if (partition.upper == null || partition.upper.isAfter(cutoff)) {
+                continue;
+            }
+            jdbcTemplate.execute("ALTER TABLE " + TABLE + " DETACH PARTITION " + partition.name);
+            if (config.getRetentionAction() == MqttProperties.RetentionAction.DROP) {
+                jdbcTemplate.execute("DROP TABLE " + partition.name);
+                log.info("🗑️ Dropped partition {} (older than {} days)", partition.name, config.getRetentionDays());
+            } else {
+                log.info("📦 Detached partition {} (older than {} days)", partition.name, config.getRetentionDays());
+            }
+        }
+    }
+
+    /**
+     * Range partitions of mqtt_data (the DEFAULT partition is not included)
+     */
+    private List<Partition> partitions() {
+        return jdbcTemplate.query("""
+                SELECT c.relname, pg_get_expr(c.relpartbound, c.oid)
+                FROM pg_inherits i
+                JOIN pg_class c ON c.oid = i.inhrelid
+                WHERE i.inhparent = to_regclass('mqtt_data')
+                """, (rs, row) -> {
+            Matcher matcher = RANGE.matcher(rs.getString(2));
+            if (!matcher.find()) {
+                return null;
+            }
+            return new Partition(rs.getString(1), parseBound(matcher.group(1)), parseBound(matcher.group(2)));
+        }).stream().filter(p -> p != null).toList();
+    }
+
+    private LocalDate periodStart(LocalDate date) {
+        return config.getInterval() == MqttProperties.PartitionInterval.WEEK
+                ? date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+                : date;
+    }
+
+    private LocalDate nextPeriodStart(LocalDate date) {
+        LocalDate start = periodStart(date);
+        return config.getInterval() == MqttProperties.PartitionInterval.WEEK ? start.plusWeeks(1) : start.plusDays(1);
+    }
+
+    /**
+     * 'yyyy-MM-dd HH:mm:ss[.f]' -> LocalDateTime, MINVALUE / MAXVALUE -> null
+     */
+    private static LocalDateTime parseBound(String bound) {
+        if (!bound.startsWith("'")) {
+            return null;
+        }
+        return LocalDateTime.parse(bound.substring(1, bound.length() - 1).replace(' ', 'T'));
+    }
+
+    /**
+     * [lower, upper) of one partition; null bound = unbounded
+     */
+    private record Partition(String name, LocalDateTime lower, LocalDateTime upper) {
+
+        boolean overlaps(LocalDateTime start, LocalDateTime end) {
+            return (lower == null || lower.isBefore(end)) && (upper == null || upper.isAfter(start));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.bmsedge.mqtt.config;
+
+import com.bmsedge.mqtt.model.MqttDataIdGenerator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * mqtt_data Sequence Initializer
+ *
+ * mqtt_data_seq itself and the move away from IDENTITY ids are migrations
+ * (V2__mqtt_data_id_sequence.sql). The allocation size is configuration:
+ * pooled-lo takes [value, value + allocationSize) from every nextval(), so
+ * the sequence's INCREMENT BY must never be smaller than the size any
+ * running replica (JPA writer or COPY writer) uses.
+ *
+ * - Raising the size raises INCREMENT BY and moves the sequence past every
+ *   block already handed out (and past MAX(id)); replicas still on the
+ *   smaller size stay inside their (now wider) strides.
+ * - Lowering the size keeps the larger INCREMENT BY once ids have been
+ *   handed out: smaller blocks fit inside it, whereas a smaller stride
+ *   would make the next nextval() land inside a block still in use.
+ *   A sequence that has never handed out an id is simply resized.
+ *
+ * Runs under an advisory lock so replicas starting together agree.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class MqttDataSequenceInitializer implements InitializingBean {
+
+    /**
+     * pg_advisory_xact_lock key (any constant shared by all replicas)
+     */
+    private static final long LOCK_KEY = 0x6D71_7474_5F73_6571L;
+
+    private static final String SEQUENCE_STATE_SQL =
+            "SELECT s.last_value, s.is_called, p.increment_by, (SELECT COALESCE(MAX(id), 0) FROM mqtt_data)"
+                    + " FROM " + MqttDataIdGenerator.SEQUENCE_NAME + " s, pg_sequences p"
+                    + " WHERE p.schemaname = current_schema() AND p.sequencename = '"
+                    + MqttDataIdGenerator.SEQUENCE_NAME + "'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int allocationSize;
+
+    @Override
+    public void afterPropertiesSet() {
+        long increment = jdbcTemplate.execute((ConnectionCallback<Long>) this::sync);
+        log.info("✅ mqtt_data id sequence ready (allocation size {}, increment {})", allocationSize, increment);
+    }
+
+    /**
+     * One transaction on one connection: the advisory lock is released at commit
+     */
+    private long sync(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+
+            long lastValue;
+            boolean called;
+            long increment;
+            long maxId;
+            try (ResultSet rs = statement.executeQuery(SEQUENCE_STATE_SQL)) {
+                rs.next();
+                lastValue = rs.getLong(1);
+                called = rs.getBoolean(2);
+                increment = rs.getLong(3);
+                maxId = rs.getLong(4);
+            }
+
+            boolean unused = !called && maxId == 0;
+            if (allocationSize > increment || (allocationSize < increment && unused)) {
+                // First value nobody holds: after the last block handed out and after every stored id
+                long next = Math.max(called ? lastValue + increment : lastValue, maxId + 1);
+                statement.execute("ALTER SEQUENCE " + MqttDataIdGenerator.SEQUENCE_NAME
+                        + " INCREMENT BY " + allocationSize);
+                statement.execute("SELECT setval('" + MqttDataIdGenerator.SEQUENCE_NAME + "', " + next + ", false)");
+                log.info("🔢 mqtt_data_seq increment {} -> {}, next id {}", increment, allocationSize, next);
+                increment = allocationSize;
+            } else if (allocationSize < increment) {
+                log.info("🔢 mqtt_data_seq keeps increment {}: allocation size {} blocks fit inside it",
+                        increment, allocationSize);
+            }
+
+            connection.commit();
+            return increment;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
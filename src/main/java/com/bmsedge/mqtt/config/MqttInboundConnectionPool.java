@@ -0,0 +1,323 @@
+package com.bmsedge.mqtt.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.integration.dsl.IntegrationFlow;
+import org.springframework.integration.dsl.context.IntegrationFlowContext;
+import org.springframework.integration.endpoint.MessageProducerSupport;
+import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
+import org.springframework.integration.mqtt.event.MqttConnectionFailedEvent;
+import org.springframework.integration.mqtt.event.MqttSubscribedEvent;
+import org.springframework.integration.mqtt.inbound.MqttPahoMessageDrivenChannelAdapter;
+import org.springframework.integration.mqtt.inbound.Mqttv5PahoMessageDrivenChannelAdapter;
+import org.springframework.integration.mqtt.support.DefaultPahoMessageConverter;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MQTT Inbound Connection Pool
+ * Spreads mqtt.topics over mqtt.connection-pool.size inbound adapters, each
+ * with its own TCP connection, Paho callback thread and reconnect handling.
+ *
+ * Topics are assigned round-robin or by explicit topic groups. Every connection
+ * feeds mqttInputChannel and keeps its own message / reconnect counters.
+ * Works for both the classic v3 mode and the v5 shared-subscription mode.
+ */
+@Slf4j
+@Component
+public class MqttInboundConnectionPool {
+
+    private final MqttProperties mqttProperties;
+    private final MqttPahoClientFactory mqttClientFactory;
+    private final MqttConnectionOptions mqttv5ConnectionOptions;
+    private final MessageChannel mqttInputChannel;
+    private final IntegrationFlowContext flowContext;
+
+    private final List<InboundConnection> connections = new ArrayList<>();
+
+    public MqttInboundConnectionPool(MqttProperties mqttProperties,
+                                     MqttPahoClientFactory mqttClientFactory,
+                                     MqttConnectionOptions mqttv5ConnectionOptions,
+                                     @Qualifier("mqttInputChannel") MessageChannel mqttInputChannel,
+                                     IntegrationFlowContext flowContext) {
+        this.mqttProperties = mqttProperties;
+        this.mqttClientFactory = mqttClientFactory;
+        this.mqttv5ConnectionOptions = mqttv5ConnectionOptions;
+        this.mqttInputChannel = mqttInputChannel;
+        this.flowContext = flowContext;
+    }
+
+    /**
+     * Connect once the application is fully started (handlers are subscribed)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void connect() {
+        List<List<String>> assignment = assignTopics();
+        boolean shared = mqttProperties.getSharedSubscription().isEnabled();
+
+        // Replicas must not share a client id in shared-subscription mode; a stable
+        // per-replica id lets the broker resume the replica's session after a restart
+        String baseClientId = mqttProperties.getBroker().getClientId();
+        if (shared) {
+            baseClientId += "-" + instanceId(mqttProperties.getSharedSubscription());
+        }
+
+        for (int i = 0; i < assignment.size(); i++) {
+            List<String> topics = assignment.get(i);
+            if (topics.isEmpty()) {
+                log.warn("⚠️ MQTT connection {} has no topics assigned - skipped", i);
+                continue;
+            }
+
+            // Single connection keeps the configured client id unchanged
+            String clientId = assignment.size() == 1 ? baseClientId : baseClientId + "-" + i;
+
+            MessageProducerSupport adapter = shared
+                    ? sharedSubscriptionAdapter(clientId, topics)
+                    : classicAdapter(clientId, topics);
+
+            InboundConnection connection = new InboundConnection(i, clientId, topics, adapter);
+            connections.add(connection);
+
+            IntegrationFlow flow = IntegrationFlow.from(adapter)
+                    .handle(message -> {
+                        connection.recordMessage();
+                        mqttInputChannel.send(message);
+                    })
+                    .get();
+
+            flowContext.registration(flow)
+                    .id("mqttInbound-" + i)
+                    .register();
+
+            log.info("✅ MQTT connection {} ({}) subscribed to {}", i, clientId, topics);
+        }
+
+        log.info("📡 {} MQTT inbound connection(s) started{}", connections.size(),
+                shared ? " (v5 shared subscriptions, group " + mqttProperties.getSharedSubscription().getGroup() + ")" : "");
+    }
+
+    /**
+     * Per-connection throughput and reconnect counters
+     */
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>(connections.size());
+        for (InboundConnection connection : connections) {
+            stats.add(connection.getStats());
+        }
+        return stats;
+    }
+
+    @EventListener
+    public void onConnectionFailed(MqttConnectionFailedEvent event) {
+        InboundConnection connection = findBySource(event.getSource());
+        if (connection != null) {
+            connection.connectionFailures.incrementAndGet();
+            connection.lastFailureAt = LocalDateTime.now();
+            log.warn("⚠️ MQTT connection {} ({}) lost: {}", connection.index, connection.clientId,
+                    event.getCause() != null ? event.getCause().getMessage() : "unknown cause");
+        }
+    }
+
+    @EventListener
+    public void onSubscribed(MqttSubscribedEvent event) {
+        InboundConnection connection = findBySource(event.getSource());
+        if (connection != null) {
+            connection.subscriptions.incrementAndGet();
+            connection.lastConnectedAt = LocalDateTime.now();
+            log.info("🔄 MQTT connection {} ({}) (re)subscribed", connection.index, connection.clientId);
+        }
+    }
+
+    /* ------------------ ADAPTERS ------------------ */
+
+    /**
+     * MQTT v3 subscriber - every instance receives every message
+     */
+    private MessageProducerSupport classicAdapter(String clientId, List<String> topics) {
+        MqttPahoMessageDrivenChannelAdapter adapter = new MqttPahoMessageDrivenChannelAdapter(
+                clientId,
+                mqttClientFactory,
+                topics.toArray(new String[0])
+        );
+
+        adapter.setCompletionTimeout(5000);
+        // Hand the raw payload bytes to MqttPayloadDecoder (no String per message)
+        DefaultPahoMessageConverter converter = new DefaultPahoMessageConverter();
+        converter.setPayloadAsBytes(true);
+        adapter.setConverter(converter);
+        adapter.setQos(mqttProperties.getQos());
+
+        return adapter;
+    }
+
+    /**
+     * MQTT v5 shared subscriber - subscribes to $share/{group}/{topic}, so the
+     * broker load-balances each message to exactly one replica of the group
+     */
+    private MessageProducerSupport sharedSubscriptionAdapter(String clientId, List<String> topics) {
+        String group = mqttProperties.getSharedSubscription().getGroup();
+        String[] sharedTopics = topics.stream()
+                .map(topic -> "$share/" + group + "/" + topic)
+                .toArray(String[]::new);
+
+        Mqttv5PahoMessageDrivenChannelAdapter adapter = new Mqttv5PahoMessageDrivenChannelAdapter(
+                mqttv5ConnectionOptions,
+                clientId,
+                sharedTopics
+        );
+
+        // Payload stays byte[] for MqttPayloadDecoder
+        adapter.setCompletionTimeout(5000);
+        adapter.setQos(mqttProperties.getQos());
+
+        return adapter;
+    }
+
+    /**
+     * This replica's id: mqtt.shared-subscription.instance-id, else the host name
+     * (the pod name on Kubernetes), reduced to characters every broker accepts
+     */
+    static String instanceId(MqttProperties.SharedSubscriptionConfig config) {
+        String id = config.getInstanceId();
+        if (id == null || id.isBlank()) {
+            id = System.getenv("HOSTNAME");
+        }
+        if (id == null || id.isBlank()) {
+            try {
+                id = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException(
+                        "mqtt.shared-subscription.instance-id is not set and the host name cannot be resolved", e);
+            }
+        }
+        return id.trim().replaceAll("[^A-Za-z0-9_.-]", "-");
+    }
+
+    /* ------------------ TOPIC ASSIGNMENT ------------------ */
+
+    private List<List<String>> assignTopics() {
+        return assignTopics(mqttProperties.getConnectionPool(), mqttProperties.getTopics());
+    }
+
+    /**
+     * Round-robin over the sorted (distinct) topics: every connection gets
+     * topics and their counts differ by at most one; the same topic list
+     * always gives the same assignment. With topic groups, topics missing
+     * from every group go to the group with the fewest topics.
+     */
+    static List<List<String>> assignTopics(MqttProperties.ConnectionPoolConfig pool, List<String> topics) {
+        List<String> sorted = topics.stream().distinct().sorted().toList();
+
+        if (pool.getAssignment() == MqttProperties.TopicAssignment.LIST && !pool.getTopicGroups().isEmpty()) {
+            List<List<String>> groups = new ArrayList<>();
+            Set<String> assigned = new LinkedHashSet<>();
+            for (List<String> group : pool.getTopicGroups()) {
+                groups.add(new ArrayList<>(group));
+                assigned.addAll(group);
+            }
+            // Topics missing from every group still need a connection
+            for (String topic : sorted) {
+                if (!assigned.contains(topic)) {
+                    List<String> smallest = groups.get(0);
+                    for (List<String> group : groups) {
+                        if (group.size() < smallest.size()) {
+                            smallest = group;
+                        }
+                    }
+                    smallest.add(topic);
+                    log.warn("⚠️ Topic {} is not in any topic group - assigned to connection {}",
+                            topic, groups.indexOf(smallest));
+                }
+            }
+            return groups;
+        }
+
+        int size = Math.max(1, Math.min(pool.getSize(), sorted.size()));
+        List<List<String>> groups = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            groups.get(i % size).add(sorted.get(i));
+        }
+        return groups;
+    }
+
+    private InboundConnection findBySource(Object source) {
+        for (InboundConnection connection : connections) {
+            if (connection.adapter == source) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One inbound connection and its counters
+     */
+    private static final class InboundConnection {
+
+        private final int index;
+        private final String clientId;
+        private final List<String> topics;
+        private final MessageProducerSupport adapter;
+        private final LocalDateTime startedAt = LocalDateTime.now();
+
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong connectionFailures = new AtomicLong();
+        private final AtomicLong subscriptions = new AtomicLong();
+        private volatile long lastMessageAtMillis;
+        private volatile LocalDateTime lastConnectedAt;
+        private volatile LocalDateTime lastFailureAt;
+
+        InboundConnection(int index, String clientId, List<String> topics, MessageProducerSupport adapter) {
+            this.index = index;
+            this.clientId = clientId;
+            this.topics = topics;
+            this.adapter = adapter;
+        }
+
+        void recordMessage() {
+            messages.incrementAndGet();
+            lastMessageAtMillis = System.currentTimeMillis();
+        }
+
+        Map<String, Object> getStats() {
+            long count = messages.get();
+            long uptimeSeconds = Math.max(1, Duration.between(startedAt, LocalDateTime.now()).getSeconds());
+
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("connection", index);
+            stats.put("clientId", clientId);
+            stats.put("topics", topics);
+            stats.put("running", adapter.isRunning());
+            stats.put("messages", count);
+            stats.put("messagesPerSecond", count / (double) uptimeSeconds);
+            stats.put("connectionFailures", connectionFailures.get());
+            stats.put("subscriptions", subscriptions.get());
+            stats.put("lastMessageAt", lastMessageAtMillis == 0 ? null
+                    : LocalDateTime.ofInstant(Instant.ofEpochMilli(lastMessageAtMillis), ZoneId.systemDefault()));
+            stats.put("lastConnectedAt", lastConnectedAt);
+            stats.put("lastFailureAt", lastFailureAt);
+            return stats;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.bmsedge.mqtt.config;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -19,6 +23,22 @@ public class MqttProperties {
     private List<String> topics;
     private int qos = 1;
     private ConnectionConfig connection = new ConnectionConfig();
+    private SharedSubscriptionConfig sharedSubscription = new SharedSubscriptionConfig();
+    private ConnectionPoolConfig connectionPool = new ConnectionPoolConfig();
+    private IngestConfig ingest = new IngestConfig();
+    private PersistenceConfig persistence = new PersistenceConfig();
+    private JournalConfig journal = new JournalConfig();
+    private LatestCacheConfig latestCache = new LatestCacheConfig();
+    private RegistryConfig registry = new RegistryConfig();
+    private StatisticsConfig statistics = new StatisticsConfig();
+    private PartitioningConfig partitioning = new PartitioningConfig();
+    private RollupConfig rollup = new RollupConfig();
+    private HistoryConfig history = new HistoryConfig();
+    private RecentWindowConfig recentWindow = new RecentWindowConfig();
+    private ArchiveConfig archive = new ArchiveConfig();
+    private CompactionConfig compaction = new CompactionConfig();
+    private CongestionConfig congestion = new CongestionConfig();
+    private SessionsConfig sessions = new SessionsConfig();
 
     @Data
     public static class BrokerConfig {
@@ -34,5 +54,221 @@ public class MqttProperties {
         private int connectionTimeout = 30;
         private boolean automaticReconnect = true;
         private boolean cleanSession = false;
+        // Seconds; upper bound of the automatic reconnect back-off
+        private int maxReconnectDelay = 30;
     }
-}
\ No newline at end of file
+
+    @Data
+    public static class SharedSubscriptionConfig {
+        // MQTT v5 $share/{group}/{topic} subscriptions with per-instance client ids
+        private boolean enabled = false;
+        private String group = "mqtt-service";
+        // Stable id of this replica, appended to its client ids (defaults to the host name)
+        private String instanceId;
+        // Seconds the broker keeps a non-clean session after disconnect
+        private long sessionExpiryInterval = 300;
+    }
+
+    @Data
+    public static class ConnectionPoolConfig {
+        // Number of inbound MQTT connections (each with its own socket and callback thread)
+        private int size = 1;
+        // round-robin = sorted topics dealt over the connections, list = use topicGroups (one group per connection)
+        private TopicAssignment assignment = TopicAssignment.ROUND_ROBIN;
+        private List<List<String>> topicGroups = new ArrayList<>();
+    }
+
+    public enum TopicAssignment {
+        ROUND_ROBIN,
+        LIST
+    }
+
+    @Data
+    public static class IngestConfig {
+        // Parallel writer lanes; readings are hashed onto lanes by counter name
+        private int lanes = 4;
+        // Bounded buffer per lane between the MQTT callback thread and the DB writer
+        private int queueCapacity = 10000;
+        // A batch is flushed when it reaches this many rows...
+        private int batchSize = 500;
+        // ...or when its oldest row has waited this long
+        private long flushIntervalMs = 50;
+        // Attempts for a batch failing with a transient or unclassified error (back-off doubles from retryBackoffMs)
+        private int maxRetries = 3;
+        private long retryBackoffMs = 500;
+    }
+
+    @Data
+    public static class PersistenceConfig {
+        // Ids reserved per sequence round-trip (sequence INCREMENT BY is kept in sync)
+        private int idAllocationSize = 50;
+        // jpa = batched INSERTs through MqttDataRepository, copy = PostgreSQL COPY FROM STDIN
+        private WriteMode writeMode = WriteMode.JPA;
+    }
+
+    public enum WriteMode {
+        JPA,
+        COPY
+    }
+
+    @Data
+    public static class JournalConfig {
+        // Append every reading to a local write-ahead journal before it is acknowledged
+        private boolean enabled = false;
+        // One sub-directory per ingest lane
+        private String directory = "data/journal";
+        private int segmentSizeMb = 64;
+        // Appends block (back-pressure) once this many segments are waiting to be replayed
+        private int maxSegments = 64;
+        // Consumed segments kept mapped for reuse instead of being deleted
+        private int maxSpareSegments = 2;
+        // always = fsync each record, interval = fsync every fsync-interval-ms, never = leave it to the OS
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.ALWAYS;
+        private long fsyncIntervalMs = 100;
+        // First wait between replay attempts while the database is unavailable (doubles up to 30 s)
+        private long retryBackoffMs = 1000;
+    }
+
+    public enum FsyncPolicy {
+        ALWAYS,
+        INTERVAL,
+        NEVER
+    }
+
+    @Data
+    public static class LatestCacheConfig {
+        // Serve the "latest" endpoints from memory (ignored in shared-subscription mode)
+        private boolean enabled = true;
+        // Upper bound per map (devices / counters) against garbage ids
+        private int maxEntries = 10000;
+    }
+
+    @Data
+    public static class RegistryConfig {
+        // How often counts / last-seen deltas are upserted into mqtt_registry
+        private long flushIntervalMs = 5000;
+    }
+
+    @Data
+    public static class StatisticsConfig {
+        // How often the running record total is checked against pg_class.reltuples
+        private long reconcileIntervalMs = 60000;
+        // Relative drift after which the planner estimate replaces the running total
+        private double reconcileTolerance = 0.05;
+    }
+
+    @Data
+    public static class PartitioningConfig {
+        // Manage mqtt_data as a table range-partitioned on timestamp (converts an existing table once)
+        private boolean enabled = false;
+        private PartitionInterval interval = PartitionInterval.DAY;
+        // Partitions created ahead of the current one
+        private int premake = 7;
+        // 0 = keep everything; otherwise partitions entirely older than this are detached / dropped
+        private int retentionDays = 0;
+        private RetentionAction retentionAction = RetentionAction.DROP;
+        private String maintenanceCron = "0 5 0 * * *";
+    }
+
+    public enum PartitionInterval {
+        DAY,
+        WEEK
+    }
+
+    public enum RetentionAction {
+        DETACH,
+        DROP
+    }
+
+    @Data
+    public static class RollupConfig {
+        // Maintain mqtt_rollup_minute / mqtt_rollup_hour in the ingest transaction and aggregate from them
+        private boolean enabled = true;
+        // History older than the V5 migration is summarized one hour slice per transaction, with this pause in between
+        private long backfillPauseMs = 100;
+    }
+
+    @Data
+    public static class HistoryConfig {
+        // Rows per round-trip while streaming history off a server-side cursor
+        private int fetchSize = 1000;
+        // Upper bound for limit= on keyset-paginated history endpoints and for points= of downsampled ones
+        private int maxPageSize = 5000;
+        // Streamed reads open at once (each holds a pool connection while the client reads); more get 503
+        private int maxConcurrentStreams = 2;
+    }
+
+    @Data
+    public static class RecentWindowConfig {
+        // Keep the last N hours per device / counter in memory and serve range queries inside it from there
+        private boolean enabled = true;
+        private int hours = 6;
+        // Samples a new series starts with (grows by doubling)
+        private int initialCapacity = 256;
+        // Hard cap per series; the oldest samples go first
+        private int maxSamplesPerSeries = 100000;
+    }
+
+    @Data
+    public static class ArchiveConfig {
+        // Move raw rows older than olderThanDays into compressed per-counter, per-day chunks (mqtt_archive_chunk)
+        private boolean enabled = false;
+        private int olderThanDays = 30;
+        // Days archived per run at most (the first run on a large table catches up over several nights)
+        private int maxDaysPerRun = 7;
+        private String cron = "0 30 1 * * *";
+    }
+
+    @Data
+    public static class CompactionConfig {
+        // Summarize raw rows older than olderThanDays into mqtt_rollup_minute / _hour, then delete them
+        private boolean enabled = false;
+        private int olderThanDays = 90;
+        // Rows per keyset-ordered DELETE (one short transaction each)
+        private int batchSize = 5000;
+        // Pause between batches; ten times longer while the ingest queue holds more than maxIngestBacklog readings
+        private long pauseMs = 200;
+        private int maxIngestBacklog = 1000;
+        // A run stops after this long and resumes from the checkpoint next time
+        private int maxRunMinutes = 30;
+        private String cron = "0 15 2 * * *";
+    }
+
+    @Data
+    public static class CongestionConfig {
+        // sql = blocks computed by window functions in PostgreSQL, jvm = raw timeline streamed into CongestionEngine
+        private CongestionEngineType engine = CongestionEngineType.SQL;
+    }
+
+    public enum CongestionEngineType {
+        SQL,
+        JVM
+    }
+
+    @Data
+    public static class SessionsConfig {
+        // Per-counter session accumulators updated on ingest (today served from memory, snapshots at session close)
+        private boolean live = true;
+        // Daily service sessions, in order, not overlapping, not crossing midnight
+        private List<SessionWindow> windows = new ArrayList<>(List.of(
+                new SessionWindow("morning", LocalTime.of(6, 55), LocalTime.of(11, 25), false),
+                new SessionWindow("afternoon", LocalTime.of(11, 25), LocalTime.of(15, 25), false),
+                new SessionWindow("evening", LocalTime.of(15, 35), LocalTime.of(19, 0), true)
+        ));
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SessionWindow {
+        private String name;
+        private LocalTime start;
+        private LocalTime end;
+        // Readings at exactly the end time belong to the session
+        private boolean endInclusive;
+
+        public boolean contains(LocalTime time) {
+            return !time.isBefore(start) && (time.isBefore(end) || (endInclusive && time.equals(end)));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.bmsedge.mqtt.config;
+
+import com.bmsedge.mqtt.model.MqttDataIdGenerator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Persistence Configuration
+ * Wires the mqtt_data id sequence so Hibernate JDBC batching works,
+ * and the optional time partitioning of mqtt_data
+ */
+@Slf4j
+@Configuration
+@RequiredArgsConstructor
+public class PersistenceConfig {
+
+    private final MqttProperties mqttProperties;
+
+    /**
+     * Pass the configured allocation size to MqttDataIdGenerator
+     */
+    @Bean
+    public HibernatePropertiesCustomizer mqttIdAllocationCustomizer() {
+        return properties -> properties.put(
+                MqttDataIdGenerator.ALLOCATION_SIZE_SETTING,
+                mqttProperties.getPersistence().getIdAllocationSize()
+        );
+    }
+
+    /**
+     * Keeps the sequence increment at least the allocation size (after Flyway)
+     */
+    @Bean
+    @DependsOn("flywayInitializer")
+    public MqttDataSequenceInitializer mqttDataSequenceInitializer(JdbcTemplate jdbcTemplate) {
+        return new MqttDataSequenceInitializer(jdbcTemplate, mqttProperties.getPersistence().getIdAllocationSize());
+    }
+
+    /**
+     * Converts mqtt_data to a partitioned table (after the migrations: a
+     * partition may not carry an identity column)
+     */
+    @Bean
+    @DependsOn("mqttDataSequenceInitializer")
+    public MqttDataPartitionManager mqttDataPartitionManager(JdbcTemplate jdbcTemplate) {
+        return new MqttDataPartitionManager(jdbcTemplate, mqttProperties.getPartitioning());
+    }
+
+    /**
+     * Run the sequence sync and the partition bootstrap BEFORE Hibernate boots
+     */
+    @Configuration
+    static class SequenceBeforeEntityManagerFactory extends EntityManagerFactoryDependsOnPostProcessor {
+        SequenceBeforeEntityManagerFactory() {
+            super("mqttDataSequenceInitializer", "mqttDataPartitionManager");
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.bmsedge.mqtt.controller;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * History response format: rows (JSON objects), columnar JSON or binary
+ */
+enum HistoryFormat {
+    ROWS(MediaType.APPLICATION_JSON),
+    COLUMNAR(MediaType.parseMediaType(MqttDataController.COLUMNAR_JSON_VALUE)),
+    BINARY(MediaType.parseMediaType(MqttDataController.COLUMNAR_BINARY_VALUE));
+
+    /**
+     * Highest quality first; on equal quality a concrete type before a wildcard
+     */
+    private static final Comparator<MediaType> PREFERENCE = Comparator
+            .comparingDouble(MediaType::getQualityValue).reversed()
+            .thenComparing(type -> type.isWildcardType() || type.isWildcardSubtype());
+
+    private final MediaType mediaType;
+
+    HistoryFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    MediaType mediaType() {
+        return mediaType;
+    }
+
+    /**
+     * format= wins over Accept; null for an unknown format= value. Accept is
+     * parsed as media types (parameters and q-values honoured, q=0 excluded);
+     * anything else, a wildcard or an unparsable header gives ROWS.
+     */
+    static HistoryFormat resolve(String format, String accept) {
+        if (format != null) {
+            return switch (format.toLowerCase()) {
+                case "rows", "json" -> ROWS;
+                case "columnar" -> COLUMNAR;
+                case "binary" -> BINARY;
+                default -> null;
+            };
+        }
+        if (accept == null || accept.isBlank()) {
+            return ROWS;
+        }
+
+        List<MediaType> accepted;
+        try {
+            accepted = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return ROWS;
+        }
+        accepted.sort(PREFERENCE);
+
+        for (MediaType type : accepted) {
+            if (type.getQualityValue() == 0) {
+                continue;
+            }
+            for (HistoryFormat candidate : values()) {
+                if (candidate.mediaType.equalsTypeAndSubtype(type)) {
+                    return candidate;
+                }
+            }
+            if (type.includes(MediaType.APPLICATION_JSON)) {
+                return ROWS;
+            }
+        }
+        return ROWS;
+    }
+}
@@ -1,7 +1,9 @@
 package com.bmsedge.mqtt.controller;
 
 import com.bmsedge.mqtt.dto.MqttAggregationDTO;
+import com.bmsedge.mqtt.dto.SessionAggregate;
 import com.bmsedge.mqtt.service.MqttAggregationService;
+import com.bmsedge.mqtt.service.SessionAggregator;
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
@@ -9,6 +11,7 @@ import org.springframework.web.bind.annotation.*;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/mqtt-data/aggregate")
@@ -16,6 +19,7 @@ import java.util.List;
 public class MqttAggregationController {
 
     private final MqttAggregationService aggregationService;
+    private final SessionAggregator sessionAggregator;
 
     @GetMapping("/hourly")
     public List<MqttAggregationDTO> aggregateHourly(
@@ -31,4 +35,41 @@ public class MqttAggregationController {
 
         return aggregationService.aggregateHourly(from, to);
     }
+
+    @GetMapping("/per-minute")
+    public List<MqttAggregationDTO> aggregatePerMinute(
+            @RequestParam("counterName") String counterName,
+            @RequestParam("date")
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+            LocalDate date
+    ) {
+        return aggregationService.aggregatePerMinute(counterName, date.atStartOfDay(), date.atTime(23, 59, 59));
+    }
+
+    @GetMapping("/per-hour")
+    public List<MqttAggregationDTO> aggregatePerHour(
+            @RequestParam("counterName") String counterName,
+            @RequestParam("date")
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+            LocalDate date
+    ) {
+        return aggregationService.aggregatePerHour(counterName, date.atStartOfDay(), date.atTime(23, 59, 59));
+    }
+
+    /**
+     * Every counter in every service session of the day
+     */
+    @GetMapping("/sessions")
+    public List<SessionAggregate> aggregateSessions(
+            @RequestParam("date")
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+            LocalDate date
+    ) {
+        return aggregationService.aggregateSessions(date);
+    }
+
+    @GetMapping("/sessions/stats")
+    public Map<String, Object> getSessionStats() {
+        return sessionAggregator.getStats();
+    }
 }
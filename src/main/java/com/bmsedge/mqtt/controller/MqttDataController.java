@@ -1,20 +1,47 @@
 package com.bmsedge.mqtt.controller;
 
-import com.bmsedge.mqtt.model.MqttDataEntity;
-import com.bmsedge.mqtt.repository.MqttDataRepository;
+import com.bmsedge.mqtt.config.MqttInboundConnectionPool;
+import com.bmsedge.mqtt.dto.LatestReading;
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.bmsedge.mqtt.service.ColumnarChunk;
+import com.bmsedge.mqtt.service.LatestValueCache;
+import com.bmsedge.mqtt.service.MqttArchiveService;
+import com.bmsedge.mqtt.service.MqttCompactionService;
 import com.bmsedge.mqtt.service.MqttDataService;
+import com.bmsedge.mqtt.service.MqttHistoryService;
+import com.bmsedge.mqtt.service.MqttHistoryService.HistoryCursor;
+import com.bmsedge.mqtt.service.MqttHistoryService.HistoryFilter;
+import com.bmsedge.mqtt.service.MqttHistoryService.StreamSlot;
+import com.bmsedge.mqtt.service.MqttIngestPipeline;
+import com.bmsedge.mqtt.service.MqttKeyRegistry;
+import com.bmsedge.mqtt.service.MqttRollupBackfill;
+import com.bmsedge.mqtt.service.MqttStatistics;
+import com.bmsedge.mqtt.service.RecentWindowStore;
+import com.bmsedge.mqtt.service.SeriesDownsampler;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * MQTT Data REST Controller
@@ -28,20 +55,60 @@ import java.util.stream.Collectors;
 public class MqttDataController {
 
     private final MqttDataService mqttDataService;
-    private final MqttDataRepository mqttDataRepository;
+    private final MqttIngestPipeline ingestPipeline;
+    private final MqttInboundConnectionPool connectionPool;
+    private final LatestValueCache latestValueCache;
+    private final MqttKeyRegistry keyRegistry;
+    private final MqttStatistics statistics;
+    private final MqttRollupBackfill rollupBackfill;
+    private final MqttHistoryService historyService;
+    private final RecentWindowStore recentWindow;
+    private final MqttArchiveService archiveService;
+    private final MqttCompactionService compactionService;
+    private final ObjectMapper objectMapper;
+
+    private static final String SOURCE_CACHE = "cache";
+    private static final String SOURCE_DATABASE = "database";
+    private static final String SOURCE_RECENT_WINDOW = "recent-window";
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+
+    // Opt-in history representations (Accept header or format=columnar / binary)
+    public static final String COLUMNAR_JSON_VALUE = "application/vnd.bmsedge.columnar+json";
+    public static final String COLUMNAR_BINARY_VALUE = "application/vnd.bmsedge.columnar";
 
     /**
      * Get latest single record for a device
      * Used by LiveCounterStatusService.getCounterLiveStatus()
      *
-     * Returns direct entity fields (no wrapper) on success
+     * Returns direct row fields (no wrapper) on success, plus "source"
+     * (cache / recent-window / database) and "ageMs" (age of the reading)
      * Returns {"status": "not_found"} on failure
+     *
+     * asOf=<ISO timestamp>: the latest reading at or before that time instead
      */
     @GetMapping("/device/{deviceId}/latest")
-    public ResponseEntity<Map<String, Object>> getLatestByDevice(@PathVariable String deviceId) {
-        log.debug("📊 Fetching latest data for device: {}", deviceId);
-
-        MqttDataEntity data = mqttDataService.getLatestByDeviceId(deviceId);
+    public ResponseEntity<?> getLatestByDevice(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime asOf
+    ) {
+        log.debug("📊 Fetching latest data for device: {} (as of: {})", deviceId, asOf);
+
+        String source = SOURCE_CACHE;
+        MqttDataRow data;
+        if (asOf != null) {
+            source = SOURCE_RECENT_WINDOW;
+            data = recentWindow.asOf(HistoryFilter.device(deviceId, null, null, false), asOf);
+            if (data == null) {
+                source = SOURCE_DATABASE;
+                data = mqttDataService.getAsOfByDeviceId(deviceId, asOf);
+            }
+        } else {
+            data = latestValueCache.getByDevice(deviceId);
+            if (data == null) {
+                source = SOURCE_DATABASE;
+                data = mqttDataService.getLatestByDeviceId(deviceId);
+            }
+        }
 
         if (data == null) {
             // Return 404 with status field so LiveCounterStatusService knows it failed
@@ -52,22 +119,16 @@ public class MqttDataController {
         }
 
         // Return direct fields (no wrapper) - LiveCounterStatusService checks for absence of "status" field
-        Map<String, Object> response = new HashMap<>();
-        response.put("id", data.getId());
-        response.put("deviceId", data.getDeviceId());
-        response.put("counterName", data.getCounterName());
-        response.put("occupancy", data.getOccupancy());
-        response.put("inCount", data.getInCount());
-        response.put("waitTime", data.getWaitTime());
-        response.put("timestamp", data.getTimestamp());
-
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(latestReading(data, source));
     }
 
 
     @GetMapping("/recent")
-    public ResponseEntity<Map<String, Object>> getRecent(@RequestParam(defaultValue = "10") int limit) {
-        return getLatest(limit);  // Alias for /latest
+    public ResponseEntity<Map<String, Object>> getRecent(
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(required = false) String after
+    ) {
+        return getLatest(limit, after);  // Alias for /latest
     }
 
     /**
@@ -75,55 +136,51 @@ public class MqttDataController {
      * Used by LiveCounterStatusService.getOccupancyTrends()
      *
      * Returns {"status": "success", "data": [...]} format
+     * - range without after/limit: streamed, ascending (503 while mqtt.history.max-concurrent-streams are open)
+     * - otherwise one keyset page (default 1000 rows, newest first without a range) plus "nextCursor";
+     *   after=<timestamp>,<id> continues, limit= sets the page size
+     * - format=columnar / binary (or the matching Accept type): parallel columns, see ColumnarChunk
+     * - points=N (range only, 3 to mqtt.history.max-page-size): occupancy / wait time downsampled to about N points
+     *   (downsample=lttb, default, or minmax)
      */
     @GetMapping("/device/{deviceId}")
-    public ResponseEntity<Map<String, Object>> getAllByDevice(
+    public ResponseEntity<?> getAllByDevice(
             @PathVariable String deviceId,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String format,
+            @RequestHeader(value = "Accept", required = false) String accept,
+            @RequestParam(required = false) Integer points,
+            @RequestParam(defaultValue = "lttb") String downsample
     ) {
-        log.debug("📊 Fetching all data for device: {} (start: {}, end: {})", deviceId, startTime, endTime);
+        log.debug("📊 Fetching all data for device: {} (start: {}, end: {}, after: {}, limit: {})",
+                deviceId, startTime, endTime, after, limit);
 
-        List<MqttDataEntity> dataList;
+        boolean range = startTime != null && endTime != null;
+        HistoryFilter filter = range
+                ? HistoryFilter.device(deviceId, startTime, endTime, false)
+                : HistoryFilter.device(deviceId, null, null, true);
 
-        if (startTime != null && endTime != null) {
-            // Query with time range - need to add this to repository
-            dataList = mqttDataRepository.findByDeviceIdAndTimestampBetween(deviceId, startTime, endTime);
-        } else {
-            // Get all records for device
-            dataList = mqttDataRepository.findAllByDeviceId(deviceId);
+        if (points != null) {
+            return downsampled(filter, points, downsample, "deviceId", deviceId);
         }
 
-        // Convert to Map format expected by LiveCounterStatusService
-        List<Map<String, Object>> data = dataList.stream()
-                .map(this::entityToMap)
-                .collect(Collectors.toList());
-
-        // LiveCounterStatusService expects this exact format
-        Map<String, Object> response = new HashMap<>();
-        response.put("status", "success");
-        response.put("data", data);
-        response.put("count", data.size());
-        response.put("deviceId", deviceId);
-
-        return ResponseEntity.ok(response);
+        return history(filter, range && after == null && limit == null, after, limit, format, accept,
+                "deviceId", deviceId);
     }
 
     /**
      * Get latest records for multiple devices (useful for counter aggregation)
+     * Cache hits are served from memory; all misses are resolved in ONE query.
      */
     @GetMapping("/devices/latest")
     public ResponseEntity<Map<String, Object>> getLatestForDevices(@RequestParam List<String> deviceIds) {
         log.debug("📊 Fetching latest data for {} devices", deviceIds.size());
 
-        Map<String, Map<String, Object>> deviceDataMap = new HashMap<>();
-
-        for (String deviceId : deviceIds) {
-            MqttDataEntity data = mqttDataService.getLatestByDeviceId(deviceId);
-            if (data != null) {
-                deviceDataMap.put(deviceId, entityToMap(data));
-            }
-        }
+        Map<String, LatestReading> deviceDataMap =
+                latestFor(deviceIds, latestValueCache::getByDevice, mqttDataService::getLatestByDeviceIds);
 
         Map<String, Object> response = new HashMap<>();
         response.put("status", "success");
@@ -135,13 +192,50 @@ public class MqttDataController {
     }
 
     /**
-     * Get latest data by counter name
+     * Get latest records for multiple counters (one query for all cache misses)
      */
-    @GetMapping("/counter/{counterName}/latest")
-    public ResponseEntity<Map<String, Object>> getLatestByCounter(@PathVariable String counterName) {
-        log.debug("📊 Fetching latest data for counter: {}", counterName);
+    @GetMapping("/counters/latest")
+    public ResponseEntity<Map<String, Object>> getLatestForCounters(@RequestParam List<String> counterNames) {
+        log.debug("📊 Fetching latest data for {} counters", counterNames.size());
 
-        MqttDataEntity data = mqttDataService.getLatestByCounterName(counterName);
+        Map<String, LatestReading> counterDataMap =
+                latestFor(counterNames, latestValueCache::getByCounter, mqttDataService::getLatestByCounterNames);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("counters", counterDataMap);
+        response.put("requestedCount", counterNames.size());
+        response.put("foundCount", counterDataMap.size());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get latest data by counter name (asOf=<ISO timestamp>: at or before that time)
+     */
+    @GetMapping("/counter/{counterName}/latest")
+    public ResponseEntity<?> getLatestByCounter(
+            @PathVariable String counterName,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime asOf
+    ) {
+        log.debug("📊 Fetching latest data for counter: {} (as of: {})", counterName, asOf);
+
+        String source = SOURCE_CACHE;
+        MqttDataRow data;
+        if (asOf != null) {
+            source = SOURCE_RECENT_WINDOW;
+            data = recentWindow.asOf(HistoryFilter.counter(counterName, null, null, false), asOf);
+            if (data == null) {
+                source = SOURCE_DATABASE;
+                data = mqttDataService.getAsOfByCounterName(counterName, asOf);
+            }
+        } else {
+            data = latestValueCache.getByCounter(counterName);
+            if (data == null) {
+                source = SOURCE_DATABASE;
+                data = mqttDataService.getLatestByCounterName(counterName);
+            }
+        }
 
         if (data == null) {
             Map<String, Object> response = new HashMap<>();
@@ -150,73 +244,67 @@ public class MqttDataController {
             return ResponseEntity.status(404).body(response);
         }
 
-        return ResponseEntity.ok(entityToMap(data));
+        return ResponseEntity.ok(latestReading(data, source));
     }
 
     /**
      * Get all records for a counter within time range
+     * - range without after/limit: streamed (503 while mqtt.history.max-concurrent-streams are open)
+     * - no range: newest first, one keyset page (default 1000 rows) plus "nextCursor"
+     * - format=columnar / binary (or the matching Accept type): parallel columns, see ColumnarChunk
+     * - points=N (range only, 3 to mqtt.history.max-page-size): occupancy / wait time downsampled to about N points
+     *   (downsample=lttb, default, or minmax)
      */
     @GetMapping("/counter/{counterName}")
-    public ResponseEntity<Map<String, Object>> getAllByCounter(
+    public ResponseEntity<?> getAllByCounter(
             @PathVariable String counterName,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String format,
+            @RequestHeader(value = "Accept", required = false) String accept,
+            @RequestParam(required = false) Integer points,
+            @RequestParam(defaultValue = "lttb") String downsample
     ) {
-        log.debug("📊 Fetching all data for counter: {} (start: {}, end: {})", counterName, startTime, endTime);
+        log.debug("📊 Fetching all data for counter: {} (start: {}, end: {}, after: {}, limit: {})",
+                counterName, startTime, endTime, after, limit);
 
-        List<MqttDataEntity> dataList;
+        boolean range = startTime != null && endTime != null;
+        HistoryFilter filter = range
+                ? HistoryFilter.counter(counterName, startTime, endTime, false)
+                : HistoryFilter.counter(counterName, null, null, true);
 
-        if (startTime != null && endTime != null) {
-            dataList = mqttDataRepository.findByCounterAndTimestampRange(counterName, startTime, endTime);
-        } else {
-            dataList = mqttDataRepository.findLatestByCounterName(
-                    counterName,
-                    PageRequest.of(0, 1000) // Last 1000 records
-            );
+        if (points != null) {
+            return downsampled(filter, points, downsample, "counterName", counterName);
         }
 
-        List<Map<String, Object>> data = dataList.stream()
-                .map(this::entityToMap)
-                .collect(Collectors.toList());
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("status", "success");
-        response.put("data", data);
-        response.put("count", data.size());
-        response.put("counterName", counterName);
-
-        return ResponseEntity.ok(response);
+        return history(filter, range && after == null && limit == null, after, limit, format, accept,
+                "counterName", counterName);
     }
 
     /**
-     * Get latest records (for dashboard overview)
+     * Get latest records (for dashboard overview), newest first; pass the
+     * returned "nextCursor" as after= for the next page
      */
     @GetMapping("/latest")
-    public ResponseEntity<Map<String, Object>> getLatest(@RequestParam(defaultValue = "10") int limit) {
-        log.debug("📊 Fetching latest {} records", limit);
-
-        List<MqttDataEntity> dataList = mqttDataRepository.findRecentRecords(PageRequest.of(0, limit));
-
-        List<Map<String, Object>> data = dataList.stream()
-                .map(this::entityToMap)
-                .collect(Collectors.toList());
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("status", "success");
-        response.put("data", data);
-        response.put("count", data.size());
+    public ResponseEntity<Map<String, Object>> getLatest(
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(required = false) String after
+    ) {
+        log.debug("📊 Fetching latest {} records (after: {})", limit, after);
 
-        return ResponseEntity.ok(response);
+        return historyPage(HistoryFilter.all(true), after, limit, null, null);
     }
 
     /**
-     * Get all unique device IDs
+     * Get all unique device IDs (from the key registry)
      */
     @GetMapping("/devices")
     public ResponseEntity<Map<String, Object>> getAllDevices() {
         log.debug("📊 Fetching all device IDs");
 
-        List<String> devices = mqttDataRepository.findAllDeviceIds();
+        List<String> devices = keyRegistry.getDeviceIds();
 
         Map<String, Object> response = new HashMap<>();
         response.put("status", "success");
@@ -227,13 +315,13 @@ public class MqttDataController {
     }
 
     /**
-     * Get all unique counter names
+     * Get all unique counter names (from the key registry)
      */
     @GetMapping("/counters")
     public ResponseEntity<Map<String, Object>> getAllCounters() {
         log.debug("📊 Fetching all counter names");
 
-        List<String> counters = mqttDataRepository.findAllCounterNames();
+        List<String> counters = keyRegistry.getCounterNames();
 
         Map<String, Object> response = new HashMap<>();
         response.put("status", "success");
@@ -244,21 +332,20 @@ public class MqttDataController {
     }
 
     /**
-     * Get system statistics
+     * Get system statistics (maintained on ingest - no table scans)
      */
     @GetMapping("/stats")
     public ResponseEntity<Map<String, Object>> getStats() {
         log.debug("📊 Fetching system statistics");
 
         Map<String, Object> stats = new HashMap<>();
-        stats.put("totalRecords", mqttDataRepository.count());
-        stats.put("deviceCount", mqttDataRepository.findAllDeviceIds().size());
-        stats.put("counterCount", mqttDataRepository.findAllCounterNames().size());
-
-        List<MqttDataEntity> latest = mqttDataRepository.findRecentRecords(PageRequest.of(0, 1));
-        if (!latest.isEmpty()) {
-            stats.put("lastUpdate", latest.get(0).getTimestamp());
-        }
+        stats.put("totalRecords", statistics.totalRecords());
+        stats.put("deviceCount", keyRegistry.deviceCount());
+        stats.put("counterCount", keyRegistry.counterCount());
+        stats.put("lastUpdate", statistics.lastUpdate());
+        stats.put("ingestRate", statistics.getIngestRates());
+        stats.put("reconciledAt", statistics.reconciledAt());
+        stats.put("openHistoryStreams", historyService.openStreams());
 
         Map<String, Object> response = new HashMap<>();
         response.put("status", "success");
@@ -267,6 +354,138 @@ public class MqttDataController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Get the device / counter registry (first seen, last seen, message count)
+     */
+    @GetMapping("/registry")
+    public ResponseEntity<Map<String, Object>> getRegistry() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("devices", keyRegistry.getDeviceDetails());
+        response.put("counters", keyRegistry.getCounterDetails());
+        response.put("deviceCount", keyRegistry.deviceCount());
+        response.put("counterCount", keyRegistry.counterCount());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Rebuild the registry from mqtt_data history (full scan - maintenance only)
+     */
+    @PostMapping("/registry/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildRegistry() {
+        log.info("🔁 Rebuilding key registry from history");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("registry", keyRegistry.rebuild());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get archive statistics (chunks, compression ratio, decode throughput, last run)
+     */
+    @GetMapping("/archive/stats")
+    public ResponseEntity<Map<String, Object>> getArchiveStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("archive", archiveService.getStats());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Archive eligible days now instead of waiting for mqtt.archive.cron (maintenance only)
+     */
+    @PostMapping("/archive/run")
+    public ResponseEntity<Map<String, Object>> runArchive() {
+        log.info("📦 Archiving old history on request");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("run", archiveService.archive());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get compaction progress (checkpoint, rows compacted per second, last run)
+     */
+    @GetMapping("/compaction/stats")
+    public ResponseEntity<Map<String, Object>> getCompactionStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("compaction", compactionService.getStats());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Compact old raw rows now instead of waiting for mqtt.compaction.cron (maintenance only)
+     */
+    @PostMapping("/compaction/run")
+    public ResponseEntity<Map<String, Object>> runCompaction() {
+        log.info("🧹 Compacting old raw rows on request");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("run", compactionService.compact());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get rollup backfill progress (history older than the rollup tables, summarized after startup)
+     */
+    @GetMapping("/rollup/backfill")
+    public ResponseEntity<Map<String, Object>> getRollupBackfillStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("backfill", rollupBackfill.getStats());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get ingest pipeline statistics (queue depth, flush latency)
+     */
+    @GetMapping("/ingest/stats")
+    public ResponseEntity<Map<String, Object>> getIngestStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("ingest", ingestPipeline.getStats());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get recent-window store statistics (series, samples, bytes per sample)
+     */
+    @GetMapping("/recent-window")
+    public ResponseEntity<Map<String, Object>> getRecentWindow() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("recentWindow", recentWindow.getStats());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get per-connection MQTT inbound statistics (topics, throughput, reconnects)
+     */
+    @GetMapping("/connections")
+    public ResponseEntity<Map<String, Object>> getConnections() {
+        List<Map<String, Object>> connections = connectionPool.getStats();
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("connections", connections);
+        response.put("count", connections.size());
+
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Health check endpoint
      */
@@ -283,18 +502,246 @@ public class MqttDataController {
     // ==================== HELPER METHOD ====================
 
     /**
-     * Convert entity to Map format
+     * History as rows (default), columnar JSON or binary; streamed or one keyset page
+     */
+    private ResponseEntity<?> history(
+            HistoryFilter filter, boolean stream, String after, Integer limit,
+            String format, String accept, String keyName, String key
+    ) {
+        HistoryFormat historyFormat = HistoryFormat.resolve(format, accept);
+        if (historyFormat == null) {
+            return badRequest("Unknown format: " + format + " (rows, columnar, binary)");
+        }
+        if (historyFormat == HistoryFormat.ROWS && !stream) {
+            return historyPage(filter, after, limit, keyName, key);
+        }
+
+        StreamSlot slot = null;
+        if (stream) {
+            slot = historyService.tryOpenStream();
+            if (slot == null) {
+                return streamsBusy();
+            }
+        }
+        if (historyFormat == HistoryFormat.ROWS) {
+            return streamHistory(filter, slot, keyName, key);
+        }
+
+        HistoryCursor cursor;
+        try {
+            cursor = after != null ? HistoryCursor.parse(after) : null;
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+
+        StreamSlot streamSlot = slot;
+        Consumer<Consumer<MqttDataRow>> rows;
+        String nextCursor = null;
+        if (stream) {
+            rows = sink -> historyService.stream(filter, sink);
+        } else {
+            int pageSize = historyService.pageSize(limit != null ? limit : DEFAULT_PAGE_SIZE);
+            List<MqttDataRow> page = historyService.page(filter, cursor, pageSize);
+            nextCursor = page.size() < pageSize ? null : HistoryCursor.of(page.get(page.size() - 1)).toString();
+            rows = page::forEach;
+        }
+
+        String pageCursor = nextCursor;
+        StreamingResponseBody body = historyFormat == HistoryFormat.BINARY
+                ? out -> {
+                    try {
+                        ColumnarChunk.encodeBinary(rows, ColumnarChunk.DEFAULT_CAPACITY, out);
+                    } finally {
+                        release(streamSlot);
+                    }
+                }
+                : out -> {
+                    try (JsonGenerator json = objectMapper.createGenerator(out)) {
+                        json.writeStartObject();
+                        json.writeStringField("status", "success");
+                        json.writeStringField("format", "columnar");
+                        json.writeStringField(keyName, key);
+                        json.writeArrayFieldStart("chunks");
+                        long count = ColumnarChunk.encode(rows, ColumnarChunk.DEFAULT_CAPACITY, chunk -> chunk.writeJson(json));
+                        json.writeEndArray();
+                        json.writeNumberField("count", count);
+                        json.writeStringField("nextCursor", pageCursor);
+                        json.writeEndObject();
+                    } finally {
+                        release(streamSlot);
+                    }
+                };
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(historyFormat.mediaType());
+        if (pageCursor != null) {
+            response.header("X-Next-Cursor", pageCursor);
+        }
+        return response.body(body);
+    }
+
+    /**
+     * {"status", keyName: key, "method", "points", "sourceCount",
+     *  "occupancy": {"timestamps": [epoch ms], "values": [...]}, "waitTime": {...}}
+     */
+    private ResponseEntity<Map<String, Object>> downsampled(
+            HistoryFilter filter, int points, String method, String keyName, String key
+    ) {
+        if (filter.from() == null || filter.to() == null) {
+            return badRequest("points requires startTime and endTime");
+        }
+
+        SeriesDownsampler.Method downsampleMethod;
+        try {
+            downsampleMethod = SeriesDownsampler.Method.valueOf(method.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return badRequest("Unknown downsample method: " + method + " (lttb, minmax)");
+        }
+        if (points < 3) {
+            return badRequest("points must be at least 3");
+        }
+        if (points > historyService.maxPageSize()) {
+            return badRequest("points must be at most " + historyService.maxPageSize());
+        }
+
+        MqttHistoryService.Downsampled result;
+        try (StreamSlot slot = historyService.tryOpenStream()) {
+            if (slot == null) {
+                return streamsBusy();
+            }
+            result = historyService.downsample(filter, points, downsampleMethod);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put(keyName, key);
+        response.put("method", downsampleMethod.name().toLowerCase());
+        response.put("points", points);
+        response.put("sourceCount", result.sourceRows());
+        response.put("occupancy", result.occupancy());
+        response.put("waitTime", result.waitTime());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * One keyset page: {"status", "data", "count", "nextCursor", keyName: key}
+     * (nextCursor is null on the last page); 400 on a malformed cursor
      */
-    private Map<String, Object> entityToMap(MqttDataEntity entity) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("id", entity.getId());
-        map.put("deviceId", entity.getDeviceId());
-        map.put("counterName", entity.getCounterName());
-        map.put("occupancy", entity.getOccupancy());
-        map.put("inCount", entity.getInCount());
-        map.put("waitTime", entity.getWaitTime());
-        map.put("timestamp", entity.getTimestamp());
-        map.put("createdAt", entity.getCreatedAt());
-        return map;
-    }
-}
\ No newline at end of file
+    private ResponseEntity<Map<String, Object>> historyPage(
+            HistoryFilter filter, String after, Integer limit, String keyName, String key
+    ) {
+        HistoryCursor cursor;
+        try {
+            cursor = after != null ? HistoryCursor.parse(after) : null;
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+
+        int pageSize = historyService.pageSize(limit != null ? limit : DEFAULT_PAGE_SIZE);
+        List<MqttDataRow> data = historyService.page(filter, cursor, pageSize);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("data", data);
+        response.put("count", data.size());
+        response.put("nextCursor", data.size() < pageSize
+                ? null : HistoryCursor.of(data.get(data.size() - 1)).toString());
+        if (keyName != null) {
+            response.put(keyName, key);
+        }
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Same envelope as a page, written row by row while the cursor is read
+     * ("count" comes after "data")
+     */
+    private ResponseEntity<StreamingResponseBody> streamHistory(
+            HistoryFilter filter, StreamSlot slot, String keyName, String key
+    ) {
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = objectMapper.createGenerator(out)) {
+                json.writeStartObject();
+                json.writeStringField("status", "success");
+                json.writeStringField(keyName, key);
+                json.writeArrayFieldStart("data");
+                long count = historyService.stream(filter, row -> writeRow(json, row));
+                json.writeEndArray();
+                json.writeNumberField("count", count);
+                json.writeEndObject();
+            } finally {
+                slot.close();
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    /**
+     * 503 + Retry-After while mqtt.history.max-concurrent-streams streamed reads are open
+     */
+    private ResponseEntity<Map<String, Object>> streamsBusy() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        response.put("message", "Too many history streams open, retry shortly or page with limit=");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").body(response);
+    }
+
+    private static void release(StreamSlot slot) {
+        if (slot != null) {
+            slot.close();
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> badRequest(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        response.put("message", message);
+        return ResponseEntity.badRequest().body(response);
+    }
+
+    private void writeRow(JsonGenerator json, MqttDataRow row) {
+        try {
+            json.writeObject(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Latest value per key: cache first, then a single bulk query for the misses
+     */
+    private Map<String, LatestReading> latestFor(
+            List<String> keys,
+            Function<String, MqttDataRow> cached,
+            Function<Collection<String>, Map<String, MqttDataRow>> loader
+    ) {
+        Map<String, LatestReading> result = new HashMap<>();
+        Set<String> misses = new LinkedHashSet<>();
+
+        for (String key : keys) {
+            MqttDataRow data = cached.apply(key);
+            if (data != null) {
+                result.put(key, latestReading(data, SOURCE_CACHE));
+            } else {
+                misses.add(key);
+            }
+        }
+
+        loader.apply(misses).forEach((key, data) -> result.put(key, latestReading(data, SOURCE_DATABASE)));
+
+        return result;
+    }
+
+    /**
+     * Row plus where it came from and how old the reading is
+     */
+    private LatestReading latestReading(MqttDataRow row, String source) {
+        Long ageMs = row.timestamp() == null ? null
+                : Duration.between(row.timestamp(), LocalDateTime.now()).toMillis();
+        return new LatestReading(row, source, ageMs);
+    }
+}
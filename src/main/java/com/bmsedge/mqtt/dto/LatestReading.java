@@ -0,0 +1,16 @@
+package com.bmsedge.mqtt.dto;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+/**
+ * Latest row of a device / counter plus where it came from
+ *
+ * @param source cache or database
+ * @param ageMs  age of the reading (null without a timestamp)
+ */
+public record LatestReading(
+        @JsonUnwrapped MqttDataRow row,
+        String source,
+        Long ageMs
+) {
+}
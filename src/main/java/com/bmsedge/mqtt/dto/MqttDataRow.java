@@ -0,0 +1,35 @@
+package com.bmsedge.mqtt.dto;
+
+import com.bmsedge.mqtt.model.MqttDataEntity;
+
+import java.time.LocalDateTime;
+
+/**
+ * One mqtt_data row as returned by the REST read paths
+ * Immutable projection read straight from JDBC (no persistence context)
+ * and serialized as-is
+ */
+public record MqttDataRow(
+        Long id,
+        String deviceId,
+        String counterName,
+        Integer occupancy,
+        Integer inCount,
+        Double waitTime,
+        LocalDateTime timestamp,
+        LocalDateTime createdAt
+) {
+
+    public static MqttDataRow of(MqttDataEntity entity) {
+        return new MqttDataRow(
+                entity.getId(),
+                entity.getDeviceId(),
+                entity.getCounterName(),
+                entity.getOccupancy(),
+                entity.getInCount(),
+                entity.getWaitTime(),
+                entity.getTimestamp(),
+                entity.getCreatedAt()
+        );
+    }
+}
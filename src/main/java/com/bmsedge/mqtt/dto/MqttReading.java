@@ -0,0 +1,17 @@
+package com.bmsedge.mqtt.dto;
+
+/**
+ * Decoded MQTT reading
+ * Produced by MqttPayloadDecoder straight from the payload bytes
+ *
+ * @param waitTimeMinutes wait time already converted to minutes
+ *                        ("ready to serve" -> 0.0, "5 min" -> 5.0)
+ */
+public record MqttReading(
+        String deviceId,
+        String counterName,
+        int occupancy,
+        int inCount,
+        double waitTimeMinutes
+) {
+}
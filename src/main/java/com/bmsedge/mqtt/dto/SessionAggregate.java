@@ -0,0 +1,24 @@
+package com.bmsedge.mqtt.dto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * One counter in one service session of one day
+ * (max in-count, peak queue / wait, first and last reading, peak congestion
+ * block of the session; congestion is null when computed by the SQL fallback)
+ */
+public record SessionAggregate(
+        LocalDate day,
+        String session,
+        String counterName,
+        long samples,
+        Integer maxInCount,
+        Integer peakQueue,
+        Double peakWaitTime,
+        LocalDateTime firstTimestamp,
+        LocalDateTime lastTimestamp,
+        PeakCongestionDTO peakCongestion,
+        Double weightedCongestionIndex
+) {
+}
@@ -5,6 +5,8 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import java.time.LocalDateTime;
 
@@ -20,8 +22,21 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class MqttDataEntity {
 
+    /**
+     * Pooled sequence ids (NOT identity) so Hibernate can batch inserts.
+     * Allocation size comes from mqtt.persistence.id-allocation-size.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = MqttDataIdGenerator.GENERATOR_NAME)
+    @GenericGenerator(
+            name = MqttDataIdGenerator.GENERATOR_NAME,
+            type = MqttDataIdGenerator.class,
+            parameters = {
+                    @Parameter(name = "sequence_name", value = MqttDataIdGenerator.SEQUENCE_NAME),
+                    @Parameter(name = "optimizer", value = "pooled-lo"),
+                    @Parameter(name = "increment_size", value = "50")
+            }
+    )
     private Long id;
 
     @Column(name = "device_id", nullable = false)
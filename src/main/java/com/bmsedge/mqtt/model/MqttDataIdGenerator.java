@@ -0,0 +1,42 @@
+package com.bmsedge.mqtt.model;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Properties;
+
+/**
+ * MQTT Data ID Generator
+ * Pooled-lo sequence generator whose allocation size can be overridden
+ * from configuration (annotation values are compile-time constants).
+ *
+ * One nextval() reserves a block of {@code increment_size} ids, so a batch
+ * of N inserts needs roughly N / allocationSize sequence round-trips and the
+ * inserts themselves can go out as a single JDBC batch.
+ */
+public class MqttDataIdGenerator extends SequenceStyleGenerator {
+
+    public static final String GENERATOR_NAME = "mqtt_data_id_generator";
+    public static final String SEQUENCE_NAME = "mqtt_data_seq";
+
+    /**
+     * Hibernate setting carrying the configured allocation size
+     */
+    public static final String ALLOCATION_SIZE_SETTING = "mqtt.id_allocation_size";
+
+    @Override
+    public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) throws MappingException {
+        Object allocationSize = serviceRegistry.getService(ConfigurationService.class)
+                .getSettings()
+                .get(ALLOCATION_SIZE_SETTING);
+
+        if (allocationSize != null) {
+            parameters.setProperty(INCREMENT_PARAM, allocationSize.toString());
+        }
+
+        super.configure(type, parameters, serviceRegistry);
+    }
+}
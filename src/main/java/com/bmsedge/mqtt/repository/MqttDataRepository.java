@@ -1,7 +1,6 @@
 package com.bmsedge.mqtt.repository;
 
 import com.bmsedge.mqtt.model.MqttDataEntity;
-import com.bmsedge.mqtt.repository.view.CongestionTimelineView;
 import com.bmsedge.mqtt.repository.view.MqttAggregationView;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -19,33 +18,6 @@ public interface MqttDataRepository extends JpaRepository<MqttDataEntity, Long>
        BASIC FETCH QUERIES (JPQL) - Used by LiveCounterStatusService
        ============================================================ */
 
-    @Query("""
-        SELECT m FROM MqttDataEntity m
-        WHERE m.deviceId = :deviceId
-        ORDER BY m.timestamp DESC
-    """)
-    List<MqttDataEntity> findLatestByDeviceId(
-            @Param("deviceId") String deviceId,
-            Pageable pageable
-    );
-
-    @Query("""
-        SELECT m FROM MqttDataEntity m
-        WHERE m.counterName = :counterName
-        ORDER BY m.timestamp DESC
-    """)
-    List<MqttDataEntity> findLatestByCounterName(
-            @Param("counterName") String counterName,
-            Pageable pageable
-    );
-
-    @Query("""
-        SELECT m FROM MqttDataEntity m
-        WHERE m.deviceId = :deviceId
-        ORDER BY m.timestamp DESC
-    """)
-    List<MqttDataEntity> findAllByDeviceId(@Param("deviceId") String deviceId);
-
     /**
      * NEW: Find all records for device within time range
      * Used by LiveCounterStatusService for trend analysis
@@ -113,13 +85,13 @@ public interface MqttDataRepository extends JpaRepository<MqttDataEntity, Long>
     @Query(
             value = """
             SELECT
-                date_trunc('minute', timestamp) AS periodStart,
+                TO_CHAR(date_trunc('minute', timestamp), 'YYYY-MM-DD HH24:MI:SS') AS periodStart,
                 SUM(in_count) AS totalCount
             FROM mqtt_data
             WHERE counter_name = :counterName
               AND timestamp BETWEEN :from AND :to
             GROUP BY date_trunc('minute', timestamp)
-            ORDER BY periodStart
+            ORDER BY date_trunc('minute', timestamp)
         """,
             nativeQuery = true
     )
@@ -129,58 +101,107 @@ public interface MqttDataRepository extends JpaRepository<MqttDataEntity, Long>
             @Param("to") LocalDateTime to
     );
 
+    /* ============================================================
+       AGGREGATIONS FROM ROLLUPS (mqtt_rollup_minute / mqtt_rollup_hour)
+       Whole buckets inside [from, to] come from the rollups; only the
+       partial buckets at the window edges are read from mqtt_data.
+       ============================================================ */
+
+    /**
+     * Per-minute in-count totals for a counter
+     */
     @Query(
             value = """
+        WITH buckets AS (
+            SELECT bucket, sum_in_count
+            FROM mqtt_rollup_minute
+            WHERE counter_name = :counterName
+              AND bucket >= date_trunc('minute', CAST(:from AS timestamp) + INTERVAL '1 minute' - INTERVAL '1 microsecond')
+              AND bucket <  date_trunc('minute', CAST(:to AS timestamp) + INTERVAL '1 microsecond')
+            UNION ALL
+            SELECT date_trunc('minute', timestamp), COALESCE(in_count, 0)
+            FROM mqtt_data
+            WHERE counter_name = :counterName
+              AND timestamp BETWEEN :from AND :to
+              AND (   timestamp <  date_trunc('minute', CAST(:from AS timestamp) + INTERVAL '1 minute' - INTERVAL '1 microsecond')
+                   OR timestamp >= date_trunc('minute', CAST(:to AS timestamp) + INTERVAL '1 microsecond'))
+        )
         SELECT
-            s.counter_name AS counterName,
-            SUM(s.session_max) AS totalCount,
-            MAX(s.peak_queue) AS peakQueue,
-            MAX(s.peak_wait_time) AS peakWaitTime,
-            TO_CHAR(MIN(s.min_timestamp), 'YYYY-MM-DD HH24:MI:SS') AS periodStart
-        FROM (
-            SELECT
-                counter_name,
-                MAX(in_count) AS session_max,
-                MAX(occupancy) AS peak_queue,
-                MAX(wait_time) AS peak_wait_time,
-                MIN(timestamp) AS min_timestamp
+            TO_CHAR(bucket, 'YYYY-MM-DD HH24:MI:SS') AS periodStart,
+            CAST(SUM(sum_in_count) AS bigint) AS totalCount
+        FROM buckets
+        GROUP BY bucket
+        ORDER BY bucket
+    """,
+            nativeQuery = true
+    )
+    List<MqttAggregationView> aggregatePerMinuteFromRollups(
+            @Param("counterName") String counterName,
+            @Param("from") LocalDateTime from,
+            @Param("to") LocalDateTime to
+    );
+
+    /**
+     * Per-hour in-count totals for a counter: whole hours from mqtt_rollup_hour,
+     * edge hours from minute rollups (+ raw rows for edge minutes)
+     */
+    @Query(
+            value = """
+        WITH buckets AS (
+            SELECT bucket, sum_in_count
+            FROM mqtt_rollup_hour
+            WHERE counter_name = :counterName
+              AND bucket >= date_trunc('hour', CAST(:from AS timestamp) + INTERVAL '1 hour' - INTERVAL '1 microsecond')
+              AND bucket <  date_trunc('hour', CAST(:to AS timestamp) + INTERVAL '1 microsecond')
+            UNION ALL
+            SELECT bucket, sum_in_count
+            FROM mqtt_rollup_minute
+            WHERE counter_name = :counterName
+              AND bucket >= date_trunc('minute', CAST(:from AS timestamp) + INTERVAL '1 minute' - INTERVAL '1 microsecond')
+              AND bucket <  date_trunc('minute', CAST(:to AS timestamp) + INTERVAL '1 microsecond')
+              AND (   bucket <  date_trunc('hour', CAST(:from AS timestamp) + INTERVAL '1 hour' - INTERVAL '1 microsecond')
+                   OR bucket >= date_trunc('hour', CAST(:to AS timestamp) + INTERVAL '1 microsecond'))
+            UNION ALL
+            SELECT timestamp, COALESCE(in_count, 0)
             FROM mqtt_data
-            WHERE timestamp BETWEEN :from AND :to
-              AND (
-                    (CAST(timestamp AS time) >= TIME '06:55' AND CAST(timestamp AS time) < TIME '11:25')
-                 OR (CAST(timestamp AS time) >= TIME '11:25' AND CAST(timestamp AS time) < TIME '15:25')
-                 OR (CAST(timestamp AS time) >= TIME '15:35' AND CAST(timestamp AS time) <= TIME '19:00')
-              )
-            GROUP BY
-                counter_name,
-                CASE
-                    WHEN CAST(timestamp AS time) >= TIME '06:55' AND CAST(timestamp AS time) < TIME '11:25' THEN 1
-                    WHEN CAST(timestamp AS time) >= TIME '11:25' AND CAST(timestamp AS time) < TIME '15:25' THEN 2
-                    WHEN CAST(timestamp AS time) >= TIME '15:35' AND CAST(timestamp AS time) <= TIME '19:00' THEN 3
-                END
-        ) s
-        GROUP BY s.counter_name
+            WHERE counter_name = :counterName
+              AND timestamp BETWEEN :from AND :to
+              AND (   timestamp <  date_trunc('minute', CAST(:from AS timestamp) + INTERVAL '1 minute' - INTERVAL '1 microsecond')
+                   OR timestamp >= date_trunc('minute', CAST(:to AS timestamp) + INTERVAL '1 microsecond'))
+        )
+        SELECT
+            TO_CHAR(date_trunc('hour', bucket), 'YYYY-MM-DD HH24:MI:SS') AS periodStart,
+            CAST(SUM(sum_in_count) AS bigint) AS totalCount
+        FROM buckets
+        GROUP BY date_trunc('hour', bucket)
+        ORDER BY date_trunc('hour', bucket)
     """,
             nativeQuery = true
     )
-    List<MqttAggregationView> aggregateHourly(
+    List<MqttAggregationView> aggregatePerHourFromRollups(
+            @Param("counterName") String counterName,
             @Param("from") LocalDateTime from,
             @Param("to") LocalDateTime to
     );
 
+    /**
+     * Per-hour in-count totals for a counter (raw rows)
+     */
     @Query(
             value = """
         SELECT
-            counter_name AS counterName,
-            timestamp     AS timestamp,
-            wait_time     AS waitTime
+            TO_CHAR(date_trunc('hour', timestamp), 'YYYY-MM-DD HH24:MI:SS') AS periodStart,
+            SUM(in_count) AS totalCount
         FROM mqtt_data
-        WHERE timestamp BETWEEN :from AND :to
-        ORDER BY counter_name, timestamp
+        WHERE counter_name = :counterName
+          AND timestamp BETWEEN :from AND :to
+        GROUP BY date_trunc('hour', timestamp)
+        ORDER BY date_trunc('hour', timestamp)
     """,
             nativeQuery = true
     )
-    List<CongestionTimelineView> fetchCongestionTimeline(
+    List<MqttAggregationView> aggregatePerHour(
+            @Param("counterName") String counterName,
             @Param("from") LocalDateTime from,
             @Param("to") LocalDateTime to
     );
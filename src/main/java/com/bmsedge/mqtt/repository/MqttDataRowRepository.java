@@ -0,0 +1,227 @@
+package com.bmsedge.mqtt.repository;
+
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Read-only mqtt_data queries for the REST read paths
+ * Plain JDBC into MqttDataRow records: no entities, no persistence context,
+ * no dirty tracking. Writes stay on MqttDataRepository / MqttDataWriter.
+ */
+@Repository
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class MqttDataRowRepository {
+
+    public static final String COLUMNS =
+            "id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at";
+
+    public static final RowMapper<MqttDataRow> ROW_MAPPER = (rs, rowNum) -> new MqttDataRow(
+            rs.getLong("id"),
+            rs.getString("device_id"),
+            rs.getString("counter_name"),
+            (Integer) rs.getObject("occupancy"),
+            (Integer) rs.getObject("in_count"),
+            (Double) rs.getObject("wait_time"),
+            rs.getObject("timestamp", LocalDateTime.class),
+            rs.getObject("created_at", LocalDateTime.class)
+    );
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public Optional<MqttDataRow> findLatestByDeviceId(String deviceId) {
+        return jdbcTemplate.query("""
+                SELECT %s FROM mqtt_data
+                WHERE device_id = :key
+                ORDER BY timestamp DESC, id DESC
+                LIMIT 1
+                """.formatted(COLUMNS), new MapSqlParameterSource("key", deviceId), ROW_MAPPER)
+                .stream().findFirst();
+    }
+
+    public Optional<MqttDataRow> findLatestByCounterName(String counterName) {
+        return jdbcTemplate.query("""
+                SELECT %s FROM mqtt_data
+                WHERE counter_name = :key
+                ORDER BY timestamp DESC, id DESC
+                LIMIT 1
+                """.formatted(COLUMNS), new MapSqlParameterSource("key", counterName), ROW_MAPPER)
+                .stream().findFirst();
+    }
+
+    /**
+     * Latest row at or before the given time (as-of lookup)
+     */
+    public Optional<MqttDataRow> findAsOfByDeviceId(String deviceId, LocalDateTime at) {
+        return jdbcTemplate.query("""
+                SELECT %s FROM mqtt_data
+                WHERE device_id = :key AND timestamp <= :at
+                ORDER BY timestamp DESC, id DESC
+                LIMIT 1
+                """.formatted(COLUMNS), new MapSqlParameterSource("key", deviceId).addValue("at", at), ROW_MAPPER)
+                .stream().findFirst();
+    }
+
+    public Optional<MqttDataRow> findAsOfByCounterName(String counterName, LocalDateTime at) {
+        return jdbcTemplate.query("""
+                SELECT %s FROM mqtt_data
+                WHERE counter_name = :key AND timestamp <= :at
+                ORDER BY timestamp DESC, id DESC
+                LIMIT 1
+                """.formatted(COLUMNS), new MapSqlParameterSource("key", counterName).addValue("at", at), ROW_MAPPER)
+                .stream().findFirst();
+    }
+
+    /**
+     * Latest row for each of the given devices / counters in ONE statement
+     */
+    public List<MqttDataRow> findLatestByDeviceIds(Collection<String> deviceIds) {
+        return jdbcTemplate.query("""
+                SELECT DISTINCT ON (device_id) %s FROM mqtt_data
+                WHERE device_id IN (:keys)
+                ORDER BY device_id, timestamp DESC, id DESC
+                """.formatted(COLUMNS), new MapSqlParameterSource("keys", deviceIds), ROW_MAPPER);
+    }
+
+    public List<MqttDataRow> findLatestByCounterNames(Collection<String> counterNames) {
+        return jdbcTemplate.query("""
+                SELECT DISTINCT ON (counter_name) %s FROM mqtt_data
+                WHERE counter_name IN (:keys)
+                ORDER BY counter_name, timestamp DESC, id DESC
+                """.formatted(COLUMNS), new MapSqlParameterSource("keys", counterNames), ROW_MAPPER);
+    }
+
+    /**
+     * Latest row of every device / counter (latest-value cache warm-up)
+     */
+    public List<MqttDataRow> findLatestPerDevice() {
+        return jdbcTemplate.query("""
+                SELECT DISTINCT ON (device_id) %s FROM mqtt_data
+                WHERE device_id IS NOT NULL
+                ORDER BY device_id, timestamp DESC, id DESC
+                """.formatted(COLUMNS), ROW_MAPPER);
+    }
+
+    public List<MqttDataRow> findLatestPerCounter() {
+        return jdbcTemplate.query("""
+                SELECT DISTINCT ON (counter_name) %s FROM mqtt_data
+                WHERE counter_name IS NOT NULL
+                ORDER BY counter_name, timestamp DESC, id DESC
+                """.formatted(COLUMNS), ROW_MAPPER);
+    }
+
+    /**
+     * Every row with timestamp >= from, oldest first, off a server-side cursor
+     * (recent-window store warm-up)
+     */
+    public void streamSince(LocalDateTime from, int fetchSize, Consumer<MqttDataRow> sink) {
+        int[] rowNum = new int[1];
+        jdbcTemplate.getJdbcOperations().query(con -> {
+            var statement = con.prepareStatement("""
+                    SELECT %s FROM mqtt_data
+                    WHERE timestamp >= ?
+                    ORDER BY timestamp ASC, id ASC
+                    """.formatted(COLUMNS));
+            statement.setFetchSize(fetchSize);
+            statement.setObject(1, from);
+            return statement;
+        }, rs -> {
+            sink.accept(ROW_MAPPER.mapRow(rs, rowNum[0]++));
+        });
+    }
+
+    /**
+     * (counter, timestamp, wait time) of every row in [from, to], by counter and
+     * time, handed over as it comes off a server-side cursor (congestion input)
+     */
+    public void streamCongestionTimeline(LocalDateTime from, LocalDateTime to, int fetchSize,
+                                         TimelineConsumer consumer) {
+        jdbcTemplate.getJdbcOperations().query(con -> {
+            var statement = con.prepareStatement("""
+                    SELECT counter_name, timestamp, wait_time FROM mqtt_data
+                    WHERE timestamp BETWEEN ? AND ?
+                    ORDER BY counter_name, timestamp, id
+                    """);
+            statement.setFetchSize(fetchSize);
+            statement.setObject(1, from);
+            statement.setObject(2, to);
+            return statement;
+        }, rs -> {
+            consumer.accept(
+                    rs.getString(1),
+                    rs.getObject(2, LocalDateTime.class),
+                    (Double) rs.getObject(3));
+        });
+    }
+
+    /**
+     * Congestion blocks of [from, to] computed in the database (gaps and islands):
+     * weight per reading, a new block wherever the weight differs from the
+     * previous reading's (LAG), block number = running sum of those boundaries.
+     * Same scale and block semantics as CongestionEngine; only blocks are returned.
+     *
+     * @param congestedOnly skip weight-0 blocks (peak detection needs none)
+     */
+    public List<CongestionBlockRow> findCongestionBlocks(LocalDateTime from, LocalDateTime to, boolean congestedOnly) {
+        return jdbcTemplate.query("""
+                WITH weighted AS (
+                    SELECT id, counter_name, timestamp, COALESCE(wait_time, 0) AS wait,
+                           CASE
+                               WHEN COALESCE(wait_time, 0) <= 2 THEN 0
+                               WHEN wait_time = 3 THEN 0
+                               WHEN wait_time = 4 THEN 1
+                               WHEN wait_time <= 8 THEN 2
+                               WHEN wait_time <= 12 THEN 3
+                               ELSE 5
+                           END AS weight
+                    FROM mqtt_data
+                    WHERE timestamp BETWEEN :from AND :to
+                ), boundaries AS (
+                    SELECT counter_name, timestamp, wait, weight,
+                           CASE WHEN weight IS DISTINCT FROM LAG(weight) OVER timeline THEN 1 ELSE 0 END AS boundary,
+                           id
+                    FROM weighted
+                    WINDOW timeline AS (PARTITION BY counter_name ORDER BY timestamp, id)
+                ), islands AS (
+                    SELECT counter_name, timestamp, wait, weight,
+                           SUM(boundary) OVER (PARTITION BY counter_name ORDER BY timestamp, id
+                                               ROWS UNBOUNDED PRECEDING) AS block
+                    FROM boundaries
+                )
+                SELECT counter_name, weight, MIN(timestamp) AS start_ts, MAX(timestamp) AS end_ts, MAX(wait) AS max_wait
+                FROM islands
+                WHERE weight > 0 OR NOT :congestedOnly
+                GROUP BY counter_name, block, weight
+                ORDER BY counter_name, block
+                """, new MapSqlParameterSource("from", from).addValue("to", to).addValue("congestedOnly", congestedOnly),
+                (rs, rowNum) -> new CongestionBlockRow(
+                        rs.getString("counter_name"),
+                        rs.getInt("weight"),
+                        rs.getObject("start_ts", LocalDateTime.class),
+                        rs.getObject("end_ts", LocalDateTime.class),
+                        rs.getDouble("max_wait")));
+    }
+
+    /**
+     * One congestion block: readings start..end of one weight, highest wait among them
+     */
+    public record CongestionBlockRow(String counterName, int weight, LocalDateTime start, LocalDateTime end,
+                                     double maxWait) {
+    }
+
+    @FunctionalInterface
+    public interface TimelineConsumer {
+        void accept(String counterName, LocalDateTime timestamp, Double waitTime);
+    }
+}
@@ -0,0 +1,224 @@
+package com.bmsedge.mqtt.repository;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.dto.PeakCongestionDTO;
+import com.bmsedge.mqtt.dto.SessionAggregate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Session aggregates: snapshots written at session close
+ * (mqtt_session_snapshot / mqtt_session_close) and the SQL fallback that
+ * computes them from mqtt_data (or the minute rollups) for days without
+ * complete snapshots
+ */
+@Repository
+@RequiredArgsConstructor
+public class SessionSnapshotRepository {
+
+    private static final String UPSERT_SQL = """
+            INSERT INTO mqtt_session_snapshot (day, session, counter_name, samples, max_in_count, peak_queue,
+                                               peak_wait, first_ts, last_ts, congestion_level, congestion_weight,
+                                               congestion_start, congestion_end, congestion_minutes,
+                                               congestion_peak_wait, weighted_index)
+            VALUES (:day, :session, :counterName, :samples, :maxInCount, :peakQueue, :peakWait, :firstTs, :lastTs,
+                    :level, :weight, :start, :end, :minutes, :blockWait, :weightedIndex)
+            ON CONFLICT (day, session, counter_name) DO UPDATE SET
+                samples = EXCLUDED.samples, max_in_count = EXCLUDED.max_in_count, peak_queue = EXCLUDED.peak_queue,
+                peak_wait = EXCLUDED.peak_wait, first_ts = EXCLUDED.first_ts, last_ts = EXCLUDED.last_ts,
+                congestion_level = EXCLUDED.congestion_level, congestion_weight = EXCLUDED.congestion_weight,
+                congestion_start = EXCLUDED.congestion_start, congestion_end = EXCLUDED.congestion_end,
+                congestion_minutes = EXCLUDED.congestion_minutes,
+                congestion_peak_wait = EXCLUDED.congestion_peak_wait, weighted_index = EXCLUDED.weighted_index
+            """;
+
+    // Raw readings, one row each
+    private static final String RAW_READINGS = """
+            SELECT counter_name, timestamp AS ts, in_count AS max_in, occupancy AS max_occ, wait_time AS max_wait,
+                   timestamp AS first_ts, timestamp AS last_ts, 1 AS samples
+            FROM mqtt_data
+            WHERE timestamp BETWEEN :from AND :to
+            """;
+
+    // Whole minutes from mqtt_rollup_minute, partial minutes at the window edges from mqtt_data
+    private static final String ROLLUP_READINGS = """
+            SELECT counter_name, bucket AS ts, max_in_count AS max_in, max_occupancy AS max_occ, max_wait,
+                   first_ts, last_ts, samples
+            FROM mqtt_rollup_minute
+            WHERE bucket >= date_trunc('minute', CAST(:from AS timestamp) + INTERVAL '1 minute' - INTERVAL '1 microsecond')
+              AND bucket <  date_trunc('minute', CAST(:to AS timestamp) + INTERVAL '1 microsecond')
+            UNION ALL
+            SELECT counter_name, date_trunc('minute', timestamp), MAX(in_count), MAX(occupancy), MAX(wait_time),
+                   MIN(timestamp), MAX(timestamp), COUNT(*)
+            FROM mqtt_data
+            WHERE timestamp BETWEEN :from AND :to
+              AND (   timestamp <  date_trunc('minute', CAST(:from AS timestamp) + INTERVAL '1 minute' - INTERVAL '1 microsecond')
+                   OR timestamp >= date_trunc('minute', CAST(:to AS timestamp) + INTERVAL '1 microsecond'))
+            GROUP BY counter_name, date_trunc('minute', timestamp)
+            """;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Write one closed session (all its counters) and mark it complete
+     */
+    @Transactional
+    public void save(LocalDate day, String session, List<SessionAggregate> aggregates) {
+        MapSqlParameterSource[] batch = aggregates.stream().map(aggregate -> {
+            PeakCongestionDTO peak = aggregate.peakCongestion();
+            return new MapSqlParameterSource("day", day)
+                    .addValue("session", session)
+                    .addValue("counterName", aggregate.counterName())
+                    .addValue("samples", aggregate.samples())
+                    .addValue("maxInCount", aggregate.maxInCount())
+                    .addValue("peakQueue", aggregate.peakQueue())
+                    .addValue("peakWait", aggregate.peakWaitTime())
+                    .addValue("firstTs", aggregate.firstTimestamp())
+                    .addValue("lastTs", aggregate.lastTimestamp())
+                    .addValue("level", peak != null ? peak.getLevel() : null)
+                    .addValue("weight", peak != null ? peak.getWeight() : null)
+                    .addValue("start", peak != null ? peak.getStart() : null)
+                    .addValue("end", peak != null ? peak.getEnd() : null)
+                    .addValue("minutes", peak != null ? peak.getDurationMinutes() : null)
+                    .addValue("blockWait", peak != null ? peak.getPeakWaitTimeInBlock() : null)
+                    .addValue("weightedIndex", aggregate.weightedCongestionIndex());
+        }).toArray(MapSqlParameterSource[]::new);
+
+        if (batch.length > 0) {
+            jdbcTemplate.batchUpdate(UPSERT_SQL, batch);
+        }
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_session_close (day, session) VALUES (:day, :session)
+                ON CONFLICT (day, session) DO UPDATE SET closed_at = now()
+                """, new MapSqlParameterSource("day", day).addValue("session", session));
+    }
+
+    /**
+     * Mark a closed session incomplete again (a late reading arrived), so the
+     * day is computed from stored readings until it is snapshotted anew
+     *
+     * @return whether the session was closed
+     */
+    @Transactional
+    public boolean reopen(LocalDate day, String session) {
+        return jdbcTemplate.update("DELETE FROM mqtt_session_close WHERE day = :day AND session = :session",
+                new MapSqlParameterSource("day", day).addValue("session", session)) > 0;
+    }
+
+    @Transactional(readOnly = true)
+    public List<SessionAggregate> findByDay(LocalDate day) {
+        return jdbcTemplate.query("""
+                SELECT * FROM mqtt_session_snapshot
+                WHERE day = :day
+                ORDER BY counter_name, first_ts
+                """, new MapSqlParameterSource("day", day), (rs, rowNum) -> snapshot(rs));
+    }
+
+    /**
+     * Sessions of the day whose snapshot is complete
+     */
+    @Transactional(readOnly = true)
+    public Set<String> findClosedSessions(LocalDate day) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT session FROM mqtt_session_close WHERE day = :day",
+                new MapSqlParameterSource("day", day), String.class));
+    }
+
+    /**
+     * Session aggregates of [from, to] computed from stored readings, without
+     * congestion; each reading (or rollup minute) counts for the first window
+     * containing its time of day
+     */
+    @Transactional(readOnly = true)
+    public List<SessionAggregate> aggregate(LocalDateTime from, LocalDateTime to,
+                                            List<MqttProperties.SessionWindow> windows, boolean fromRollups) {
+        if (windows.isEmpty()) {
+            return List.of();
+        }
+        MapSqlParameterSource params = new MapSqlParameterSource("from", from).addValue("to", to);
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < windows.size(); i++) {
+            MqttProperties.SessionWindow window = windows.get(i);
+            values.append(i == 0 ? "" : ", ")
+                    .append("(").append(i).append(", CAST(:name").append(i).append(" AS varchar)")
+                    .append(", CAST(:start").append(i).append(" AS time)")
+                    .append(", CAST(:end").append(i).append(" AS time)")
+                    .append(", CAST(:inclusive").append(i).append(" AS boolean))");
+            params.addValue("name" + i, window.getName())
+                    .addValue("start" + i, window.getStart())
+                    .addValue("end" + i, window.getEnd())
+                    .addValue("inclusive" + i, window.isEndInclusive());
+        }
+
+        String sql = """
+                WITH sessions (ord, name, start_time, end_time, end_inclusive) AS (
+                    VALUES %s
+                ), readings AS (
+                    %s
+                )
+                SELECT r.counter_name, s.name AS session, SUM(r.samples) AS samples,
+                       MAX(r.max_in) AS max_in_count, MAX(r.max_occ) AS peak_queue, MAX(r.max_wait) AS peak_wait,
+                       MIN(r.first_ts) AS first_ts, MAX(r.last_ts) AS last_ts
+                FROM readings r
+                JOIN LATERAL (
+                    SELECT name, ord FROM sessions
+                    WHERE CAST(r.ts AS time) >= start_time
+                      AND (CAST(r.ts AS time) < end_time OR (end_inclusive AND CAST(r.ts AS time) = end_time))
+                    ORDER BY ord
+                    LIMIT 1
+                ) s ON TRUE
+                GROUP BY r.counter_name, s.name, s.ord
+                ORDER BY r.counter_name, s.ord
+                """.formatted(values, fromRollups ? ROLLUP_READINGS : RAW_READINGS);
+
+        LocalDate day = from.toLocalDate();
+        return jdbcTemplate.query(sql, params, (rs, rowNum) -> new SessionAggregate(
+                day,
+                rs.getString("session"),
+                rs.getString("counter_name"),
+                rs.getLong("samples"),
+                (Integer) rs.getObject("max_in_count"),
+                (Integer) rs.getObject("peak_queue"),
+                (Double) rs.getObject("peak_wait"),
+                rs.getObject("first_ts", LocalDateTime.class),
+                rs.getObject("last_ts", LocalDateTime.class),
+                null,
+                null));
+    }
+
+    private static SessionAggregate snapshot(ResultSet rs) throws SQLException {
+        PeakCongestionDTO peak = null;
+        if (rs.getObject("congestion_weight") != null) {
+            peak = new PeakCongestionDTO();
+            peak.setLevel(rs.getString("congestion_level"));
+            peak.setWeight(rs.getInt("congestion_weight"));
+            peak.setStart(rs.getObject("congestion_start", LocalDateTime.class));
+            peak.setEnd(rs.getObject("congestion_end", LocalDateTime.class));
+            peak.setDurationMinutes((Long) rs.getObject("congestion_minutes"));
+            peak.setPeakWaitTimeInBlock((Double) rs.getObject("congestion_peak_wait"));
+        }
+        return new SessionAggregate(
+                rs.getObject("day", LocalDate.class),
+                rs.getString("session"),
+                rs.getString("counter_name"),
+                rs.getLong("samples"),
+                (Integer) rs.getObject("max_in_count"),
+                (Integer) rs.getObject("peak_queue"),
+                (Double) rs.getObject("peak_wait"),
+                rs.getObject("first_ts", LocalDateTime.class),
+                rs.getObject("last_ts", LocalDateTime.class),
+                peak,
+                (Double) rs.getObject("weighted_index"));
+    }
+}
@@ -0,0 +1,335 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.MqttDataRow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Archive Chunk
+ * Gorilla-style compression of one counter's rows of one day (ordered by
+ * timestamp, id), lossless:
+ *
+ *   "MQA1"
+ *   varint  rows, varint devices, devices x (varint length, UTF-8)
+ *   varint  length of the XOR section
+ *   per row (zig-zag varints):
+ *     timestamp   delta-of-delta in micros (first: absolute, second: delta)
+ *     id          delta to the previous id (first: absolute)
+ *     device      index into the device table
+ *     occupancy, inCount, createdAt - timestamp   (0 = null, else zig-zag + 1)
+ *   XOR section (bit stream): waitTime as in Gorilla - first value raw, then
+ *     '0' same value | '10' XOR in the previous leading/trailing window |
+ *     '11' 5 bits leading zeros, 6 bits length, meaningful bits
+ *     (null = a NaN with payload 1, which doubleToLongBits never returns, so a
+ *     stored NaN reading stays NaN)
+ *
+ * Readings arrive every few seconds, so the delta-of-delta is small and most
+ * fields fit in one or two bytes; repeated wait times cost a single bit.
+ */
+final class ArchiveChunk {
+
+    private static final byte[] MAGIC = {'M', 'Q', 'A', '1'};
+
+    private static final long NULL_BITS = 0x7FF8_0000_0000_0001L;
+
+    private ArchiveChunk() {
+    }
+
+    static byte[] encode(List<MqttDataRow> rows) {
+        ByteWriter out = new ByteWriter(64 + rows.size() * 8);
+        out.bytes(MAGIC);
+        out.varint(rows.size());
+
+        Map<String, Integer> deviceIndex = new HashMap<>();
+        ByteWriter devices = new ByteWriter(256);
+        for (MqttDataRow row : rows) {
+            if (!deviceIndex.containsKey(row.deviceId())) {
+                deviceIndex.put(row.deviceId(), deviceIndex.size());
+                byte[] name = row.deviceId().getBytes(StandardCharsets.UTF_8);
+                devices.varint(name.length);
+                devices.bytes(name);
+            }
+        }
+        out.varint(deviceIndex.size());
+        out.bytes(devices.toArray());
+
+        ByteWriter fields = new ByteWriter(rows.size() * 8);
+        BitWriter xor = new BitWriter(rows.size() / 2 + 16);
+
+        long previousTs = 0;
+        long previousDelta = 0;
+        long previousId = 0;
+        long previousBits = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+
+        for (int i = 0; i < rows.size(); i++) {
+            MqttDataRow row = rows.get(i);
+            long ts = SampleSeries.toMicros(row.timestamp());
+
+            if (i == 0) {
+                fields.zigzag(ts);
+            } else {
+                long delta = ts - previousTs;
+                fields.zigzag(delta - previousDelta);
+                previousDelta = delta;
+            }
+            previousTs = ts;
+
+            fields.zigzag(row.id() - previousId);
+            previousId = row.id();
+
+            fields.varint(deviceIndex.get(row.deviceId()));
+            fields.optional(row.occupancy() != null ? (long) row.occupancy() : null);
+            fields.optional(row.inCount() != null ? (long) row.inCount() : null);
+            fields.optional(row.createdAt() != null ? SampleSeries.toMicros(row.createdAt()) - ts : null);
+
+            long bits = row.waitTime() != null ? Double.doubleToLongBits(row.waitTime()) : NULL_BITS;
+            if (i == 0) {
+                xor.write(bits, 64);
+            } else {
+                long value = bits ^ previousBits;
+                if (value == 0) {
+                    xor.write(0, 1);
+                } else {
+                    int leading = Math.min(31, Long.numberOfLeadingZeros(value));
+                    int trailing = Long.numberOfTrailingZeros(value);
+                    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                        xor.write(0b10, 2);
+                        xor.write(value >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                    } else {
+                        int length = 64 - leading - trailing;
+                        xor.write(0b11, 2);
+                        xor.write(leading, 5);
+                        xor.write(length & 0x3F, 6);  // 64 -> 0
+                        xor.write(value >>> trailing, length);
+                        previousLeading = leading;
+                        previousTrailing = trailing;
+                    }
+                }
+            }
+            previousBits = bits;
+        }
+
+        byte[] xorBytes = xor.toArray();
+        out.varint(xorBytes.length);
+        out.bytes(fields.toArray());
+        out.bytes(xorBytes);
+        return out.toArray();
+    }
+
+    /**
+     * Decode every row of the chunk, in order
+     *
+     * @return rows decoded
+     * @throws IllegalArgumentException if data is not an archive chunk
+     */
+    static int decode(byte[] data, String counterName, Consumer<MqttDataRow> sink) {
+        if (data.length < MAGIC.length || !Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            throw new IllegalArgumentException("Not an archive chunk");
+        }
+        ByteReader in = new ByteReader(data, MAGIC.length);
+        int rows = (int) in.varint();
+
+        String[] devices = new String[(int) in.varint()];
+        for (int d = 0; d < devices.length; d++) {
+            int length = (int) in.varint();
+            devices[d] = new String(data, in.position, length, StandardCharsets.UTF_8);
+            in.position += length;
+        }
+
+        int xorLength = (int) in.varint();
+        BitReader xor = new BitReader(data, data.length - xorLength);
+
+        long ts = 0;
+        long delta = 0;
+        long id = 0;
+        long bits = 0;
+        int leading = 0;
+        int trailing = 0;
+
+        for (int i = 0; i < rows; i++) {
+            if (i == 0) {
+                ts = in.zigzag();
+            } else {
+                delta += in.zigzag();
+                ts += delta;
+            }
+            id += in.zigzag();
+            String deviceId = devices[(int) in.varint()];
+            Long occupancy = in.optional();
+            Long inCount = in.optional();
+            Long createdOffset = in.optional();
+
+            if (i == 0) {
+                bits = xor.read(64);
+            } else if (xor.read(1) == 1) {
+                if (xor.read(1) == 1) {
+                    leading = (int) xor.read(5);
+                    int length = (int) xor.read(6);
+                    if (length == 0) {
+                        length = 64;
+                    }
+                    trailing = 64 - leading - length;
+                }
+                bits ^= xor.read(64 - leading - trailing) << trailing;
+            }
+
+            sink.accept(new MqttDataRow(
+                    id,
+                    deviceId,
+                    counterName,
+                    occupancy != null ? occupancy.intValue() : null,
+                    inCount != null ? inCount.intValue() : null,
+                    bits != NULL_BITS ? Double.longBitsToDouble(bits) : null,
+                    SampleSeries.fromMicros(ts),
+                    createdOffset != null ? SampleSeries.fromMicros(ts + createdOffset) : null
+            ));
+        }
+        return rows;
+    }
+
+    /* ------------------ BYTES ------------------ */
+
+    private static final class ByteWriter {
+
+        private byte[] buffer;
+        private int size;
+
+        ByteWriter(int capacity) {
+            buffer = new byte[Math.max(16, capacity)];
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void zigzag(long value) {
+            varint((value << 1) ^ (value >> 63));
+        }
+
+        void optional(Long value) {
+            if (value == null) {
+                varint(0);
+            } else {
+                varint(((value << 1) ^ (value >> 63)) + 1);
+            }
+        }
+
+        void bytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensure(int bytes) {
+            if (size + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+            }
+        }
+    }
+
+    private static final class ByteReader {
+
+        private final byte[] data;
+        private int position;
+
+        ByteReader(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        long varint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        long zigzag() {
+            long value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        Long optional() {
+            long value = varint();
+            if (value == 0) {
+                return null;
+            }
+            value--;
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+
+    /* ------------------ BITS ------------------ */
+
+    private static final class BitWriter {
+
+        private byte[] buffer;
+        private long bitCount;
+
+        BitWriter(int capacity) {
+            buffer = new byte[Math.max(16, capacity)];
+        }
+
+        /**
+         * Lowest count bits of value, most significant first
+         */
+        void write(long value, int count) {
+            for (int bit = count - 1; bit >= 0; bit--) {
+                int index = (int) (bitCount >>> 3);
+                if (index == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                if (((value >>> bit) & 1) != 0) {
+                    buffer[index] |= (byte) (0x80 >>> (bitCount & 7));
+                }
+                bitCount++;
+            }
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(buffer, (int) ((bitCount + 7) >>> 3));
+        }
+    }
+
+    private static final class BitReader {
+
+        private final byte[] data;
+        private long bitPosition;
+
+        BitReader(byte[] data, int offset) {
+            this.data = data;
+            this.bitPosition = (long) offset << 3;
+        }
+
+        long read(int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                int b = data[(int) (bitPosition >>> 3)];
+                value = (value << 1) | ((b >>> (7 - (bitPosition & 7))) & 1);
+                bitPosition++;
+            }
+            return value;
+        }
+    }
+}
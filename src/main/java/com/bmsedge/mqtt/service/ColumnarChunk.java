@@ -0,0 +1,219 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.function.Consumer;
+
+/**
+ * Columnar Chunk
+ * Up to capacity history rows held as parallel primitive columns
+ * (timestamp, occupancy, inCount, waitTime) and written either as JSON
+ * arrays or as a little-endian binary block. Reused chunk after chunk, so a
+ * streamed history never holds more than one chunk.
+ *
+ * Timestamps are epoch milliseconds (server time zone), delta-encoded: the
+ * first value is absolute, every following value is the difference to the
+ * previous row.
+ *
+ * Binary stream: BINARY_MAGIC, blocks, then an empty block (n = 0).
+ * Block (all little-endian):
+ *   int32   n            (0 = end of stream)
+ *   int64   first timestamp, int32[n - 1] deltas
+ *   int32[n] occupancy, int32[n] inCount   (Integer.MIN_VALUE = null)
+ *   float64[n] waitTime                    (NULL_WAIT_BITS = null; any other NaN is a NaN reading)
+ * A gap that does not fit an int32 delta starts a new block.
+ */
+public final class ColumnarChunk {
+
+    public static final byte[] BINARY_MAGIC = {'M', 'Q', 'C', '1'};
+    public static final int NULL_INT = Integer.MIN_VALUE;
+    public static final long NULL_WAIT_BITS = 0x7FF8_0000_0000_0001L;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final double NULL_WAIT = Double.longBitsToDouble(NULL_WAIT_BITS);
+    private static final ZoneRules ZONE_RULES = ZoneId.systemDefault().getRules();
+
+    private final long[] timestamps;
+    private final int[] occupancy;
+    private final int[] inCount;
+    private final double[] waitTime;
+    private int size;
+
+    private ByteBuffer buffer;
+
+    public ColumnarChunk(int capacity) {
+        this.timestamps = new long[capacity];
+        this.occupancy = new int[capacity];
+        this.inCount = new int[capacity];
+        this.waitTime = new double[capacity];
+    }
+
+    /**
+     * Append a row; false if the chunk is full or the gap to the previous row
+     * does not fit an int32 delta (flush, clear, offer again)
+     */
+    public boolean offer(MqttDataRow row) {
+        if (size == timestamps.length) {
+            return false;
+        }
+        long timestamp = epochMillis(row.timestamp());
+        if (size > 0) {
+            long delta = timestamp - timestamps[size - 1];
+            if (delta != (int) delta) {
+                return false;
+            }
+        }
+
+        timestamps[size] = timestamp;
+        occupancy[size] = row.occupancy() != null ? row.occupancy() : NULL_INT;
+        inCount[size] = row.inCount() != null ? row.inCount() : NULL_INT;
+        waitTime[size] = row.waitTime() != null ? row.waitTime() : NULL_WAIT;
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * {"count": n, "timestamps": [...], "occupancy": [...], "inCount": [...], "waitTime": [...]}
+     */
+    public void writeJson(JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("count", size);
+
+        json.writeArrayFieldStart("timestamps");
+        for (int i = 0; i < size; i++) {
+            json.writeNumber(i == 0 ? timestamps[0] : timestamps[i] - timestamps[i - 1]);
+        }
+        json.writeEndArray();
+
+        writeInts(json, "occupancy", occupancy);
+        writeInts(json, "inCount", inCount);
+
+        json.writeArrayFieldStart("waitTime");
+        for (int i = 0; i < size; i++) {
+            if (Double.doubleToRawLongBits(waitTime[i]) == NULL_WAIT_BITS) {
+                json.writeNull();
+            } else {
+                json.writeNumber(waitTime[i]);
+            }
+        }
+        json.writeEndArray();
+
+        json.writeEndObject();
+    }
+
+    /**
+     * One binary block (see class comment); an empty chunk writes the end marker
+     */
+    public void writeBinary(OutputStream out) throws IOException {
+        int bytes = 4 + (size == 0 ? 0 : 8 + 4 * (size - 1) + 4 * size + 4 * size + 8 * size);
+        if (buffer == null || buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocate(Math.max(bytes, 4 + 24 * timestamps.length)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+
+        buffer.putInt(size);
+        if (size > 0) {
+            buffer.putLong(timestamps[0]);
+            for (int i = 1; i < size; i++) {
+                buffer.putInt((int) (timestamps[i] - timestamps[i - 1]));
+            }
+            for (int i = 0; i < size; i++) {
+                buffer.putInt(occupancy[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                buffer.putInt(inCount[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                buffer.putDouble(waitTime[i]);
+            }
+        }
+
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * Feed rows from source through one reused chunk, handing every filled
+     * chunk to sink
+     *
+     * @return rows encoded
+     */
+    public static long encode(Consumer<Consumer<MqttDataRow>> source, int capacity, Sink sink) {
+        ColumnarChunk chunk = new ColumnarChunk(capacity);
+        long[] rows = new long[1];
+
+        source.accept(row -> {
+            if (!chunk.offer(row)) {
+                flush(chunk, sink);
+                chunk.offer(row);
+            }
+            rows[0]++;
+        });
+        if (chunk.size() > 0) {
+            flush(chunk, sink);
+        }
+        return rows[0];
+    }
+
+    /**
+     * Whole binary stream: magic, one block per chunk, end marker
+     *
+     * @return rows encoded
+     */
+    public static long encodeBinary(Consumer<Consumer<MqttDataRow>> source, int capacity, OutputStream out)
+            throws IOException {
+        out.write(BINARY_MAGIC);
+        long rows = encode(source, capacity, chunk -> chunk.writeBinary(out));
+        out.write(new byte[4]);  // n = 0: end of stream
+        return rows;
+    }
+
+    private static void flush(ColumnarChunk chunk, Sink sink) {
+        try {
+            sink.write(chunk);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        chunk.clear();
+    }
+
+    private void writeInts(JsonGenerator json, String field, int[] column) throws IOException {
+        json.writeArrayFieldStart(field);
+        for (int i = 0; i < size; i++) {
+            if (column[i] == NULL_INT) {
+                json.writeNull();
+            } else {
+                json.writeNumber(column[i]);
+            }
+        }
+        json.writeEndArray();
+    }
+
+    /**
+     * Without ZonedDateTime / Instant allocations
+     */
+    static long epochMillis(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZONE_RULES.getOffset(timestamp)) * 1000 + timestamp.getNano() / 1_000_000;
+    }
+
+    @FunctionalInterface
+    public interface Sink {
+        void write(ColumnarChunk chunk) throws IOException;
+    }
+}
@@ -0,0 +1,181 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.CongestionBlockDTO;
+import com.bmsedge.mqtt.dto.PeakCongestionDTO;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Congestion Engine
+ * One counter's congestion timeline (readings in timestamp order) folded in
+ * a single pass, O(1) state per counter:
+ *
+ * - blocks:      runs of readings with the same congestion weight, first to
+ *                last reading (kept only when asked for - the session view)
+ * - peak block:  highest weight > 0, then longest; the first one wins ties.
+ *                Carries the highest wait time of its own readings
+ * - weighted sum: sum of weight x block minutes (weighted congestion index)
+ *
+ * A missing wait time counts as no congestion.
+ *
+ * Fed either reading by reading (accept) or with blocks already collapsed
+ * by the database (block) - see mqtt.congestion.engine.
+ */
+final class CongestionEngine {
+
+    private final List<CongestionBlockDTO> blocks;
+
+    // Open run
+    private int weight = -1;
+    private LocalDateTime start;
+    private LocalDateTime end;
+    private double maxWait;
+
+    // Peak so far
+    private int peakWeight;
+    private LocalDateTime peakStart;
+    private LocalDateTime peakEnd;
+    private long peakMinutes;
+    private double peakWait;
+
+    private long weightedSum;
+
+    CongestionEngine(boolean keepBlocks) {
+        this.blocks = keepBlocks ? new ArrayList<>() : null;
+    }
+
+    void accept(LocalDateTime timestamp, Double waitTime) {
+        double wait = waitTime != null ? waitTime : 0;
+        int rowWeight = weight(wait);
+
+        if (rowWeight != weight) {
+            close();
+            weight = rowWeight;
+            start = timestamp;
+            maxWait = wait;
+        } else if (wait > maxWait) {
+            maxWait = wait;
+        }
+        end = timestamp;
+    }
+
+    /**
+     * A complete block (computed elsewhere); closes any open one first
+     */
+    void block(int blockWeight, LocalDateTime blockStart, LocalDateTime blockEnd, double blockMaxWait) {
+        close();
+        weight = blockWeight;
+        start = blockStart;
+        end = blockEnd;
+        maxWait = blockMaxWait;
+        close();
+        weight = -1;
+    }
+
+    /**
+     * Close the open block; call once after the last reading
+     */
+    void finish() {
+        close();
+        weight = -1;
+    }
+
+    /**
+     * Copy of the state without the block list - finish() the copy to read
+     * peak / index of a timeline that is still open
+     */
+    CongestionEngine copy() {
+        CongestionEngine copy = new CongestionEngine(false);
+        copy.weight = weight;
+        copy.start = start;
+        copy.end = end;
+        copy.maxWait = maxWait;
+        copy.peakWeight = peakWeight;
+        copy.peakStart = peakStart;
+        copy.peakEnd = peakEnd;
+        copy.peakMinutes = peakMinutes;
+        copy.peakWait = peakWait;
+        copy.weightedSum = weightedSum;
+        return copy;
+    }
+
+    List<CongestionBlockDTO> blocks() {
+        return blocks;
+    }
+
+    /**
+     * Peak block, or null if the timeline never left weight 0
+     */
+    PeakCongestionDTO peak() {
+        if (peakStart == null) {
+            return null;
+        }
+        PeakCongestionDTO dto = new PeakCongestionDTO();
+        dto.setLevel(level(peakWeight));
+        dto.setWeight(peakWeight);
+        dto.setStart(peakStart);
+        dto.setEnd(peakEnd);
+        dto.setDurationMinutes(peakMinutes);
+        dto.setPeakWaitTimeInBlock(peakWait);
+        return dto;
+    }
+
+    /**
+     * Weighted sum as a percentage of the worst case (weight 5 all session long)
+     */
+    double weightedIndex(long sessionMinutes) {
+        return (weightedSum / (double) (sessionMinutes * 5)) * 100;
+    }
+
+    private void close() {
+        if (weight < 0) {
+            return;
+        }
+        long minutes = Duration.between(start, end).toMinutes();
+        weightedSum += weight * minutes;
+
+        if (blocks != null) {
+            CongestionBlockDTO block = new CongestionBlockDTO();
+            block.setLevel(level(weight));
+            block.setWeight(weight);
+            block.setStart(start);
+            block.setEnd(end);
+            block.setDurationMinutes(minutes);
+            blocks.add(block);
+        }
+
+        if (weight > 0 && (peakStart == null || weight > peakWeight
+                || (weight == peakWeight && minutes > peakMinutes))) {
+            peakWeight = weight;
+            peakStart = start;
+            peakEnd = end;
+            peakMinutes = minutes;
+            peakWait = maxWait;
+        }
+    }
+
+    /* ------------------ SCALE ------------------ */
+
+    static int weight(double waitTime) {
+        if (waitTime <= 0) return 0;
+        if (waitTime <= 2) return 0;
+        if (waitTime == 3) return 0;
+        if (waitTime == 4) return 1;
+        if (waitTime <= 8) return 2;
+        if (waitTime <= 12) return 3;
+        return 5;
+    }
+
+    static String level(int weight) {
+        return switch (weight) {
+            case 1 -> "High";
+            case 2 -> "Critical";
+            case 3 -> "Severe";
+            case 5 -> "Extreme";
+            default -> "Low";
+        };
+    }
+}
@@ -0,0 +1,115 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import com.bmsedge.mqtt.model.MqttDataIdGenerator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * COPY Bulk Writer
+ * Streams an ingest batch into mqtt_data with PostgreSQL COPY FROM STDIN
+ * (text format) instead of INSERT statements.
+ *
+ * Ids come from the same pooled-lo sequence as the JPA path, one nextval()
+ * per allocation block, so both modes can be switched without id clashes.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "mqtt.persistence", name = "write-mode", havingValue = "copy")
+public class CopyMqttDataWriter implements MqttDataWriter {
+
+    private static final String COPY_SQL =
+            "COPY mqtt_data (id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at) "
+                    + "FROM STDIN";
+
+    private static final String ID_BLOCKS_SQL =
+            "SELECT nextval('" + MqttDataIdGenerator.SEQUENCE_NAME + "') FROM generate_series(1, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MqttProperties mqttProperties;
+    private final MqttRollupWriter rollupWriter;
+
+    // One encoding buffer per writer thread, reused across flushes
+    private final ThreadLocal<CopyRowBuffer> buffers =
+            ThreadLocal.withInitial(() -> new CopyRowBuffer(64 * 1024));
+
+    @Override
+    @Transactional
+    public List<MqttDataEntity> writeBatch(List<MqttDataEntity> batch) {
+        if (batch.isEmpty()) {
+            return batch;
+        }
+
+        assignIds(batch);
+
+        CopyRowBuffer buffer = buffers.get();
+        buffer.reset();
+
+        LocalDateTime now = LocalDateTime.now();
+        for (MqttDataEntity entity : batch) {
+            // Same defaults as MqttDataEntity.onCreate() (no @PrePersist on this path)
+            entity.setCreatedAt(now);
+            if (entity.getTimestamp() == null) {
+                entity.setTimestamp(now);
+            }
+
+            buffer.appendLong(entity.getId());
+            buffer.appendString(entity.getDeviceId());
+            buffer.appendString(entity.getCounterName());
+            buffer.appendInt(entity.getOccupancy());
+            buffer.appendInt(entity.getInCount());
+            buffer.appendDouble(entity.getWaitTime());
+            buffer.appendTimestamp(entity.getTimestamp());
+            buffer.appendTimestamp(entity.getCreatedAt());
+            buffer.endRow();
+        }
+
+        Long copied = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+            try {
+                copyIn.writeToCopy(buffer.array(), 0, buffer.length());
+                return copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        });
+
+        log.debug("📦 COPY wrote {} rows ({} bytes)", copied, buffer.length());
+
+        rollupWriter.apply(batch);
+        return batch;
+    }
+
+    @Override
+    public String getMode() {
+        return "copy";
+    }
+
+    /**
+     * Reserve ids in pooled-lo blocks: each nextval() owns [value, value + allocationSize)
+     */
+    private void assignIds(List<MqttDataEntity> batch) {
+        int allocationSize = mqttProperties.getPersistence().getIdAllocationSize();
+        int blocks = (batch.size() + allocationSize - 1) / allocationSize;
+
+        List<Long> blockStarts = jdbcTemplate.queryForList(ID_BLOCKS_SQL, Long.class, blocks);
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).setId(blockStarts.get(i / allocationSize) + (i % allocationSize));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.bmsedge.mqtt.service;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Reusable byte buffer that encodes rows in PostgreSQL COPY text format
+ * (tab-separated columns, \N for NULL, one row per line).
+ *
+ * Values are written straight into the byte array - no per-row Strings.
+ * Not thread-safe: one instance per writer thread, reset between flushes.
+ */
+final class CopyRowBuffer {
+
+    private static final byte TAB = '\t';
+    private static final byte NEWLINE = '\n';
+    private static final byte[] NULL = {'\\', 'N'};
+    private static final long MAX_EXACT_DOUBLE_AS_LONG = 1L << 53;
+
+    private byte[] bytes;
+    private int length;
+    private boolean firstColumn = true;
+
+    CopyRowBuffer(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    void reset() {
+        length = 0;
+        firstColumn = true;
+    }
+
+    byte[] array() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void endRow() {
+        put(NEWLINE);
+        firstColumn = true;
+    }
+
+    void appendNull() {
+        separator();
+        ensureCapacity(2);
+        bytes[length++] = NULL[0];
+        bytes[length++] = NULL[1];
+    }
+
+    void appendLong(Long value) {
+        if (value == null) {
+            appendNull();
+            return;
+        }
+        separator();
+        writeLong(value);
+    }
+
+    void appendInt(Integer value) {
+        if (value == null) {
+            appendNull();
+            return;
+        }
+        separator();
+        writeLong(value);
+    }
+
+    void appendDouble(Double value) {
+        if (value == null) {
+            appendNull();
+            return;
+        }
+        separator();
+        double d = value;
+        // Wait times are almost always whole minutes - write those without Double.toString
+        if (d == Math.rint(d) && Math.abs(d) < MAX_EXACT_DOUBLE_AS_LONG) {
+            writeLong((long) d);
+        } else {
+            String text = Double.toString(d);
+            ensureCapacity(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                bytes[length++] = (byte) text.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * yyyy-MM-dd HH:mm:ss.SSSSSS
+     */
+    void appendTimestamp(LocalDateTime value) {
+        if (value == null) {
+            appendNull();
+            return;
+        }
+        separator();
+        ensureCapacity(26);
+        writePadded(value.getYear(), 4);
+        bytes[length++] = '-';
+        writePadded(value.getMonthValue(), 2);
+        bytes[length++] = '-';
+        writePadded(value.getDayOfMonth(), 2);
+        bytes[length++] = ' ';
+        writePadded(value.getHour(), 2);
+        bytes[length++] = ':';
+        writePadded(value.getMinute(), 2);
+        bytes[length++] = ':';
+        writePadded(value.getSecond(), 2);
+        bytes[length++] = '.';
+        writePadded(value.getNano() / 1000, 6);
+    }
+
+    /**
+     * UTF-8 encode with COPY escaping of backslash, tab, CR and LF; lone
+     * surrogates become '?' (3-byte CESU would fail the whole COPY with 22021)
+     */
+    void appendString(String value) {
+        if (value == null) {
+            appendNull();
+            return;
+        }
+        separator();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '\\' -> putEscaped('\\');
+                    case '\t' -> putEscaped('t');
+                    case '\n' -> putEscaped('n');
+                    case '\r' -> putEscaped('r');
+                    default -> put((byte) c);
+                }
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                bytes[length++] = (byte) (0xC0 | (c >> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensureCapacity(4);
+                bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Lone surrogate: not encodable, '?' as String.getBytes(UTF_8) (and so the JPA path) writes it
+                put((byte) '?');
+            } else {
+                ensureCapacity(3);
+                bytes[length++] = (byte) (0xE0 | (c >> 12));
+                bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /* ------------------ PRIVATE HELPERS ------------------ */
+
+    private void separator() {
+        if (firstColumn) {
+            firstColumn = false;
+        } else {
+            put(TAB);
+        }
+    }
+
+    private void putEscaped(char c) {
+        ensureCapacity(2);
+        bytes[length++] = '\\';
+        bytes[length++] = (byte) c;
+    }
+
+    private void put(byte b) {
+        ensureCapacity(1);
+        bytes[length++] = b;
+    }
+
+    private void writeLong(long value) {
+        ensureCapacity(20);
+        if (value == Long.MIN_VALUE) {
+            String text = Long.toString(value);
+            for (int i = 0; i < text.length(); i++) {
+                bytes[length++] = (byte) text.charAt(i);
+            }
+            return;
+        }
+        if (value < 0) {
+            bytes[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            bytes[length++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        // digits were written least-significant first
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte tmp = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = tmp;
+        }
+    }
+
+    private void writePadded(int value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            bytes[length + i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        length += width;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+}
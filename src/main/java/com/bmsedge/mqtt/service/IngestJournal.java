@@ -0,0 +1,690 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Ingest Journal
+ * Append-only write-ahead log of decoded readings in memory-mapped segment files.
+ *
+ * Layout: fixed-size segment files "segment-{seq}.log". A position is the
+ * logical offset seq * segmentSize + offset. Each record is
+ *
+ *   [int length][int crc32][long segmentSeq | payload ...]
+ *
+ * and a length of -1 marks the end of a segment. The CRC covers the segment
+ * sequence, so stale records in a recycled segment never validate.
+ *
+ * One appender (MQTT callback threads, serialized by a lock) and one reader
+ * (the lane writer). The reader only ever reads below the published write
+ * position; once rows it read are in the database it calls commit(records),
+ * which persists the checkpoint past exactly those records and recycles
+ * fully consumed segments. On restart everything after the checkpoint is
+ * replayed (at-least-once).
+ *
+ * The checkpoint file is [int segmentSize][long position][int crc32]. If it
+ * is damaged (torn write, bad CRC) recovery falls back to scanning every
+ * segment on disk. Consumed segments kept for reuse are renamed
+ * "spare-{seq}.log", so such a scan never replays them; the others are
+ * unmapped before they are deleted.
+ *
+ * Rows the database rejects for good are appended to "dead-letter.copy"
+ * in COPY text format (see deadLetter).
+ */
+@Slf4j
+final class IngestJournal implements Closeable {
+
+    private static final int HEADER_BYTES = 8;
+    private static final int END_OF_SEGMENT = -1;
+    private static final int NULL_INT = Integer.MIN_VALUE;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SPARE_PREFIX = "spare-";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String DEAD_LETTER_FILE = "dead-letter.copy";
+    private static final int CHECKPOINT_BYTES = 16;
+    // Written before the checkpoint carried a CRC
+    private static final int LEGACY_CHECKPOINT_BYTES = 12;
+
+    // sun.misc.Unsafe.invokeCleaner: unmap a segment before its file is deleted
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("⚠️ Journal segments cannot be unmapped explicitly, deleted segments are released at GC: {}",
+                    e.toString());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final int maxSpareSegments;
+    private final MqttProperties.FsyncPolicy fsyncPolicy;
+
+    private final ConcurrentHashMap<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final ArrayDeque<Segment> spares = new ArrayDeque<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataAvailable = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+
+    // Appender state (guarded by lock)
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+    private final CRC32 crc = new CRC32();
+    private long firstSegment;
+
+    private volatile long writePosition;
+    private volatile long checkpoint;
+    // Reader state (lane writer thread only)
+    private long readPosition;
+    // End position of every record read since the last commit / rewind
+    private long[] readEnds = new long[64];
+    private int readCount;
+    private CopyRowBuffer deadLetterLine;
+
+    IngestJournal(Path directory, MqttProperties.JournalConfig config) throws IOException {
+        this.directory = directory;
+        this.maxSegments = Math.max(2, config.getMaxSegments());
+        this.maxSpareSegments = config.getMaxSpareSegments();
+        this.fsyncPolicy = config.getFsyncPolicy();
+
+        Files.createDirectories(directory);
+
+        // A journal keeps the segment size it was created with until it is reopened empty
+        long[] stored = readCheckpoint();
+        this.segmentSize = stored != null ? (int) stored[0] : segmentSizeOnDisk(config.getSegmentSizeMb() * 1024 * 1024);
+
+        recover(stored != null ? stored[1] : -1);
+    }
+
+    /* ------------------ APPEND ------------------ */
+
+    /**
+     * Append one reading; durable according to the fsync policy when this returns.
+     * Blocks while the journal holds mqtt.journal.max-segments unconsumed segments.
+     */
+    void append(MqttDataEntity entity) throws IOException, InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            int length = encode(entity);
+            if (HEADER_BYTES + length + 4 > segmentSize) {
+                throw new IOException("Journal record of " + length + " bytes exceeds segment size");
+            }
+
+            long position = writePosition;
+            long seq = position / segmentSize;
+            int offset = (int) (position % segmentSize);
+
+            // Always leave room for the end-of-segment marker
+            if (offset + HEADER_BYTES + length + 4 > segmentSize) {
+                Segment current = segments.get(seq);
+                current.buffer.putInt(offset, END_OF_SEGMENT);
+                if (fsyncPolicy == MqttProperties.FsyncPolicy.ALWAYS) {
+                    current.buffer.force(offset, 4);
+                }
+
+                while (segments.size() >= maxSegments) {
+                    spaceAvailable.await();
+                }
+
+                seq++;
+                offset = 0;
+                segments.put(seq, newSegment(seq));
+            }
+
+            scratch.putLong(0, seq);
+            crc.reset();
+            crc.update(scratch.array(), 0, length);
+
+            MappedByteBuffer buffer = segments.get(seq).buffer;
+            buffer.putInt(offset, length);
+            buffer.putInt(offset + 4, (int) crc.getValue());
+            buffer.put(offset + HEADER_BYTES, scratch.array(), 0, length);
+
+            if (fsyncPolicy == MqttProperties.FsyncPolicy.ALWAYS) {
+                buffer.force(offset, HEADER_BYTES + length);
+            }
+
+            // Publish: the reader never looks past writePosition
+            writePosition = seq * segmentSize + offset + HEADER_BYTES + length;
+            dataAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flush dirty pages of all live segments (fsync policy INTERVAL)
+     */
+    void force() {
+        lock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* ------------------ READ / COMMIT ------------------ */
+
+    /**
+     * Read up to max records after the read position, waiting up to timeoutNanos
+     * for the first one. Returns the number of records added to out.
+     */
+    int poll(List<MqttDataEntity> out, int max, long timeoutNanos) throws InterruptedException {
+        long limit = writePosition;
+        if (readPosition >= limit) {
+            lock.lockInterruptibly();
+            try {
+                long nanos = timeoutNanos;
+                while ((limit = writePosition) <= readPosition) {
+                    if (nanos <= 0) {
+                        return 0;
+                    }
+                    nanos = dataAvailable.awaitNanos(nanos);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int count = 0;
+        while (count < max && readPosition < limit) {
+            long seq = readPosition / segmentSize;
+            int offset = (int) (readPosition % segmentSize);
+            MappedByteBuffer buffer = segments.get(seq).buffer;
+
+            int length = buffer.getInt(offset);
+            if (length == END_OF_SEGMENT) {
+                readPosition = (seq + 1) * segmentSize;
+                continue;
+            }
+
+            out.add(decode(buffer, offset + HEADER_BYTES));
+            readPosition += HEADER_BYTES + length;
+            if (readCount == readEnds.length) {
+                readEnds = Arrays.copyOf(readEnds, readCount * 2);
+            }
+            readEnds[readCount++] = readPosition;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * The first records read since the last commit are in the database (or
+     * dead-lettered): move the checkpoint past them and recycle consumed
+     * segments. Records read after them are read again by the next poll.
+     * When the checkpoint cannot be written nothing changes and the call
+     * can be repeated.
+     */
+    void commit(int records) throws IOException {
+        if (records <= 0) {
+            rewind();
+            return;
+        }
+        long position = records >= readCount ? readPosition : readEnds[records - 1];
+
+        if (position != checkpoint) {
+            writeCheckpoint(position);
+            checkpoint = position;
+            recycleBefore(position / segmentSize);
+        }
+        readPosition = position;
+        readCount = 0;
+    }
+
+    /**
+     * Nothing read since the last commit is in the database: read it again from the checkpoint
+     */
+    void rewind() {
+        readPosition = checkpoint;
+        readCount = 0;
+    }
+
+    /**
+     * Keep a row the database rejects: one line in COPY text format
+     * (device_id, counter_name, occupancy, in_count, wait_time, timestamp)
+     * appended to dead-letter.copy and fsynced. Reader thread only.
+     */
+    void deadLetter(MqttDataEntity entity) throws IOException {
+        if (deadLetterLine == null) {
+            deadLetterLine = new CopyRowBuffer(256);
+        }
+        CopyRowBuffer line = deadLetterLine;
+        line.reset();
+        line.appendString(entity.getDeviceId());
+        line.appendString(entity.getCounterName());
+        line.appendInt(entity.getOccupancy());
+        line.appendInt(entity.getInCount());
+        line.appendDouble(entity.getWaitTime());
+        line.appendTimestamp(entity.getTimestamp());
+        line.endRow();
+
+        try (FileChannel channel = FileChannel.open(directory.resolve(DEAD_LETTER_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer data = ByteBuffer.wrap(line.array(), 0, line.length());
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(false);
+        }
+    }
+
+    boolean hasBacklog() {
+        return writePosition > checkpoint;
+    }
+
+    long backlogBytes() {
+        return writePosition - checkpoint;
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() {
+        if (fsyncPolicy != MqttProperties.FsyncPolicy.NEVER) {
+            force();
+        }
+    }
+
+    /* ------------------ RECOVERY ------------------ */
+
+    private void recover(long storedCheckpoint) throws IOException {
+        TreeMap<Long, Path> files = listFiles(SEGMENT_PREFIX);
+
+        long startSegment = storedCheckpoint >= 0
+                ? storedCheckpoint / segmentSize
+                : (files.isEmpty() ? 0 : files.firstKey());
+        long position = storedCheckpoint >= 0 ? storedCheckpoint : startSegment * segmentSize;
+        long recoveredFrom = position;
+
+        // Scan forward from the checkpoint to the last valid record
+        long seq = startSegment;
+        while (files.containsKey(seq)) {
+            Segment segment = openSegment(seq, files.remove(seq));
+            segments.put(seq, segment);
+
+            int offset = seq == startSegment ? (int) (position % segmentSize) : 0;
+            int end = scan(segment, offset);
+            if (end == END_OF_SEGMENT) {
+                seq++;
+                position = seq * segmentSize;
+                continue;
+            }
+            position = seq * segmentSize + end;
+            break;
+        }
+
+        // Spares of the previous run, then segments before the checkpoint or after the valid tail, are reusable
+        for (Map.Entry<Long, Path> spare : listFiles(SPARE_PREFIX).entrySet()) {
+            recycleFile(spare.getKey(), spare.getValue());
+        }
+        for (Map.Entry<Long, Path> stale : files.entrySet()) {
+            recycleFile(stale.getKey(), stale.getValue());
+        }
+
+        long writeSegment = position / segmentSize;
+        if (!segments.containsKey(writeSegment)) {
+            segments.put(writeSegment, newSegment(writeSegment));
+        }
+
+        this.firstSegment = startSegment;
+        this.checkpoint = recoveredFrom;
+        this.readPosition = recoveredFrom;
+        this.writePosition = position;
+
+        if (position > recoveredFrom) {
+            log.info("🔁 Journal {} recovered {} bytes to replay", directory, position - recoveredFrom);
+        }
+    }
+
+    /**
+     * Offset just past the last valid record, or END_OF_SEGMENT if the segment was sealed
+     */
+    private int scan(Segment segment, int offset) {
+        MappedByteBuffer buffer = segment.buffer;
+        CRC32 check = new CRC32();
+
+        while (offset + 4 <= segmentSize) {
+            int length = buffer.getInt(offset);
+            if (length == END_OF_SEGMENT) {
+                return END_OF_SEGMENT;
+            }
+            if (length < 8 || offset + HEADER_BYTES + length > segmentSize) {
+                return offset;
+            }
+
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit(offset + HEADER_BYTES + length).position(offset + HEADER_BYTES);
+            check.reset();
+            check.update(payload);
+
+            if ((int) check.getValue() != buffer.getInt(offset + 4)
+                    || buffer.getLong(offset + HEADER_BYTES) != segment.seq) {
+                return offset;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        return END_OF_SEGMENT;
+    }
+
+    /* ------------------ SEGMENTS ------------------ */
+
+    private Segment newSegment(long seq) throws IOException {
+        Path path = segmentPath(seq);
+        Segment spare = spares.poll();
+        if (spare != null) {
+            Files.move(spare.path, path, StandardCopyOption.ATOMIC_MOVE);
+            spare.path = path;
+            spare.seq = seq;
+            spare.buffer.putInt(0, 0);
+            return spare;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(segmentSize);
+        }
+        return openSegment(seq, path);
+    }
+
+    private Segment openSegment(long seq, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return new Segment(seq, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+    }
+
+    /**
+     * Recycle the segments before the checkpoint segment; a segment that cannot
+     * be recycled is only logged (it is picked up as stale on the next start)
+     */
+    private void recycleBefore(long checkpointSegment) {
+        lock.lock();
+        try {
+            while (firstSegment < checkpointSegment) {
+                Segment consumed = segments.remove(firstSegment);
+                if (consumed != null) {
+                    try {
+                        recycle(consumed);
+                    } catch (IOException e) {
+                        log.warn("⚠️ Journal {} could not recycle segment {}: {}", directory, consumed.seq, e.getMessage());
+                    }
+                }
+                firstSegment++;
+            }
+            spaceAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keep a consumed segment as a spare (renamed out of the segment namespace,
+     * so recovery never scans it) or unmap and delete it. Callers hold the lock
+     * or run before the journal is shared, and nothing reads the segment again.
+     */
+    private void recycle(Segment segment) throws IOException {
+        Path path = filePath(SPARE_PREFIX, segment.seq);
+        boolean isSpare = path.equals(segment.path);
+        if (spares.size() < maxSpareSegments && (isSpare || !Files.exists(path))) {
+            if (!isSpare) {
+                Files.move(segment.path, path, StandardCopyOption.ATOMIC_MOVE);
+                segment.path = path;
+            }
+            spares.add(segment);
+        } else {
+            unmap(segment.buffer);
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    private void recycleFile(long seq, Path path) throws IOException {
+        if (spares.size() < maxSpareSegments && Files.size(path) == segmentSize) {
+            recycle(openSegment(seq, path));
+        } else {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Release a mapping now instead of at GC. The buffer must not be touched afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Journal segment could not be unmapped: {}", e.toString());
+        }
+    }
+
+    /**
+     * Size of the segment files already on disk (a journal without a usable checkpoint), else the configured size
+     */
+    private int segmentSizeOnDisk(int configured) throws IOException {
+        TreeMap<Long, Path> files = listFiles(SEGMENT_PREFIX);
+        if (files.isEmpty()) {
+            return configured;
+        }
+        long size = Files.size(files.firstEntry().getValue());
+        return size > HEADER_BYTES && size <= Integer.MAX_VALUE ? (int) size : configured;
+    }
+
+    private TreeMap<Long, Path> listFiles(String prefix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(SEGMENT_SUFFIX)) {
+                    files.put(Long.parseLong(name.substring(prefix.length(),
+                            name.length() - SEGMENT_SUFFIX.length())), path);
+                }
+            });
+        }
+        return files;
+    }
+
+    private Path segmentPath(long seq) {
+        return filePath(SEGMENT_PREFIX, seq);
+    }
+
+    private Path filePath(String prefix, long seq) {
+        return directory.resolve(String.format("%s%020d%s", prefix, seq, SEGMENT_SUFFIX));
+    }
+
+    /* ------------------ CHECKPOINT ------------------ */
+
+    /**
+     * [segmentSize, position], or null for a new journal or a damaged checkpoint
+     * (recovery then scans every segment on disk)
+     */
+    private long[] readCheckpoint() throws IOException {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+
+        boolean valid = bytes.length == LEGACY_CHECKPOINT_BYTES;
+        if (bytes.length == CHECKPOINT_BYTES) {
+            CRC32 check = new CRC32();
+            check.update(bytes, 0, LEGACY_CHECKPOINT_BYTES);
+            valid = (int) check.getValue() == data.getInt(LEGACY_CHECKPOINT_BYTES);
+        }
+        if (valid && data.getInt(0) > HEADER_BYTES && data.getLong(4) >= 0) {
+            return new long[]{data.getInt(0), data.getLong(4)};
+        }
+
+        log.warn("⚠️ Journal {} checkpoint is damaged ({} bytes), replaying every segment on disk",
+                directory, bytes.length);
+        return null;
+    }
+
+    private void writeCheckpoint(long position) throws IOException {
+        Path target = directory.resolve(CHECKPOINT_FILE);
+        Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+
+        ByteBuffer data = ByteBuffer.allocate(CHECKPOINT_BYTES).putInt(segmentSize).putLong(position);
+        CRC32 check = new CRC32();
+        check.update(data.array(), 0, LEGACY_CHECKPOINT_BYTES);
+        data.putInt((int) check.getValue()).flip();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(data);
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* ------------------ RECORD CODEC ------------------ */
+
+    /**
+     * Encode into scratch (first 8 bytes reserved for the segment seq); returns the payload length
+     */
+    private int encode(MqttDataEntity entity) throws IOException {
+        byte[] deviceId = utf8(entity.getDeviceId());
+        byte[] counterName = utf8(entity.getCounterName());
+        int length = 8 + 8 + 4 + 4 + 4 + 8 + 2 + lengthOf(deviceId) + 2 + lengthOf(counterName);
+
+        if (scratch.capacity() < length) {
+            scratch = ByteBuffer.allocate(Math.max(length, scratch.capacity() * 2));
+        }
+        scratch.clear();
+
+        LocalDateTime timestamp = entity.getTimestamp() != null ? entity.getTimestamp() : LocalDateTime.now();
+
+        scratch.putLong(0L);
+        scratch.putLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+        scratch.putInt(timestamp.getNano());
+        scratch.putInt(entity.getOccupancy() != null ? entity.getOccupancy() : NULL_INT);
+        scratch.putInt(entity.getInCount() != null ? entity.getInCount() : NULL_INT);
+        scratch.putDouble(entity.getWaitTime() != null ? entity.getWaitTime() : Double.NaN);
+        putString(deviceId);
+        putString(counterName);
+
+        return length;
+    }
+
+    private MqttDataEntity decode(MappedByteBuffer buffer, int offset) {
+        int p = offset + 8;
+
+        long epochSecond = buffer.getLong(p);
+        int nano = buffer.getInt(p + 8);
+        int occupancy = buffer.getInt(p + 12);
+        int inCount = buffer.getInt(p + 16);
+        double waitTime = buffer.getDouble(p + 20);
+        p += 28;
+
+        short deviceLength = buffer.getShort(p);
+        String deviceId = readString(buffer, p + 2, deviceLength);
+        p += 2 + Math.max(0, deviceLength);
+
+        short counterLength = buffer.getShort(p);
+        String counterName = readString(buffer, p + 2, counterLength);
+
+        return MqttDataEntity.builder()
+                .deviceId(deviceId)
+                .counterName(counterName)
+                .occupancy(occupancy == NULL_INT ? null : occupancy)
+                .inCount(inCount == NULL_INT ? null : inCount)
+                .waitTime(Double.isNaN(waitTime) ? null : waitTime)
+                .timestamp(LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC))
+                .build();
+    }
+
+    private void putString(byte[] bytes) {
+        if (bytes == null) {
+            scratch.putShort((short) -1);
+        } else {
+            scratch.putShort((short) bytes.length);
+            scratch.put(bytes);
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer, int offset, short length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) throws IOException {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IOException("Journal string field too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static int lengthOf(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    /**
+     * One mapped segment file (path / seq change when a spare is recycled)
+     */
+    private static final class Segment {
+
+        private long seq;
+        private Path path;
+        private final MappedByteBuffer buffer;
+
+        Segment(long seq, Path path, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
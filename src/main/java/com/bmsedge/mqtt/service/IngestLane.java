@@ -0,0 +1,504 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One ingest lane: a bounded queue drained by its own writer thread.
+ *
+ * Rows of one key always land in the same lane, and a lane writes its
+ * batches strictly in arrival order, so per-key ordering is preserved
+ * while different lanes write in parallel.
+ *
+ * A failed batch is sorted by cause (see classify): transient failures
+ * (connection lost, deadlock, lock timeout) are retried with back-off up to
+ * mqtt.ingest.max-retries times; a batch the database rejects is split in
+ * halves until the offending rows are isolated, so only those are dropped.
+ *
+ * With a journal the queue is replaced by the lane's IngestJournal: enqueue
+ * appends to the journal and the writer replays it. Transient failures are
+ * retried (back-off from mqtt.journal.retry-backoff-ms) for as long as the
+ * lane runs - the journal absorbs the outage - and rows the database
+ * rejects go to the journal's dead-letter file instead of being dropped.
+ * The checkpoint only moves past rows that are written or dead-lettered;
+ * while it cannot be persisted the lane reads nothing new, so rows already
+ * in the database are not replayed.
+ */
+@Slf4j
+class IngestLane {
+
+    // 08 connection, 40 rollback (serialization / deadlock), 53 resources, 57 operator intervention / timeout, 58 I/O
+    private static final Set<String> TRANSIENT_SQL_STATE_CLASSES = Set.of("08", "40", "53", "57", "58");
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final int index;
+    private final MqttDataWriter dataWriter;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+
+    private final int maxRetries;
+    private final long ingestBackoffMillis;
+
+    private final BlockingQueue<MqttDataEntity> queue;
+    private final IngestJournal journal;
+    private final long retryBackoffMillis;
+    private final Thread writerThread;
+    private volatile boolean running;
+
+    // Metrics
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong deadLetteredCount = new AtomicLong();
+    private final AtomicLong checkpointFailureCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushNanosTotal = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private volatile int lastFlushSize;
+    private volatile LocalDateTime lastFlushAt;
+
+    // Leading rows of the batch in flight that are written or dropped (writer thread only)
+    private int settled;
+
+    IngestLane(int index,
+               MqttProperties.IngestConfig config,
+               MqttDataWriter dataWriter,
+               ApplicationEventPublisher eventPublisher,
+               IngestJournal journal,
+               long retryBackoffMillis) {
+        this.index = index;
+        this.dataWriter = dataWriter;
+        this.eventPublisher = eventPublisher;
+        this.batchSize = config.getBatchSize();
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getFlushIntervalMs());
+        this.maxRetries = Math.max(0, config.getMaxRetries());
+        this.ingestBackoffMillis = Math.max(1, config.getRetryBackoffMs());
+        this.queue = journal == null ? new ArrayBlockingQueue<>(config.getQueueCapacity()) : null;
+        this.journal = journal;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.writerThread = new Thread(journal == null ? this::runWriter : this::runJournalWriter,
+                "mqtt-ingest-lane-" + index);
+        this.writerThread.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        writerThread.start();
+    }
+
+    /**
+     * Stop accepting work and wait for the writer to drain the queue
+     */
+    void stop(long timeoutMillis) throws InterruptedException {
+        running = false;
+        writerThread.join(timeoutMillis);
+        if (journal != null) {
+            if (journal.hasBacklog()) {
+                log.warn("⚠️ Ingest lane {} stopped with {} journal bytes left to replay on restart",
+                        index, journal.backlogBytes());
+            }
+            journal.close();
+        } else if (!queue.isEmpty()) {
+            log.warn("⚠️ Ingest lane {} stopped with {} unflushed rows", index, queue.size());
+        }
+    }
+
+    /**
+     * Blocks while the lane is full (back-pressure to the MQTT client).
+     * With a journal the reading is durable when this returns.
+     */
+    void enqueue(MqttDataEntity entity) throws InterruptedException, IOException {
+        if (journal != null) {
+            journal.append(entity);
+        } else {
+            queue.put(entity);
+        }
+        enqueuedCount.incrementAndGet();
+    }
+
+    /**
+     * fsync policy INTERVAL
+     */
+    void forceJournal() {
+        if (journal != null) {
+            journal.force();
+        }
+    }
+
+    int queueDepth() {
+        return journal != null ? 0 : queue.size();
+    }
+
+    long enqueued() {
+        return enqueuedCount.get();
+    }
+
+    long written() {
+        return writtenCount.get();
+    }
+
+    long failed() {
+        return failedCount.get();
+    }
+
+    long deadLettered() {
+        return deadLetteredCount.get();
+    }
+
+    long flushes() {
+        return flushCount.get();
+    }
+
+    long flushNanos() {
+        return flushNanosTotal.get();
+    }
+
+    long maxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    Map<String, Object> getStats() {
+        long flushes = flushCount.get();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("lane", index);
+        stats.put("queueDepth", queueDepth());
+        if (journal != null) {
+            stats.put("journalBacklogBytes", journal.backlogBytes());
+            stats.put("journalSegments", journal.segmentCount());
+            stats.put("deadLettered", deadLetteredCount.get());
+            stats.put("checkpointFailures", checkpointFailureCount.get());
+        }
+        stats.put("enqueued", enqueuedCount.get());
+        stats.put("written", writtenCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("retries", retryCount.get());
+        stats.put("flushes", flushes);
+        stats.put("lastFlushSize", lastFlushSize);
+        stats.put("lastFlushMillis", nanosToMillis(lastFlushNanos));
+        stats.put("avgFlushMillis", flushes == 0 ? 0.0 : nanosToMillis(flushNanosTotal.get() / flushes));
+        stats.put("maxFlushMillis", nanosToMillis(maxFlushNanos));
+        stats.put("lastFlushAt", lastFlushAt);
+        return stats;
+    }
+
+    /* ------------------ WRITER STAGE ------------------ */
+
+    private void runWriter() {
+        List<MqttDataEntity> batch = new ArrayList<>(batchSize);
+
+        while (running || !queue.isEmpty()) {
+            settled = 0;
+            try {
+                MqttDataEntity first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Fill the batch until it is full or the oldest row has waited long enough
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    MqttDataEntity next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                writeIsolating(batch);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Last attempt for what is not settled yet, no back-off left
+                List<MqttDataEntity> rest = batch.subList(Math.min(settled, batch.size()), batch.size());
+                if (!rest.isEmpty() && write(rest) != null) {
+                    failedCount.addAndGet(rest.size());
+                }
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+
+        log.info("🛑 Ingest lane {} writer stopped", index);
+    }
+
+    /**
+     * Replays the journal; on shutdown keeps going while the backlog still flushes
+     */
+    private void runJournalWriter() {
+        List<MqttDataEntity> batch = new ArrayList<>(batchSize);
+
+        while (running || journal.hasBacklog()) {
+            settled = 0;
+            try {
+                if (journal.poll(batch, batchSize, flushIntervalNanos) == 0) {
+                    continue;
+                }
+
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || journal.poll(batch, batchSize - batch.size(), remaining) == 0) {
+                        break;
+                    }
+                }
+
+                // Stopping while the database is down: what is not settled stays journaled for the next start
+                boolean complete = writeIsolating(batch);
+                if (!checkpoint(complete ? batch.size() : settled) || !complete) {
+                    break;
+                }
+
+            } catch (InterruptedException e) {
+                // The interrupt flag is clear here, so the checkpoint file can still be written
+                checkpoint(settled);
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+
+        log.info("🛑 Ingest lane {} journal replayer stopped", index);
+    }
+
+    /**
+     * Move the journal checkpoint past the first records of the batch. Those
+     * rows are in the database, so until this succeeds nothing new is read
+     * and the checkpoint is retried for as long as the lane runs. Returns
+     * false if the lane stopped first (the rows are replayed on restart).
+     */
+    private boolean checkpoint(int records) {
+        int attempt = 0;
+        while (true) {
+            try {
+                journal.commit(records);
+                return true;
+            } catch (IOException e) {
+                checkpointFailureCount.incrementAndGet();
+                if (!running) {
+                    log.error("❌ Lane {} stopped without checkpointing its journal, {} rows are written again on restart: {}",
+                            index, records, e.getMessage(), e);
+                    return false;
+                }
+                long backoff = backoffMillis(retryBackoffMillis, attempt++);
+                log.error("❌ Lane {} failed to checkpoint its journal, retrying in {} ms: {}",
+                        index, backoff, e.getMessage(), e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write rows in one transaction, retrying transient failures up to
+     * max-retries times (back-off doubling from retry-backoff-ms; with a
+     * journal for as long as the lane runs). Rows the database rejects are
+     * isolated by splitting the batch in halves and rejected one by one;
+     * everything else in the batch is still written. Unclassified failures
+     * get the retries first, then are split as well.
+     *
+     * Returns false if the lane stopped while a journaled batch was still
+     * failing transiently; the rows not settled stay in the journal.
+     */
+    private boolean writeIsolating(List<MqttDataEntity> rows) throws InterruptedException {
+        int attempt = 0;
+        while (true) {
+            Exception failure = write(rows);
+            if (failure == null) {
+                return true;
+            }
+
+            Failure kind = classify(failure);
+            boolean retry = journal != null && kind == Failure.TRANSIENT
+                    ? running
+                    : kind != Failure.PERMANENT && attempt < maxRetries;
+            if (retry) {
+                long backoff = backoffMillis(journal != null ? retryBackoffMillis : ingestBackoffMillis, attempt++);
+                retryCount.incrementAndGet();
+                log.warn("⚠️ Lane {} failed to flush {} MQTT rows ({}), retry {} in {} ms: {}",
+                        index, rows.size(), kind, attempt, backoff, failure.getMessage());
+                Thread.sleep(backoff);
+                continue;
+            }
+
+            if (kind == Failure.TRANSIENT && journal != null) {
+                log.warn("⚠️ Lane {} stopped with {} MQTT rows failing, they stay journaled: {}",
+                        index, rows.size(), failure.getMessage());
+                return false;
+            } else if (kind == Failure.TRANSIENT) {
+                settled += rows.size();
+                failedCount.addAndGet(rows.size());
+                log.error("❌ Lane {} dropped {} MQTT rows after {} retries: {}",
+                        index, rows.size(), maxRetries, failure.getMessage(), failure);
+            } else if (rows.size() > 1) {
+                int half = rows.size() / 2;
+                log.warn("⚠️ Lane {} batch of {} MQTT rows rejected ({}), splitting to isolate the bad rows",
+                        index, rows.size(), failure.getMessage());
+                return writeIsolating(rows.subList(0, half)) && writeIsolating(rows.subList(half, rows.size()));
+            } else {
+                settled++;
+                reject(rows.get(0), failure);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A row the database will not take: dead-lettered next to the journal, dropped without one
+     */
+    private void reject(MqttDataEntity row, Exception failure) {
+        if (journal != null) {
+            try {
+                journal.deadLetter(row);
+                deadLetteredCount.incrementAndGet();
+                log.error("❌ Lane {} dead-lettered an MQTT row the database rejects {}: {}",
+                        index, describe(row), failure.getMessage());
+                return;
+            } catch (IOException e) {
+                log.error("❌ Lane {} failed to dead-letter a rejected MQTT row: {}", index, e.getMessage(), e);
+            }
+        }
+        failedCount.incrementAndGet();
+        log.error("❌ Lane {} dropped an MQTT row the database rejects {}: {}",
+                index, describe(row), failure.getMessage());
+    }
+
+    /**
+     * One transaction for the rows; returns the failure, or null once they are
+     * committed (events published, flush metrics updated)
+     */
+    private Exception write(List<MqttDataEntity> rows) {
+        List<MqttDataEntity> saved;
+        long started = System.nanoTime();
+        try {
+            saved = dataWriter.writeBatch(rows);
+        } catch (Exception e) {
+            // Ids handed out by the rolled-back transaction are not in the table - let the retry assign new ones
+            for (MqttDataEntity row : rows) {
+                row.setId(null);
+            }
+            return e;
+        }
+        long elapsed = System.nanoTime() - started;
+
+        settled += rows.size();
+        writtenCount.addAndGet(saved.size());
+        flushCount.incrementAndGet();
+        flushNanosTotal.addAndGet(elapsed);
+        lastFlushNanos = elapsed;
+        lastFlushSize = saved.size();
+        lastFlushAt = LocalDateTime.now();
+        if (elapsed > maxFlushNanos) {
+            maxFlushNanos = elapsed;
+        }
+
+        log.debug("✅ Lane {} flushed {} MQTT rows in {} ms", index, saved.size(), nanosToMillis(elapsed));
+
+        // ✅ Publish events for live WebSocket broadcast (after commit)
+        for (MqttDataEntity entity : saved) {
+            try {
+                eventPublisher.publishEvent(new MqttDataEvent(this, entity));
+            } catch (Exception e) {
+                log.error("❌ Error publishing MQTT data event: {}", e.getMessage(), e);
+            }
+        }
+        return null;
+    }
+
+    /* ------------------ FAILURES ------------------ */
+
+    enum Failure {
+        // Goes away on its own: connection lost, deadlock / serialization conflict, lock or statement timeout
+        TRANSIENT,
+        // The same rows fail the same way every time: constraint violation, bad value
+        PERMANENT,
+        // Neither - retried like a transient failure, then split like a permanent one
+        UNKNOWN
+    }
+
+    /**
+     * Sort a write failure by exception type and SQLState anywhere in its cause chain
+     */
+    static Failure classify(Throwable failure) {
+        boolean permanent = false;
+        for (Throwable e = failure; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof TransientDataAccessException
+                    || e instanceof RecoverableDataAccessException
+                    || e instanceof DataAccessResourceFailureException
+                    || e instanceof CannotCreateTransactionException
+                    || e instanceof SQLTransientException
+                    || e instanceof SQLRecoverableException) {
+                return Failure.TRANSIENT;
+            }
+            if (e instanceof DataIntegrityViolationException) {
+                permanent = true;
+            }
+            if (e instanceof SQLException sql && sql.getSQLState() != null) {
+                String state = sql.getSQLState();
+                if (TRANSIENT_SQL_STATE_CLASSES.contains(state.substring(0, Math.min(2, state.length())))
+                        || LOCK_NOT_AVAILABLE.equals(state)) {
+                    return Failure.TRANSIENT;
+                }
+                if (state.startsWith("22") || state.startsWith("23")) {
+                    permanent = true;
+                }
+            }
+        }
+        return permanent ? Failure.PERMANENT : Failure.UNKNOWN;
+    }
+
+    static long backoffMillis(long initial, int attempt) {
+        return Math.min(initial << Math.min(attempt, 16), MAX_BACKOFF_MILLIS);
+    }
+
+    private static String describe(MqttDataEntity row) {
+        return "(device=" + row.getDeviceId() + ", counter=" + row.getCounterName()
+                + ", occupancy=" + row.getOccupancy() + ", inCount=" + row.getInCount()
+                + ", waitTime=" + row.getWaitTime() + ", timestamp=" + row.getTimestamp() + ")";
+    }
+
+    static double nanosToMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
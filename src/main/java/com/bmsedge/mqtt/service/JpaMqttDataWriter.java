@@ -0,0 +1,37 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import com.bmsedge.mqtt.repository.MqttDataRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * JPA Batch Writer (default)
+ * Persists a whole ingest batch in ONE transaction through MqttDataRepository,
+ * sent as JDBC batches (see hibernate.jdbc.batch_size), together with its rollups
+ */
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "mqtt.persistence", name = "write-mode", havingValue = "jpa", matchIfMissing = true)
+public class JpaMqttDataWriter implements MqttDataWriter {
+
+    private final MqttDataRepository mqttDataRepository;
+    private final MqttRollupWriter rollupWriter;
+
+    @Override
+    @Transactional
+    public List<MqttDataEntity> writeBatch(List<MqttDataEntity> batch) {
+        List<MqttDataEntity> saved = mqttDataRepository.saveAll(batch);
+        rollupWriter.apply(saved);
+        return saved;
+    }
+
+    @Override
+    public String getMode() {
+        return "jpa";
+    }
+}
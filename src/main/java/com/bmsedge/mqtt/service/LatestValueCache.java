@@ -0,0 +1,126 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest Value Cache
+ * Latest reading per device and per counter, kept in memory so the
+ * "latest" endpoints never touch the database.
+ *
+ * - Warmed at startup with one DISTINCT ON query per key type
+ * - Updated from MqttDataEvent, i.e. only with rows that are committed
+ * - An older reading never replaces a newer one (timestamp, then id)
+ *
+ * In shared-subscription mode each replica only sees its share of the
+ * messages, so the cache is not authoritative and lookups return null
+ * (callers fall back to the database).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LatestValueCache {
+
+    private final MqttDataRowRepository rowRepository;
+    private final MqttProperties mqttProperties;
+
+    private final ConcurrentHashMap<String, MqttDataRow> byDevice = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MqttDataRow> byCounter = new ConcurrentHashMap<>();
+
+    private volatile boolean serving;
+
+    @PostConstruct
+    public void warmUp() {
+        if (!mqttProperties.getLatestCache().isEnabled()) {
+            log.info("ℹ️ Latest-value cache disabled");
+            return;
+        }
+        if (mqttProperties.getSharedSubscription().isEnabled()) {
+            log.info("ℹ️ Latest-value cache bypassed: shared subscriptions deliver only part of the stream to this replica");
+            return;
+        }
+
+        try {
+            long started = System.currentTimeMillis();
+            rowRepository.findLatestPerDevice().forEach(this::update);
+            rowRepository.findLatestPerCounter().forEach(this::update);
+            serving = true;
+
+            log.info("✅ Latest-value cache warmed: {} devices, {} counters in {} ms",
+                    byDevice.size(), byCounter.size(), System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            // Stay on the database path rather than serving an incomplete cache
+            log.error("❌ Latest-value cache warm-up failed, serving latest values from the database: {}",
+                    e.getMessage(), e);
+        }
+    }
+
+    @EventListener
+    public void onMqttData(MqttDataEvent event) {
+        MqttDataEntity data = event.getData();
+        if (data != null && mqttProperties.getLatestCache().isEnabled()) {
+            update(MqttDataRow.of(data));
+        }
+    }
+
+    /**
+     * Offer a committed row; kept only if it is newer than the cached one
+     */
+    public void update(MqttDataRow row) {
+        if (row == null || !mqttProperties.getLatestCache().isEnabled()) {
+            return;
+        }
+        if (row.deviceId() != null) {
+            merge(byDevice, row.deviceId(), row);
+        }
+        if (row.counterName() != null) {
+            merge(byCounter, row.counterName(), row);
+        }
+    }
+
+    /**
+     * Cached latest row for a device, or null (miss or cache not serving)
+     */
+    public MqttDataRow getByDevice(String deviceId) {
+        return serving ? byDevice.get(deviceId) : null;
+    }
+
+    /**
+     * Cached latest row for a counter, or null (miss or cache not serving)
+     */
+    public MqttDataRow getByCounter(String counterName) {
+        return serving ? byCounter.get(counterName) : null;
+    }
+
+    public boolean isServing() {
+        return serving;
+    }
+
+    private void merge(ConcurrentHashMap<String, MqttDataRow> map, String key, MqttDataRow row) {
+        if (!map.containsKey(key) && map.size() >= mqttProperties.getLatestCache().getMaxEntries()) {
+            return;
+        }
+        map.merge(key, row, (current, candidate) -> isNewer(candidate, current) ? candidate : current);
+    }
+
+    private static boolean isNewer(MqttDataRow candidate, MqttDataRow current) {
+        if (candidate.timestamp() == null || current.timestamp() == null) {
+            return current.timestamp() == null;
+        }
+        int byTime = candidate.timestamp().compareTo(current.timestamp());
+        if (byTime != 0) {
+            return byTime > 0;
+        }
+        return candidate.id() != null && current.id() != null && candidate.id() > current.id();
+    }
+}
@@ -1,22 +1,29 @@
 package com.bmsedge.mqtt.service;
 
-import com.bmsedge.mqtt.dto.CongestionBlockDTO;
+import com.bmsedge.mqtt.config.MqttProperties;
 import com.bmsedge.mqtt.dto.MqttAggregationDTO;
 import com.bmsedge.mqtt.dto.PeakCongestionDTO;
+import com.bmsedge.mqtt.dto.SessionAggregate;
 import com.bmsedge.mqtt.dto.SessionCongestionDTO;
 import com.bmsedge.mqtt.repository.MqttDataRepository;
-import com.bmsedge.mqtt.repository.view.CongestionTimelineView;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
+import com.bmsedge.mqtt.repository.SessionSnapshotRepository;
 import com.bmsedge.mqtt.repository.view.MqttAggregationView;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -24,141 +31,109 @@ import java.util.stream.Collectors;
 public class MqttAggregationService {
 
     private final MqttDataRepository repository;
+    private final MqttDataRowRepository rowRepository;
+    private final SessionSnapshotRepository snapshotRepository;
+    private final SessionAggregator sessionAggregator;
+    private final MqttRollupBackfill rollupBackfill;
+    private final MqttProperties mqttProperties;
 
     private static final DateTimeFormatter FORMATTER =
             DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    /**
+     * Per counter over the day's sessions: sum of the session max in-counts,
+     * peak queue / wait, first reading, and the day's peak congestion block.
+     * Today comes from the live session accumulators, past days from the
+     * session snapshots, anything else from stored readings.
+     */
     public List<MqttAggregationDTO> aggregateHourly(
             LocalDateTime from,
             LocalDateTime to
     ) {
 
-        List<MqttAggregationDTO> aggregates =
-                repository.aggregateHourly(from, to)
-                        .stream()
-                        .map(view -> new MqttAggregationDTO(
-                                view.getCounterName(),
-                                view.getTotalCount(),
-                                view.getPeakQueue(),
-                                view.getPeakWaitTime(),
-                                LocalDateTime.parse(
-                                        view.getPeriodStart(), FORMATTER
-                                )
-                        ))
-                        .collect(Collectors.toList());
-
-        Map<String, List<CongestionTimelineView>> congestionMap =
-                repository.fetchCongestionTimeline(from, to)
-                        .stream()
-                        .collect(Collectors.groupingBy(
-                                CongestionTimelineView::getCounterName
-                        ));
-
-        for (MqttAggregationDTO dto : aggregates) {
-
-            List<CongestionTimelineView> rows =
-                    congestionMap.get(dto.getCounterName());
-
-            if (rows == null || rows.isEmpty()) {
-                dto.setPeakCongestion(null);
-                continue;
-            }
+        LocalDate day = from.toLocalDate();
+        boolean wholeDay = from.equals(day.atStartOfDay())
+                && to.toLocalDate().equals(day)
+                && !to.isBefore(day.atTime(23, 59, 59));
 
-            dto.setPeakCongestion(
-                    extractPeakCongestion(rows)
-            );
+        if (wholeDay && sessionAggregator.serves(day)) {
+            return toDailyAggregates(sessionAggregator.sessions(day), sessionAggregator.dayPeaks(day));
         }
 
-        return aggregates;
-    }
+        List<SessionAggregate> sessions = wholeDay ? snapshots(day) : null;
+        if (sessions == null) {
+            sessions = snapshotRepository.aggregate(from, to, sessionWindows(), rollupsEnabled(from, to));
+        }
 
-    private PeakCongestionDTO extractPeakCongestion(
-            List<CongestionTimelineView> rows
-    ) {
+        // One pass over the day's timeline, one engine (O(1) state) per counter
+        Map<String, PeakCongestionDTO> peaks = new HashMap<>();
+        congestionEngines(from, to, false).forEach((counterName, engine) -> peaks.put(counterName, engine.peak()));
 
-        List<CongestionBlockDTO> blocks =
-                buildCongestionBlocks(rows);
-
-        return blocks.stream()
-                .max(Comparator
-                        .comparingInt(CongestionBlockDTO::getWeight)
-                        .thenComparingLong(CongestionBlockDTO::getDurationMinutes)
-                )
-                .map(b -> {
-
-                    PeakCongestionDTO dto = new PeakCongestionDTO();
-                    dto.setLevel(b.getLevel());
-                    dto.setWeight(b.getWeight());
-                    dto.setStart(b.getStart());
-                    dto.setEnd(b.getEnd());
-                    dto.setDurationMinutes(b.getDurationMinutes());
-
-                    double peakWaitInBlock = rows.stream()
-                            .filter(r ->
-                                    !r.getTimestamp().isBefore(b.getStart()) &&
-                                            !r.getTimestamp().isAfter(b.getEnd())
-                            )
-                            .mapToDouble(CongestionTimelineView::getWaitTime)
-                            .max()
-                            .orElse(0);
-
-                    dto.setPeakWaitTimeInBlock(peakWaitInBlock);
-
-                    return dto;
-                })
-                .orElse(null);
+        return toDailyAggregates(sessions, peaks);
     }
 
-
-
-    private List<CongestionBlockDTO> buildCongestionBlocks(
-            List<CongestionTimelineView> rows
-    ) {
-
-        List<CongestionBlockDTO> blocks = new ArrayList<>();
-        CongestionBlockDTO current = null;
-
-        for (CongestionTimelineView row : rows) {
-
-            int weight = congestionWeight(row.getWaitTime());
-
-            if (weight == 0) {
-                if (current != null) {
-                    finalizeBlock(current);
-                    blocks.add(current);
-                    current = null;
-                }
-                continue;
-            }
-
-            String level = congestionLevel(weight);
-
-            if (current == null || current.getWeight() != weight) {
-
-                if (current != null) {
-                    finalizeBlock(current);
-                    blocks.add(current);
-                }
-
-                current = new CongestionBlockDTO();
-                current.setLevel(level);
-                current.setWeight(weight);
-                current.setStart(row.getTimestamp());
-            }
-
-            current.setEnd(row.getTimestamp());
-        }
-
-        if (current != null) {
-            finalizeBlock(current);
-            blocks.add(current);
+    /**
+     * Every counter in every session of the day (same sources as aggregateHourly;
+     * without congestion when computed from stored readings)
+     */
+    public List<SessionAggregate> aggregateSessions(LocalDate day) {
+        if (sessionAggregator.serves(day)) {
+            return sessionAggregator.sessions(day);
         }
+        List<SessionAggregate> sessions = snapshots(day);
+        return sessions != null ? sessions
+                : snapshotRepository.aggregate(day.atStartOfDay(), day.atTime(23, 59, 59), sessionWindows(),
+                        rollupsEnabled(day.atStartOfDay(), day.atTime(23, 59, 59)));
+    }
 
-        return blocks;
+    /**
+     * In-count totals per minute for one counter
+     */
+    public List<MqttAggregationDTO> aggregatePerMinute(
+            String counterName,
+            LocalDateTime from,
+            LocalDateTime to
+    ) {
+        return toBuckets(counterName, rollupsEnabled(from, to)
+                ? repository.aggregatePerMinuteFromRollups(counterName, from, to)
+                : repository.aggregatePerMinute(counterName, from, to));
     }
 
+    /**
+     * In-count totals per hour for one counter
+     */
+    public List<MqttAggregationDTO> aggregatePerHour(
+            String counterName,
+            LocalDateTime from,
+            LocalDateTime to
+    ) {
+        return toBuckets(counterName, rollupsEnabled(from, to)
+                ? repository.aggregatePerHourFromRollups(counterName, from, to)
+                : repository.aggregatePerHour(counterName, from, to));
+    }
 
+    private List<MqttAggregationDTO> toBuckets(
+            String counterName,
+            List<MqttAggregationView> views
+    ) {
+        return views.stream()
+                .map(view -> new MqttAggregationDTO(
+                        counterName,
+                        view.getTotalCount(),
+                        null,
+                        null,
+                        LocalDateTime.parse(view.getPeriodStart(), FORMATTER)
+                ))
+                .collect(Collectors.toList());
+    }
 
+    /**
+     * Rollups are read when enabled and complete for the window; history the
+     * backfill has not reached yet is aggregated from raw rows
+     */
+    private boolean rollupsEnabled(LocalDateTime from, LocalDateTime to) {
+        return mqttProperties.getRollup().isEnabled() && rollupBackfill.covers(from, to);
+    }
 
     public List<SessionCongestionDTO> computeSessionCongestion(
             LocalDateTime from,
@@ -168,69 +143,17 @@ public class MqttAggregationService {
         long sessionMinutes =
                 Duration.between(from, to).toMinutes();
 
-        // 1️⃣ Fetch raw time-series data
-        Map<String, List<CongestionTimelineView>> counterData =
-                repository.fetchCongestionTimeline(from, to)
-                        .stream()
-                        .collect(Collectors.groupingBy(
-                                CongestionTimelineView::getCounterName
-                        ));
-
         List<SessionCongestionDTO> response = new ArrayList<>();
 
-        // 2️⃣ Process each counter in one flow
-        for (var entry : counterData.entrySet()) {
+        for (var entry : congestionEngines(from, to, true).entrySet()) {
 
-            String counterName = entry.getKey();
-            List<CongestionTimelineView> rows = entry.getValue();
+            CongestionEngine engine = entry.getValue();
 
-            List<CongestionBlockDTO> blocks = new ArrayList<>();
-
-            CongestionBlockDTO current = null;
-
-            // 3️⃣ Build sustained congestion blocks
-            for (CongestionTimelineView row : rows) {
-
-                int weight = congestionWeight(row.getWaitTime());
-                String level = congestionLevel(weight);
-
-                if (current == null || current.getWeight() != weight) {
-
-                    if (current != null) {
-                        finalizeBlock(current);
-                        blocks.add(current);
-                    }
-
-                    current = new CongestionBlockDTO();
-                    current.setLevel(level);
-                    current.setWeight(weight);
-                    current.setStart(row.getTimestamp());
-                }
-
-                current.setEnd(row.getTimestamp());
-            }
-
-            if (current != null) {
-                finalizeBlock(current);
-                blocks.add(current);
-            }
-
-            // 4️⃣ Compute Weighted Congestion Index
-            long weightedSum = blocks.stream()
-                    .mapToLong(b ->
-                            b.getWeight() * b.getDurationMinutes()
-                    )
-                    .sum();
-
-            double wci =
-                    (weightedSum / (double) (sessionMinutes * 5)) * 100;
-
-            // 5️⃣ Build response DTO
             SessionCongestionDTO dto = new SessionCongestionDTO();
-            dto.setCounterName(counterName);
+            dto.setCounterName(entry.getKey());
             dto.setSessionMinutes(sessionMinutes);
-            dto.setBlocks(blocks);
-            dto.setWeightedCongestionIndex(wci);
+            dto.setBlocks(engine.blocks());
+            dto.setWeightedCongestionIndex(engine.weightedIndex(sessionMinutes));
 
             response.add(dto);
         }
@@ -240,32 +163,80 @@ public class MqttAggregationService {
 
     /* ------------------ PRIVATE HELPERS ------------------ */
 
-    private void finalizeBlock(CongestionBlockDTO block) {
-        block.setDurationMinutes(
-                Duration.between(
-                        block.getStart(),
-                        block.getEnd()
-                ).toMinutes()
-        );
+    private List<MqttProperties.SessionWindow> sessionWindows() {
+        return mqttProperties.getSessions().getWindows();
+    }
+
+    /**
+     * The day's session snapshots, or null unless every configured session was snapshotted
+     */
+    private List<SessionAggregate> snapshots(LocalDate day) {
+        Set<String> closed = snapshotRepository.findClosedSessions(day);
+        for (MqttProperties.SessionWindow window : sessionWindows()) {
+            if (!closed.contains(window.getName())) {
+                return null;
+            }
+        }
+        return snapshotRepository.findByDay(day);
     }
 
-    private int congestionWeight(double waitTime) {
-        if (waitTime <= 0) return 0;
-        if (waitTime <= 2) return 0;
-        if (waitTime == 3) return 0;
-        if (waitTime == 4) return 1;
-        if (waitTime <= 8) return 2;
-        if (waitTime <= 12) return 3;
-        return 5;
+    private List<MqttAggregationDTO> toDailyAggregates(
+            List<SessionAggregate> sessions,
+            Map<String, PeakCongestionDTO> peaks
+    ) {
+        Map<String, MqttAggregationDTO> byCounter = new TreeMap<>();
+
+        for (SessionAggregate session : sessions) {
+            MqttAggregationDTO dto = byCounter.computeIfAbsent(session.counterName(),
+                    name -> new MqttAggregationDTO(name, null, null, null, null));
+
+            if (session.maxInCount() != null) {
+                dto.setTotalCount((dto.getTotalCount() != null ? dto.getTotalCount() : 0) + session.maxInCount());
+            }
+            if (session.peakQueue() != null
+                    && (dto.getPeakQueue() == null || session.peakQueue() > dto.getPeakQueue())) {
+                dto.setPeakQueue((long) session.peakQueue());
+            }
+            if (session.peakWaitTime() != null
+                    && (dto.getPeakWaitTime() == null || session.peakWaitTime() > dto.getPeakWaitTime())) {
+                dto.setPeakWaitTime(session.peakWaitTime());
+            }
+            LocalDateTime first = session.firstTimestamp().truncatedTo(ChronoUnit.SECONDS);
+            if (dto.getPeriodStart() == null || first.isBefore(dto.getPeriodStart())) {
+                dto.setPeriodStart(first);
+            }
+        }
+
+        byCounter.forEach((counterName, dto) -> dto.setPeakCongestion(peaks.get(counterName)));
+        return new ArrayList<>(byCounter.values());
     }
 
-    private String congestionLevel(int weight) {
-        return switch (weight) {
-            case 1 -> "High";
-            case 2 -> "Critical";
-            case 3 -> "Severe";
-            case 5 -> "Extreme";
-            default -> "Low";
-        };
+    /**
+     * One finished engine per counter for [from, to]: fed with the blocks
+     * PostgreSQL computed (engine sql) or with the raw timeline streamed once
+     * (engine jvm)
+     */
+    private Map<String, CongestionEngine> congestionEngines(
+            LocalDateTime from,
+            LocalDateTime to,
+            boolean keepBlocks
+    ) {
+        Map<String, CongestionEngine> engines = new LinkedHashMap<>();
+
+        if (mqttProperties.getCongestion().getEngine() == MqttProperties.CongestionEngineType.SQL) {
+            // Peak detection only needs congested blocks; the session view lists idle ones too
+            for (MqttDataRowRepository.CongestionBlockRow block : rowRepository.findCongestionBlocks(from, to, !keepBlocks)) {
+                engines.computeIfAbsent(block.counterName(), name -> new CongestionEngine(keepBlocks))
+                        .block(block.weight(), block.start(), block.end(), block.maxWait());
+            }
+        } else {
+            rowRepository.streamCongestionTimeline(from, to, mqttProperties.getHistory().getFetchSize(),
+                    (counterName, timestamp, waitTime) -> engines
+                            .computeIfAbsent(counterName, name -> new CongestionEngine(keepBlocks))
+                            .accept(timestamp, waitTime));
+        }
+
+        engines.values().forEach(CongestionEngine::finish);
+        return engines;
     }
 }
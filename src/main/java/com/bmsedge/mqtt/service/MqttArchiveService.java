@@ -0,0 +1,373 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
+import com.bmsedge.mqtt.service.MqttHistoryService.HistoryCursor;
+import com.bmsedge.mqtt.service.MqttHistoryService.HistoryFilter;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * MQTT Archive Service
+ * Cold tier for mqtt_data: raw rows of days older than
+ * mqtt.archive.older-than-days are packed into one compressed chunk per
+ * counter and day (mqtt_archive_chunk, format ArchiveChunk) and deleted from
+ * mqtt_data, in one transaction per chunk.
+ *
+ * MqttHistoryService merges archived rows back into device / counter range
+ * reads (scan()), so clients see one history. Rollups are untouched;
+ * raw-row aggregations (congestion timelines, peaks) of archived days are
+ * no longer possible.
+ *
+ * Reported: compression ratio against the heap tuple size of the archived
+ * rows, and decode throughput of the read path.
+ */
+@Slf4j
+@Service
+public class MqttArchiveService {
+
+    private static final LocalDate EPOCH = LocalDate.of(1970, 1, 1);
+
+    private static final Comparator<MqttDataRow> ORDER =
+            Comparator.comparing(MqttDataRow::timestamp).thenComparing(MqttDataRow::id);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate archiveTransaction;
+    private final TransactionTemplate readOnlyTransaction;
+    private final MqttProperties mqttProperties;
+    private final MqttRollupBackfill rollupBackfill;
+
+    // Skip the chunk lookup entirely until something was archived
+    private volatile boolean hasChunks;
+
+    private final AtomicLong decodedChunks = new AtomicLong();
+    private final AtomicLong decodedRows = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private volatile Map<String, Object> lastRun = Map.of();
+
+    public MqttArchiveService(JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              MqttProperties mqttProperties,
+                              MqttRollupBackfill rollupBackfill) {
+        this.jdbcTemplate = jdbcTemplate;
+        // Snapshot isolation: the DELETE removes exactly the rows that were encoded
+        this.archiveTransaction = new TransactionTemplate(transactionManager);
+        this.archiveTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.mqttProperties = mqttProperties;
+        this.rollupBackfill = rollupBackfill;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            hasChunks = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM mqtt_archive_chunk)", Boolean.class));
+        } catch (Exception e) {
+            log.warn("⚠️ Could not check mqtt_archive_chunk: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "${mqtt.archive.cron:0 30 1 * * *}")
+    public void scheduledArchive() {
+        if (!mqttProperties.getArchive().isEnabled()) {
+            return;
+        }
+        try {
+            archive();
+        } catch (Exception e) {
+            log.error("❌ Archiving failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /* ------------------ WRITE ------------------ */
+
+    /**
+     * Archive up to mqtt.archive.max-days-per-run days before the cutoff, oldest first
+     *
+     * @return summary of the run
+     */
+    public synchronized Map<String, Object> archive() {
+        MqttProperties.ArchiveConfig config = mqttProperties.getArchive();
+        LocalDate cutoff = LocalDate.now().minusDays(config.getOlderThanDays());
+        long started = System.currentTimeMillis();
+
+        // Days the rollup backfill has not summarized yet keep their raw rows
+        LocalDateTime pending = rollupBackfill.pendingFrom();
+        if (pending != null && pending.toLocalDate().isBefore(cutoff)) {
+            cutoff = pending.toLocalDate();
+        }
+
+        int days = 0;
+        int chunks = 0;
+        long rows = 0;
+        long rawBytes = 0;
+        long compressedBytes = 0;
+
+        // Resume at the oldest raw row before the cutoff: the raw rows left are exactly what is not
+        // archived yet, so a day a failed run stopped in the middle of is picked up with its remaining
+        // counters (their rows merge into any chunk the day already has). Days without rows are skipped.
+        for (LocalDate day = nextDay(EPOCH, cutoff); day != null && days < config.getMaxDaysPerRun();
+             day = nextDay(day.plusDays(1), cutoff)) {
+            List<String> counters = jdbcTemplate.queryForList(
+                    "SELECT DISTINCT counter_name FROM mqtt_data WHERE timestamp >= ? AND timestamp < ?",
+                    String.class, day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+            days++;
+
+            for (String counter : counters) {
+                LocalDate chunkDay = day;
+                ChunkWrite write = archiveTransaction.execute(status -> archiveChunk(counter, chunkDay));
+                if (write != null && write.rows() > 0) {
+                    chunks++;
+                    rows += write.rows();
+                    rawBytes += write.rawBytes();
+                    compressedBytes += write.compressedBytes();
+                    hasChunks = true;
+                }
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - started;
+        Map<String, Object> run = new HashMap<>();
+        run.put("finishedAt", LocalDateTime.now());
+        run.put("cutoff", cutoff);
+        run.put("days", days);
+        run.put("chunks", chunks);
+        run.put("rows", rows);
+        run.put("rawBytes", rawBytes);
+        run.put("compressedBytes", compressedBytes);
+        run.put("compressionRatio", ratio(rawBytes, compressedBytes));
+        run.put("durationMs", elapsed);
+        run.put("rowsPerSecond", elapsed > 0 ? rows * 1000 / elapsed : rows);
+        lastRun = run;
+
+        log.info("📦 Archived {} rows of {} days into {} chunks ({} -> {} bytes, {}x) in {} ms",
+                rows, days, chunks, rawBytes, compressedBytes, ratio(rawBytes, compressedBytes), elapsed);
+        return run;
+    }
+
+    /**
+     * Day of the oldest raw row in [from, cutoff), or null
+     */
+    private LocalDate nextDay(LocalDate from, LocalDate cutoff) {
+        LocalDateTime oldest = jdbcTemplate.queryForObject(
+                "SELECT MIN(timestamp) FROM mqtt_data WHERE timestamp >= ? AND timestamp < ?",
+                LocalDateTime.class, from.atStartOfDay(), cutoff.atStartOfDay());
+        return oldest != null ? oldest.toLocalDate() : null;
+    }
+
+    /**
+     * One counter-day: raw rows (plus an existing chunk, for late rows) -> one chunk; raw rows deleted
+     */
+    private ChunkWrite archiveChunk(String counterName, LocalDate day) {
+        LocalDateTime start = day.atStartOfDay();
+        LocalDateTime end = day.plusDays(1).atStartOfDay();
+
+        List<MqttDataRow> rows = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        long[] rawBytes = new long[1];
+        jdbcTemplate.query("SELECT " + MqttDataRowRepository.COLUMNS + ", pg_column_size(mqtt_data.*) AS row_bytes"
+                + " FROM mqtt_data WHERE counter_name = ? AND timestamp >= ? AND timestamp < ?"
+                + " ORDER BY timestamp, id", rs -> {
+            MqttDataRow row = MqttDataRowRepository.ROW_MAPPER.mapRow(rs, rows.size());
+            rows.add(row);
+            ids.add(row.id());
+            rawBytes[0] += rs.getLong("row_bytes");
+        }, counterName, start, end);
+
+        if (rows.isEmpty()) {
+            return new ChunkWrite(0, 0, 0);
+        }
+
+        jdbcTemplate.query("SELECT data, raw_bytes FROM mqtt_archive_chunk WHERE counter_name = ? AND day = ? FOR UPDATE",
+                rs -> {
+                    ArchiveChunk.decode(rs.getBytes("data"), counterName, rows::add);
+                    rawBytes[0] += rs.getLong("raw_bytes");
+                }, counterName, day);
+        rows.sort(ORDER);
+
+        byte[] data = ArchiveChunk.encode(rows);
+        Set<String> devices = new LinkedHashSet<>();
+        rows.forEach(row -> devices.add(row.deviceId()));
+
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_archive_chunk (counter_name, day, device_ids, first_ts, last_ts, row_count, raw_bytes, data)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+                ON CONFLICT (counter_name, day) DO UPDATE SET
+                    device_ids = EXCLUDED.device_ids, first_ts = EXCLUDED.first_ts, last_ts = EXCLUDED.last_ts,
+                    row_count = EXCLUDED.row_count, raw_bytes = EXCLUDED.raw_bytes, data = EXCLUDED.data,
+                    archived_at = now()
+                """, ps -> {
+            ps.setString(1, counterName);
+            ps.setObject(2, day);
+            ps.setArray(3, ps.getConnection().createArrayOf("varchar", devices.toArray()));
+            ps.setObject(4, rows.get(0).timestamp());
+            ps.setObject(5, rows.get(rows.size() - 1).timestamp());
+            ps.setInt(6, rows.size());
+            ps.setLong(7, rawBytes[0]);
+            ps.setBytes(8, data);
+        });
+
+        jdbcTemplate.update("DELETE FROM mqtt_data WHERE counter_name = ? AND timestamp >= ? AND timestamp < ? AND id = ANY (?)",
+                ps -> {
+                    ps.setString(1, counterName);
+                    ps.setObject(2, start);
+                    ps.setObject(3, end);
+                    ps.setArray(4, ps.getConnection().createArrayOf("bigint", ids.toArray()));
+                });
+
+        return new ChunkWrite(ids.size(), rawBytes[0], data.length);
+    }
+
+    /* ------------------ READ ------------------ */
+
+    /**
+     * Archived rows of a device / counter filter, after the cursor, in filter
+     * order, at most limit (nothing for filters without exactly one key)
+     *
+     * @return rows emitted
+     */
+    public long scan(HistoryFilter filter, HistoryCursor after, long limit, Consumer<MqttDataRow> sink) {
+        if (!hasChunks || limit <= 0 || (filter.deviceId() == null) == (filter.counterName() == null)) {
+            return 0;
+        }
+
+        List<Object> args = new ArrayList<>();
+        StringBuilder where = new StringBuilder(filter.deviceId() != null ? "? = ANY (device_ids)" : "counter_name = ?");
+        args.add(filter.deviceId() != null ? filter.deviceId() : filter.counterName());
+        if (filter.from() != null) {
+            where.append(" AND last_ts >= ?");
+            args.add(filter.from());
+        }
+        if (filter.to() != null) {
+            where.append(" AND first_ts <= ?");
+            args.add(filter.to());
+        }
+        if (after != null) {
+            where.append(filter.descending() ? " AND first_ts <= ?" : " AND last_ts >= ?");
+            args.add(after.timestamp());
+        }
+
+        // Chunk keys first (small), then one day's chunks at a time
+        List<LocalDate> days = readOnlyTransaction.execute(status -> jdbcTemplate.queryForList(
+                "SELECT DISTINCT day FROM mqtt_archive_chunk WHERE " + where
+                        + (filter.descending() ? " ORDER BY day DESC" : " ORDER BY day ASC"),
+                LocalDate.class, args.toArray()));
+
+        long emitted = 0;
+        for (LocalDate day : days) {
+            List<MqttDataRow> rows = readDay(filter, where.toString(), args, day);
+            rows.sort(filter.descending() ? ORDER.reversed() : ORDER);
+
+            for (MqttDataRow row : rows) {
+                if (!matches(filter, after, row)) {
+                    continue;
+                }
+                sink.accept(row);
+                if (++emitted >= limit) {
+                    return emitted;
+                }
+            }
+        }
+        return emitted;
+    }
+
+    private List<MqttDataRow> readDay(HistoryFilter filter, String where, List<Object> args, LocalDate day) {
+        List<Object> dayArgs = new ArrayList<>(args);
+        dayArgs.add(day);
+
+        List<MqttDataRow> rows = new ArrayList<>();
+        readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(
+                "SELECT counter_name, data FROM mqtt_archive_chunk WHERE " + where + " AND day = ?", rs -> {
+                    byte[] data = rs.getBytes("data");
+                    long started = System.nanoTime();
+                    int decoded = ArchiveChunk.decode(data, rs.getString("counter_name"), row -> {
+                        if (filter.deviceId() == null || filter.deviceId().equals(row.deviceId())) {
+                            rows.add(row);
+                        }
+                    });
+                    decodeNanos.addAndGet(System.nanoTime() - started);
+                    decodedChunks.incrementAndGet();
+                    decodedRows.addAndGet(decoded);
+                    decodedBytes.addAndGet(data.length);
+                }, dayArgs.toArray()));
+        return rows;
+    }
+
+    private static boolean matches(HistoryFilter filter, HistoryCursor after, MqttDataRow row) {
+        if (filter.from() != null && row.timestamp().isBefore(filter.from())) {
+            return false;
+        }
+        if (filter.to() != null && row.timestamp().isAfter(filter.to())) {
+            return false;
+        }
+        if (after == null) {
+            return true;
+        }
+        int byTime = row.timestamp().compareTo(after.timestamp());
+        int position = byTime != 0 ? byTime : Long.compare(row.id(), after.id());
+        return filter.descending() ? position < 0 : position > 0;
+    }
+
+    /* ------------------ STATS ------------------ */
+
+    /**
+     * Archive size, compression ratio, decode throughput and the last run
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>(jdbcTemplate.queryForMap("""
+                SELECT COUNT(*) AS "chunks", COALESCE(SUM(row_count), 0) AS "rows",
+                       COALESCE(SUM(raw_bytes), 0) AS "rawBytes",
+                       COALESCE(SUM(octet_length(data)), 0) AS "compressedBytes",
+                       MIN(day) AS "firstDay", MAX(day) AS "lastDay"
+                FROM mqtt_archive_chunk
+                """));
+        long rows = ((Number) stats.get("rows")).longValue();
+        long raw = ((Number) stats.get("rawBytes")).longValue();
+        long compressed = ((Number) stats.get("compressedBytes")).longValue();
+        stats.put("compressionRatio", ratio(raw, compressed));
+        stats.put("bytesPerRow", rows > 0 ? (double) compressed / rows : 0.0);
+
+        long nanos = decodeNanos.get();
+        Map<String, Object> decode = new HashMap<>();
+        decode.put("chunks", decodedChunks.get());
+        decode.put("rows", decodedRows.get());
+        decode.put("bytes", decodedBytes.get());
+        decode.put("rowsPerSecond", nanos > 0 ? (long) (decodedRows.get() * 1e9 / nanos) : 0);
+        decode.put("megabytesPerSecond", nanos > 0 ? decodedBytes.get() * 1e3 / nanos : 0.0);
+
+        stats.put("enabled", mqttProperties.getArchive().isEnabled());
+        stats.put("olderThanDays", mqttProperties.getArchive().getOlderThanDays());
+        stats.put("decode", decode);
+        stats.put("lastRun", lastRun);
+        return stats;
+    }
+
+    private static double ratio(long raw, long compressed) {
+        return compressed > 0 ? Math.round(raw * 100.0 / compressed) / 100.0 : 0.0;
+    }
+
+    private record ChunkWrite(long rows, long rawBytes, long compressedBytes) {
+    }
+}
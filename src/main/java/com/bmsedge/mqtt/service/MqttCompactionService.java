@@ -0,0 +1,308 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MQTT Compaction Service
+ * Retention for mqtt_data: raw rows older than mqtt.compaction.older-than-days
+ * are replaced by their per-minute summaries, one hour slice at a time:
+ *
+ *   1. summarize  -> mqtt_rollup_minute / mqtt_rollup_hour of the slice
+ *                    recomputed from its raw rows (replaces what ingest wrote)
+ *   2. delete     -> raw rows of the slice in (timestamp, id) keyset order,
+ *                    batch-size rows per short transaction, with a pause in
+ *                    between (longer while the ingest queue backs up)
+ *
+ * The checkpoint row (mqtt_compaction_checkpoint) moves in the same
+ * transaction as each step, so a restart resumes exactly where it stopped
+ * and a half-deleted slice is never summarized again. A run stops after
+ * mqtt.compaction.max-run-minutes.
+ *
+ * Unlike the archive tier (MqttArchiveService) the raw readings are gone
+ * afterwards: history endpoints return nothing for compacted days. In-count
+ * totals, peak queue and peak wait keep working from the rollups, but the
+ * congestion peak of /aggregate/hourly is detected on the raw wait-time
+ * timeline and is null for compacted days (see rawDataFrom).
+ */
+@Slf4j
+@Service
+public class MqttCompactionService {
+
+    private static final String JOB = "raw-to-minute";
+
+    // One keyset batch; returns the batch size and its last (timestamp, id)
+    private static final String DELETE_BATCH_SQL = """
+            WITH batch AS (
+                SELECT id, timestamp FROM mqtt_data
+                WHERE timestamp >= ? AND timestamp < ? AND (timestamp, id) > (?, ?)
+                ORDER BY timestamp, id
+                LIMIT ?
+            ), deleted AS (
+                DELETE FROM mqtt_data d USING batch b
+                WHERE d.id = b.id AND d.timestamp = b.timestamp
+                RETURNING d.timestamp, d.id
+            )
+            SELECT COUNT(*) OVER () AS deleted, timestamp, id FROM deleted
+            ORDER BY timestamp DESC, id DESC
+            LIMIT 1
+            """;
+
+    private static final String SAVE_CHECKPOINT_SQL = """
+            INSERT INTO mqtt_compaction_checkpoint (job, slice_start, summarized, last_ts, last_id, rows_deleted)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT (job) DO UPDATE SET
+                slice_start = EXCLUDED.slice_start, summarized = EXCLUDED.summarized,
+                last_ts = EXCLUDED.last_ts, last_id = EXCLUDED.last_id,
+                rows_deleted = mqtt_compaction_checkpoint.rows_deleted + EXCLUDED.rows_deleted,
+                updated_at = now()
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaction;
+    private final MqttProperties mqttProperties;
+    private final MqttIngestPipeline ingestPipeline;
+    private final MqttRollupBackfill rollupBackfill;
+
+    private volatile boolean running;
+    private volatile long runStartedAt;
+    private final AtomicLong runDeleted = new AtomicLong();
+    private final AtomicLong totalDeleted = new AtomicLong();
+    private final AtomicLong totalBatches = new AtomicLong();
+    private volatile Map<String, Object> lastRun = Map.of();
+
+    public MqttCompactionService(JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager,
+                                 MqttProperties mqttProperties,
+                                 MqttIngestPipeline ingestPipeline,
+                                 MqttRollupBackfill rollupBackfill) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.mqttProperties = mqttProperties;
+        this.ingestPipeline = ingestPipeline;
+        this.rollupBackfill = rollupBackfill;
+    }
+
+    @Scheduled(cron = "${mqtt.compaction.cron:0 15 2 * * *}")
+    public void scheduledCompact() {
+        if (!mqttProperties.getCompaction().isEnabled()) {
+            return;
+        }
+        try {
+            compact();
+        } catch (Exception e) {
+            log.error("❌ Compaction failed (resumes from the checkpoint next run): {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compact hour slices before the cutoff until caught up or out of time
+     *
+     * @return summary of the run
+     */
+    public synchronized Map<String, Object> compact() {
+        MqttProperties.CompactionConfig config = mqttProperties.getCompaction();
+        LocalDateTime cutoff = LocalDate.now().minusDays(config.getOlderThanDays()).atStartOfDay();
+        // The rollup backfill recomputes slices from raw rows: stay behind it
+        LocalDateTime pending = rollupBackfill.pendingFrom();
+        if (pending != null && pending.isBefore(cutoff)) {
+            cutoff = pending;
+        }
+        long started = System.currentTimeMillis();
+        long deadline = started + config.getMaxRunMinutes() * 60_000L;
+
+        running = true;
+        runStartedAt = started;
+        runDeleted.set(0);
+        int slices = 0;
+        long summaries = 0;
+        boolean caughtUp = false;
+
+        try {
+            Checkpoint checkpoint = loadCheckpoint();
+            if (checkpoint == null) {
+                LocalDateTime first = nextSlice(LocalDateTime.of(1970, 1, 1, 0, 0), cutoff);
+                checkpoint = new Checkpoint(first != null ? first : cutoff, false, null, null);
+            }
+
+            while (!checkpoint.sliceStart().plusHours(1).isAfter(cutoff)) {
+                if (System.currentTimeMillis() > deadline || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                LocalDateTime sliceStart = checkpoint.sliceStart();
+                LocalDateTime sliceEnd = sliceStart.plusHours(1);
+
+                if (!checkpoint.summarized()) {
+                    Checkpoint summarized = new Checkpoint(sliceStart, true, null, null);
+                    summaries += transaction.execute(status -> {
+                        int minutes = jdbcTemplate.update(MqttRollupBackfill.SUMMARIZE_MINUTES_SQL,
+                                sliceStart, sliceEnd);
+                        jdbcTemplate.update(MqttRollupBackfill.SUMMARIZE_HOURS_SQL, sliceStart, sliceEnd);
+                        saveCheckpoint(summarized, 0);
+                        return minutes;
+                    });
+                    checkpoint = summarized;
+                }
+
+                checkpoint = deleteSlice(checkpoint, deadline);
+                if (checkpoint == null) {
+                    break;  // out of time or interrupted mid-slice; the checkpoint has the position
+                }
+
+                slices++;
+                LocalDateTime next = nextSlice(sliceEnd, cutoff);
+                checkpoint = new Checkpoint(next != null ? next : cutoff, false, null, null);
+                saveCheckpoint(checkpoint, 0);
+            }
+            caughtUp = checkpoint != null && checkpoint.sliceStart().plusHours(1).isAfter(cutoff);
+        } finally {
+            running = false;
+        }
+
+        long elapsed = System.currentTimeMillis() - started;
+        long deleted = runDeleted.get();
+        Map<String, Object> run = new HashMap<>();
+        run.put("finishedAt", LocalDateTime.now());
+        run.put("cutoff", cutoff);
+        run.put("slices", slices);
+        run.put("minuteSummaries", summaries);
+        run.put("rowsDeleted", deleted);
+        run.put("durationMs", elapsed);
+        run.put("rowsPerSecond", elapsed > 0 ? deleted * 1000 / elapsed : deleted);
+        run.put("caughtUp", caughtUp);
+        lastRun = run;
+
+        log.info("🧹 Compacted {} hour slices: {} raw rows -> {} minute summaries in {} ms ({} rows/s){}",
+                slices, deleted, summaries, elapsed, run.get("rowsPerSecond"), caughtUp ? "" : " - continues next run");
+        return run;
+    }
+
+    /**
+     * Delete the slice's raw rows batch by batch
+     *
+     * @return the finished slice's checkpoint, or null when stopped early
+     */
+    private Checkpoint deleteSlice(Checkpoint checkpoint, long deadline) {
+        MqttProperties.CompactionConfig config = mqttProperties.getCompaction();
+        LocalDateTime sliceStart = checkpoint.sliceStart();
+        LocalDateTime sliceEnd = sliceStart.plusHours(1);
+
+        while (true) {
+            Checkpoint position = checkpoint;
+            Checkpoint next = transaction.execute(status -> {
+                List<Checkpoint> batch = jdbcTemplate.query(DELETE_BATCH_SQL, (rs, rowNum) -> {
+                    long deleted = rs.getLong("deleted");
+                    Checkpoint moved = new Checkpoint(sliceStart, true,
+                            rs.getObject("timestamp", LocalDateTime.class), rs.getLong("id"));
+                    saveCheckpoint(moved, deleted);
+                    runDeleted.addAndGet(deleted);
+                    totalDeleted.addAndGet(deleted);
+                    return moved;
+                },
+                        sliceStart, sliceEnd,
+                        position.lastTs() != null ? position.lastTs() : sliceStart,
+                        position.lastId() != null ? position.lastId() : Long.MIN_VALUE,
+                        config.getBatchSize());
+                return batch.isEmpty() ? null : batch.get(0);
+            });
+
+            if (next == null) {
+                return checkpoint;
+            }
+            checkpoint = next;
+            totalBatches.incrementAndGet();
+
+            if (System.currentTimeMillis() > deadline) {
+                return null;
+            }
+            try {
+                boolean backlog = ingestPipeline.queueDepth() > config.getMaxIngestBacklog();
+                Thread.sleep(backlog ? config.getPauseMs() * 10 : config.getPauseMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Start of the hour holding the oldest raw row in [from, cutoff), or null
+     */
+    private LocalDateTime nextSlice(LocalDateTime from, LocalDateTime cutoff) {
+        return jdbcTemplate.queryForObject(
+                "SELECT date_trunc('hour', MIN(timestamp)) FROM mqtt_data WHERE timestamp >= ? AND timestamp < ?",
+                LocalDateTime.class, from, cutoff);
+    }
+
+    private Checkpoint loadCheckpoint() {
+        return jdbcTemplate.query(
+                "SELECT slice_start, summarized, last_ts, last_id FROM mqtt_compaction_checkpoint WHERE job = ?",
+                (rs, rowNum) -> new Checkpoint(
+                        rs.getObject("slice_start", LocalDateTime.class),
+                        rs.getBoolean("summarized"),
+                        rs.getObject("last_ts", LocalDateTime.class),
+                        (Long) rs.getObject("last_id")),
+                JOB).stream().findFirst().orElse(null);
+    }
+
+    private void saveCheckpoint(Checkpoint checkpoint, long deleted) {
+        jdbcTemplate.update(SAVE_CHECKPOINT_SQL, JOB, checkpoint.sliceStart(), checkpoint.summarized(),
+                checkpoint.lastTs(), checkpoint.lastId(), deleted);
+    }
+
+    /**
+     * Raw rows are complete from here on (null: nothing compacted yet). Earlier
+     * ranges only have rollups, so their congestion peaks cannot be computed.
+     */
+    public LocalDateTime rawDataFrom() {
+        Checkpoint checkpoint = loadCheckpoint();
+        if (checkpoint == null) {
+            return null;
+        }
+        // Mid-slice: part of the slice is already gone
+        return checkpoint.lastTs() != null ? checkpoint.sliceStart().plusHours(1) : checkpoint.sliceStart();
+    }
+
+    /**
+     * Progress and throughput (rows compacted per second)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", mqttProperties.getCompaction().isEnabled());
+        stats.put("olderThanDays", mqttProperties.getCompaction().getOlderThanDays());
+        stats.put("running", running);
+        if (running) {
+            long elapsed = System.currentTimeMillis() - runStartedAt;
+            stats.put("currentRowsDeleted", runDeleted.get());
+            stats.put("currentRowsPerSecond", elapsed > 0 ? runDeleted.get() * 1000 / elapsed : 0);
+        }
+        stats.put("rowsDeletedSinceStart", totalDeleted.get());
+        stats.put("batchesSinceStart", totalBatches.get());
+        stats.put("lastRun", lastRun);
+
+        List<Map<String, Object>> checkpoint = jdbcTemplate.queryForList(
+                "SELECT slice_start, summarized, last_ts, last_id, rows_deleted, updated_at"
+                        + " FROM mqtt_compaction_checkpoint WHERE job = ?", JOB);
+        stats.put("checkpoint", checkpoint.isEmpty() ? null : checkpoint.get(0));
+        stats.put("rawDataFrom", rawDataFrom());
+        return stats;
+    }
+
+    /**
+     * Hour slice in progress: summarized yet, last deleted (timestamp, id)
+     */
+    private record Checkpoint(LocalDateTime sliceStart, boolean summarized, LocalDateTime lastTs, Long lastId) {
+    }
+}
@@ -1,68 +1,68 @@
 package com.bmsedge.mqtt.service;
 
-import com.bmsedge.mqtt.dto.MqttMessageDTO;
-import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.bmsedge.mqtt.dto.MqttReading;
 import com.bmsedge.mqtt.model.MqttDataEntity;
-import com.bmsedge.mqtt.repository.MqttDataRepository;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.ApplicationEventPublisher;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * MQTT Data Service
- * Processes and saves MQTT messages - EVERY message creates a NEW row
+ * Processes MQTT messages - EVERY message creates a NEW row
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class MqttDataService {
 
-    private final MqttDataRepository mqttDataRepository;
-    private final ObjectMapper objectMapper;
-    private final ApplicationEventPublisher eventPublisher;
+    private final MqttDataRowRepository rowRepository;
+    private final MqttPayloadDecoder payloadDecoder;
+    private final MqttIngestPipeline ingestPipeline;
+    private final LatestValueCache latestValueCache;
 
     /**
-     * Process and save MQTT message
-     * ✅ EVERY call creates a NEW database row
+     * Decode an MQTT payload and hand it to the ingest pipeline
+     * ✅ EVERY call creates a NEW database row (written asynchronously in batches)
      */
-    @Transactional
-    public void processMqttMessage(String jsonPayload) {
+    public void processMqttMessage(byte[] payload) {
         try {
-            log.info("📨 Processing MQTT message: {}", jsonPayload);
+            if (log.isDebugEnabled()) {
+                log.debug("📨 Processing MQTT message: {}", new String(payload, StandardCharsets.UTF_8));
+            }
 
-            // Parse JSON to DTO
-            MqttMessageDTO messageDTO = objectMapper.readValue(jsonPayload, MqttMessageDTO.class);
+            // Decode straight from the payload bytes
+            MqttReading reading = payloadDecoder.decode(payload);
 
             // Validate
-            if (!isValid(messageDTO)) {
-                log.warn("⚠️ Invalid MQTT message: {}", jsonPayload);
+            if (!isValid(reading)) {
+                log.warn("⚠️ Invalid MQTT message: {}", new String(payload, StandardCharsets.UTF_8));
                 return;
             }
 
-            // Convert DTO to Entity and save
+            // Convert reading to Entity and enqueue
             // This ALWAYS creates a new row (never updates)
-            MqttDataEntity entity = convertToEntity(messageDTO);
-            MqttDataEntity savedEntity = mqttDataRepository.save(entity);
-
-            log.info("✅ Saved MQTT data: id={}, device={}, counter={}, occupancy={}, inCount={}, waitTime={}",
-                    savedEntity.getId(),
-                    savedEntity.getDeviceId(),
-                    savedEntity.getCounterName(),
-                    savedEntity.getOccupancy(),
-                    savedEntity.getInCount(),
-                    savedEntity.getWaitTime());
-
-            // ✅ Publish event for live WebSocket broadcast
-            eventPublisher.publishEvent(new MqttDataEvent(this, savedEntity));
-
+            MqttDataEntity entity = convertToEntity(reading);
+            ingestPipeline.enqueue(entity);
+
+            log.debug("📥 Queued MQTT data: device={}, counter={}, occupancy={}, inCount={}, waitTime={}",
+                    entity.getDeviceId(),
+                    entity.getCounterName(),
+                    entity.getOccupancy(),
+                    entity.getInCount(),
+                    entity.getWaitTime());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing MQTT message", e);
         } catch (Exception e) {
             log.error("❌ Error processing MQTT message: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to process MQTT message", e);
@@ -72,12 +72,12 @@ public class MqttDataService {
     /**
      * Validate message
      */
-    private boolean isValid(MqttMessageDTO dto) {
-        if (dto.getDeviceId() == null || dto.getDeviceId().trim().isEmpty()) {
+    private boolean isValid(MqttReading reading) {
+        if (reading.deviceId() == null || reading.deviceId().trim().isEmpty()) {
             log.warn("⚠️ Missing device_id");
             return false;
         }
-        if (dto.getCounterName() == null || dto.getCounterName().trim().isEmpty()) {
+        if (reading.counterName() == null || reading.counterName().trim().isEmpty()) {
             log.warn("⚠️ Missing counter_name");
             return false;
         }
@@ -85,30 +85,28 @@ public class MqttDataService {
     }
 
     /**
-     * Convert DTO to Entity - Creates NEW entity every time
+     * Convert reading to Entity - Creates NEW entity every time
      */
-    private MqttDataEntity convertToEntity(MqttMessageDTO dto) {
-        Double waitTime = dto.getWaitTimeInMinutes();
-
+    private MqttDataEntity convertToEntity(MqttReading reading) {
         return MqttDataEntity.builder()
-                .deviceId(dto.getDeviceId())
-                .counterName(dto.getCounterName())
-                .occupancy(dto.getOccupancy() != null ? dto.getOccupancy() : 0)
-                .inCount(dto.getInCount() != null ? dto.getInCount() : 0)
-                .waitTime(waitTime)
+                .deviceId(reading.deviceId())
+                .counterName(reading.counterName())
+                .occupancy(reading.occupancy())
+                .inCount(reading.inCount())
+                .waitTime(reading.waitTimeMinutes())
                 .timestamp(LocalDateTime.now())
                 .build();
     }
 
     /**
-     * Get latest data by device ID
+     * Get latest data by device ID (database; the result also refreshes LatestValueCache)
      */
-    public MqttDataEntity getLatestByDeviceId(String deviceId) {
+    public MqttDataRow getLatestByDeviceId(String deviceId) {
         log.debug("Fetching latest data for device: {}", deviceId);
         try {
-            Pageable pageable = PageRequest.of(0, 1);
-            List<MqttDataEntity> results = mqttDataRepository.findLatestByDeviceId(deviceId, pageable);
-            return results.isEmpty() ? null : results.get(0);
+            MqttDataRow latest = rowRepository.findLatestByDeviceId(deviceId).orElse(null);
+            latestValueCache.update(latest);
+            return latest;
         } catch (Exception e) {
             log.error("Error fetching latest data for device {}: {}", deviceId, e.getMessage(), e);
             throw new RuntimeException("Failed to fetch data for device: " + deviceId, e);
@@ -116,17 +114,81 @@ public class MqttDataService {
     }
 
     /**
-     * Get latest data by counter name
+     * Get latest data by counter name (database; the result also refreshes LatestValueCache)
      */
-    public MqttDataEntity getLatestByCounterName(String counterName) {
+    public MqttDataRow getLatestByCounterName(String counterName) {
         log.debug("Fetching latest data for counter: {}", counterName);
         try {
-            Pageable pageable = PageRequest.of(0, 1);
-            List<MqttDataEntity> results = mqttDataRepository.findLatestByCounterName(counterName, pageable);
-            return results.isEmpty() ? null : results.get(0);
+            MqttDataRow latest = rowRepository.findLatestByCounterName(counterName).orElse(null);
+            latestValueCache.update(latest);
+            return latest;
         } catch (Exception e) {
             log.error("Error fetching latest data for counter {}: {}", counterName, e.getMessage(), e);
             throw new RuntimeException("Failed to fetch data for counter: " + counterName, e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Latest data of a device at or before the given time (database)
+     */
+    public MqttDataRow getAsOfByDeviceId(String deviceId, LocalDateTime at) {
+        try {
+            return rowRepository.findAsOfByDeviceId(deviceId, at).orElse(null);
+        } catch (Exception e) {
+            log.error("Error fetching data for device {} as of {}: {}", deviceId, at, e.getMessage(), e);
+            throw new RuntimeException("Failed to fetch data for device: " + deviceId, e);
+        }
+    }
+
+    /**
+     * Latest data of a counter at or before the given time (database)
+     */
+    public MqttDataRow getAsOfByCounterName(String counterName, LocalDateTime at) {
+        try {
+            return rowRepository.findAsOfByCounterName(counterName, at).orElse(null);
+        } catch (Exception e) {
+            log.error("Error fetching data for counter {} as of {}: {}", counterName, at, e.getMessage(), e);
+            throw new RuntimeException("Failed to fetch data for counter: " + counterName, e);
+        }
+    }
+
+    /**
+     * Latest data for many devices in one query, keyed by device ID (ids without data are absent)
+     */
+    public Map<String, MqttDataRow> getLatestByDeviceIds(Collection<String> deviceIds) {
+        if (deviceIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            Map<String, MqttDataRow> latest = new HashMap<>();
+            for (MqttDataRow row : rowRepository.findLatestByDeviceIds(deviceIds)) {
+                latestValueCache.update(row);
+                latest.put(row.deviceId(), row);
+            }
+            return latest;
+        } catch (Exception e) {
+            log.error("Error fetching latest data for {} devices: {}", deviceIds.size(), e.getMessage(), e);
+            throw new RuntimeException("Failed to fetch data for devices", e);
+        }
+    }
+
+    /**
+     * Latest data for many counters in one query, keyed by counter name (names without data are absent)
+     */
+    public Map<String, MqttDataRow> getLatestByCounterNames(Collection<String> counterNames) {
+        if (counterNames.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        try {
+            Map<String, MqttDataRow> latest = new HashMap<>();
+            for (MqttDataRow row : rowRepository.findLatestByCounterNames(counterNames)) {
+                latestValueCache.update(row);
+                latest.put(row.counterName(), row);
+            }
+            return latest;
+        } catch (Exception e) {
+            log.error("Error fetching latest data for {} counters: {}", counterNames.size(), e.getMessage(), e);
+            throw new RuntimeException("Failed to fetch data for counters", e);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.model.MqttDataEntity;
+
+import java.util.List;
+
+/**
+ * Persistence strategy for ingest batches
+ * Selected by mqtt.persistence.write-mode (jpa | copy)
+ */
+public interface MqttDataWriter {
+
+    /**
+     * Insert all rows of the batch and commit once
+     *
+     * @return the persisted rows (with ids assigned)
+     */
+    List<MqttDataEntity> writeBatch(List<MqttDataEntity> batch);
+
+    /**
+     * Name of the write mode, reported in ingest statistics
+     */
+    String getMode();
+}
@@ -0,0 +1,322 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * MQTT History Service
+ * Bounded reads of mqtt_data history for the REST endpoints:
+ *
+ * - page():   keyset pagination on (timestamp, id) - "after" is the last row
+ *             of the previous page, so every page is one index range scan
+ *             (no OFFSET, no growing cost deeper into the history)
+ * - stream(): every matching row handed to a consumer as it comes off a
+ *             server-side cursor (fetch size mqtt.history.fetch-size), so heap
+ *             use does not depend on how long the history is. The cursor holds
+ *             a pool connection until the client has read everything, so
+ *             callers take a StreamSlot first (tryOpenStream()): at most
+ *             mqtt.history.max-concurrent-streams are open, further requests
+ *             are refused instead of queueing on the pool
+ *
+ * - downsample(): occupancy and wait time reduced to about N points
+ *             (SeriesDownsampler) in the same single streaming pass
+ *
+ * Rows are MqttDataRow records (MqttDataRowRepository.ROW_MAPPER) - nothing is
+ * held in a persistence context.
+ *
+ * Single-device / single-counter reads inside the recent window
+ * (RecentWindowStore.coveredFrom) are answered from memory; a stream that
+ * starts before it reads the older part from the database and the rest
+ * from memory.
+ *
+ * Days moved to the archive tier (MqttArchiveService) are merged back into
+ * device / counter reads: ascending reads start in the archive, descending
+ * reads continue into it once mqtt_data has no older rows.
+ */
+@Slf4j
+@Service
+public class MqttHistoryService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate streamingJdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final MqttProperties mqttProperties;
+    private final RecentWindowStore recentWindow;
+    private final MqttArchiveService archive;
+    private final Semaphore streamSlots;
+
+    public MqttHistoryService(JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              MqttProperties mqttProperties,
+                              RecentWindowStore recentWindow,
+                              MqttArchiveService archive) {
+        this.jdbcTemplate = jdbcTemplate;
+        // Own template: the fetch size must not leak into other queries
+        this.streamingJdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.streamingJdbcTemplate.setFetchSize(mqttProperties.getHistory().getFetchSize());
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.mqttProperties = mqttProperties;
+        this.recentWindow = recentWindow;
+        this.archive = archive;
+        this.streamSlots = new Semaphore(Math.max(1, mqttProperties.getHistory().getMaxConcurrentStreams()));
+    }
+
+    /**
+     * Slot for one stream() / downsample() call, or null when
+     * mqtt.history.max-concurrent-streams are already open
+     */
+    public StreamSlot tryOpenStream() {
+        return streamSlots.tryAcquire() ? new StreamSlot() : null;
+    }
+
+    public int openStreams() {
+        return Math.max(1, mqttProperties.getHistory().getMaxConcurrentStreams()) - streamSlots.availablePermits();
+    }
+
+    /**
+     * One page of at most limit rows (capped at mqtt.history.max-page-size) after the cursor
+     */
+    public List<MqttDataRow> page(HistoryFilter filter, HistoryCursor after, int limit) {
+        LocalDateTime covered = recentWindow.coveredFrom(filter);
+        if (covered != null && filter.from() != null && !filter.from().isBefore(covered)) {
+            List<MqttDataRow> rows = new ArrayList<>();
+            recentWindow.scan(filter, filter.from(), after, pageSize(limit), rows::add);
+            return rows;
+        }
+
+        int size = pageSize(limit);
+        List<MqttDataRow> rows = new ArrayList<>();
+        if (!filter.descending()) {
+            archive.scan(filter, after, size, rows::add);
+        }
+        if (rows.size() < size) {
+            rows.addAll(pageDatabase(filter, rows.isEmpty() ? after : HistoryCursor.of(rows.get(rows.size() - 1)),
+                    size - rows.size()));
+        }
+        if (filter.descending() && rows.size() < size) {
+            archive.scan(filter, rows.isEmpty() ? after : HistoryCursor.of(rows.get(rows.size() - 1)),
+                    size - rows.size(), rows::add);
+        }
+        return rows;
+    }
+
+    private List<MqttDataRow> pageDatabase(HistoryFilter filter, HistoryCursor after, int limit) {
+        List<Object> args = new ArrayList<>();
+        String sql = select(filter, after, args) + " LIMIT ?";
+        args.add(limit);
+
+        return readOnlyTransaction.execute(status ->
+                jdbcTemplate.query(sql, MqttDataRowRepository.ROW_MAPPER, args.toArray()));
+    }
+
+    /**
+     * Rows page() returns at most for this limit - a shorter page is the last one
+     */
+    public int pageSize(int limit) {
+        return Math.max(1, Math.min(limit, mqttProperties.getHistory().getMaxPageSize()));
+    }
+
+    /**
+     * Largest page, and largest points= of a downsampled read
+     */
+    public int maxPageSize() {
+        return mqttProperties.getHistory().getMaxPageSize();
+    }
+
+    /**
+     * Every matching row, in order, through a server-side cursor (PostgreSQL only
+     * uses a cursor inside a transaction, hence the read-only transaction)
+     *
+     * @return rows streamed
+     */
+    public long stream(HistoryFilter filter, Consumer<MqttDataRow> sink) {
+        long started = System.currentTimeMillis();
+        long rows;
+
+        LocalDateTime covered = recentWindow.coveredFrom(filter);
+        if (covered == null || (filter.to() != null && filter.to().isBefore(covered))) {
+            rows = streamStored(filter, sink);
+        } else if (filter.from() != null && !filter.from().isBefore(covered)) {
+            rows = recentWindow.scan(filter, filter.from(), null, Long.MAX_VALUE, sink);
+        } else {
+            // Older part from the database, the window from memory - in filter order
+            HistoryFilter older = new HistoryFilter(filter.deviceId(), filter.counterName(),
+                    filter.from(), covered.minusNanos(1_000), filter.descending());
+            if (filter.descending()) {
+                rows = recentWindow.scan(filter, covered, null, Long.MAX_VALUE, sink);
+                rows += streamStored(older, sink);
+            } else {
+                rows = streamStored(older, sink);
+                rows += recentWindow.scan(filter, covered, null, Long.MAX_VALUE, sink);
+            }
+        }
+
+        log.debug("📤 Streamed {} rows in {} ms", rows, System.currentTimeMillis() - started);
+        return rows;
+    }
+
+    /**
+     * Archive and mqtt_data, in filter order
+     */
+    private long streamStored(HistoryFilter filter, Consumer<MqttDataRow> sink) {
+        if (filter.descending()) {
+            return streamDatabase(filter, sink) + archive.scan(filter, null, Long.MAX_VALUE, sink);
+        }
+        long rows = archive.scan(filter, null, Long.MAX_VALUE, sink);
+        return rows + streamDatabase(filter, sink);
+    }
+
+    private long streamDatabase(HistoryFilter filter, Consumer<MqttDataRow> sink) {
+        List<Object> args = new ArrayList<>();
+        String sql = select(filter, null, args);
+
+        long[] rows = new long[1];
+        readOnlyTransaction.executeWithoutResult(status ->
+                streamingJdbcTemplate.query(sql, rs -> {
+                    sink.accept(MqttDataRowRepository.ROW_MAPPER.mapRow(rs, (int) rows[0]));
+                    rows[0]++;
+                }, args.toArray()));
+        return rows[0];
+    }
+
+    /**
+     * Occupancy and wait time of a bounded filter (from and to set, ascending)
+     * reduced to about points values each, without holding the range in memory
+     */
+    public Downsampled downsample(HistoryFilter filter, int points, SeriesDownsampler.Method method) {
+        long from = ColumnarChunk.epochMillis(filter.from());
+        long to = ColumnarChunk.epochMillis(filter.to());
+        SeriesDownsampler occupancy = SeriesDownsampler.create(method, from, to, points);
+        SeriesDownsampler waitTime = SeriesDownsampler.create(method, from, to, points);
+
+        long rows = stream(filter, row -> {
+            long timestamp = ColumnarChunk.epochMillis(row.timestamp());
+            if (row.occupancy() != null) {
+                occupancy.accept(timestamp, row.occupancy());
+            }
+            if (row.waitTime() != null) {
+                waitTime.accept(timestamp, row.waitTime());
+            }
+        });
+
+        return new Downsampled(occupancy.finish(), waitTime.finish(), rows);
+    }
+
+    private static String select(HistoryFilter filter, HistoryCursor after, List<Object> args) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(MqttDataRowRepository.COLUMNS).append(" FROM mqtt_data WHERE timestamp IS NOT NULL");
+
+        if (filter.deviceId() != null) {
+            sql.append(" AND device_id = ?");
+            args.add(filter.deviceId());
+        }
+        if (filter.counterName() != null) {
+            sql.append(" AND counter_name = ?");
+            args.add(filter.counterName());
+        }
+        if (filter.from() != null) {
+            sql.append(" AND timestamp >= ?");
+            args.add(filter.from());
+        }
+        if (filter.to() != null) {
+            sql.append(" AND timestamp <= ?");
+            args.add(filter.to());
+        }
+        if (after != null) {
+            sql.append(filter.descending() ? " AND (timestamp, id) < (?, ?)" : " AND (timestamp, id) > (?, ?)");
+            args.add(after.timestamp());
+            args.add(after.id());
+        }
+
+        sql.append(filter.descending() ? " ORDER BY timestamp DESC, id DESC" : " ORDER BY timestamp ASC, id ASC");
+        return sql.toString();
+    }
+
+    /**
+     * Downsampled series plus the number of rows they were computed from
+     */
+    public record Downsampled(SeriesDownsampler.Series occupancy, SeriesDownsampler.Series waitTime, long sourceRows) {
+    }
+
+    /**
+     * Which rows, in which order (null = no restriction)
+     */
+    public record HistoryFilter(String deviceId, String counterName,
+                                LocalDateTime from, LocalDateTime to, boolean descending) {
+
+        public static HistoryFilter device(String deviceId, LocalDateTime from, LocalDateTime to, boolean descending) {
+            return new HistoryFilter(deviceId, null, from, to, descending);
+        }
+
+        public static HistoryFilter counter(String counterName, LocalDateTime from, LocalDateTime to, boolean descending) {
+            return new HistoryFilter(null, counterName, from, to, descending);
+        }
+
+        public static HistoryFilter all(boolean descending) {
+            return new HistoryFilter(null, null, null, null, descending);
+        }
+    }
+
+    /**
+     * Keyset position "timestamp,id" (ISO timestamp) - the last row already returned
+     */
+    public record HistoryCursor(LocalDateTime timestamp, long id) {
+
+        public static HistoryCursor of(MqttDataRow row) {
+            return new HistoryCursor(row.timestamp(), row.id());
+        }
+
+        /**
+         * @throws IllegalArgumentException if the value is not "timestamp,id"
+         */
+        public static HistoryCursor parse(String value) {
+            int comma = value.lastIndexOf(',');
+            if (comma < 0) {
+                throw new IllegalArgumentException("Cursor must be <timestamp>,<id>: " + value);
+            }
+            try {
+                return new HistoryCursor(
+                        LocalDateTime.parse(value.substring(0, comma).trim()),
+                        Long.parseLong(value.substring(comma + 1).trim()));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Cursor must be <timestamp>,<id>: " + value, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return timestamp + "," + id;
+        }
+    }
+
+    /**
+     * Held while a streamed read runs; close() gives the slot back (once)
+     */
+    public final class StreamSlot implements AutoCloseable {
+
+        private final AtomicBoolean open = new AtomicBoolean(true);
+
+        private StreamSlot() {
+        }
+
+        @Override
+        public void close() {
+            if (open.compareAndSet(true, false)) {
+                streamSlots.release();
+            }
+        }
+    }
+}
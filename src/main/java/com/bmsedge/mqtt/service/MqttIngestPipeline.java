@@ -0,0 +1,250 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * MQTT Ingest Pipeline
+ * Decouples the MQTT callback thread from the database:
+ *
+ *   Paho thread -> parse -> hash(counter) -> enqueue into lane i (bounded queue)
+ *   lane writer i -> drain -> flush batch in ONE transaction -> publish events
+ *
+ * Readings are partitioned by counter name (device id when the counter is
+ * missing) onto mqtt.ingest.lanes lanes. Each lane keeps strict arrival
+ * order for its keys; lanes flush in parallel, so write throughput scales
+ * with the lane count until the database (or the Hikari pool) saturates.
+ *
+ * A batch is flushed when it reaches mqtt.ingest.batch-size rows or when its
+ * oldest row has waited mqtt.ingest.flush-interval-ms, whichever comes first.
+ * When a lane is full, enqueue blocks so the broker sees back-pressure
+ * instead of the service silently dropping readings.
+ *
+ * With mqtt.journal.enabled every lane appends to its own memory-mapped
+ * journal (mqtt.journal.directory/lane-{i}) before the MQTT message is
+ * acknowledged, and the lane writer replays the journal into mqtt_data.
+ * A database outage then only grows the journal; nothing is lost, and
+ * whatever was not replayed before shutdown is replayed on the next start.
+ *
+ * Writers start on ApplicationReadyEvent, so the MqttDataEvents of replayed
+ * rows reach every listener.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MqttIngestPipeline {
+
+    private final MqttDataWriter dataWriter;
+    private final MqttProperties mqttProperties;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Readings are routed onto the first laneCount lanes; any further lanes
+    // only replay journals left behind by a larger lane count
+    private IngestLane[] lanes;
+    private int laneCount;
+    private ScheduledExecutorService journalSync;
+    private volatile boolean started;
+
+    /**
+     * Lanes and journals are opened here; writers only start once the
+     * application is ready (see start)
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        MqttProperties.IngestConfig config = mqttProperties.getIngest();
+        MqttProperties.JournalConfig journalConfig = mqttProperties.getJournal();
+
+        laneCount = Math.max(1, config.getLanes());
+        int total = journalConfig.isEnabled() ? Math.max(laneCount, existingJournals(journalConfig)) : laneCount;
+
+        lanes = new IngestLane[total];
+        for (int i = 0; i < lanes.length; i++) {
+            IngestJournal journal = journalConfig.isEnabled()
+                    ? new IngestJournal(Paths.get(journalConfig.getDirectory(), "lane-" + i), journalConfig)
+                    : null;
+            lanes[i] = new IngestLane(i, config, dataWriter, eventPublisher, journal, journalConfig.getRetryBackoffMs());
+        }
+
+        if (total > laneCount) {
+            log.warn("⚠️ {} journal(s) from a previous lane count are replayed by drain-only lanes", total - laneCount);
+        }
+    }
+
+    /**
+     * Start the lane writers (journal replay included) once every singleton
+     * is created: @EventListener methods are only registered after that, and
+     * listeners that warm up in their @PostConstruct are ready by then. Runs
+     * before the MQTT connections open.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        MqttProperties.IngestConfig config = mqttProperties.getIngest();
+        MqttProperties.JournalConfig journalConfig = mqttProperties.getJournal();
+
+        for (IngestLane lane : lanes) {
+            lane.start();
+        }
+
+        if (journalConfig.isEnabled() && journalConfig.getFsyncPolicy() == MqttProperties.FsyncPolicy.INTERVAL) {
+            journalSync = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mqtt-journal-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            journalSync.scheduleWithFixedDelay(this::forceJournals, journalConfig.getFsyncIntervalMs(),
+                    journalConfig.getFsyncIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+
+        log.info("✅ MQTT ingest pipeline started (mode={}, lanes={}, laneCapacity={}, batchSize={}, flushInterval={}ms, journal={})",
+                dataWriter.getMode(), laneCount, config.getQueueCapacity(),
+                config.getBatchSize(), config.getFlushIntervalMs(),
+                journalConfig.isEnabled() ? journalConfig.getFsyncPolicy() : "off");
+    }
+
+    @PreDestroy
+    public void stop() {
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(30);
+        try {
+            // Each writer drains whatever is still queued before exiting
+            for (IngestLane lane : lanes) {
+                lane.stop(timeoutMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journalSync != null) {
+            journalSync.shutdownNow();
+        }
+    }
+
+    /**
+     * Hand a reading over to the lane owning its counter.
+     * Blocks while that lane is full (back-pressure to the MQTT client).
+     */
+    public void enqueue(MqttDataEntity entity) throws InterruptedException, IOException {
+        lanes[laneFor(entity)].enqueue(entity);
+    }
+
+    /**
+     * Readings waiting in all lanes (back-pressure signal for maintenance jobs)
+     */
+    public int queueDepth() {
+        int depth = 0;
+        for (IngestLane lane : lanes) {
+            depth += lane.queueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * Snapshot of queue depth and flush latency, overall and per lane
+     */
+    public Map<String, Object> getStats() {
+        int queueDepth = 0;
+        long enqueued = 0;
+        long written = 0;
+        long failed = 0;
+        long deadLettered = 0;
+        long flushes = 0;
+        long flushNanos = 0;
+        long maxFlushNanos = 0;
+        List<Map<String, Object>> laneStats = new ArrayList<>(lanes.length);
+
+        for (IngestLane lane : lanes) {
+            queueDepth += lane.queueDepth();
+            enqueued += lane.enqueued();
+            written += lane.written();
+            failed += lane.failed();
+            deadLettered += lane.deadLettered();
+            flushes += lane.flushes();
+            flushNanos += lane.flushNanos();
+            maxFlushNanos = Math.max(maxFlushNanos, lane.maxFlushNanos());
+            laneStats.add(lane.getStats());
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("writeMode", dataWriter.getMode());
+        stats.put("lanes", laneCount);
+        stats.put("journal", mqttProperties.getJournal().isEnabled());
+        stats.put("queueDepth", queueDepth);
+        stats.put("laneCapacity", mqttProperties.getIngest().getQueueCapacity());
+        stats.put("enqueued", enqueued);
+        stats.put("written", written);
+        stats.put("failed", failed);
+        stats.put("deadLettered", deadLettered);
+        stats.put("flushes", flushes);
+        stats.put("avgFlushMillis", flushes == 0 ? 0.0 : IngestLane.nanosToMillis(flushNanos / flushes));
+        stats.put("maxFlushMillis", IngestLane.nanosToMillis(maxFlushNanos));
+        // Write throughput per busy lane (comparable across write modes)
+        stats.put("rowsPerSecond", flushNanos == 0 ? 0.0 : written / (flushNanos / 1_000_000_000.0));
+        stats.put("laneStats", laneStats);
+        return stats;
+    }
+
+    /**
+     * Partition key: counter name, falling back to device id
+     */
+    private int laneFor(MqttDataEntity entity) {
+        String key = entity.getCounterName() != null ? entity.getCounterName() : entity.getDeviceId();
+        return key == null ? 0 : Math.floorMod(key.hashCode(), laneCount);
+    }
+
+    private void forceJournals() {
+        for (IngestLane lane : lanes) {
+            try {
+                lane.forceJournal();
+            } catch (Exception e) {
+                log.error("❌ Journal fsync failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Highest lane-{i} journal directory + 1 (0 when there are none)
+     */
+    private static int existingJournals(MqttProperties.JournalConfig journalConfig) throws IOException {
+        Path directory = Paths.get(journalConfig.getDirectory());
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int count = 0;
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String name = path.getFileName().toString();
+                if (name.matches("lane-\\d+")) {
+                    count = Math.max(count, Integer.parseInt(name.substring(5)) + 1);
+                }
+            }
+        }
+        return count;
+    }
+}
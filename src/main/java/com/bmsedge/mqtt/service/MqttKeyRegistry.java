@@ -0,0 +1,381 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MQTT Key Registry
+ * Known devices and counters with first-seen / last-seen timestamps and
+ * message counts, so /devices, /counters and /stats never scan mqtt_data.
+ *
+ * - In memory: one entry per key, updated from MqttDataEvent (committed rows)
+ * - In mqtt_registry (V4 migration): the same entries, upserted every
+ *   mqtt.registry.flush-interval-ms with the deltas collected since the last flush
+ * - Rebuilt from mqtt_data history when the table is empty, or on demand.
+ *   Rebuild and flush never overlap; deltas recorded before the rebuild's
+ *   snapshot are in the rebuilt counts, later ones are kept on top
+ *
+ * Upserts add deltas, so replicas in shared-subscription mode can share the
+ * table; those replicas reload it after each flush to see each other's keys.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MqttKeyRegistry {
+
+    private static final String DEVICE = "device";
+    private static final String COUNTER = "counter";
+
+    private static final String UPSERT_SQL = """
+            INSERT INTO mqtt_registry (kind, name, first_seen, last_seen, message_count)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (kind, name) DO UPDATE SET
+                first_seen    = LEAST(mqtt_registry.first_seen, EXCLUDED.first_seen),
+                last_seen     = GREATEST(mqtt_registry.last_seen, EXCLUDED.last_seen),
+                message_count = mqtt_registry.message_count + EXCLUDED.message_count
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MqttProperties mqttProperties;
+
+    private final ConcurrentHashMap<String, Entry> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry> counters = new ConcurrentHashMap<>();
+
+    // Flush and rebuild both move deltas between memory and the table
+    private final ReentrantLock maintenance = new ReentrantLock();
+
+    @PostConstruct
+    public void load() {
+        Boolean empty = jdbcTemplate.queryForObject(
+                "SELECT NOT EXISTS (SELECT 1 FROM mqtt_registry)", Boolean.class);
+        if (Boolean.TRUE.equals(empty)) {
+            rebuild();
+        } else {
+            reload();
+        }
+
+        log.info("✅ Key registry loaded: {} devices, {} counters", devices.size(), counters.size());
+    }
+
+    @EventListener
+    public void onMqttData(MqttDataEvent event) {
+        MqttDataEntity data = event.getData();
+        LocalDateTime seen = data.getTimestamp() != null ? data.getTimestamp() : LocalDateTime.now();
+
+        if (data.getDeviceId() != null) {
+            devices.computeIfAbsent(data.getDeviceId(), key -> new Entry(seen)).record(seen);
+        }
+        if (data.getCounterName() != null) {
+            counters.computeIfAbsent(data.getCounterName(), key -> new Entry(seen)).record(seen);
+        }
+    }
+
+    /**
+     * Push the deltas collected since the last flush to mqtt_registry
+     * (skipped while a rebuild runs; the deltas wait for the next flush)
+     */
+    @Scheduled(fixedDelayString = "${mqtt.registry.flush-interval-ms:5000}")
+    public void flush() {
+        if (!maintenance.tryLock()) {
+            log.debug("Key registry flush skipped, a rebuild is running");
+            return;
+        }
+        try {
+            flushDeltas();
+        } finally {
+            maintenance.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintenance.lock();
+        try {
+            flushDeltas();
+        } finally {
+            maintenance.unlock();
+        }
+    }
+
+    /**
+     * Recompute the registry from mqtt_data history (full scan - maintenance only)
+     *
+     * One REPEATABLE READ transaction, so both kinds come from the same
+     * snapshot. Right after the snapshot is taken the pending deltas are
+     * dropped (their rows are committed, hence counted); deltas recorded
+     * from then on belong to rows the snapshot does not see and stay pending.
+     */
+    public Map<String, Object> rebuild() {
+        long started = System.currentTimeMillis();
+
+        maintenance.lock();
+        try {
+            TransactionTemplate snapshot = new TransactionTemplate(transactionTemplate.getTransactionManager());
+            snapshot.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+            snapshot.executeWithoutResult(status -> {
+                // The first statement fixes the snapshot
+                jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+                devices.values().forEach(entry -> entry.pending.set(0));
+                counters.values().forEach(entry -> entry.pending.set(0));
+
+                jdbcTemplate.update("DELETE FROM mqtt_registry");
+                jdbcTemplate.update("""
+                        INSERT INTO mqtt_registry (kind, name, first_seen, last_seen, message_count)
+                        SELECT 'device', device_id, MIN(timestamp), MAX(timestamp), COUNT(*)
+                        FROM mqtt_data
+                        WHERE device_id IS NOT NULL AND timestamp IS NOT NULL
+                        GROUP BY device_id
+                        """);
+                jdbcTemplate.update("""
+                        INSERT INTO mqtt_registry (kind, name, first_seen, last_seen, message_count)
+                        SELECT 'counter', counter_name, MIN(timestamp), MAX(timestamp), COUNT(*)
+                        FROM mqtt_data
+                        WHERE counter_name IS NOT NULL AND timestamp IS NOT NULL
+                        GROUP BY counter_name
+                        """);
+            });
+
+            replace();
+        } finally {
+            maintenance.unlock();
+        }
+
+        long elapsed = System.currentTimeMillis() - started;
+        log.info("🔁 Key registry rebuilt from history: {} devices, {} counters in {} ms",
+                devices.size(), counters.size(), elapsed);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("devices", devices.size());
+        result.put("counters", counters.size());
+        result.put("elapsedMs", elapsed);
+        return result;
+    }
+
+    // Callers hold the maintenance lock
+    private void flushDeltas() {
+        List<Object[]> rows = new ArrayList<>();
+        List<Entry> flushed = new ArrayList<>();
+        List<Long> deltas = new ArrayList<>();
+
+        collect(DEVICE, devices, rows, flushed, deltas);
+        collect(COUNTER, counters, rows, flushed, deltas);
+
+        if (!rows.isEmpty()) {
+            try {
+                jdbcTemplate.batchUpdate(UPSERT_SQL, rows);
+                for (int i = 0; i < flushed.size(); i++) {
+                    flushed.get(i).persisted.addAndGet(deltas.get(i));
+                }
+                log.debug("✅ Key registry flushed {} entries", rows.size());
+            } catch (Exception e) {
+                // Keep the deltas for the next attempt
+                for (int i = 0; i < flushed.size(); i++) {
+                    flushed.get(i).pending.addAndGet(deltas.get(i));
+                }
+                log.error("❌ Key registry flush failed: {}", e.getMessage(), e);
+                return;
+            }
+        }
+
+        if (mqttProperties.getSharedSubscription().isEnabled()) {
+            reload();
+        }
+    }
+
+    /* ------------------ READS (in memory) ------------------ */
+
+    public List<String> getDeviceIds() {
+        return new ArrayList<>(new TreeSet<>(devices.keySet()));
+    }
+
+    public List<String> getCounterNames() {
+        return new ArrayList<>(new TreeSet<>(counters.keySet()));
+    }
+
+    public int deviceCount() {
+        return devices.size();
+    }
+
+    public int counterCount() {
+        return counters.size();
+    }
+
+    /**
+     * Newest reading timestamp across all devices (null when nothing was ingested yet)
+     */
+    public LocalDateTime lastSeen() {
+        LocalDateTime latest = null;
+        for (Entry entry : devices.values()) {
+            if (latest == null || entry.lastSeen.isAfter(latest)) {
+                latest = entry.lastSeen;
+            }
+        }
+        return latest;
+    }
+
+    public List<Map<String, Object>> getDeviceDetails() {
+        return details(devices, "deviceId");
+    }
+
+    public List<Map<String, Object>> getCounterDetails() {
+        return details(counters, "counterName");
+    }
+
+    /* ------------------ INTERNALS ------------------ */
+
+    private void collect(String kind, Map<String, Entry> entries,
+                         List<Object[]> rows, List<Entry> flushed, List<Long> deltas) {
+        entries.forEach((name, entry) -> {
+            long delta = entry.pending.getAndSet(0);
+            if (delta == 0) {
+                return;
+            }
+            rows.add(new Object[]{
+                    kind, name,
+                    Timestamp.valueOf(entry.firstSeen),
+                    Timestamp.valueOf(entry.lastSeen),
+                    delta
+            });
+            flushed.add(entry);
+            deltas.add(delta);
+        });
+    }
+
+    /**
+     * Merge the table into memory; unflushed deltas are kept on top
+     */
+    private void reload() {
+        jdbcTemplate.query("SELECT kind, name, first_seen, last_seen, message_count FROM mqtt_registry", rs -> {
+            Map<String, Entry> target = DEVICE.equals(rs.getString("kind")) ? devices : counters;
+            LocalDateTime firstSeen = rs.getTimestamp("first_seen").toLocalDateTime();
+            LocalDateTime lastSeen = rs.getTimestamp("last_seen").toLocalDateTime();
+            long count = rs.getLong("message_count");
+
+            target.computeIfAbsent(rs.getString("name"), key -> new Entry(firstSeen))
+                    .restore(firstSeen, lastSeen, count);
+        });
+    }
+
+    /**
+     * Take the rebuilt table as the persisted state: counts, first / last seen
+     * and the key set are replaced; deltas still pending are kept on top
+     */
+    private void replace() {
+        Set<String> deviceNames = new HashSet<>();
+        Set<String> counterNames = new HashSet<>();
+        jdbcTemplate.query("SELECT kind, name, first_seen, last_seen, message_count FROM mqtt_registry", rs -> {
+            boolean device = DEVICE.equals(rs.getString("kind"));
+            String name = rs.getString("name");
+            LocalDateTime firstSeen = rs.getTimestamp("first_seen").toLocalDateTime();
+            LocalDateTime lastSeen = rs.getTimestamp("last_seen").toLocalDateTime();
+
+            (device ? deviceNames : counterNames).add(name);
+            (device ? devices : counters).computeIfAbsent(name, key -> new Entry(firstSeen))
+                    .replace(firstSeen, lastSeen, rs.getLong("message_count"));
+        });
+        retainRebuilt(devices, deviceNames);
+        retainRebuilt(counters, counterNames);
+    }
+
+    // Keys gone from history are dropped unless rows arrived for them since the snapshot
+    private static void retainRebuilt(Map<String, Entry> entries, Set<String> rebuilt) {
+        entries.forEach((name, entry) -> {
+            if (!rebuilt.contains(name)) {
+                entry.persisted.set(0);
+                if (entry.pending.get() == 0) {
+                    entries.remove(name, entry);
+                }
+            }
+        });
+    }
+
+    private static List<Map<String, Object>> details(Map<String, Entry> entries, String keyName) {
+        List<Map<String, Object>> list = new ArrayList<>(entries.size());
+        new TreeSet<>(entries.keySet()).forEach(name -> {
+            Entry entry = entries.get(name);
+            Map<String, Object> map = new HashMap<>();
+            map.put(keyName, name);
+            map.put("firstSeen", entry.firstSeen);
+            map.put("lastSeen", entry.lastSeen);
+            map.put("messageCount", entry.count());
+            list.add(map);
+        });
+        return list;
+    }
+
+    /**
+     * One registry key: persisted count + deltas not yet flushed
+     */
+    private static final class Entry {
+
+        private volatile LocalDateTime firstSeen;
+        private volatile LocalDateTime lastSeen;
+        private final AtomicLong persisted = new AtomicLong();
+        private final AtomicLong pending = new AtomicLong();
+
+        Entry(LocalDateTime seen) {
+            this.firstSeen = seen;
+            this.lastSeen = seen;
+        }
+
+        synchronized void record(LocalDateTime seen) {
+            if (seen.isBefore(firstSeen)) {
+                firstSeen = seen;
+            }
+            if (seen.isAfter(lastSeen)) {
+                lastSeen = seen;
+            }
+            pending.incrementAndGet();
+        }
+
+        synchronized void restore(LocalDateTime first, LocalDateTime last, long count) {
+            if (first.isBefore(firstSeen)) {
+                firstSeen = first;
+            }
+            if (last.isAfter(lastSeen)) {
+                lastSeen = last;
+            }
+            persisted.set(count);
+        }
+
+        synchronized void replace(LocalDateTime first, LocalDateTime last, long count) {
+            // Readings recorded since the snapshot may only widen the rebuilt range
+            if (pending.get() == 0 || first.isBefore(firstSeen)) {
+                firstSeen = first;
+            }
+            if (pending.get() == 0 || last.isAfter(lastSeen)) {
+                lastSeen = last;
+            }
+            persisted.set(count);
+        }
+
+        long count() {
+            return persisted.get() + pending.get();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.MqttReading;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MQTT Payload Decoder
+ * Single-pass streaming decoder for counter payloads such as
+ *
+ *   {"device_id": "...", "counter_name": "Tandoor",
+ *    "Tandoor_occupancy": 5, "Tandoor_incount": 120, "Tandoor_waiting_time_min": "5 min"}
+ *
+ * Field resolution rules (per value):
+ *   1. exact key {counter_name}_occupancy / _incount / _waiting_time_min
+ *   2. otherwise the first key containing "occupancy" / "incount" or "in_count" /
+ *      "waiting_time" or "wait_time" (case-insensitive), in document order
+ *   3. otherwise 0
+ *
+ * Reads directly from the payload bytes with a Jackson JsonParser - no
+ * intermediate String or Map. Field name classification and the per-counter
+ * exact key names are cached, so a steady stream of known counters does no
+ * string building at all.
+ */
+@Component
+public class MqttPayloadDecoder {
+
+    private static final String DEVICE_ID = "device_id";
+    private static final String COUNTER_NAME = "counter_name";
+
+    private static final int OCCUPANCY = 1;
+    private static final int IN_COUNT = 1 << 1;
+    private static final int WAIT_TIME = 1 << 2;
+
+    // Guards against unbounded growth from garbage field names / counters
+    private static final int MAX_CACHED_KEYS = 4096;
+
+    private final JsonFactory jsonFactory;
+
+    private final ConcurrentHashMap<String, Integer> fieldKinds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String[]> counterKeys = new ConcurrentHashMap<>();
+    private final ThreadLocal<DecodeState> states = ThreadLocal.withInitial(DecodeState::new);
+
+    public MqttPayloadDecoder(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Decode one payload
+     */
+    public MqttReading decode(byte[] payload) throws IOException {
+        DecodeState state = states.get();
+        state.reset();
+
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "MQTT payload is not a JSON object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken token = parser.nextToken();
+
+                if (DEVICE_ID.equals(name)) {
+                    state.deviceId = scalarText(parser, token, name);
+                    continue;
+                }
+                if (COUNTER_NAME.equals(name)) {
+                    state.counterName = scalarText(parser, token, name);
+                    continue;
+                }
+
+                int kind = fieldKind(name);
+                if (kind != 0) {
+                    int intValue = (kind & (OCCUPANCY | IN_COUNT)) != 0 ? intValue(parser, token) : 0;
+                    double waitValue = (kind & WAIT_TIME) != 0 ? waitTimeMinutes(parser, token) : 0.0;
+                    state.addCandidate(name, kind, intValue, waitValue);
+                }
+
+                // Nested objects / arrays are never usable values
+                parser.skipChildren();
+            }
+        }
+
+        String[] keys = exactKeys(state.counterName);
+
+        return new MqttReading(
+                state.deviceId,
+                state.counterName,
+                state.resolveInt(OCCUPANCY, keys[0]),
+                state.resolveInt(IN_COUNT, keys[1]),
+                state.resolveWait(keys[2])
+        );
+    }
+
+    /* ------------------ FIELD CLASSIFICATION ------------------ */
+
+    private int fieldKind(String name) {
+        Integer cached = fieldKinds.get(name);
+        if (cached != null) {
+            return cached;
+        }
+
+        String lower = name.toLowerCase();
+        int kind = 0;
+        if (lower.contains("occupancy")) {
+            kind |= OCCUPANCY;
+        }
+        if (lower.contains("incount") || lower.contains("in_count")) {
+            kind |= IN_COUNT;
+        }
+        if (lower.contains("waiting_time") || lower.contains("wait_time")) {
+            kind |= WAIT_TIME;
+        }
+
+        if (fieldKinds.size() < MAX_CACHED_KEYS) {
+            fieldKinds.putIfAbsent(name, kind);
+        }
+        return kind;
+    }
+
+    /**
+     * [occupancy, incount, waiting time] exact key names for a counter
+     */
+    private String[] exactKeys(String counterName) {
+        String key = String.valueOf(counterName);
+        String[] cached = counterKeys.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        String[] keys = {
+                key + "_occupancy",
+                key + "_incount",
+                key + "_waiting_time_min"
+        };
+        if (counterKeys.size() < MAX_CACHED_KEYS) {
+            counterKeys.putIfAbsent(key, keys);
+        }
+        return keys;
+    }
+
+    /* ------------------ VALUE CONVERSION ------------------ */
+
+    private static String scalarText(JsonParser parser, JsonToken token, String name) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new JsonParseException(parser, "Expected a scalar value for " + name);
+        }
+        return parser.getText();
+    }
+
+    /**
+     * Integer semantics: numbers are truncated, numeric strings parsed, anything else is 0
+     */
+    private static int intValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberType() == JsonParser.NumberType.INT
+                        ? parser.getIntValue()
+                        : parser.getNumberValue().intValue();
+            case VALUE_STRING:
+                return parseInt(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Wait time in minutes:
+     * "ready to serve" -> 0.0, "5 min" -> 5.0 (first numeric word), missing / null / unparsable -> 0.0
+     */
+    private static double waitTimeMinutes(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_STRING:
+                return parseWaitText(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            default:
+                return 0.0;
+        }
+    }
+
+    private static double parseWaitText(char[] chars, int offset, int length) {
+        int end = offset + length;
+
+        if (containsIgnoreCase(chars, offset, end, "ready")) {
+            return 0.0;
+        }
+
+        int i = offset;
+        while (i < end) {
+            while (i < end && isWhitespace(chars[i])) {
+                i++;
+            }
+            int start = i;
+            while (i < end && !isWhitespace(chars[i])) {
+                i++;
+            }
+            if (i > start) {
+                double value = parseDouble(chars, start, i - start);
+                if (!Double.isNaN(value)) {
+                    return value;
+                }
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Double.parseDouble semantics on a lower-cased word; NaN when the word is not a number.
+     * Plain digit words (the common "5 min" case) are handled without allocating.
+     */
+    private static double parseDouble(char[] chars, int offset, int length) {
+        if (length <= 15) {
+            long value = 0;
+            boolean digitsOnly = true;
+            for (int i = offset; i < offset + length; i++) {
+                char c = chars[i];
+                if (c < '0' || c > '9') {
+                    digitsOnly = false;
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (digitsOnly) {
+                return value;
+            }
+        }
+        try {
+            return Double.parseDouble(new String(chars, offset, length).toLowerCase());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Integer.parseInt semantics; 0 when the text is not an int
+     */
+    private static int parseInt(char[] chars, int offset, int length) {
+        if (length > 0 && length <= 9) {
+            int i = offset;
+            boolean negative = false;
+            if (chars[i] == '-' || chars[i] == '+') {
+                negative = chars[i] == '-';
+                i++;
+            }
+            if (i < offset + length) {
+                int value = 0;
+                for (; i < offset + length; i++) {
+                    char c = chars[i];
+                    if (c < '0' || c > '9') {
+                        break;
+                    }
+                    value = value * 10 + (c - '0');
+                }
+                if (i == offset + length) {
+                    return negative ? -value : value;
+                }
+            }
+        }
+        try {
+            return Integer.parseInt(new String(chars, offset, length));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        // Same set as the regex \s
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean containsIgnoreCase(char[] chars, int offset, int end, String needle) {
+        int n = needle.length();
+        for (int i = offset; i + n <= end; i++) {
+            int j = 0;
+            while (j < n && Character.toLowerCase(chars[i + j]) == needle.charAt(j)) {
+                j++;
+            }
+            if (j == n) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* ------------------ PER-THREAD SCRATCH ------------------ */
+
+    /**
+     * Candidate values seen during one decode. counter_name may arrive after the
+     * value fields, so exact-key matching is resolved once the object is read.
+     */
+    private static final class DecodeState {
+
+        String deviceId;
+        String counterName;
+
+        String[] names = new String[8];
+        int[] kinds = new int[8];
+        int[] ints = new int[8];
+        double[] waits = new double[8];
+        int size;
+
+        void reset() {
+            deviceId = null;
+            counterName = null;
+            Arrays.fill(names, 0, size, null);
+            size = 0;
+        }
+
+        void addCandidate(String name, int kind, int intValue, double waitValue) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+                ints = Arrays.copyOf(ints, size * 2);
+                waits = Arrays.copyOf(waits, size * 2);
+            }
+            names[size] = name;
+            kinds[size] = kind;
+            ints[size] = intValue;
+            waits[size] = waitValue;
+            size++;
+        }
+
+        int resolveInt(int kind, String exactKey) {
+            int index = resolve(kind, exactKey);
+            return index < 0 ? 0 : ints[index];
+        }
+
+        double resolveWait(String exactKey) {
+            int index = resolve(WAIT_TIME, exactKey);
+            return index < 0 ? 0.0 : waits[index];
+        }
+
+        /**
+         * Exact key wins (last occurrence, like a map put); else first match in document order
+         */
+        private int resolve(int kind, String exactKey) {
+            int first = -1;
+            int exact = -1;
+            for (int i = 0; i < size; i++) {
+                if ((kinds[i] & kind) == 0) {
+                    continue;
+                }
+                if (first < 0) {
+                    first = i;
+                }
+                if (names[i].equals(exactKey)) {
+                    exact = i;
+                }
+            }
+            return exact >= 0 ? exact : first;
+        }
+    }
+}
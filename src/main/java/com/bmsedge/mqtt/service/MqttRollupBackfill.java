@@ -0,0 +1,257 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * MQTT Rollup Backfill
+ * Summarizes the history that predates MqttRollupWriter into
+ * mqtt_rollup_minute / mqtt_rollup_hour, oldest hour slice first, one short
+ * transaction per slice (the V5 migration only records the horizon - the
+ * first hour the writer covers - instead of scanning mqtt_data itself).
+ *
+ * Each transaction moves the checkpoint (mqtt_rollup_backfill.done_until)
+ * with a compare-and-set before recomputing the slice, so concurrent
+ * instances serialize on the row and a restart resumes after the last
+ * finished slice.
+ *
+ * Until the backfill reaches the horizon, aggregations over windows it has
+ * not covered read raw rows (covers()) and the archive keeps the raw rows of
+ * those days (pendingFrom()).
+ */
+@Slf4j
+@Service
+public class MqttRollupBackfill {
+
+    private static final String JOB = "raw-to-rollup";
+
+    // Recompute the rollups of one slice [?, ?) from its raw rows, replacing existing buckets
+    static final String SUMMARIZE_MINUTES_SQL = """
+            INSERT INTO mqtt_rollup_minute (counter_name, bucket, samples, sum_in_count, max_in_count,
+                                            max_occupancy, max_wait, sum_wait, first_ts, last_ts)
+            SELECT counter_name, date_trunc('minute', timestamp), COUNT(*), COALESCE(SUM(in_count), 0),
+                   MAX(in_count), MAX(occupancy), MAX(wait_time), COALESCE(SUM(wait_time), 0),
+                   MIN(timestamp), MAX(timestamp)
+            FROM mqtt_data
+            WHERE timestamp >= ? AND timestamp < ?
+            GROUP BY counter_name, date_trunc('minute', timestamp)
+            ON CONFLICT (counter_name, bucket) DO UPDATE SET
+                samples = EXCLUDED.samples, sum_in_count = EXCLUDED.sum_in_count,
+                max_in_count = EXCLUDED.max_in_count, max_occupancy = EXCLUDED.max_occupancy,
+                max_wait = EXCLUDED.max_wait, sum_wait = EXCLUDED.sum_wait,
+                first_ts = EXCLUDED.first_ts, last_ts = EXCLUDED.last_ts
+            """;
+
+    static final String SUMMARIZE_HOURS_SQL = """
+            INSERT INTO mqtt_rollup_hour (counter_name, bucket, samples, sum_in_count, max_in_count,
+                                          max_occupancy, max_wait, sum_wait, first_ts, last_ts)
+            SELECT counter_name, date_trunc('hour', bucket), SUM(samples), SUM(sum_in_count),
+                   MAX(max_in_count), MAX(max_occupancy), MAX(max_wait), SUM(sum_wait),
+                   MIN(first_ts), MAX(last_ts)
+            FROM mqtt_rollup_minute
+            WHERE bucket >= ? AND bucket < ?
+            GROUP BY counter_name, date_trunc('hour', bucket)
+            ON CONFLICT (counter_name, bucket) DO UPDATE SET
+                samples = EXCLUDED.samples, sum_in_count = EXCLUDED.sum_in_count,
+                max_in_count = EXCLUDED.max_in_count, max_occupancy = EXCLUDED.max_occupancy,
+                max_wait = EXCLUDED.max_wait, sum_wait = EXCLUDED.sum_wait,
+                first_ts = EXCLUDED.first_ts, last_ts = EXCLUDED.last_ts
+            """;
+
+    // Unknown progress (not loaded yet): nothing before the horizon counts as covered
+    private static final LocalDateTime NOTHING_COVERED = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transaction;
+    private final MqttProperties mqttProperties;
+
+    private volatile Progress progress;
+    private final AtomicLong slices = new AtomicLong();
+    private final AtomicLong minuteSummaries = new AtomicLong();
+
+    public MqttRollupBackfill(JdbcTemplate jdbcTemplate,
+                              PlatformTransactionManager transactionManager,
+                              MqttProperties mqttProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.mqttProperties = mqttProperties;
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            progress = load();
+        } catch (Exception e) {
+            log.warn("⚠️ Could not read mqtt_rollup_backfill: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelay = 600_000, initialDelay = 60_000)
+    public void scheduledBackfill() {
+        if (!mqttProperties.getRollup().isEnabled() || isComplete()) {
+            return;
+        }
+        try {
+            backfill();
+        } catch (Exception e) {
+            log.error("❌ Rollup backfill failed (resumes from the checkpoint next run): {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Summarize hour slices up to the horizon; stops early when interrupted
+     *
+     * @return hour slices summarized by this run
+     */
+    public synchronized int backfill() {
+        Progress current = load();
+        if (current == null) {
+            return 0;
+        }
+        if (current.doneUntil() == null) {
+            // First run: start at the oldest row (the migration does not scan mqtt_data)
+            LocalDateTime first = nextSlice(NOTHING_COVERED, current.horizon());
+            current = advance(current, first != null ? first : current.horizon(), () -> 0);
+        }
+        progress = current;
+
+        long started = System.currentTimeMillis();
+        int run = 0;
+        // The hour still being written is left until it has closed
+        while (current != null && current.doneUntil().isBefore(current.horizon())
+                && !current.doneUntil().plusHours(1).isAfter(LocalDateTime.now())) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            LocalDateTime sliceStart = current.doneUntil();
+            LocalDateTime sliceEnd = sliceStart.plusHours(1);
+            LocalDateTime next = nextSlice(sliceEnd, current.horizon());
+
+            current = advance(current, next != null ? next : current.horizon(), () -> {
+                int minutes = jdbcTemplate.update(SUMMARIZE_MINUTES_SQL, sliceStart, sliceEnd);
+                jdbcTemplate.update(SUMMARIZE_HOURS_SQL, sliceStart, sliceEnd);
+                return minutes;
+            });
+            progress = current;
+            slices.incrementAndGet();
+            run++;
+
+            try {
+                Thread.sleep(mqttProperties.getRollup().getBackfillPauseMs());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (run > 0 && current != null) {
+            log.info("📊 Rollup backfill: {} hour slices in {} ms, done until {} (horizon {})",
+                    run, System.currentTimeMillis() - started, current.doneUntil(), current.horizon());
+        }
+        return run;
+    }
+
+    /**
+     * Move the checkpoint from current.doneUntil to doneUntil and run the
+     * slice work in the same transaction. When another instance moved it
+     * first, nothing is done and its progress is returned.
+     */
+    private Progress advance(Progress current, LocalDateTime doneUntil, IntSupplier work) {
+        Progress moved = transaction.execute(status -> {
+            int claimed = jdbcTemplate.update("""
+                    UPDATE mqtt_rollup_backfill SET done_until = ?, updated_at = now()
+                    WHERE job = ? AND done_until IS NOT DISTINCT FROM ?
+                    """, doneUntil, JOB, current.doneUntil());
+            if (claimed == 0) {
+                return null;
+            }
+            minuteSummaries.addAndGet(work.getAsInt());
+            return new Progress(current.horizon(), doneUntil);
+        });
+        return moved != null ? moved : load();
+    }
+
+    /* ------------------ COVERAGE ------------------ */
+
+    /**
+     * Whether the rollups of [from, to] are complete (the window does not
+     * touch the part of history the backfill has not reached)
+     */
+    public boolean covers(LocalDateTime from, LocalDateTime to) {
+        Progress current = progress;
+        if (current == null) {
+            return false;
+        }
+        if (!from.isBefore(current.horizon())) {
+            return true;
+        }
+        LocalDateTime doneUntil = current.doneUntil();
+        return doneUntil != null && (!doneUntil.isBefore(current.horizon()) || to.isBefore(doneUntil));
+    }
+
+    /**
+     * Start of the history whose rollups are still missing, or null once the
+     * backfill is complete. Raw rows from here on must not be dropped.
+     */
+    public LocalDateTime pendingFrom() {
+        Progress current = progress;
+        if (current == null || current.doneUntil() == null) {
+            return NOTHING_COVERED;
+        }
+        return current.doneUntil().isBefore(current.horizon()) ? current.doneUntil() : null;
+    }
+
+    public boolean isComplete() {
+        Progress current = progress;
+        return current != null && current.doneUntil() != null && !current.doneUntil().isBefore(current.horizon());
+    }
+
+    /**
+     * Start of the hour holding the oldest raw row in [from, to), or null
+     */
+    private LocalDateTime nextSlice(LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.queryForObject(
+                "SELECT date_trunc('hour', MIN(timestamp)) FROM mqtt_data WHERE timestamp >= ? AND timestamp < ?",
+                LocalDateTime.class, from, to);
+    }
+
+    private Progress load() {
+        return jdbcTemplate.query("SELECT horizon, done_until FROM mqtt_rollup_backfill WHERE job = ?",
+                (rs, rowNum) -> new Progress(
+                        rs.getObject("horizon", LocalDateTime.class),
+                        rs.getObject("done_until", LocalDateTime.class)),
+                JOB).stream().findFirst().orElse(null);
+    }
+
+    /**
+     * Checkpoint, horizon and slices summarized since startup
+     */
+    public Map<String, Object> getStats() {
+        Progress current = progress;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("complete", isComplete());
+        stats.put("horizon", current != null ? current.horizon() : null);
+        stats.put("doneUntil", current != null ? current.doneUntil() : null);
+        stats.put("slicesSinceStart", slices.get());
+        stats.put("minuteSummariesSinceStart", minuteSummaries.get());
+        return stats;
+    }
+
+    /**
+     * Rollups are complete before doneUntil (null: not started) and from horizon on
+     */
+    private record Progress(LocalDateTime horizon, LocalDateTime doneUntil) {
+    }
+}
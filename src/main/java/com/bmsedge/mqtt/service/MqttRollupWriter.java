@@ -0,0 +1,139 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rollup Writer
+ * Folds an ingest batch into mqtt_rollup_minute / mqtt_rollup_hour
+ * (per counter: samples, in-count sum / max, max occupancy, max / sum wait,
+ * first / last reading).
+ *
+ * Called by the MqttDataWriter inside the batch transaction, so rollups
+ * always match the committed raw rows - a batch of 500 rows typically
+ * turns into a handful of upserts.
+ */
+@Component
+@RequiredArgsConstructor
+public class MqttRollupWriter {
+
+    private static final String UPSERT_SQL = """
+            INSERT INTO %s (counter_name, bucket, samples, sum_in_count, max_in_count,
+                            max_occupancy, max_wait, sum_wait, first_ts, last_ts)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (counter_name, bucket) DO UPDATE SET
+                samples       = %1$s.samples + EXCLUDED.samples,
+                sum_in_count  = %1$s.sum_in_count + EXCLUDED.sum_in_count,
+                max_in_count  = GREATEST(%1$s.max_in_count, EXCLUDED.max_in_count),
+                max_occupancy = GREATEST(%1$s.max_occupancy, EXCLUDED.max_occupancy),
+                max_wait      = GREATEST(%1$s.max_wait, EXCLUDED.max_wait),
+                sum_wait      = %1$s.sum_wait + EXCLUDED.sum_wait,
+                first_ts      = LEAST(%1$s.first_ts, EXCLUDED.first_ts),
+                last_ts       = GREATEST(%1$s.last_ts, EXCLUDED.last_ts)
+            """;
+
+    private static final String MINUTE_SQL = String.format(UPSERT_SQL, "mqtt_rollup_minute");
+    private static final String HOUR_SQL = String.format(UPSERT_SQL, "mqtt_rollup_hour");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MqttProperties mqttProperties;
+
+    /**
+     * Must run inside the transaction that writes the batch
+     */
+    public void apply(List<MqttDataEntity> batch) {
+        if (!mqttProperties.getRollup().isEnabled() || batch.isEmpty()) {
+            return;
+        }
+
+        Map<BucketKey, Bucket> minutes = new HashMap<>();
+        Map<BucketKey, Bucket> hours = new HashMap<>();
+
+        for (MqttDataEntity entity : batch) {
+            if (entity.getCounterName() == null || entity.getTimestamp() == null) {
+                continue;
+            }
+            LocalDateTime timestamp = entity.getTimestamp();
+            minutes.computeIfAbsent(new BucketKey(entity.getCounterName(), timestamp.truncatedTo(ChronoUnit.MINUTES)),
+                    key -> new Bucket()).add(entity);
+            hours.computeIfAbsent(new BucketKey(entity.getCounterName(), timestamp.truncatedTo(ChronoUnit.HOURS)),
+                    key -> new Bucket()).add(entity);
+        }
+
+        jdbcTemplate.batchUpdate(MINUTE_SQL, rows(minutes));
+        jdbcTemplate.batchUpdate(HOUR_SQL, rows(hours));
+    }
+
+    private static List<Object[]> rows(Map<BucketKey, Bucket> buckets) {
+        List<Object[]> rows = new ArrayList<>(buckets.size());
+        buckets.forEach((key, bucket) -> rows.add(new Object[]{
+                key.counterName(),
+                Timestamp.valueOf(key.bucket()),
+                bucket.samples,
+                bucket.sumInCount,
+                bucket.maxInCount,
+                bucket.maxOccupancy,
+                bucket.maxWait,
+                bucket.sumWait,
+                Timestamp.valueOf(bucket.first),
+                Timestamp.valueOf(bucket.last)
+        }));
+        return rows;
+    }
+
+    private record BucketKey(String counterName, LocalDateTime bucket) {
+    }
+
+    /**
+     * Partial aggregate of one bucket within the batch (null = no value seen)
+     */
+    private static final class Bucket {
+
+        private long samples;
+        private long sumInCount;
+        private Integer maxInCount;
+        private Integer maxOccupancy;
+        private Double maxWait;
+        private double sumWait;
+        private LocalDateTime first;
+        private LocalDateTime last;
+
+        void add(MqttDataEntity entity) {
+            samples++;
+
+            Integer inCount = entity.getInCount();
+            if (inCount != null) {
+                sumInCount += inCount;
+                maxInCount = maxInCount == null ? inCount : Math.max(maxInCount, inCount);
+            }
+            Integer occupancy = entity.getOccupancy();
+            if (occupancy != null) {
+                maxOccupancy = maxOccupancy == null ? occupancy : Math.max(maxOccupancy, occupancy);
+            }
+            Double waitTime = entity.getWaitTime();
+            if (waitTime != null) {
+                sumWait += waitTime;
+                maxWait = maxWait == null ? waitTime : Math.max(maxWait, waitTime);
+            }
+
+            LocalDateTime timestamp = entity.getTimestamp();
+            if (first == null || timestamp.isBefore(first)) {
+                first = timestamp;
+            }
+            if (last == null || timestamp.isAfter(last)) {
+                last = timestamp;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MQTT Statistics
+ * Ingest statistics maintained as rows are committed, so /stats is an O(1) read:
+ *
+ * - totalRecords: baseline from the planner estimate + rows committed since
+ * - ingest rate over sliding 1 / 5 / 15 minute windows (per-second ring)
+ * - lastUpdate: newest committed reading timestamp
+ *
+ * Per-device / per-counter counts live in MqttKeyRegistry.
+ *
+ * The baseline is reconciled every mqtt.statistics.reconcile-interval-ms
+ * against pg_class.reltuples (no count(*) scan). It is replaced when the
+ * running total drifts more than mqtt.statistics.reconcile-tolerance from
+ * the estimate (retention drops, other replicas, missed events).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MqttStatistics {
+
+    private static final int WINDOW_SECONDS = 15 * 60;
+
+    // Sum of the estimates of mqtt_data and its partitions (if any)
+    private static final String ESTIMATE_SQL = """
+            SELECT COALESCE(SUM(GREATEST(c.reltuples, 0)), 0)::bigint
+            FROM pg_class c
+            WHERE c.oid = to_regclass('mqtt_data')
+               OR c.oid IN (SELECT inhrelid FROM pg_inherits WHERE inhparent = to_regclass('mqtt_data'))
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MqttKeyRegistry keyRegistry;
+    private final MqttProperties mqttProperties;
+
+    private final AtomicLong baseline = new AtomicLong();
+    private final LongAdder sinceBaseline = new LongAdder();
+    private final LongAdder sinceStart = new LongAdder();
+    private final LocalDateTime startedAt = LocalDateTime.now();
+
+    // Per-second ring: rows committed in second stamps[i]
+    private final long[] stamps = new long[WINDOW_SECONDS];
+    private final long[] counts = new long[WINDOW_SECONDS];
+
+    private volatile LocalDateTime lastUpdate;
+    private volatile LocalDateTime reconciledAt;
+
+    @PostConstruct
+    public void init() {
+        lastUpdate = keyRegistry.lastSeen();
+
+        long estimate = estimateRows();
+        if (estimate <= 0) {
+            // Never analyzed (or empty): one exact count, cheap in both cases that matter
+            Long exact = jdbcTemplate.queryForObject("SELECT count(*) FROM mqtt_data", Long.class);
+            estimate = exact != null ? exact : 0;
+        }
+        baseline.set(estimate);
+        reconciledAt = LocalDateTime.now();
+
+        log.info("✅ Statistics initialized: ~{} records, last update {}", estimate, lastUpdate);
+    }
+
+    @EventListener
+    public void onMqttData(MqttDataEvent event) {
+        MqttDataEntity data = event.getData();
+
+        sinceBaseline.increment();
+        sinceStart.increment();
+        record(System.currentTimeMillis() / 1000);
+
+        LocalDateTime timestamp = data.getTimestamp();
+        if (timestamp != null && (lastUpdate == null || timestamp.isAfter(lastUpdate))) {
+            lastUpdate = timestamp;
+        }
+    }
+
+    /**
+     * Compare the running total with the planner estimate; adopt the estimate on drift
+     */
+    @Scheduled(initialDelayString = "${mqtt.statistics.reconcile-interval-ms:60000}",
+            fixedDelayString = "${mqtt.statistics.reconcile-interval-ms:60000}")
+    public void reconcile() {
+        try {
+            long estimate = estimateRows();
+            if (estimate <= 0) {
+                return;
+            }
+
+            long current = totalRecords();
+            double tolerance = mqttProperties.getStatistics().getReconcileTolerance();
+            if (Math.abs(estimate - current) > tolerance * Math.max(current, 1)) {
+                sinceBaseline.reset();
+                baseline.set(estimate);
+                log.info("🔁 Statistics reconciled: running total {} -> estimate {}", current, estimate);
+            }
+            reconciledAt = LocalDateTime.now();
+        } catch (Exception e) {
+            log.error("❌ Statistics reconciliation failed: {}", e.getMessage(), e);
+        }
+    }
+
+    public long totalRecords() {
+        return baseline.get() + sinceBaseline.sum();
+    }
+
+    public LocalDateTime lastUpdate() {
+        return lastUpdate;
+    }
+
+    /**
+     * Rows per second over the last 1 / 5 / 15 minutes
+     */
+    public Map<String, Object> getIngestRates() {
+        long now = System.currentTimeMillis() / 1000;
+
+        Map<String, Object> rates = new HashMap<>();
+        rates.put("perSecond1m", sum(now, 60) / 60.0);
+        rates.put("perSecond5m", sum(now, 300) / 300.0);
+        rates.put("perSecond15m", sum(now, WINDOW_SECONDS) / (double) WINDOW_SECONDS);
+        rates.put("rowsSinceStart", sinceStart.sum());
+        rates.put("startedAt", startedAt);
+        return rates;
+    }
+
+    public LocalDateTime reconciledAt() {
+        return reconciledAt;
+    }
+
+    /* ------------------ RING ------------------ */
+
+    private synchronized void record(long second) {
+        int i = (int) (second % WINDOW_SECONDS);
+        if (stamps[i] != second) {
+            stamps[i] = second;
+            counts[i] = 0;
+        }
+        counts[i]++;
+    }
+
+    private synchronized long sum(long now, int seconds) {
+        long total = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            if (stamps[i] > now - seconds && stamps[i] <= now) {
+                total += counts[i];
+            }
+        }
+        return total;
+    }
+
+    private long estimateRows() {
+        Long estimate = jdbcTemplate.queryForObject(ESTIMATE_SQL, Long.class);
+        return estimate != null ? estimate : 0;
+    }
+}
@@ -0,0 +1,364 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
+import com.bmsedge.mqtt.service.MqttHistoryService.HistoryCursor;
+import com.bmsedge.mqtt.service.MqttHistoryService.HistoryFilter;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Recent Window Store
+ * The last mqtt.recent-window.hours of readings per device and per counter,
+ * held in primitive column rings (SampleSeries), so range and as-of lookups
+ * inside the window are binary searches in memory instead of queries.
+ *
+ * - Warmed at startup with one streamed query over the window
+ * - Appended from MqttDataEvent, i.e. only with committed rows
+ * - Every committed row with timestamp >= coveredFrom(filter) is present;
+ *   older parts of a range fall back to the database (MqttHistoryService)
+ *
+ * Like LatestValueCache it is bypassed in shared-subscription mode, where
+ * this replica only sees part of the stream.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RecentWindowStore {
+
+    private static final int SCAN_CHUNK = 1024;
+
+    private final MqttDataRowRepository rowRepository;
+    private final MqttProperties mqttProperties;
+
+    private final ConcurrentHashMap<String, SampleSeries> byDevice = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SampleSeries> byCounter = new ConcurrentHashMap<>();
+
+    // Key table for the "other key" column (device <-> counter names)
+    private final ConcurrentHashMap<String, Integer> keyIds = new ConcurrentHashMap<>();
+    private final List<String> keyNames = new ArrayList<>();
+
+    private volatile boolean serving;
+    private volatile long warmedFrom = SampleSeries.NULL_TIME;
+
+    @PostConstruct
+    public void warmUp() {
+        MqttProperties.RecentWindowConfig config = mqttProperties.getRecentWindow();
+        if (!config.isEnabled()) {
+            log.info("ℹ️ Recent-window store disabled");
+            return;
+        }
+        if (mqttProperties.getSharedSubscription().isEnabled()) {
+            log.info("ℹ️ Recent-window store bypassed: shared subscriptions deliver only part of the stream to this replica");
+            return;
+        }
+
+        try {
+            long started = System.currentTimeMillis();
+            LocalDateTime from = LocalDateTime.now().minusHours(config.getHours());
+            long[] rows = new long[1];
+            rowRepository.streamSince(from, mqttProperties.getHistory().getFetchSize(), row -> {
+                append(row.id(), row.deviceId(), row.counterName(), row.occupancy(), row.inCount(),
+                        row.waitTime(), row.timestamp(), row.createdAt());
+                rows[0]++;
+            });
+            warmedFrom = SampleSeries.toMicros(from);
+            serving = true;
+
+            log.info("✅ Recent-window store warmed: {} rows, {} devices, {} counters ({} h) in {} ms",
+                    rows[0], byDevice.size(), byCounter.size(), config.getHours(),
+                    System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            log.error("❌ Recent-window store warm-up failed, range queries stay on the database: {}",
+                    e.getMessage(), e);
+        }
+    }
+
+    @EventListener
+    public void onMqttData(MqttDataEvent event) {
+        MqttDataEntity data = event.getData();
+        if (data == null || data.getId() == null || !mqttProperties.getRecentWindow().isEnabled()) {
+            return;
+        }
+        append(data.getId(), data.getDeviceId(), data.getCounterName(), data.getOccupancy(), data.getInCount(),
+                data.getWaitTime(), data.getTimestamp(), data.getCreatedAt());
+    }
+
+    /**
+     * Drop expired samples of quiet series, and series left empty
+     */
+    @Scheduled(fixedDelay = 60_000, initialDelay = 60_000)
+    public void evictExpired() {
+        if (!serving) {
+            return;
+        }
+        long cutoff = cutoff();
+        evict(byDevice, cutoff);
+        evict(byCounter, cutoff);
+    }
+
+    /* ------------------ QUERIES ------------------ */
+
+    public boolean isServing() {
+        return serving;
+    }
+
+    /**
+     * Start of the complete in-memory range for the filter's device or counter,
+     * or null if the store cannot answer it (not serving, no key, or both keys)
+     */
+    public LocalDateTime coveredFrom(HistoryFilter filter) {
+        if (!serving || (filter.deviceId() == null) == (filter.counterName() == null)) {
+            return null;
+        }
+        long covered = Math.max(warmedFrom, cutoff());
+        SampleSeries series = seriesFor(filter);
+        if (series != null) {
+            synchronized (series) {
+                if (series.evictedUpTo() != SampleSeries.NULL_TIME) {
+                    covered = Math.max(covered, series.evictedUpTo() + 1);
+                }
+            }
+        }
+        return SampleSeries.fromMicros(covered);
+    }
+
+    /**
+     * Rows of the filter's series in [from, filter.to] (to may be null), after
+     * the cursor, in filter order, at most limit - handed to sink in chunks
+     * so the sink never runs under the series lock
+     *
+     * @return rows emitted
+     */
+    public long scan(HistoryFilter filter, LocalDateTime from, HistoryCursor after, long limit,
+                     Consumer<MqttDataRow> sink) {
+        SampleSeries series = seriesFor(filter);
+        if (series == null) {
+            return 0;
+        }
+
+        long lower = SampleSeries.toMicros(from);
+        long upper = filter.to() != null ? SampleSeries.toMicros(filter.to()) : Long.MAX_VALUE;
+        boolean descending = filter.descending();
+
+        // Resume position, exclusive (timestamp, id)
+        long positionTime = after != null ? SampleSeries.toMicros(after.timestamp())
+                : descending ? upper : lower;
+        long positionId = after != null ? after.id() : descending ? Long.MAX_VALUE : Long.MIN_VALUE;
+        boolean inclusive = after == null;
+
+        long emitted = 0;
+        List<MqttDataRow> chunk = new ArrayList<>(SCAN_CHUNK);
+        while (emitted < limit) {
+            chunk.clear();
+            synchronized (series) {
+                int i;
+                if (descending) {
+                    i = (inclusive ? series.upperBound(positionTime, positionId) : series.lowerBound(positionTime, positionId)) - 1;
+                    for (; i >= 0 && chunk.size() < SCAN_CHUNK && emitted + chunk.size() < limit; i--) {
+                        long timestamp = series.timestamp(i);
+                        if (timestamp < lower) {
+                            break;
+                        }
+                        if (timestamp <= upper) {
+                            chunk.add(toRow(filter, series, i));
+                        }
+                    }
+                } else {
+                    i = inclusive ? series.lowerBound(positionTime, positionId) : series.upperBound(positionTime, positionId);
+                    for (; i < series.size() && chunk.size() < SCAN_CHUNK && emitted + chunk.size() < limit; i++) {
+                        long timestamp = series.timestamp(i);
+                        if (timestamp > upper) {
+                            break;
+                        }
+                        if (timestamp >= lower) {
+                            chunk.add(toRow(filter, series, i));
+                        }
+                    }
+                }
+            }
+
+            if (chunk.isEmpty()) {
+                break;
+            }
+            chunk.forEach(sink);
+            emitted += chunk.size();
+
+            MqttDataRow last = chunk.get(chunk.size() - 1);
+            positionTime = SampleSeries.toMicros(last.timestamp());
+            positionId = last.id();
+            inclusive = false;
+            if (chunk.size() < SCAN_CHUNK) {
+                break;
+            }
+        }
+        return emitted;
+    }
+
+    /**
+     * Latest reading at or before the given time, or null when the window
+     * holds none (the answer may then be older - ask the database)
+     */
+    public MqttDataRow asOf(HistoryFilter filter, LocalDateTime at) {
+        if (coveredFrom(filter) == null) {
+            return null;
+        }
+        SampleSeries series = seriesFor(filter);
+        if (series == null) {
+            return null;
+        }
+        synchronized (series) {
+            int i = series.upperBound(SampleSeries.toMicros(at), Long.MAX_VALUE) - 1;
+            return i >= 0 ? toRow(filter, series, i) : null;
+        }
+    }
+
+    /**
+     * Series / sample counts and memory per sample
+     */
+    public Map<String, Object> getStats() {
+        long samples = 0;
+        long capacity = 0;
+        for (Map<String, SampleSeries> map : List.of(byDevice, byCounter)) {
+            for (SampleSeries series : map.values()) {
+                synchronized (series) {
+                    samples += series.size();
+                    capacity += series.capacity();
+                }
+            }
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", mqttProperties.getRecentWindow().isEnabled());
+        stats.put("serving", serving);
+        stats.put("windowHours", mqttProperties.getRecentWindow().getHours());
+        stats.put("deviceSeries", byDevice.size());
+        stats.put("counterSeries", byCounter.size());
+        stats.put("samples", samples);
+        stats.put("bytesPerSample", SampleSeries.BYTES_PER_SAMPLE);
+        // Every reading is held once per device and once per counter
+        stats.put("bytesPerReading", 2 * SampleSeries.BYTES_PER_SAMPLE);
+        stats.put("allocatedBytes", capacity * SampleSeries.BYTES_PER_SAMPLE);
+        return stats;
+    }
+
+    /* ------------------ INTERNALS ------------------ */
+
+    private void append(Long id, String deviceId, String counterName, Integer occupancy, Integer inCount,
+                        Double waitTime, LocalDateTime timestamp, LocalDateTime createdAt) {
+        if (id == null || timestamp == null) {
+            return;
+        }
+        long micros = SampleSeries.toMicros(timestamp);
+        long cutoff = cutoff();
+        if (micros < cutoff) {
+            return;
+        }
+
+        long created = SampleSeries.toMicros(createdAt);
+        int occ = occupancy != null ? occupancy : SampleSeries.NULL_INT;
+        int in = inCount != null ? inCount : SampleSeries.NULL_INT;
+        double wait = SampleSeries.toWait(waitTime);
+
+        if (deviceId != null) {
+            insert(byDevice, deviceId, micros, id, created, occ, in, wait, keyId(counterName), cutoff);
+        }
+        if (counterName != null) {
+            insert(byCounter, counterName, micros, id, created, occ, in, wait, keyId(deviceId), cutoff);
+        }
+    }
+
+    private void insert(ConcurrentHashMap<String, SampleSeries> map, String key, long micros, long id, long created,
+                        int occ, int in, double wait, int otherKey, long cutoff) {
+        while (true) {
+            SampleSeries series = map.computeIfAbsent(key,
+                    k -> new SampleSeries(mqttProperties.getRecentWindow().getInitialCapacity()));
+            synchronized (series) {
+                // Removed by the sweep while we waited for the lock - take the new one
+                if (map.get(key) != series) {
+                    continue;
+                }
+                series.evictBefore(cutoff);
+                if (series.size() >= mqttProperties.getRecentWindow().getMaxSamplesPerSeries()) {
+                    series.evictOldest();
+                }
+                series.insert(micros, id, created, occ, in, wait, otherKey);
+                return;
+            }
+        }
+    }
+
+    private void evict(ConcurrentHashMap<String, SampleSeries> map, long cutoff) {
+        map.forEach((key, series) -> {
+            synchronized (series) {
+                series.evictBefore(cutoff);
+            }
+        });
+        // Only removed if still empty (an append may have raced in, see insert)
+        map.entrySet().removeIf(entry -> {
+            synchronized (entry.getValue()) {
+                return entry.getValue().size() == 0;
+            }
+        });
+    }
+
+    private MqttDataRow toRow(HistoryFilter filter, SampleSeries series, int i) {
+        String other = keyName(series.otherKey(i));
+        int occ = series.occupancy(i);
+        int in = series.inCount(i);
+        return new MqttDataRow(
+                series.id(i),
+                filter.deviceId() != null ? filter.deviceId() : other,
+                filter.counterName() != null ? filter.counterName() : other,
+                occ != SampleSeries.NULL_INT ? occ : null,
+                in != SampleSeries.NULL_INT ? in : null,
+                SampleSeries.fromWait(series.waitTime(i)),
+                SampleSeries.fromMicros(series.timestamp(i)),
+                SampleSeries.fromMicros(series.createdAt(i))
+        );
+    }
+
+    private SampleSeries seriesFor(HistoryFilter filter) {
+        return filter.deviceId() != null ? byDevice.get(filter.deviceId()) : byCounter.get(filter.counterName());
+    }
+
+    private long cutoff() {
+        return SampleSeries.toMicros(LocalDateTime.now().minusHours(mqttProperties.getRecentWindow().getHours()));
+    }
+
+    private int keyId(String name) {
+        if (name == null) {
+            return -1;
+        }
+        return keyIds.computeIfAbsent(name, n -> {
+            synchronized (keyNames) {
+                keyNames.add(n);
+                return keyNames.size() - 1;
+            }
+        });
+    }
+
+    private String keyName(int id) {
+        if (id < 0) {
+            return null;
+        }
+        synchronized (keyNames) {
+            return keyNames.get(id);
+        }
+    }
+}
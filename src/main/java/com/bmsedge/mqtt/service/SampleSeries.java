@@ -0,0 +1,257 @@
+package com.bmsedge.mqtt.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Sample Series
+ * Time-ordered readings of one device or counter in a growable ring of
+ * primitive columns - no boxed values, no LocalDateTime objects:
+ *
+ *   long   timestamp, id, createdAt   (timestamps as local epoch micros)
+ *   int    occupancy, inCount         (NULL_INT = null)
+ *   double waitTime                   (NULL_WAIT = null; a NaN reading is
+ *                                      stored as the canonical NaN)
+ *   int    other key                  (counter of a device series / device of a
+ *                                      counter series, index into the key table)
+ *
+ * Ordered by (timestamp, id); the rare out-of-order row (several ingest
+ * lanes) is inserted in place. Not thread-safe - RecentWindowStore locks.
+ */
+final class SampleSeries {
+
+    static final int NULL_INT = Integer.MIN_VALUE;
+    static final long NULL_TIME = Long.MIN_VALUE;
+
+    /** A NaN payload no reading carries (same bits as ArchiveChunk's null) */
+    static final long NULL_WAIT_BITS = 0x7FF8_0000_0000_0001L;
+    static final double NULL_WAIT = Double.longBitsToDouble(NULL_WAIT_BITS);
+
+    /** Bytes of column data per stored sample */
+    static final int BYTES_PER_SAMPLE = 8 + 8 + 8 + 4 + 4 + 8 + 4;
+
+    private long[] timestamps;
+    private long[] ids;
+    private long[] createdAt;
+    private int[] occupancy;
+    private int[] inCount;
+    private double[] waitTime;
+    private int[] otherKey;
+
+    private int head;
+    private int size;
+
+    /** Newest timestamp ever evicted (NULL_TIME = nothing evicted) */
+    private long evictedUpTo = NULL_TIME;
+
+    SampleSeries(int initialCapacity) {
+        allocate(Math.max(16, initialCapacity));
+    }
+
+    /* ------------------ WRITE ------------------ */
+
+    /**
+     * Insert in (timestamp, id) order; a row already present (same timestamp and id) is ignored
+     */
+    void insert(long timestamp, long id, long created, int occ, int in, double wait, int key) {
+        int position = upperBound(timestamp, id);
+        if (position > 0 && timestamp(position - 1) == timestamp && id(position - 1) == id) {
+            return;
+        }
+        if (size == timestamps.length) {
+            grow();
+        }
+
+        // Shift the (usually empty) tail one slot to the right
+        for (int i = size; i > position; i--) {
+            int to = physical(i);
+            int from = physical(i - 1);
+            timestamps[to] = timestamps[from];
+            ids[to] = ids[from];
+            createdAt[to] = createdAt[from];
+            occupancy[to] = occupancy[from];
+            inCount[to] = inCount[from];
+            waitTime[to] = waitTime[from];
+            otherKey[to] = otherKey[from];
+        }
+
+        int slot = physical(position);
+        timestamps[slot] = timestamp;
+        ids[slot] = id;
+        createdAt[slot] = created;
+        occupancy[slot] = occ;
+        inCount[slot] = in;
+        waitTime[slot] = wait;
+        otherKey[slot] = key;
+        size++;
+    }
+
+    /**
+     * Drop samples older than cutoff
+     */
+    void evictBefore(long cutoff) {
+        while (size > 0 && timestamps[head] < cutoff) {
+            evictOldest();
+        }
+    }
+
+    void evictOldest() {
+        evictedUpTo = Math.max(evictedUpTo, timestamps[head]);
+        head = (head + 1) % timestamps.length;
+        size--;
+    }
+
+    /* ------------------ READ ------------------ */
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return timestamps.length;
+    }
+
+    long evictedUpTo() {
+        return evictedUpTo;
+    }
+
+    long timestamp(int i) {
+        return timestamps[physical(i)];
+    }
+
+    long id(int i) {
+        return ids[physical(i)];
+    }
+
+    long createdAt(int i) {
+        return createdAt[physical(i)];
+    }
+
+    int occupancy(int i) {
+        return occupancy[physical(i)];
+    }
+
+    int inCount(int i) {
+        return inCount[physical(i)];
+    }
+
+    double waitTime(int i) {
+        return waitTime[physical(i)];
+    }
+
+    int otherKey(int i) {
+        return otherKey[physical(i)];
+    }
+
+    /**
+     * First index whose (timestamp, id) is >= the given one (size if none)
+     */
+    int lowerBound(long timestamp, long id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, timestamp, id) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * First index whose (timestamp, id) is > the given one (size if none)
+     */
+    int upperBound(long timestamp, long id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, timestamp, id) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int i, long timestamp, long id) {
+        int byTime = Long.compare(timestamp(i), timestamp);
+        return byTime != 0 ? byTime : Long.compare(id(i), id);
+    }
+
+    /* ------------------ WAIT TIME ------------------ */
+
+    static double toWait(Double waitTime) {
+        if (waitTime == null) {
+            return NULL_WAIT;
+        }
+        // Canonical NaN, so a NaN reading never carries the null payload
+        return Double.isNaN(waitTime) ? Double.NaN : waitTime;
+    }
+
+    static Double fromWait(double wait) {
+        return Double.doubleToRawLongBits(wait) == NULL_WAIT_BITS ? null : wait;
+    }
+
+    /* ------------------ TIME ------------------ */
+
+    /**
+     * LocalDateTime -> micros on the local time line (same order as the
+     * timestamp column, no time-zone rules involved)
+     */
+    static long toMicros(LocalDateTime time) {
+        return time == null ? NULL_TIME : time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1_000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        if (micros == NULL_TIME) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC);
+    }
+
+    /* ------------------ STORAGE ------------------ */
+
+    private int physical(int i) {
+        int slot = head + i;
+        return slot < timestamps.length ? slot : slot - timestamps.length;
+    }
+
+    private void grow() {
+        int capacity = timestamps.length;
+        long[] oldTimestamps = timestamps;
+        long[] oldIds = ids;
+        long[] oldCreatedAt = createdAt;
+        int[] oldOccupancy = occupancy;
+        int[] oldInCount = inCount;
+        double[] oldWaitTime = waitTime;
+        int[] oldOtherKey = otherKey;
+
+        allocate(capacity * 2);
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) % capacity;
+            timestamps[i] = oldTimestamps[from];
+            ids[i] = oldIds[from];
+            createdAt[i] = oldCreatedAt[from];
+            occupancy[i] = oldOccupancy[from];
+            inCount[i] = oldInCount[from];
+            waitTime[i] = oldWaitTime[from];
+            otherKey[i] = oldOtherKey[from];
+        }
+        head = 0;
+    }
+
+    private void allocate(int capacity) {
+        timestamps = new long[capacity];
+        ids = new long[capacity];
+        createdAt = new long[capacity];
+        occupancy = new int[capacity];
+        inCount = new int[capacity];
+        waitTime = new double[capacity];
+        otherKey = new int[capacity];
+    }
+}
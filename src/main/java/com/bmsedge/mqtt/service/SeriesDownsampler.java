@@ -0,0 +1,402 @@
+package com.bmsedge.mqtt.service;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Series Downsampler
+ * Reduces a time-ordered (timestamp, value) series over [from, to] to about
+ * N points in ONE pass, with fixed time buckets (the row count is not known
+ * up front when rows come off a cursor):
+ *
+ * - LTTB:   Largest-Triangle-Three-Buckets - first and last point plus one
+ *           point per bucket (N - 2 buckets); a bucket is decided once the
+ *           next non-empty bucket is complete. Two buckets are held, each as
+ *           exact sums plus the first / last / min / max point of each of its
+ *           SUB_BUCKETS fine time slices (at most 4 x SUB_BUCKETS candidates
+ *           however many rows the bucket covers)
+ * - MINMAX: minimum and maximum of every bucket (N / 2 buckets), in time
+ *           order; keeps spikes, holds one bucket's extremes
+ *
+ * Empty buckets (no readings) are skipped.
+ */
+public abstract class SeriesDownsampler {
+
+    public enum Method {
+        LTTB, MINMAX
+    }
+
+    /**
+     * Fine time slices per LTTB bucket (candidate resolution)
+     */
+    static final int SUB_BUCKETS = 64;
+
+    /**
+     * Downsampled points, epoch milliseconds + values
+     */
+    public record Series(long[] timestamps, double[] values) {
+    }
+
+    protected final long from;
+    protected final long span;
+    protected final PointBuffer out = new PointBuffer();
+
+    protected SeriesDownsampler(long from, long to) {
+        this.from = from;
+        // to - from + 1 overflows for ranges wider than a long; such a span is capped
+        long width = to - from;
+        this.span = to < from ? 1 : width < 0 || width == Long.MAX_VALUE ? Long.MAX_VALUE : width + 1;
+    }
+
+    /**
+     * @param points requested size: at least 3 for LTTB, at least 2 for MINMAX
+     */
+    public static SeriesDownsampler create(Method method, long from, long to, int points) {
+        return method == Method.MINMAX
+                ? new MinMax(from, to, Math.max(1, points / 2))
+                : new Lttb(from, to, Math.max(1, points - 2));
+    }
+
+    /**
+     * Next point; timestamps must not decrease
+     */
+    public abstract void accept(long timestamp, double value);
+
+    public abstract Series finish();
+
+    protected long bucketOf(long timestamp, int buckets) {
+        if (timestamp <= from) {
+            return 0;
+        }
+        long offset = timestamp - from;
+        if (offset < 0 || offset >= span) {
+            return buckets - 1;  // past to (or further than a long away from from)
+        }
+        // offset * buckets overflows a long for very wide ranges; exact 128-bit product then
+        long high = Math.multiplyHigh(offset, buckets);
+        long low = offset * buckets;
+        long bucket = high == 0 && low >= 0
+                ? low / span
+                : BigInteger.valueOf(offset).multiply(BigInteger.valueOf(buckets))
+                        .divide(BigInteger.valueOf(span)).longValue();
+        return Math.min(buckets - 1, bucket);
+    }
+
+    /* ------------------ LTTB ------------------ */
+
+    private static final class Lttb extends SeriesDownsampler {
+
+        private final int buckets;
+        private final int subBuckets;
+        private final int fineBuckets;
+
+        private Candidates pending = new Candidates();
+        private Candidates current = new Candidates();
+        private long currentBucket = -1;
+
+        private boolean started;
+        private long selectedT;
+        private double selectedV;
+        private long lastT;
+        private double lastV;
+
+        Lttb(long from, long to, int buckets) {
+            super(from, to);
+            this.buckets = buckets;
+            this.subBuckets = Math.max(1, Math.min(SUB_BUCKETS, Integer.MAX_VALUE / buckets));
+            this.fineBuckets = buckets * subBuckets;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            lastT = timestamp;
+            lastV = value;
+
+            if (!started) {
+                // The first point is always kept
+                started = true;
+                select(timestamp, value);
+                return;
+            }
+
+            // floor(floor(x * s) / s) = floor(x): the same buckets as bucketOf(timestamp, buckets)
+            long fine = bucketOf(timestamp, fineBuckets);
+            long bucket = fine / subBuckets;
+            if (bucket != currentBucket && current.count() > 0) {
+                current.complete();
+                if (pending.count() > 0) {
+                    selectFrom(pending, current.averageT(), current.averageV());
+                }
+                Candidates completed = current;
+                current = pending;
+                pending = completed;
+                current.clear();
+            }
+            currentBucket = bucket;
+            current.add(timestamp, value, fine);
+        }
+
+        @Override
+        public Series finish() {
+            current.complete();
+            if (pending.count() > 0) {
+                if (current.count() > 0) {
+                    selectFrom(pending, current.averageT(), current.averageV());
+                } else {
+                    selectFrom(pending, lastT, lastV);
+                }
+            }
+            if (current.count() > 0) {
+                selectFrom(current, lastT, lastV);
+            }
+            // The last point is always kept
+            if (started && (out.size() == 0 || out.timestamp(out.size() - 1) != lastT)) {
+                out.add(lastT, lastV);
+            }
+            return out.toSeries();
+        }
+
+        /**
+         * Candidate of the bucket spanning the largest triangle with the
+         * previous selection and the next bucket's average
+         */
+        private void selectFrom(Candidates bucket, double nextT, double nextV) {
+            PointBuffer points = bucket.points();
+            double aT = selectedT - from;
+            double cT = nextT - from;
+
+            int best = 0;
+            double bestArea = -1;
+            for (int i = 0; i < points.size(); i++) {
+                double bT = points.timestamp(i) - from;
+                double area = Math.abs((aT - cT) * (points.value(i) - selectedV) - (aT - bT) * (nextV - selectedV));
+                if (area > bestArea) {
+                    bestArea = area;
+                    best = i;
+                }
+            }
+            select(points.timestamp(best), points.value(best));
+        }
+
+        private void select(long timestamp, double value) {
+            selectedT = timestamp;
+            selectedV = value;
+            out.add(timestamp, value);
+        }
+    }
+
+    /**
+     * One LTTB bucket in bounded memory: exact running sums for its average,
+     * and per fine time slice only the first, minimum, maximum and last point
+     * as selection candidates (the triangle area is linear in the point, so
+     * a slice's extremes stand in for the points between them)
+     */
+    static final class Candidates {
+
+        private final PointBuffer points = new PointBuffer();
+        private long count;
+        private double sumT;
+        private double sumV;
+
+        private long slice = -1;
+        private long firstT;
+        private double firstV;
+        private long minT;
+        private double minV;
+        private long maxT;
+        private double maxV;
+        private long lastT;
+        private double lastV;
+
+        void add(long timestamp, double value, long fineBucket) {
+            count++;
+            sumT += timestamp;
+            sumV += value;
+
+            if (fineBucket != slice) {
+                complete();
+                slice = fineBucket;
+                firstT = minT = maxT = lastT = timestamp;
+                firstV = minV = maxV = lastV = value;
+                return;
+            }
+            if (value < minV) {
+                minT = timestamp;
+                minV = value;
+            }
+            if (value > maxV) {
+                maxT = timestamp;
+                maxV = value;
+            }
+            lastT = timestamp;
+            lastV = value;
+        }
+
+        /**
+         * Close the open slice: its candidates, in time order, without repeats
+         */
+        void complete() {
+            if (slice < 0) {
+                return;
+            }
+            slice = -1;
+            addCandidate(firstT, firstV);
+            if (minT <= maxT) {
+                addCandidate(minT, minV);
+                addCandidate(maxT, maxV);
+            } else {
+                addCandidate(maxT, maxV);
+                addCandidate(minT, minV);
+            }
+            addCandidate(lastT, lastV);
+        }
+
+        long count() {
+            return count;
+        }
+
+        double averageT() {
+            return sumT / count;
+        }
+
+        double averageV() {
+            return sumV / count;
+        }
+
+        PointBuffer points() {
+            return points;
+        }
+
+        void clear() {
+            points.clear();
+            count = 0;
+            sumT = 0;
+            sumV = 0;
+            slice = -1;
+        }
+
+        private void addCandidate(long timestamp, double value) {
+            int last = points.size() - 1;
+            if (last >= 0 && points.timestamp(last) == timestamp
+                    && Double.doubleToLongBits(points.value(last)) == Double.doubleToLongBits(value)) {
+                return;
+            }
+            points.add(timestamp, value);
+        }
+    }
+
+    /* ------------------ MIN / MAX ------------------ */
+
+    private static final class MinMax extends SeriesDownsampler {
+
+        private final int buckets;
+
+        private long currentBucket = -1;
+        private long minT;
+        private double minV;
+        private long maxT;
+        private double maxV;
+
+        MinMax(long from, long to, int buckets) {
+            super(from, to);
+            this.buckets = buckets;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            long bucket = bucketOf(timestamp, buckets);
+            if (bucket != currentBucket) {
+                flush();
+                currentBucket = bucket;
+                minT = maxT = timestamp;
+                minV = maxV = value;
+                return;
+            }
+            if (value < minV) {
+                minT = timestamp;
+                minV = value;
+            }
+            if (value > maxV) {
+                maxT = timestamp;
+                maxV = value;
+            }
+        }
+
+        @Override
+        public Series finish() {
+            flush();
+            return out.toSeries();
+        }
+
+        private void flush() {
+            if (currentBucket < 0) {
+                return;
+            }
+            if (minT == maxT) {
+                out.add(minT, minV);
+            } else if (minT < maxT) {
+                out.add(minT, minV);
+                out.add(maxT, maxV);
+            } else {
+                out.add(maxT, maxV);
+                out.add(minT, minV);
+            }
+        }
+    }
+
+    /* ------------------ BUFFER ------------------ */
+
+    /**
+     * Growable primitive (timestamp, value) list with running sums
+     */
+    static final class PointBuffer {
+
+        private long[] timestamps = new long[64];
+        private double[] values = new double[64];
+        private int size;
+        private double sumT;
+        private double sumV;
+
+        void add(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+            sumT += timestamp;
+            sumV += value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long timestamp(int i) {
+            return timestamps[i];
+        }
+
+        double value(int i) {
+            return values[i];
+        }
+
+        double averageT() {
+            return sumT / size;
+        }
+
+        double averageV() {
+            return sumV / size;
+        }
+
+        void clear() {
+            size = 0;
+            sumT = 0;
+            sumV = 0;
+        }
+
+        Series toSeries() {
+            return new Series(Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size));
+        }
+    }
+}
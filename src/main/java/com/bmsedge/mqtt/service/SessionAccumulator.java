@@ -0,0 +1,68 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.SessionAggregate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Session Accumulator
+ * One counter in one session window, folded reading by reading in O(1):
+ * max in-count, peak queue (occupancy), peak wait, first / last reading,
+ * sample count and the session's congestion timeline (open block included).
+ *
+ * Not thread-safe - SessionAggregator guards it.
+ */
+final class SessionAccumulator {
+
+    private final CongestionEngine congestion = new CongestionEngine(false);
+
+    private long samples;
+    private Integer maxInCount;
+    private Integer peakQueue;
+    private Double peakWait;
+    private LocalDateTime first;
+    private LocalDateTime last;
+
+    void accept(LocalDateTime timestamp, Integer inCount, Integer occupancy, Double waitTime) {
+        samples++;
+        maxInCount = max(maxInCount, inCount);
+        peakQueue = max(peakQueue, occupancy);
+        if (waitTime != null && (peakWait == null || waitTime > peakWait)) {
+            peakWait = waitTime;
+        }
+        if (first == null || timestamp.isBefore(first)) {
+            first = timestamp;
+        }
+        // The congestion timeline needs readings in order; a late reading only counts for the maxima
+        if (last == null || !timestamp.isBefore(last)) {
+            congestion.accept(timestamp, waitTime);
+            last = timestamp;
+        }
+    }
+
+    SessionAggregate toAggregate(LocalDate day, String session, String counterName, long sessionMinutes) {
+        CongestionEngine view = congestion.copy();
+        view.finish();
+        return new SessionAggregate(
+                day,
+                session,
+                counterName,
+                samples,
+                maxInCount,
+                peakQueue,
+                peakWait,
+                first,
+                last,
+                view.peak(),
+                view.weightedIndex(sessionMinutes)
+        );
+    }
+
+    private static Integer max(Integer current, Integer value) {
+        if (value == null) {
+            return current;
+        }
+        return current == null || value > current ? value : current;
+    }
+}
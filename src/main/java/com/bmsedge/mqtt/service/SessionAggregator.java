@@ -0,0 +1,417 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.dto.PeakCongestionDTO;
+import com.bmsedge.mqtt.dto.SessionAggregate;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
+import com.bmsedge.mqtt.repository.SessionSnapshotRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Session Aggregator
+ * Per-counter, per-session accumulators (SessionAccumulator) for the current
+ * day, updated from MqttDataEvent on every committed reading, plus one
+ * day-wide congestion engine per counter (the peak of /aggregate/hourly).
+ *
+ * - Warmed at startup with one streamed query over today's rows
+ * - Today's session aggregates are served from memory in O(counters)
+ * - Each session is written to mqtt_session_snapshot once it has ended
+ *   (checkpoint); a late reading for an ended session reopens it and the
+ *   next checkpoint rewrites it. Past days are served from the snapshots.
+ * - A late reading for a snapshotted session of an earlier day reopens it
+ *   (mqtt_session_close row deleted), so that day is computed from stored
+ *   readings again; while the day is still held (pending) it is also
+ *   applied and the session snapshotted anew
+ *
+ * Like LatestValueCache it is bypassed in shared-subscription mode, where
+ * this replica only sees part of the stream.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SessionAggregator {
+
+    // A session is snapshotted this long after its end, so readings still in the pipeline make it
+    private static final Duration CLOSE_GRACE = Duration.ofMinutes(1);
+
+    // Streamed rows this close to the warm-up start may also arrive as events during the warm-up
+    private static final Duration WARM_UP_OVERLAP = Duration.ofMinutes(15);
+
+    private final MqttDataRowRepository rowRepository;
+    private final SessionSnapshotRepository snapshotRepository;
+    private final MqttProperties mqttProperties;
+
+    private List<MqttProperties.SessionWindow> windows = List.of();
+
+    private DayState current;
+    private final List<DayState> pending = new ArrayList<>();
+
+    // Sessions of earlier days to reopen in the database (outside the lock), and those of
+    // days no longer held that were reopened already (nothing snapshots them again)
+    private final Set<SessionKey> toReopen = new LinkedHashSet<>();
+    private final Set<SessionKey> reopened = new HashSet<>();
+
+    // Events received while warming up, applied once the stream is done
+    private List<MqttDataEntity> warmUpEvents;
+
+    private volatile boolean serving;
+
+    @PostConstruct
+    public void warmUp() {
+        MqttProperties.SessionsConfig config = mqttProperties.getSessions();
+        if (!config.isLive()) {
+            log.info("ℹ️ Live session aggregates disabled, sessions are computed from stored readings");
+            return;
+        }
+        if (mqttProperties.getSharedSubscription().isEnabled()) {
+            log.info("ℹ️ Live session aggregates bypassed: shared subscriptions deliver only part of the stream to this replica");
+            return;
+        }
+
+        try {
+            long started = System.currentTimeMillis();
+            LocalDateTime now = LocalDateTime.now();
+            LocalDate today = now.toLocalDate();
+            LocalDateTime overlapFrom = now.minus(WARM_UP_OVERLAP);
+
+            synchronized (this) {
+                windows = List.copyOf(config.getWindows());
+                current = new DayState(today, snapshotRepository.findClosedSessions(today));
+                warmUpEvents = new ArrayList<>();
+            }
+
+            Set<Long> recentIds = new HashSet<>();
+            long[] rows = new long[1];
+            rowRepository.streamSince(today.atStartOfDay(), mqttProperties.getHistory().getFetchSize(), row -> {
+                synchronized (this) {
+                    apply(row.counterName(), row.timestamp(), row.inCount(), row.occupancy(), row.waitTime());
+                }
+                if (!row.timestamp().isBefore(overlapFrom)) {
+                    recentIds.add(row.id());
+                }
+                rows[0]++;
+            });
+
+            synchronized (this) {
+                for (MqttDataEntity data : warmUpEvents) {
+                    if (!recentIds.contains(data.getId())) {
+                        apply(data.getCounterName(), data.getTimestamp(), data.getInCount(),
+                                data.getOccupancy(), data.getWaitTime());
+                    }
+                }
+                warmUpEvents = null;
+                serving = true;
+            }
+            reopenLateSessions();
+
+            log.info("✅ Session aggregator warmed: {} rows, {} counters, {} sessions in {} ms",
+                    rows[0], current.counters.size(), windows.size(), System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            synchronized (this) {
+                warmUpEvents = null;
+            }
+            log.error("❌ Session aggregator warm-up failed, sessions are computed from stored readings: {}",
+                    e.getMessage(), e);
+        }
+    }
+
+    @EventListener
+    public void onMqttData(MqttDataEvent event) {
+        MqttDataEntity data = event.getData();
+        if (data == null || data.getId() == null) {
+            return;
+        }
+        synchronized (this) {
+            if (warmUpEvents != null) {
+                warmUpEvents.add(data);
+                return;
+            }
+            if (!serving) {
+                return;
+            }
+            apply(data.getCounterName(), data.getTimestamp(), data.getInCount(), data.getOccupancy(),
+                    data.getWaitTime());
+        }
+        reopenLateSessions();
+    }
+
+    /**
+     * Snapshot ended sessions (and the leftovers of past days) to the database
+     */
+    @Scheduled(fixedDelay = 30_000, initialDelay = 30_000)
+    public void checkpoint() {
+        if (!serving) {
+            return;
+        }
+        // Retries the ones that failed on ingest
+        reopenLateSessions();
+
+        List<Snapshot> snapshots = new ArrayList<>();
+        synchronized (this) {
+            LocalDateTime now = LocalDateTime.now();
+            rollOver(now.toLocalDate());
+
+            for (DayState state : pending) {
+                for (MqttProperties.SessionWindow window : windows) {
+                    if (state.closed.add(window.getName())) {
+                        snapshots.add(new Snapshot(state, window.getName(), state.aggregates(window)));
+                    }
+                }
+            }
+            for (MqttProperties.SessionWindow window : windows) {
+                boolean ended = !now.isBefore(current.day.atTime(window.getEnd()).plus(CLOSE_GRACE));
+                if (ended && current.closed.add(window.getName())) {
+                    snapshots.add(new Snapshot(current, window.getName(), current.aggregates(window)));
+                }
+            }
+        }
+
+        for (Snapshot snapshot : snapshots) {
+            try {
+                snapshotRepository.save(snapshot.state().day, snapshot.session(), snapshot.aggregates());
+                synchronized (this) {
+                    snapshot.state().stored.add(snapshot.session());
+                }
+                log.info("💾 Session snapshot {} {}: {} counters",
+                        snapshot.state().day, snapshot.session(), snapshot.aggregates().size());
+            } catch (Exception e) {
+                synchronized (this) {
+                    snapshot.state().closed.remove(snapshot.session());
+                }
+                log.error("❌ Session snapshot {} {} failed, retrying on the next checkpoint: {}",
+                        snapshot.state().day, snapshot.session(), e.getMessage());
+            }
+        }
+
+        synchronized (this) {
+            pending.removeIf(state -> state.closed.size() >= windows.size());
+        }
+    }
+
+    /* ------------------ QUERIES ------------------ */
+
+    /**
+     * Whether the day's sessions are held in memory (today, once warmed)
+     */
+    public synchronized boolean serves(LocalDate day) {
+        return serving && current != null && current.day.equals(day);
+    }
+
+    /**
+     * Every counter in every session of the day so far, by counter and session order;
+     * empty unless serves(day)
+     */
+    public synchronized List<SessionAggregate> sessions(LocalDate day) {
+        if (!serves(day)) {
+            return List.of();
+        }
+        List<SessionAggregate> aggregates = new ArrayList<>();
+        for (var entry : new TreeMap<>(current.counters).entrySet()) {
+            SessionAccumulator[] sessions = entry.getValue().sessions;
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i] != null) {
+                    MqttProperties.SessionWindow window = windows.get(i);
+                    aggregates.add(sessions[i].toAggregate(day, window.getName(), entry.getKey(), minutes(window)));
+                }
+            }
+        }
+        return aggregates;
+    }
+
+    /**
+     * Peak congestion block of the whole day per counter (open block included);
+     * empty unless serves(day)
+     */
+    public synchronized Map<String, PeakCongestionDTO> dayPeaks(LocalDate day) {
+        if (!serves(day)) {
+            return Map.of();
+        }
+        Map<String, PeakCongestionDTO> peaks = new HashMap<>();
+        current.counters.forEach((counterName, state) -> {
+            CongestionEngine view = state.congestion.copy();
+            view.finish();
+            peaks.put(counterName, view.peak());
+        });
+        return peaks;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("live", mqttProperties.getSessions().isLive());
+        stats.put("serving", serving);
+        stats.put("day", current != null ? current.day : null);
+        stats.put("counters", current != null ? current.counters.size() : 0);
+        stats.put("closedSessions", current != null ? new ArrayList<>(current.closed) : List.of());
+        stats.put("pendingDays", pending.size());
+        stats.put("reopenedSessions", reopened.size());
+        return stats;
+    }
+
+    /* ------------------ INTERNALS ------------------ */
+
+    // Callers hold the lock
+    private void apply(String counterName, LocalDateTime timestamp, Integer inCount, Integer occupancy,
+                       Double waitTime) {
+        if (counterName == null || timestamp == null) {
+            return;
+        }
+        LocalDate day = timestamp.toLocalDate();
+        int session = sessionOf(timestamp.toLocalTime());
+
+        DayState dayState;
+        if (day.isBefore(current.day)) {
+            dayState = pending.stream().filter(state -> state.day.equals(day)).findFirst().orElse(null);
+            if (dayState == null) {
+                // No longer held: the day falls back to stored readings, which include this one
+                SessionKey key = session >= 0 ? new SessionKey(day, windows.get(session).getName()) : null;
+                if (key != null && reopened.add(key)) {
+                    toReopen.add(key);
+                }
+                return;
+            }
+        } else {
+            rollOver(day);
+            dayState = current;
+        }
+
+        CounterState state = dayState.counters.computeIfAbsent(counterName, name -> new CounterState(windows.size()));
+        state.accept(timestamp, waitTime);
+
+        if (session >= 0) {
+            if (state.sessions[session] == null) {
+                state.sessions[session] = new SessionAccumulator();
+            }
+            state.sessions[session].accept(timestamp, inCount, occupancy, waitTime);
+            // Already snapshotted: rewrite on the next checkpoint; a past day is
+            // served from stored readings until then
+            String name = windows.get(session).getName();
+            dayState.closed.remove(name);
+            if (dayState != current && dayState.stored.remove(name)) {
+                toReopen.add(new SessionKey(day, name));
+            }
+        }
+    }
+
+    // Callers hold the lock; index of the first window containing the time, or -1
+    private int sessionOf(LocalTime time) {
+        for (int i = 0; i < windows.size(); i++) {
+            if (windows.get(i).contains(time)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Delete the close marks of past-day sessions that received late readings
+     */
+    private void reopenLateSessions() {
+        List<SessionKey> keys;
+        synchronized (this) {
+            if (toReopen.isEmpty()) {
+                return;
+            }
+            keys = new ArrayList<>(toReopen);
+            toReopen.clear();
+        }
+
+        for (SessionKey key : keys) {
+            try {
+                if (snapshotRepository.reopen(key.day(), key.session())) {
+                    log.info("↩️ Late reading for session {} {}: snapshot reopened, computed from stored readings",
+                            key.day(), key.session());
+                }
+            } catch (Exception e) {
+                synchronized (this) {
+                    toReopen.add(key);
+                }
+                log.error("❌ Reopening session {} {} failed, retrying on the next checkpoint: {}",
+                        key.day(), key.session(), e.getMessage());
+            }
+        }
+    }
+
+    // Callers hold the lock
+    private void rollOver(LocalDate day) {
+        if (day.isAfter(current.day)) {
+            pending.add(current);
+            current = new DayState(day, new HashSet<>());
+        }
+    }
+
+    private static long minutes(MqttProperties.SessionWindow window) {
+        return Duration.between(window.getStart(), window.getEnd()).toMinutes();
+    }
+
+    private record Snapshot(DayState state, String session, List<SessionAggregate> aggregates) {
+    }
+
+    private record SessionKey(LocalDate day, String session) {
+    }
+
+    private final class DayState {
+
+        private final LocalDate day;
+        private final Map<String, CounterState> counters = new HashMap<>();
+        // Snapshot up to date (in memory) / close mark in the database
+        private final Set<String> closed;
+        private final Set<String> stored;
+
+        DayState(LocalDate day, Set<String> closed) {
+            this.day = day;
+            this.closed = closed;
+            this.stored = new HashSet<>(closed);
+        }
+
+        List<SessionAggregate> aggregates(MqttProperties.SessionWindow window) {
+            int index = windows.indexOf(window);
+            List<SessionAggregate> aggregates = new ArrayList<>();
+            counters.forEach((counterName, state) -> {
+                if (state.sessions[index] != null) {
+                    aggregates.add(state.sessions[index].toAggregate(day, window.getName(), counterName,
+                            minutes(window)));
+                }
+            });
+            return aggregates;
+        }
+    }
+
+    private static final class CounterState {
+
+        private final CongestionEngine congestion = new CongestionEngine(false);
+        private final SessionAccumulator[] sessions;
+        private LocalDateTime last;
+
+        CounterState(int windowCount) {
+            this.sessions = new SessionAccumulator[windowCount];
+        }
+
+        void accept(LocalDateTime timestamp, Double waitTime) {
+            if (last == null || !timestamp.isBefore(last)) {
+                congestion.accept(timestamp, waitTime);
+                last = timestamp;
+            }
+        }
+    }
+}
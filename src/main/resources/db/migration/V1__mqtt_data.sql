@@ -0,0 +1,11 @@
+-- mqtt_data as previously created by ddl-auto (no-op on existing databases)
+CREATE TABLE IF NOT EXISTS mqtt_data (
+    id           BIGINT       NOT NULL PRIMARY KEY,
+    device_id    VARCHAR(255) NOT NULL,
+    counter_name VARCHAR(255) NOT NULL,
+    occupancy    INTEGER,
+    in_count     INTEGER,
+    wait_time    DOUBLE PRECISION,
+    timestamp    TIMESTAMP(6),
+    created_at   TIMESTAMP(6)
+);
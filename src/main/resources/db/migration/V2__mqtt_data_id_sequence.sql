@@ -0,0 +1,12 @@
+-- Pooled sequence ids instead of IDENTITY so Hibernate can batch inserts.
+-- INCREMENT BY is kept equal to mqtt.persistence.id-allocation-size by MqttDataSequenceInitializer.
+CREATE SEQUENCE IF NOT EXISTS mqtt_data_seq START WITH 1 INCREMENT BY 50;
+
+-- Nothing else may hand out ids
+ALTER TABLE mqtt_data ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE mqtt_data ALTER COLUMN id DROP DEFAULT;
+
+-- nextval() returns a value nobody else holds; never move backwards
+SELECT setval('mqtt_data_seq',
+              GREATEST(nextval('mqtt_data_seq'), (SELECT COALESCE(MAX(id), 0) + 1 FROM mqtt_data)),
+              false);
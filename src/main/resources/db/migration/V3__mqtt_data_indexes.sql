@@ -0,0 +1,13 @@
+-- Built CONCURRENTLY outside a transaction (V3__mqtt_data_indexes.sql.conf), so
+-- ingest keeps writing while the indexes of a large existing table are built.
+-- A failed concurrent build leaves an INVALID index that IF NOT EXISTS skips:
+-- DROP INDEX CONCURRENTLY it, then flyway repair and migrate again.
+
+-- Latest-by-device lookups (findLatestByDeviceId, DISTINCT ON (device_id), device time ranges)
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_mqtt_data_device_ts ON mqtt_data (device_id, timestamp DESC);
+
+-- Counter lookups and counter time ranges (scanned backwards for latest-by-counter)
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_mqtt_data_counter_ts ON mqtt_data (counter_name, timestamp);
+
+-- Day-window aggregations: rows arrive in timestamp order, so a BRIN index stays tiny
+CREATE INDEX CONCURRENTLY IF NOT EXISTS brin_mqtt_data_ts ON mqtt_data USING brin (timestamp);
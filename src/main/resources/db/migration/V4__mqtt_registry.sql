@@ -0,0 +1,9 @@
+-- Known devices / counters maintained by MqttKeyRegistry
+CREATE TABLE IF NOT EXISTS mqtt_registry (
+    kind          VARCHAR(16)  NOT NULL,
+    name          VARCHAR(255) NOT NULL,
+    first_seen    TIMESTAMP    NOT NULL,
+    last_seen     TIMESTAMP    NOT NULL,
+    message_count BIGINT       NOT NULL,
+    PRIMARY KEY (kind, name)
+);
@@ -0,0 +1,20 @@
+-- Compressed per-counter, per-day history written by MqttArchiveService (format: ArchiveChunk)
+CREATE TABLE IF NOT EXISTS mqtt_archive_chunk (
+    counter_name VARCHAR(255)   NOT NULL,
+    day          DATE           NOT NULL,
+    device_ids   VARCHAR(255)[] NOT NULL,
+    first_ts     TIMESTAMP(6)   NOT NULL,
+    last_ts      TIMESTAMP(6)   NOT NULL,
+    row_count    INTEGER        NOT NULL,
+    raw_bytes    BIGINT         NOT NULL,
+    data         BYTEA          NOT NULL,
+    archived_at  TIMESTAMP(6)   NOT NULL DEFAULT now(),
+    PRIMARY KEY (counter_name, day)
+);
+
+-- Already compressed: out-of-line TOAST storage without another pglz pass
+ALTER TABLE mqtt_archive_chunk ALTER COLUMN data SET STORAGE EXTERNAL;
+
+-- Device time ranges over archived days
+CREATE INDEX IF NOT EXISTS idx_mqtt_archive_chunk_devices ON mqtt_archive_chunk USING gin (device_ids);
+CREATE INDEX IF NOT EXISTS idx_mqtt_archive_chunk_day ON mqtt_archive_chunk (day);
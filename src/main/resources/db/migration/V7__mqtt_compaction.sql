@@ -0,0 +1,10 @@
+-- Resume point of MqttCompactionService: the hour slice in progress and the last deleted (timestamp, id)
+CREATE TABLE IF NOT EXISTS mqtt_compaction_checkpoint (
+    job          VARCHAR(64)  NOT NULL PRIMARY KEY,
+    slice_start  TIMESTAMP(6) NOT NULL,
+    summarized   BOOLEAN      NOT NULL,
+    last_ts      TIMESTAMP(6),
+    last_id      BIGINT,
+    rows_deleted BIGINT       NOT NULL DEFAULT 0,
+    updated_at   TIMESTAMP(6) NOT NULL DEFAULT now()
+);
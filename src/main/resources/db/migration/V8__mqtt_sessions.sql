@@ -0,0 +1,28 @@
+-- Per-counter session aggregates, written by SessionAggregator when a session closes
+CREATE TABLE IF NOT EXISTS mqtt_session_snapshot (
+    day                  DATE             NOT NULL,
+    session              VARCHAR(64)      NOT NULL,
+    counter_name         VARCHAR(255)     NOT NULL,
+    samples              BIGINT           NOT NULL,
+    max_in_count         INTEGER,
+    peak_queue           INTEGER,
+    peak_wait            DOUBLE PRECISION,
+    first_ts             TIMESTAMP(6)     NOT NULL,
+    last_ts              TIMESTAMP(6)     NOT NULL,
+    congestion_level     VARCHAR(16),
+    congestion_weight    INTEGER,
+    congestion_start     TIMESTAMP(6),
+    congestion_end       TIMESTAMP(6),
+    congestion_minutes   BIGINT,
+    congestion_peak_wait DOUBLE PRECISION,
+    weighted_index       DOUBLE PRECISION,
+    PRIMARY KEY (day, session, counter_name)
+);
+
+-- Sessions whose snapshot is complete (also for sessions without any readings)
+CREATE TABLE IF NOT EXISTS mqtt_session_close (
+    day       DATE         NOT NULL,
+    session   VARCHAR(64)  NOT NULL,
+    closed_at TIMESTAMP(6) NOT NULL DEFAULT now(),
+    PRIMARY KEY (day, session)
+);
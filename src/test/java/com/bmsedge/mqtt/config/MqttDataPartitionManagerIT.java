@@ -0,0 +1,151 @@
+package com.bmsedge.mqtt.config;
+
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Partitioning against embedded PostgreSQL: conversion of a populated plain
+ * table, partitions created ahead, pruning of a day window, retention.
+ * Starts unpartitioned (the migrations' plain table) and converts it in the
+ * first test, as enabling mqtt.partitioning on an existing database does.
+ */
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import(PersistenceConfig.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class MqttDataPartitionManagerIT {
+
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.BASIC_ISO_DATE;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @Order(1)
+    void plainTableIsConvertedWithItsRowsAndIndexes() {
+        assertEquals("r", relkind("mqtt_data"));
+        insert("dev-1", "now() - INTERVAL '30 days'");
+        insert("dev-2", "now() - INTERVAL '2 days'");
+
+        manager(0, MqttProperties.RetentionAction.DROP).afterPropertiesSet();
+
+        assertEquals("p", relkind("mqtt_data"));
+        assertEquals(2, count("mqtt_data"));
+        assertEquals(2, count("mqtt_data_legacy"));
+
+        List<String> partitions = partitions();
+        assertTrue(partitions.contains("mqtt_data_default"));
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i <= 3; i++) {
+            assertTrue(partitions.contains("mqtt_data_p" + today.plusDays(i).format(SUFFIX)), partitions.toString());
+        }
+
+        List<String> indexes = jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE tablename = 'mqtt_data'", String.class);
+        assertTrue(indexes.containsAll(List.of("idx_mqtt_data_device_ts", "idx_mqtt_data_counter_ts",
+                "brin_mqtt_data_ts")), indexes.toString());
+
+        // New rows land in the partition of their day
+        insert("dev-3", "now()");
+        assertEquals(1, count("mqtt_data_p" + today.format(SUFFIX)));
+    }
+
+    @Test
+    @Order(2)
+    void dayWindowPrunesToItsPartition() {
+        LocalDate today = LocalDate.now();
+        String plan = String.join("\n", jdbcTemplate.queryForList("""
+                EXPLAIN SELECT counter_name, MAX(occupancy) FROM mqtt_data
+                WHERE timestamp BETWEEN TIMESTAMP '%s 08:00' AND TIMESTAMP '%s 09:00'
+                GROUP BY counter_name
+                """.formatted(today, today), String.class));
+
+        assertTrue(plan.contains("mqtt_data_p" + today.format(SUFFIX)), plan);
+        assertFalse(plan.contains("mqtt_data_legacy"), plan);
+        assertFalse(plan.contains("mqtt_data_p" + today.plusDays(1).format(SUFFIX)), plan);
+    }
+
+    @Test
+    @Order(3)
+    void retentionDetachesOrDropsWholeOldPartitions() {
+        // Give the old rows partitions of their own so retention has something to cut
+        jdbcTemplate.execute("ALTER TABLE mqtt_data DETACH PARTITION mqtt_data_legacy");
+        jdbcTemplate.execute("DROP TABLE mqtt_data_legacy");
+        createPartition(LocalDate.now().minusDays(40));
+        createPartition(LocalDate.now().minusDays(20));
+        insert("dev-old", "CURRENT_DATE - 40 + TIME '12:00'");
+        insert("dev-recent", "CURRENT_DATE - 20 + TIME '12:00'");
+
+        manager(30, MqttProperties.RetentionAction.DETACH).maintain();
+        String forty = "mqtt_data_p" + LocalDate.now().minusDays(40).format(SUFFIX);
+        assertFalse(partitions().contains(forty));
+        assertEquals("r", relkind(forty));
+        assertEquals(1, count(forty));
+
+        createPartition(LocalDate.now().minusDays(35));
+        manager(30, MqttProperties.RetentionAction.DROP).maintain();
+        assertEquals("", relkind("mqtt_data_p" + LocalDate.now().minusDays(35).format(SUFFIX)));
+
+        // Inside the retention window nothing is touched
+        assertTrue(partitions().contains("mqtt_data_p" + LocalDate.now().minusDays(20).format(SUFFIX)));
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM mqtt_data WHERE device_id = 'dev-recent'", Integer.class));
+    }
+
+    private MqttDataPartitionManager manager(int retentionDays, MqttProperties.RetentionAction action) {
+        MqttProperties.PartitioningConfig config = new MqttProperties.PartitioningConfig();
+        config.setEnabled(true);
+        config.setPremake(3);
+        config.setRetentionDays(retentionDays);
+        config.setRetentionAction(action);
+        return new MqttDataPartitionManager(jdbcTemplate, config);
+    }
+
+    private void createPartition(LocalDate day) {
+        jdbcTemplate.execute("CREATE TABLE mqtt_data_p" + day.format(SUFFIX) + " PARTITION OF mqtt_data"
+                + " FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+    }
+
+    private void insert(String deviceId, String timestamp) {
+        jdbcTemplate.update("INSERT INTO mqtt_data (id, device_id, counter_name, timestamp, created_at)"
+                + " VALUES (nextval('mqtt_data_seq'), ?, 'counter-1', " + timestamp + ", now())", deviceId);
+    }
+
+    private String relkind(String table) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COALESCE((SELECT relkind::text FROM pg_class WHERE oid = to_regclass(?)), '')",
+                String.class, table);
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+
+    private List<String> partitions() {
+        return jdbcTemplate.queryForList("""
+                SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+                WHERE i.inhparent = to_regclass('mqtt_data')
+                """, String.class);
+    }
+}
@@ -0,0 +1,128 @@
+package com.bmsedge.mqtt.config;
+
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Changing mqtt.persistence.id-allocation-size between two starts (or
+ * between replicas) must never hand out an id block overlapping one already
+ * in use: pooled-lo blocks [nextval, nextval + size) of the old and the new
+ * size stay disjoint, and the ids written from them are distinct
+ */
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import(PersistenceConfig.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MqttDataSequenceInitializerIT {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final List<long[]> blocks = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM mqtt_data");
+    }
+
+    @Test
+    void loweringTheSizeKeepsNewBlocksOutOfBlocksInUse() {
+        start(50);
+        take(50);
+        take(50);
+
+        // Second context with a smaller size, the first one still running
+        start(25);
+        assertTrue(increment() >= 50);
+        for (int i = 0; i < 4; i++) {
+            take(25);
+            take(50);
+        }
+
+        assertDistinctIds();
+    }
+
+    @Test
+    void raisingTheSizeMovesPastBlocksInUse() {
+        start(50);
+        take(50);
+
+        start(200);
+        assertEquals(200, increment());
+        for (int i = 0; i < 3; i++) {
+            take(200);
+            take(50);
+        }
+
+        // And back down: the stride stays at the largest size in use
+        start(50);
+        assertEquals(200, increment());
+        take(50);
+        take(200);
+
+        assertDistinctIds();
+    }
+
+    @Test
+    void restartWithTheSameSizeChangesNothing() {
+        start(50);
+        long increment = increment();
+        take(50);
+        long next = jdbcTemplate.queryForObject("SELECT last_value FROM mqtt_data_seq", Long.class);
+
+        start(50);
+
+        assertEquals(increment, increment());
+        assertEquals(next, jdbcTemplate.queryForObject("SELECT last_value FROM mqtt_data_seq", Long.class));
+    }
+
+    private void start(int allocationSize) {
+        new MqttDataSequenceInitializer(jdbcTemplate, allocationSize).afterPropertiesSet();
+    }
+
+    /**
+     * One pooled-lo allocation of the given size, written out as rows
+     */
+    private void take(int size) {
+        long first = jdbcTemplate.queryForObject("SELECT nextval('mqtt_data_seq')", Long.class);
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, timestamp, created_at)
+                SELECT g, 'dev-1', 'counter-1', now(), now() FROM generate_series(?::bigint, ?::bigint) g
+                """, first, first + size - 1);
+        blocks.add(new long[]{first, first + size});
+    }
+
+    private void assertDistinctIds() {
+        for (int i = 0; i < blocks.size(); i++) {
+            for (int j = i + 1; j < blocks.size(); j++) {
+                long[] a = blocks.get(i);
+                long[] b = blocks.get(j);
+                assertFalse(a[0] < b[1] && b[0] < a[1], "blocks " + i + " and " + j + " overlap");
+            }
+        }
+        assertEquals(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM mqtt_data", Long.class),
+                jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT id) FROM mqtt_data", Long.class));
+    }
+
+    private long increment() {
+        return jdbcTemplate.queryForObject(
+                "SELECT increment_by FROM pg_sequences WHERE sequencename = 'mqtt_data_seq'", Long.class);
+    }
+}
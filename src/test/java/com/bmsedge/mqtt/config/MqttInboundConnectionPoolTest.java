@@ -0,0 +1,75 @@
+package com.bmsedge.mqtt.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttInboundConnectionPoolTest {
+
+    @Test
+    void configuredInstanceIdIsUsedAsIs() {
+        assertEquals("replica-1", MqttInboundConnectionPool.instanceId(shared("replica-1")));
+    }
+
+    @Test
+    void instanceIdIsReducedToSafeCharacters() {
+        assertEquals("mqtt-service-7f9c_b.eu-1", MqttInboundConnectionPool.instanceId(shared(" mqtt service/7f9c_b.eu#1 ")));
+    }
+
+    @Test
+    void missingInstanceIdFallsBackToTheHostNameAndIsStable() {
+        String id = MqttInboundConnectionPool.instanceId(shared(" "));
+
+        assertFalse(id.isEmpty());
+        assertTrue(id.matches("[A-Za-z0-9_.-]+"));
+        assertEquals(id, MqttInboundConnectionPool.instanceId(shared(null)));
+    }
+
+    @Test
+    void topicsAreDealtRoundRobinOverEveryConnection() {
+        // By hashCode() % 4 these all land on connections 1-3, leaving connection 0 without topics
+        List<String> topics = List.of("panpacific-topic", "Tandoor-topic", "Mediterranean-topic", "Chinese-topic",
+                "Juice-topic", "Dosa-topic", "Bakery-topic", "Salad-topic");
+
+        List<List<String>> groups = MqttInboundConnectionPool.assignTopics(pool(4), topics);
+
+        assertEquals(List.of(
+                List.of("Bakery-topic", "Mediterranean-topic"),
+                List.of("Chinese-topic", "Salad-topic"),
+                List.of("Dosa-topic", "Tandoor-topic"),
+                List.of("Juice-topic", "panpacific-topic")), groups);
+    }
+
+    @Test
+    void neverMoreConnectionsThanTopicsAndNoDuplicates() {
+        assertEquals(List.of(List.of("a"), List.of("b")),
+                MqttInboundConnectionPool.assignTopics(pool(8), List.of("b", "a", "b")));
+        assertEquals(List.of(List.of()), MqttInboundConnectionPool.assignTopics(pool(3), List.of()));
+    }
+
+    @Test
+    void topicsMissingFromTheGroupsGoToTheSmallestGroup() {
+        MqttProperties.ConnectionPoolConfig pool = pool(2);
+        pool.setAssignment(MqttProperties.TopicAssignment.LIST);
+        pool.setTopicGroups(List.of(List.of("a", "b"), List.of("c")));
+
+        assertEquals(List.of(List.of("a", "b", "e"), List.of("c", "d")),
+                MqttInboundConnectionPool.assignTopics(pool, List.of("a", "b", "c", "d", "e")));
+    }
+
+    private static MqttProperties.ConnectionPoolConfig pool(int size) {
+        MqttProperties.ConnectionPoolConfig pool = new MqttProperties.ConnectionPoolConfig();
+        pool.setSize(size);
+        return pool;
+    }
+
+    private static MqttProperties.SharedSubscriptionConfig shared(String instanceId) {
+        MqttProperties.SharedSubscriptionConfig config = new MqttProperties.SharedSubscriptionConfig();
+        config.setInstanceId(instanceId);
+        return config;
+    }
+}
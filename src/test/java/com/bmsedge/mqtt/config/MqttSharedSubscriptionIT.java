@@ -0,0 +1,198 @@
+package com.bmsedge.mqtt.config;
+
+import com.hivemq.embedded.EmbeddedHiveMQ;
+import org.eclipse.paho.mqttv5.client.MqttClient;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.eclipse.paho.mqttv5.client.persist.MemoryPersistence;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.config.EnableIntegration;
+import org.springframework.integration.mqtt.core.DefaultMqttPahoClientFactory;
+import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
+import org.springframework.messaging.MessageChannel;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Two replicas in shared-subscription mode against an embedded MQTT 5 broker:
+ * every message is delivered to exactly one of them, and each replica
+ * connects with its own stable client id
+ */
+class MqttSharedSubscriptionIT {
+
+    private static final String TOPIC = "Tandoor-topic";
+    private static final int DEVICES = 8;
+    private static final int MESSAGES_PER_DEVICE = 25;
+    private static final int MESSAGES = DEVICES * MESSAGES_PER_DEVICE;
+
+    @TempDir
+    static Path brokerHome;
+
+    private static EmbeddedHiveMQ broker;
+    private static String brokerUrl;
+
+    private final List<AnnotationConfigApplicationContext> replicas = new ArrayList<>();
+
+    @BeforeAll
+    static void startBroker() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Path config = Files.createDirectories(brokerHome.resolve("conf"));
+        Files.writeString(config.resolve("config.xml"), """
+                <hivemq>
+                    <listeners>
+                        <tcp-listener>
+                            <port>%d</port>
+                            <bind-address>127.0.0.1</bind-address>
+                        </tcp-listener>
+                    </listeners>
+                    <anonymous-usage-statistics>
+                        <enabled>false</enabled>
+                    </anonymous-usage-statistics>
+                </hivemq>
+                """.formatted(port));
+
+        broker = EmbeddedHiveMQ.builder()
+                .withConfigurationFolder(config)
+                .withDataFolder(Files.createDirectories(brokerHome.resolve("data")))
+                .withExtensionsFolder(Files.createDirectories(brokerHome.resolve("extensions")))
+                .build();
+        broker.start().get(60, TimeUnit.SECONDS);
+        brokerUrl = "tcp://127.0.0.1:" + port;
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        if (broker != null) {
+            broker.stop().get(30, TimeUnit.SECONDS);
+            broker.close();
+        }
+    }
+
+    @AfterEach
+    void stopReplicas() {
+        replicas.forEach(AnnotationConfigApplicationContext::close);
+    }
+
+    @Test
+    void messagesAreSplitAcrossReplicasWithoutDuplicates() throws Exception {
+        Queue<String> receivedByA = new ConcurrentLinkedQueue<>();
+        Queue<String> receivedByB = new ConcurrentLinkedQueue<>();
+        MqttInboundConnectionPool replicaA = replica("replica-a", receivedByA);
+        MqttInboundConnectionPool replicaB = replica("replica-b", receivedByB);
+        await(() -> subscribed(replicaA) && subscribed(replicaB));
+
+        assertEquals("mqtt-it-replica-a", replicaA.getStats().get(0).get("clientId"));
+        assertEquals("mqtt-it-replica-b", replicaB.getStats().get(0).get("clientId"));
+
+        for (int device = 0; device < DEVICES; device++) {
+            publish("dev-" + device, MESSAGES_PER_DEVICE);
+        }
+        await(() -> receivedByA.size() + receivedByB.size() >= MESSAGES);
+        // Late duplicates would show up here
+        Thread.sleep(500);
+
+        Set<String> distinct = new HashSet<>(receivedByA);
+        distinct.addAll(receivedByB);
+        assertEquals(MESSAGES, receivedByA.size() + receivedByB.size());
+        assertEquals(MESSAGES, distinct.size());
+        assertTrue(receivedByA.size() > 0, "replica-a received nothing");
+        assertTrue(receivedByB.size() > 0, "replica-b received nothing");
+    }
+
+    /* ------------------ FIXTURES ------------------ */
+
+    @Configuration
+    @EnableIntegration
+    static class Integration {
+    }
+
+    private MqttInboundConnectionPool replica(String instanceId, Queue<String> received) {
+        MqttProperties properties = new MqttProperties();
+        properties.getBroker().setUrl(brokerUrl);
+        properties.getBroker().setClientId("mqtt-it");
+        properties.setTopics(List.of(TOPIC));
+        properties.getSharedSubscription().setEnabled(true);
+        properties.getSharedSubscription().setInstanceId(instanceId);
+
+        MqttConnectionOptions options = new MqttConnectionOptions();
+        options.setServerURIs(new String[]{brokerUrl});
+        options.setCleanStart(true);
+
+        DirectChannel input = new DirectChannel();
+        input.subscribe(message -> received.add(new String((byte[]) message.getPayload(), StandardCharsets.UTF_8)));
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.register(Integration.class);
+        context.registerBean(MqttProperties.class, () -> properties);
+        context.registerBean(MqttPahoClientFactory.class, DefaultMqttPahoClientFactory::new);
+        context.registerBean(MqttConnectionOptions.class, () -> options);
+        context.registerBean("mqttInputChannel", MessageChannel.class, () -> input);
+        context.registerBean(MqttInboundConnectionPool.class);
+        context.refresh();
+        replicas.add(context);
+
+        MqttInboundConnectionPool pool = context.getBean(MqttInboundConnectionPool.class);
+        pool.connect();
+        return pool;
+    }
+
+    private static boolean subscribed(MqttInboundConnectionPool pool) {
+        List<Map<String, Object>> stats = pool.getStats();
+        return !stats.isEmpty() && (Long) stats.get(0).get("subscriptions") > 0;
+    }
+
+    /**
+     * One device's readings over its own connection (the broker keeps each
+     * publisher's messages on one group member, so the load spreads by device)
+     */
+    private static void publish(String deviceId, int count) throws Exception {
+        MqttClient publisher = new MqttClient(brokerUrl, "mqtt-it-" + deviceId, new MemoryPersistence());
+        MqttConnectionOptions options = new MqttConnectionOptions();
+        options.setCleanStart(true);
+        publisher.connect(options);
+        try {
+            for (int i = 0; i < count; i++) {
+                String payload = "{\"device_id\": \"" + deviceId + "\", \"counter_name\": \"Tandoor\", \"seq\": " + i + "}";
+                publisher.publish(TOPIC, payload.getBytes(StandardCharsets.UTF_8), 1, false);
+            }
+        } finally {
+            publisher.disconnect();
+            publisher.close();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for the replicas");
+            }
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.bmsedge.mqtt.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HistoryFormatTest {
+
+    private static final String COLUMNAR = MqttDataController.COLUMNAR_JSON_VALUE;
+    private static final String BINARY = MqttDataController.COLUMNAR_BINARY_VALUE;
+
+    @Test
+    void formatParameterWinsOverAccept() {
+        assertEquals(HistoryFormat.BINARY, HistoryFormat.resolve("Binary", COLUMNAR));
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve("json", BINARY));
+        assertEquals(HistoryFormat.COLUMNAR, HistoryFormat.resolve("columnar", null));
+        assertNull(HistoryFormat.resolve("csv", null));
+    }
+
+    @Test
+    void acceptIsMatchedAsMediaTypes() {
+        assertEquals(HistoryFormat.COLUMNAR, HistoryFormat.resolve(null, COLUMNAR));
+        assertEquals(HistoryFormat.BINARY, HistoryFormat.resolve(null, BINARY));
+        assertEquals(HistoryFormat.BINARY, HistoryFormat.resolve(null, BINARY + "; version=1"));
+        assertEquals(HistoryFormat.COLUMNAR, HistoryFormat.resolve(null, "application/VND.BMSEDGE.COLUMNAR+JSON"));
+        // Neither a prefix nor a suffix of another type
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, BINARY + "-v2"));
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, "application/x-" + BINARY.substring(12)));
+    }
+
+    @Test
+    void qualityValuesAreHonoured() {
+        assertEquals(HistoryFormat.COLUMNAR, HistoryFormat.resolve(null, BINARY + ";q=0.5, " + COLUMNAR));
+        assertEquals(HistoryFormat.BINARY, HistoryFormat.resolve(null, "application/json;q=0.1, " + BINARY));
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, COLUMNAR + ";q=0.2, application/json"));
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, COLUMNAR + ";q=0"));
+        // Equal quality: the concrete type before the wildcard
+        assertEquals(HistoryFormat.BINARY, HistoryFormat.resolve(null, "*/*, " + BINARY));
+    }
+
+    @Test
+    void wildcardsMissingAndBrokenHeadersGiveRows() {
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, null));
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, " "));
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, "*/*"));
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, "application/*"));
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, "text/html"));
+        assertEquals(HistoryFormat.ROWS, HistoryFormat.resolve(null, "not a media type"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.bmsedge.mqtt.repository;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.config.PersistenceConfig;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A batch of N inserts must go out as ceil(N / batch_size) JDBC batches and
+ * ceil(N / allocation size) sequence round-trips (not N of each)
+ */
+@DataJpaTest(properties = {
+        "mqtt.persistence.id-allocation-size=25",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=100",
+        "spring.jpa.show-sql=false"
+})
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import({PersistenceConfig.class, StatementCounter.class})
+class MqttDataBatchInsertIT {
+
+    private static final int ROWS = 250;
+
+    @Autowired
+    private MqttDataRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StatementCounter statements;
+
+    @Test
+    void batchOfInsertsIsSentAsJdbcBatches() {
+        statements.reset();
+
+        repository.saveAll(readings(ROWS));
+        repository.flush();
+
+        assertEquals(3, statements.count("insert into mqtt_data"));
+        assertEquals(10, statements.count("nextval('mqtt_data_seq')"));
+        assertEquals(ROWS, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM mqtt_data", Integer.class));
+        assertEquals(ROWS, jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT id) FROM mqtt_data", Integer.class));
+    }
+
+    @Test
+    void sequenceIncrementFollowsTheConfiguredAllocationSize() {
+        assertEquals(25, jdbcTemplate.queryForObject(
+                "SELECT increment_by FROM pg_sequences WHERE sequencename = 'mqtt_data_seq'", Integer.class));
+    }
+
+    private static List<MqttDataEntity> readings(int count) {
+        LocalDateTime start = LocalDateTime.of(2026, 1, 1, 12, 0);
+        List<MqttDataEntity> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add(MqttDataEntity.builder()
+                    .deviceId("dev-" + (i % 7))
+                    .counterName("counter-" + (i % 3))
+                    .occupancy(i)
+                    .inCount(i)
+                    .waitTime(i % 15 / 1.0)
+                    .timestamp(start.plusSeconds(i))
+                    .build());
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,156 @@
+package com.bmsedge.mqtt.repository;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.config.PersistenceConfig;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Index regression test: every mqtt_data read path that filters on a key or
+ * a time window is captured as sent (SQL + bound values) and EXPLAINed with
+ * sequential scans disabled. If no index matches the query any more - an
+ * index was dropped or a query stopped being sargable - the plan falls back
+ * to a Seq Scan on mqtt_data and the test fails.
+ *
+ * Full-table paths (findRecentRecords, findAllDeviceIds, findLatestPerDevice
+ * warm-ups) are left out on purpose.
+ */
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import({PersistenceConfig.class, MqttDataRowRepository.class, StatementCounter.class})
+class MqttDataIndexUsageIT {
+
+    private static final LocalDateTime FROM = LocalDateTime.of(2026, 1, 1, 1, 0);
+    private static final LocalDateTime TO = FROM.plusHours(1);
+
+    @Autowired
+    private MqttDataRepository repository;
+
+    @Autowired
+    private MqttDataRowRepository rowRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StatementCounter statements;
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at)
+                SELECT nextval('mqtt_data_seq'), 'dev-' || (g % 500), 'counter-' || (g % 50), g % 40, g, (g % 15)::float8,
+                       TIMESTAMP '2026-01-01 00:00' + g * INTERVAL '1 second', now()
+                FROM generate_series(1, 20000) g
+                """);
+        jdbcTemplate.execute("ANALYZE mqtt_data");
+    }
+
+    @Test
+    void migrationIndexesAreBuiltAndValid() {
+        List<String> valid = jdbcTemplate.queryForList("""
+                SELECT c.relname FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid
+                WHERE i.indrelid = to_regclass('mqtt_data') AND i.indisvalid
+                """, String.class);
+        assertTrue(valid.containsAll(List.of("idx_mqtt_data_device_ts", "idx_mqtt_data_counter_ts",
+                "brin_mqtt_data_ts")), valid.toString());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("queries")
+    void queryUsesAnIndex(String name, BiConsumer<MqttDataRepository, MqttDataRowRepository> query) {
+        statements.reset();
+        query.accept(repository, rowRepository);
+
+        List<StatementCounter.Executed> sent = statements.executed().stream()
+                .filter(executed -> executed.sql().toLowerCase().contains("mqtt_data"))
+                .toList();
+        assertEquals(1, sent.size(), name + " sent " + sent);
+
+        String plan = explain(sent.get(0));
+        assertTrue(plan.contains("Index"), name + " uses no index:\n" + plan);
+        assertFalse(plan.matches("(?s).*Seq Scan on mqtt_data\\b.*"), name + " scans mqtt_data:\n" + plan);
+    }
+
+    static Stream<Arguments> queries() {
+        return Stream.of(
+                query("findLatestByDeviceId", (jpa, rows) -> rows.findLatestByDeviceId("dev-7")),
+                query("findLatestByCounterName", (jpa, rows) -> rows.findLatestByCounterName("counter-7")),
+                query("findAsOfByDeviceId", (jpa, rows) -> rows.findAsOfByDeviceId("dev-7", TO)),
+                query("findAsOfByCounterName", (jpa, rows) -> rows.findAsOfByCounterName("counter-7", TO)),
+                query("findLatestByDeviceIds", (jpa, rows) -> rows.findLatestByDeviceIds(List.of("dev-1", "dev-2"))),
+                query("findLatestByCounterNames",
+                        (jpa, rows) -> rows.findLatestByCounterNames(List.of("counter-1", "counter-2"))),
+                query("findByDeviceIdAndTimestampBetween",
+                        (jpa, rows) -> jpa.findByDeviceIdAndTimestampBetween("dev-7", FROM, TO)),
+                query("findByCounterAndTimestampRange",
+                        (jpa, rows) -> jpa.findByCounterAndTimestampRange("counter-7", FROM, TO)),
+                query("findByTimestampRange", (jpa, rows) -> jpa.findByTimestampRange(FROM, TO)),
+                query("aggregatePerMinute", (jpa, rows) -> jpa.aggregatePerMinute("counter-7", FROM, TO)),
+                query("aggregatePerHour", (jpa, rows) -> jpa.aggregatePerHour("counter-7", FROM, TO)),
+                query("findPeakQueue", (jpa, rows) -> jpa.findPeakQueue(FROM, TO)),
+                query("findPeakWaitTime", (jpa, rows) -> jpa.findPeakWaitTime(FROM, TO)),
+                query("findCongestionBlocks", (jpa, rows) -> rows.findCongestionBlocks(FROM, TO, true)),
+                query("streamCongestionTimeline",
+                        (jpa, rows) -> rows.streamCongestionTimeline(FROM, TO, 500, (counter, ts, wait) -> {
+                        }))
+        );
+    }
+
+    private static Arguments query(String name, BiConsumer<MqttDataRepository, MqttDataRowRepository> query) {
+        return Arguments.of(name, query);
+    }
+
+    /**
+     * EXPLAIN the statement with its bound values on one connection with sequential scans off
+     */
+    private String explain(StatementCounter.Executed executed) {
+        return jdbcTemplate.execute((ConnectionCallback<String>) connection -> {
+            try (Statement session = connection.createStatement()) {
+                session.execute("SET enable_seqscan = off");
+            }
+            try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + executed.sql())) {
+                List<Object> parameters = executed.parameters();
+                for (int i = 0; i < parameters.size(); i++) {
+                    explain.setObject(i + 1, parameters.get(i));
+                }
+                List<String> lines = new ArrayList<>();
+                try (ResultSet rs = explain.executeQuery()) {
+                    while (rs.next()) {
+                        lines.add(rs.getString(1));
+                    }
+                }
+                return String.join("\n", lines);
+            } finally {
+                try (Statement session = connection.createStatement()) {
+                    session.execute("RESET enable_seqscan");
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,112 @@
+package com.bmsedge.mqtt.repository;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.config.PersistenceConfig;
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Latest row for 10 / 100 / 1000 devices: one DISTINCT ON statement
+ * (findLatestByDeviceIds) against the former loop of one LIMIT 1 query per
+ * device. Same rows, 1 statement instead of N; timings are logged.
+ */
+@Slf4j
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import({PersistenceConfig.class, MqttDataRowRepository.class, StatementCounter.class})
+class MqttDataLatestLookupIT {
+
+    private static final int DEVICES = 1000;
+    private static final int READINGS_PER_DEVICE = 20;
+    private static final int ROUNDS = 5;
+
+    @Autowired
+    private MqttDataRowRepository rowRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StatementCounter statements;
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at)
+                SELECT nextval('mqtt_data_seq'), 'dev-' || (g % ?), 'counter-' || (g % 50), g % 40, g, (g % 15)::float8,
+                       TIMESTAMP '2026-01-01 00:00' + g * INTERVAL '1 second', now()
+                FROM generate_series(1, ?) g
+                """, DEVICES, DEVICES * READINGS_PER_DEVICE);
+        jdbcTemplate.execute("ANALYZE mqtt_data");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 100, 1000})
+    void bulkLookupReturnsTheLoopResultInOneStatement(int ids) {
+        List<String> deviceIds = IntStream.range(0, ids).mapToObj(i -> "dev-" + (i * (DEVICES / ids))).toList();
+
+        statements.reset();
+        List<MqttDataRow> looped = loop(deviceIds);
+        assertEquals(ids, statements.count("from mqtt_data"));
+
+        statements.reset();
+        List<MqttDataRow> bulk = sorted(rowRepository.findLatestByDeviceIds(deviceIds));
+        assertEquals(1, statements.count("from mqtt_data"));
+
+        assertEquals(ids, bulk.size());
+        assertEquals(looped, bulk);
+
+        long loopNanos = medianNanos(() -> loop(deviceIds));
+        long bulkNanos = medianNanos(() -> rowRepository.findLatestByDeviceIds(deviceIds));
+        log.info("⏱️ Latest row for {} devices: loop {} ms ({} statements), bulk {} ms (1 statement)",
+                ids, loopNanos / 1_000_000.0, ids, bulkNanos / 1_000_000.0);
+        if (ids == 1000) {
+            assertTrue(bulkNanos < loopNanos, "one statement should beat 1000 round-trips");
+        }
+    }
+
+    private List<MqttDataRow> loop(List<String> deviceIds) {
+        List<MqttDataRow> rows = new ArrayList<>(deviceIds.size());
+        for (String deviceId : deviceIds) {
+            rowRepository.findLatestByDeviceId(deviceId).ifPresent(rows::add);
+        }
+        return sorted(rows);
+    }
+
+    private static List<MqttDataRow> sorted(List<MqttDataRow> rows) {
+        return rows.stream().sorted(Comparator.comparing(MqttDataRow::deviceId)).toList();
+    }
+
+    private static long medianNanos(Supplier<?> lookup) {
+        long[] nanos = new long[ROUNDS];
+        lookup.get();
+        for (int i = 0; i < ROUNDS; i++) {
+            long started = System.nanoTime();
+            lookup.get();
+            nanos[i] = System.nanoTime() - started;
+        }
+        Arrays.sort(nanos);
+        return nanos[ROUNDS / 2];
+    }
+}
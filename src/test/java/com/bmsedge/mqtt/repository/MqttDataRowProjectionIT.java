@@ -0,0 +1,159 @@
+package com.bmsedge.mqtt.repository;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.config.PersistenceConfig;
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 10k-row history read, query to serialized JSON: managed MqttDataEntity
+ * instances copied into maps (the former controller path) against
+ * MqttDataRow records off JDBC in a read-only transaction. Allocated bytes
+ * (current thread, JDBC driver included) and median latency are logged.
+ */
+@Slf4j
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import(PersistenceConfig.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MqttDataRowProjectionIT {
+
+    private static final int ROWS = 10_000;
+    private static final int ROUNDS = 7;
+    private static final LocalDateTime FROM = LocalDateTime.of(2026, 1, 1, 0, 0);
+    private static final LocalDateTime TO = FROM.plusSeconds(ROWS);
+
+    private static final String RANGE_SQL = "SELECT " + MqttDataRowRepository.COLUMNS
+            + " FROM mqtt_data WHERE device_id = ? AND timestamp BETWEEN ? AND ? ORDER BY timestamp, id";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @Autowired
+    private MqttDataRepository repository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at)
+                SELECT nextval('mqtt_data_seq'), 'dev-1', 'counter-' || (g % 5), g % 40, g, (g % 15)::float8,
+                       ? + g * INTERVAL '1 second', now()
+                FROM generate_series(0, ?) g
+                """, FROM, ROWS - 1);
+        jdbcTemplate.execute("ANALYZE mqtt_data");
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM mqtt_data");
+    }
+
+    @Test
+    void recordsAllocateLessThanManagedEntitiesForTheSameJson() {
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        Supplier<List<Map<String, Object>>> entities = () -> readWrite.execute(status ->
+                repository.findByDeviceIdAndTimestampBetween("dev-1", FROM, TO).stream()
+                        .map(MqttDataRowProjectionIT::entityToMap)
+                        .toList());
+        Supplier<List<MqttDataRow>> records = () -> readOnly.execute(status ->
+                jdbcTemplate.query(RANGE_SQL, MqttDataRowRepository.ROW_MAPPER, "dev-1", FROM, TO));
+
+        assertEquals(ROWS, entities.get().size());
+        assertEquals(ROWS, records.get().size());
+
+        Measurement entityPath = measure(entities);
+        Measurement recordPath = measure(records);
+        log.info("⏱️ {} rows to JSON: entities + maps {} ms / {} bytes per row, records {} ms / {} bytes per row",
+                ROWS, entityPath.millis(), entityPath.bytes() / ROWS, recordPath.millis(), recordPath.bytes() / ROWS);
+
+        assertTrue(recordPath.bytes() < entityPath.bytes(),
+                "records allocated " + recordPath.bytes() + " bytes, entities " + entityPath.bytes());
+    }
+
+    /**
+     * Median latency and allocation of query + JSON serialization (after one warm-up round)
+     */
+    private Measurement measure(Supplier<? extends List<?>> query) {
+        long[] nanos = new long[ROUNDS];
+        long[] bytes = new long[ROUNDS];
+        serialize(query.get());
+        for (int i = 0; i < ROUNDS; i++) {
+            long allocated = THREADS.getCurrentThreadAllocatedBytes();
+            long started = System.nanoTime();
+            serialize(query.get());
+            nanos[i] = System.nanoTime() - started;
+            bytes[i] = THREADS.getCurrentThreadAllocatedBytes() - allocated;
+        }
+        Arrays.sort(nanos);
+        Arrays.sort(bytes);
+        return new Measurement(nanos[ROUNDS / 2] / 1_000_000.0, bytes[ROUNDS / 2]);
+    }
+
+    private void serialize(List<?> rows) {
+        try {
+            objectMapper.writeValue(OutputStream.nullOutputStream(), rows);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // As MqttDataController.entityToMap did before the record projections
+    private static Map<String, Object> entityToMap(MqttDataEntity entity) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", entity.getId());
+        map.put("deviceId", entity.getDeviceId());
+        map.put("counterName", entity.getCounterName());
+        map.put("occupancy", entity.getOccupancy());
+        map.put("inCount", entity.getInCount());
+        map.put("waitTime", entity.getWaitTime());
+        map.put("timestamp", entity.getTimestamp());
+        map.put("createdAt", entity.getCreatedAt());
+        return map;
+    }
+
+    private record Measurement(double millis, long bytes) {
+    }
+}
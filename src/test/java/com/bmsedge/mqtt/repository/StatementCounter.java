@@ -0,0 +1,129 @@
+package com.bmsedge.mqtt.repository;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Statement Counter
+ * Wraps the DataSource bean and counts the statements sent to the database
+ * by SQL text: a JDBC batch counts once per executeBatch(), anything else
+ * once per execute call. Prepared statements are also kept with their bound
+ * parameters, so a test can EXPLAIN exactly what a repository sent.
+ */
+public class StatementCounter implements BeanPostProcessor {
+
+    private final Map<String, AtomicInteger> executions = new ConcurrentHashMap<>();
+    private final List<Executed> executed = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource) {
+            return proxy(DataSource.class, dataSource, (target, method, args) -> {
+                Object result = method.invoke(target, args);
+                return result instanceof Connection connection ? connection(connection) : result;
+            });
+        }
+        return bean;
+    }
+
+    public void reset() {
+        executions.clear();
+        executed.clear();
+    }
+
+    /**
+     * Prepared statements executed since the last reset, in order
+     */
+    public List<Executed> executed() {
+        return new ArrayList<>(executed);
+    }
+
+    /**
+     * Statements sent whose SQL contains the fragment (case-insensitive)
+     */
+    public int count(String fragment) {
+        String needle = fragment.toLowerCase(Locale.ROOT);
+        return executions.entrySet().stream()
+                .filter(entry -> entry.getKey().contains(needle))
+                .mapToInt(entry -> entry.getValue().get())
+                .sum();
+    }
+
+    private Connection connection(Connection connection) {
+        return proxy(Connection.class, connection, (target, method, args) -> {
+            Object result = method.invoke(target, args);
+            if (result instanceof PreparedStatement statement && args != null && args[0] instanceof String sql) {
+                return proxy(PreparedStatement.class, statement, executing(sql, new TreeMap<>()));
+            }
+            if (result instanceof Statement statement && !(result instanceof PreparedStatement)) {
+                return proxy(Statement.class, statement, executing(null, null));
+            }
+            return result;
+        });
+    }
+
+    private Handler executing(String preparedSql, Map<Integer, Object> parameters) {
+        return (target, method, args) -> {
+            String name = method.getName();
+            if (name.equals("executeBatch") || name.equals("executeLargeBatch")) {
+                record(preparedSql);
+            } else if (name.startsWith("execute")) {
+                boolean direct = args != null && args.length > 0 && args[0] instanceof String;
+                record(direct ? (String) args[0] : preparedSql);
+                if (!direct && parameters != null) {
+                    executed.add(new Executed(preparedSql, new ArrayList<>(parameters.values())));
+                }
+            } else if (parameters != null && name.startsWith("set") && args != null && args.length >= 2
+                    && args[0] instanceof Integer index) {
+                parameters.put(index, name.equals("setNull") ? null : args[1]);
+            } else if (parameters != null && name.equals("clearParameters")) {
+                parameters.clear();
+            }
+            return method.invoke(target, args);
+        };
+    }
+
+    private void record(String sql) {
+        if (sql != null) {
+            executions.computeIfAbsent(sql.toLowerCase(Locale.ROOT), key -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    /**
+     * One prepared statement as sent: SQL with ? placeholders and the bound values in order
+     */
+    public record Executed(String sql, List<Object> parameters) {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, T target, Handler handler) {
+        InvocationHandler invocation = (proxy, method, args) -> {
+            try {
+                return handler.invoke(target, method, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocation);
+    }
+
+    private interface Handler {
+        Object invoke(Object target, Method method, Object[] args) throws Throwable;
+    }
+}
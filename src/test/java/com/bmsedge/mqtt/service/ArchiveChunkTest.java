@@ -0,0 +1,121 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ArchiveChunkTest {
+
+    private static final String COUNTER = "counter-1";
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 1, 12, 0);
+
+    @Test
+    void nullFieldsSurviveTheRoundTrip() {
+        List<MqttDataRow> rows = List.of(
+                row(1, "dev-1", 0, null, null, null, null),
+                row(2, "dev-1", 5, 3, null, 1.5, START.plusSeconds(5)),
+                row(3, "dev-1", 10, null, 7, null, START.plusSeconds(11)),
+                row(4, "dev-1", 15, 0, 0, 0.0, null));
+
+        assertEquals(rows, roundTrip(rows));
+    }
+
+    @Test
+    void nanAndRepeatedWaitTimesSurviveTheRoundTrip() {
+        Double[] waits = {Double.NaN, Double.NaN, 1.5, 1.5, 1.5, null, null, Double.NaN, 2.25, 2.25, -0.0, 0.0,
+                Double.POSITIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE, null, 1.5};
+        List<MqttDataRow> rows = new ArrayList<>();
+        for (int i = 0; i < waits.length; i++) {
+            rows.add(row(i + 1, "dev-1", i * 5, 1, 1, waits[i], START));
+        }
+
+        List<MqttDataRow> decoded = roundTrip(rows);
+        assertEquals(rows, decoded);
+        assertEquals(Double.NaN, decoded.get(0).waitTime());
+    }
+
+    @Test
+    void xorOfAllSixtyFourBitsIsEncodedWithLengthZero() {
+        // 1.0 ^ -(1.0 + ulp) = 0x8000000000000001: no leading or trailing zeros, length 64 written as 0
+        double one = Double.longBitsToDouble(0x3FF0_0000_0000_0000L);
+        double flipped = Double.longBitsToDouble(0xBFF0_0000_0000_0001L);
+        List<MqttDataRow> rows = new ArrayList<>();
+        double[] waits = {one, flipped, one, 3.0, flipped, 1.0 / 3};
+        for (int i = 0; i < waits.length; i++) {
+            rows.add(row(i + 1, "dev-1", i, null, null, waits[i], null));
+        }
+
+        assertEquals(rows, roundTrip(rows));
+    }
+
+    @Test
+    void negativeDeltasSurviveTheRoundTrip() {
+        // Timestamps going back, before the epoch, ids going down, createdAt before the reading
+        LocalDateTime early = LocalDateTime.of(1969, 12, 31, 23, 59, 59, 999_999_000);
+        List<MqttDataRow> rows = List.of(
+                new MqttDataRow(100L, "dev-1", COUNTER, 1, 1, 1.0, START, START.minusDays(3)),
+                new MqttDataRow(50L, "dev-1", COUNTER, -4, -1, 1.0, START.minusSeconds(30), START),
+                new MqttDataRow(51L, "dev-1", COUNTER, 2, 2, 1.0, early, early.minusNanos(1_000)),
+                new MqttDataRow(-7L, "dev-1", COUNTER, Integer.MIN_VALUE, Integer.MAX_VALUE, 1.0,
+                        START.plusNanos(1_000), START.plusSeconds(1)));
+
+        assertEquals(rows, roundTrip(rows));
+    }
+
+    @Test
+    void severalDevicesShareOneDeviceTable() {
+        String[] devices = {"dev-1", "dev-2", "sensör-ü", "dev-1", "dev-3", "dev-2"};
+        List<MqttDataRow> rows = new ArrayList<>();
+        for (int i = 0; i < devices.length; i++) {
+            rows.add(row(i + 1, devices[i], i * 3, i, i * 2, i / 2.0, START.plusSeconds(i * 3L)));
+        }
+
+        assertEquals(rows, roundTrip(rows));
+    }
+
+    @Test
+    void randomDayRoundTrips() {
+        Random random = new Random(42);
+        List<MqttDataRow> rows = new ArrayList<>();
+        LocalDateTime ts = START;
+        long id = 1_000_000;
+        for (int i = 0; i < 20_000; i++) {
+            ts = ts.plusNanos(random.nextInt(10_000) * 1_000L);
+            id += random.nextInt(5) - 1;
+            rows.add(new MqttDataRow(id, "dev-" + random.nextInt(8), COUNTER,
+                    random.nextInt(10) == 0 ? null : random.nextInt(50),
+                    random.nextInt(10) == 0 ? null : random.nextInt(1_000),
+                    random.nextInt(10) == 0 ? null : random.nextInt(3) == 0 ? 4.0 : random.nextDouble() * 30,
+                    ts,
+                    random.nextInt(10) == 0 ? null : ts.plusNanos(random.nextInt(2_000_000) * 1_000L)));
+        }
+
+        assertEquals(rows, roundTrip(rows));
+    }
+
+    @Test
+    void otherBytesAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ArchiveChunk.decode(new byte[]{'M', 'Q'}, COUNTER, row -> {
+                }));
+    }
+
+    private static List<MqttDataRow> roundTrip(List<MqttDataRow> rows) {
+        List<MqttDataRow> decoded = new ArrayList<>();
+        assertEquals(rows.size(), ArchiveChunk.decode(ArchiveChunk.encode(rows), COUNTER, decoded::add));
+        return decoded;
+    }
+
+    private static MqttDataRow row(long id, String deviceId, int second, Integer occupancy, Integer inCount,
+                                   Double waitTime, LocalDateTime createdAt) {
+        return new MqttDataRow(id, deviceId, COUNTER, occupancy, inCount, waitTime, START.plusSeconds(second),
+                createdAt);
+    }
+}
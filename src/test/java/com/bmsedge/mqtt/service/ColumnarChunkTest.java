@@ -0,0 +1,173 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The columnar wire formats decoded the way a client would
+ */
+class ColumnarChunkTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 1, 12, 0);
+
+    @Test
+    void binaryRoundTripsNullsNaNAndExtremes() throws IOException {
+        List<MqttDataRow> rows = List.of(
+                row(START, 1, 10, 2.5),
+                row(START.plusNanos(1_500_000), null, 11, null),
+                row(START.plusSeconds(5), 3, null, Double.NaN),
+                row(START.plusSeconds(4), -7, Integer.MIN_VALUE + 1, -0.5),
+                row(START.plusSeconds(4), Integer.MAX_VALUE, 0, Double.POSITIVE_INFINITY),
+                row(START.plusMinutes(1), null, null, 0.0),
+                row(START.plusMinutes(2), 0, 1, 12.0));
+
+        List<List<Decoded>> blocks = decodeBinary(binary(rows, 3));
+
+        assertEquals(List.of(3, 3, 1), blocks.stream().map(List::size).toList());
+        assertEquals(expected(rows), blocks.stream().flatMap(List::stream).toList());
+    }
+
+    @Test
+    void gapBeyondAnInt32DeltaStartsANewBlock() throws IOException {
+        LocalDateTime later = START.plusDays(30);  // 2.59e9 ms > Integer.MAX_VALUE
+        List<MqttDataRow> rows = List.of(
+                row(START, 1, 1, 1.0),
+                row(START.plusSeconds(1), 2, 2, 2.0),
+                row(later, 3, 3, 3.0),
+                row(later.plusNanos(1_000_000), 4, 4, 4.0),
+                row(START, 5, 5, 5.0),
+                row(START.plusDays(24).plusHours(20), 6, 6, 6.0));
+
+        List<List<Decoded>> blocks = decodeBinary(binary(rows, 100));
+
+        // Forward and backward gaps over 2^31 - 1 ms split; 24 d 20 h (2.14e9 ms) still fits
+        assertEquals(List.of(2, 2, 2), blocks.stream().map(List::size).toList());
+        assertEquals(expected(rows), blocks.stream().flatMap(List::stream).toList());
+    }
+
+    @Test
+    void emptyStreamIsMagicAndEndMarker() throws IOException {
+        byte[] bytes = binary(List.of(), 10);
+
+        assertEquals(8, bytes.length);
+        assertArrayEquals(ColumnarChunk.BINARY_MAGIC, Arrays.copyOf(bytes, 4));
+        assertTrue(decodeBinary(bytes).isEmpty());
+    }
+
+    @Test
+    void jsonChunksCarryDeltasAndNulls() throws IOException {
+        List<MqttDataRow> rows = List.of(
+                row(START, 1, null, 2.5),
+                row(START.plusSeconds(2), null, 4, null),
+                row(START.plusSeconds(3), 5, 6, Double.NaN));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator json = objectMapper.createGenerator(out)) {
+            json.writeStartArray();
+            ColumnarChunk.encode(rows::forEach, 2, chunk -> chunk.writeJson(json));
+            json.writeEndArray();
+        }
+        JsonNode chunks = objectMapper.readTree(out.toByteArray());
+
+        assertEquals(2, chunks.size());
+        JsonNode first = chunks.get(0);
+        assertEquals(2, first.get("count").asInt());
+        assertEquals(millis(START), first.get("timestamps").get(0).asLong());
+        assertEquals(2_000, first.get("timestamps").get(1).asLong());
+        assertTrue(first.get("inCount").get(0).isNull());
+        assertTrue(first.get("occupancy").get(1).isNull());
+        assertTrue(first.get("waitTime").get(1).isNull());
+        assertEquals(2.5, first.get("waitTime").get(0).asDouble());
+
+        JsonNode second = chunks.get(1);
+        assertEquals(millis(START.plusSeconds(3)), second.get("timestamps").get(0).asLong());
+        // A NaN reading is not a missing one
+        assertFalse(second.get("waitTime").get(0).isNull());
+        assertEquals("NaN", second.get("waitTime").get(0).asText());
+    }
+
+    /* ------------------ CLIENT-SIDE DECODER ------------------ */
+
+    record Decoded(long timestamp, Integer occupancy, Integer inCount, Double waitTime) {
+    }
+
+    private static List<List<Decoded>> decodeBinary(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[4];
+        buffer.get(magic);
+        assertArrayEquals(ColumnarChunk.BINARY_MAGIC, magic);
+
+        List<List<Decoded>> blocks = new ArrayList<>();
+        while (true) {
+            int n = buffer.getInt();
+            if (n == 0) {
+                break;
+            }
+            long[] timestamps = new long[n];
+            timestamps[0] = buffer.getLong();
+            for (int i = 1; i < n; i++) {
+                timestamps[i] = timestamps[i - 1] + buffer.getInt();
+            }
+            int[] occupancy = new int[n];
+            int[] inCount = new int[n];
+            for (int i = 0; i < n; i++) {
+                occupancy[i] = buffer.getInt();
+            }
+            for (int i = 0; i < n; i++) {
+                inCount[i] = buffer.getInt();
+            }
+            List<Decoded> block = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                long bits = buffer.getLong();
+                block.add(new Decoded(timestamps[i],
+                        occupancy[i] == ColumnarChunk.NULL_INT ? null : occupancy[i],
+                        inCount[i] == ColumnarChunk.NULL_INT ? null : inCount[i],
+                        bits == ColumnarChunk.NULL_WAIT_BITS ? null : Double.longBitsToDouble(bits)));
+            }
+            blocks.add(block);
+        }
+        assertFalse(buffer.hasRemaining(), "bytes after the end marker");
+        return blocks;
+    }
+
+    /* ------------------ FIXTURES ------------------ */
+
+    private static byte[] binary(List<MqttDataRow> rows, int capacity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(rows.size(), ColumnarChunk.encodeBinary(rows::forEach, capacity, out));
+        return out.toByteArray();
+    }
+
+    private static List<Decoded> expected(List<MqttDataRow> rows) {
+        return rows.stream()
+                .map(row -> new Decoded(millis(row.timestamp()), row.occupancy(), row.inCount(), row.waitTime()))
+                .toList();
+    }
+
+    private static long millis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static MqttDataRow row(LocalDateTime timestamp, Integer occupancy, Integer inCount, Double waitTime) {
+        return new MqttDataRow(1L, "dev-1", "counter-1", occupancy, inCount, waitTime, timestamp, null);
+    }
+}
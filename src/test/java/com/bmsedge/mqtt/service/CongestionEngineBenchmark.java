@@ -0,0 +1,113 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.CongestionBlockDTO;
+import com.bmsedge.mqtt.service.LegacyCongestion.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Congestion over a four-hour session (12 counters, a reading every 10 s,
+ * ~17k rows ordered by counter and time): CongestionEngine fed row by row
+ * against the former algorithm (LegacyCongestion: rows grouped per counter,
+ * blocks materialized, peak wait by a second scan). Run with -prof gc for
+ * bytes allocated per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CongestionEngineBenchmark {
+
+    private static final long SESSION_MINUTES = 240;
+
+    private final List<Row> rows = new ArrayList<>();
+
+    @Setup
+    public void sameResults() {
+        Random random = new Random(3);
+        double[] scale = {0, 1, 2, 3, 4, 5, 6, 8, 10, 12, 15, 20};
+        LocalDateTime start = LocalDateTime.of(2026, 1, 1, 12, 0);
+        for (int c = 0; c < 12; c++) {
+            double wait = 0;
+            for (int i = 0; i < SESSION_MINUTES * 6; i++) {
+                if (random.nextInt(20) == 0) {
+                    wait = scale[random.nextInt(scale.length)];
+                }
+                rows.add(new Row("counter-" + c, start.plusSeconds(i * 10L), wait));
+            }
+        }
+
+        Map<String, List<Row>> timelines = rows.stream().collect(Collectors.groupingBy(Row::getCounterName));
+        Map<String, CongestionEngine> peaks = engines(false);
+        Map<String, CongestionEngine> sessions = engines(true);
+        timelines.forEach((counterName, timeline) -> {
+            if (!CongestionEngineTest.describe(LegacyCongestion.extractPeakCongestion(timeline))
+                    .equals(CongestionEngineTest.describe(peaks.get(counterName).peak()))
+                    || !CongestionEngineTest.describe(LegacyCongestion.sessionBlocks(timeline))
+                    .equals(CongestionEngineTest.describe(sessions.get(counterName).blocks()))) {
+                throw new IllegalStateException("Congestion differs for " + counterName);
+            }
+        });
+    }
+
+    @Benchmark
+    public void enginePeaks(Blackhole blackhole) {
+        engines(false).forEach((counterName, engine) -> blackhole.consume(engine.peak()));
+    }
+
+    @Benchmark
+    public void legacyPeaks(Blackhole blackhole) {
+        rows.stream()
+                .collect(Collectors.groupingBy(Row::getCounterName))
+                .forEach((counterName, timeline) -> blackhole.consume(LegacyCongestion.extractPeakCongestion(timeline)));
+    }
+
+    @Benchmark
+    public void engineSessions(Blackhole blackhole) {
+        engines(true).forEach((counterName, engine) -> {
+            blackhole.consume(engine.blocks());
+            blackhole.consume(engine.weightedIndex(SESSION_MINUTES));
+        });
+    }
+
+    @Benchmark
+    public void legacySessions(Blackhole blackhole) {
+        rows.stream()
+                .collect(Collectors.groupingBy(Row::getCounterName))
+                .forEach((counterName, timeline) -> {
+                    List<CongestionBlockDTO> blocks = LegacyCongestion.sessionBlocks(timeline);
+                    blackhole.consume(blocks);
+                    blackhole.consume(LegacyCongestion.weightedCongestionIndex(blocks, SESSION_MINUTES));
+                });
+    }
+
+    private Map<String, CongestionEngine> engines(boolean keepBlocks) {
+        Map<String, CongestionEngine> engines = new HashMap<>();
+        for (Row row : rows) {
+            engines.computeIfAbsent(row.counterName(), name -> new CongestionEngine(keepBlocks))
+                    .accept(row.timestamp(), row.waitTime());
+        }
+        engines.values().forEach(CongestionEngine::finish);
+        return engines;
+    }
+}
@@ -0,0 +1,176 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.config.PersistenceConfig;
+import com.bmsedge.mqtt.dto.PeakCongestionDTO;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
+import com.bmsedge.mqtt.service.LegacyCongestion.Row;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Congestion blocks three ways over the same stored readings: the SQL twin
+ * (findCongestionBlocks fed into CongestionEngine.block), the streamed
+ * timeline fed into CongestionEngine.accept, and the former algorithm
+ * (LegacyCongestion) on the rows as they were read
+ */
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import({PersistenceConfig.class, MqttDataRowRepository.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class CongestionEngineIT {
+
+    private static final LocalDateTime FROM = LocalDateTime.of(2026, 1, 1, 8, 0);
+    private static final LocalDateTime TO = FROM.plusHours(4);
+    private static final long SESSION_MINUTES = 240;
+
+    @Autowired
+    private MqttDataRowRepository rowRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM mqtt_data");
+    }
+
+    @Test
+    void sqlBlocksAndStreamedTimelineMatchTheFormerAlgorithm() {
+        Random random = new Random(11);
+        double[] scale = {0, 1, 2, 3, 3.5, 4, 4.5, 6, 8, 9, 12, 12.5, 20};
+        List<Object[]> rows = new ArrayList<>();
+        for (int c = 0; c < 6; c++) {
+            LocalDateTime ts = FROM;
+            Double wait = 0.0;
+            while (ts.isBefore(TO)) {
+                if (random.nextInt(5) == 0) {
+                    wait = random.nextInt(12) == 0 ? null : scale[random.nextInt(scale.length)];
+                }
+                rows.add(new Object[]{"counter-" + c, wait, ts});
+                ts = ts.plusSeconds(5 + random.nextInt(60));
+            }
+        }
+        // Readings just outside the window are left out by all three
+        rows.add(new Object[]{"counter-0", 20.0, FROM.minusSeconds(1)});
+        rows.add(new Object[]{"counter-0", 20.0, TO.plusSeconds(1)});
+        insert(rows);
+
+        Map<String, List<Row>> timelines = readTimelines();
+        assertEquals(6, timelines.size());
+
+        Map<String, CongestionEngine> streamedPeaks = streamed(false);
+        Map<String, CongestionEngine> sqlPeaks = fromSql(true, false);
+        Map<String, CongestionEngine> streamedBlocks = streamed(true);
+        Map<String, CongestionEngine> sqlBlocks = fromSql(false, true);
+
+        timelines.forEach((counterName, timeline) -> {
+            // The former code failed on missing wait times; it gets them as 0, as the engine reads them
+            List<Row> zeroed = timeline.stream()
+                    .map(row -> row.waitTime() != null ? row
+                            : new Row(row.counterName(), row.timestamp(), 0.0))
+                    .toList();
+
+            String peak = CongestionEngineTest.describe(LegacyCongestion.extractPeakCongestion(zeroed));
+            assertEquals(peak, CongestionEngineTest.describe(streamedPeaks.get(counterName).peak()), counterName);
+            assertEquals(peak, CongestionEngineTest.describe(peakOf(sqlPeaks, counterName)), counterName);
+
+            List<String> blocks = CongestionEngineTest.describe(LegacyCongestion.sessionBlocks(zeroed));
+            assertEquals(blocks, CongestionEngineTest.describe(streamedBlocks.get(counterName).blocks()), counterName);
+            assertEquals(blocks, CongestionEngineTest.describe(sqlBlocks.get(counterName).blocks()), counterName);
+
+            double index = LegacyCongestion.weightedCongestionIndex(LegacyCongestion.sessionBlocks(zeroed),
+                    SESSION_MINUTES);
+            assertEquals(index, sqlBlocks.get(counterName).weightedIndex(SESSION_MINUTES), 1e-9, counterName);
+        });
+    }
+
+    @Test
+    void readingsSharingATimestampAreOrderedById() {
+        // Same timestamp, weights 2 then 5 then 2: three blocks in insertion (id) order
+        insert(List.of(
+                new Object[]{"counter-0", 6.0, FROM},
+                new Object[]{"counter-0", 20.0, FROM.plusMinutes(1)},
+                new Object[]{"counter-0", 6.0, FROM.plusMinutes(1)},
+                new Object[]{"counter-0", 6.0, FROM.plusMinutes(3)},
+                new Object[]{"counter-1", 1.0, FROM},
+                new Object[]{"counter-1", null, FROM.plusMinutes(2)}));
+
+        List<String> streamed = CongestionEngineTest.describe(streamed(true).get("counter-0").blocks());
+        assertEquals(3, streamed.size());
+        assertEquals(streamed, CongestionEngineTest.describe(fromSql(false, true).get("counter-0").blocks()));
+        assertEquals(20.0, fromSql(true, false).get("counter-0").peak().getPeakWaitTimeInBlock());
+
+        // Only idle readings: no congested block, no peak
+        assertNull(peakOf(fromSql(true, false), "counter-1"));
+        assertNull(streamed(false).get("counter-1").peak());
+    }
+
+    /* ------------------ FIXTURES ------------------ */
+
+    private Map<String, CongestionEngine> streamed(boolean keepBlocks) {
+        Map<String, CongestionEngine> engines = new TreeMap<>();
+        rowRepository.streamCongestionTimeline(FROM, TO, 500, (counterName, timestamp, waitTime) ->
+                engines.computeIfAbsent(counterName, name -> new CongestionEngine(keepBlocks))
+                        .accept(timestamp, waitTime));
+        engines.values().forEach(CongestionEngine::finish);
+        return engines;
+    }
+
+    private Map<String, CongestionEngine> fromSql(boolean congestedOnly, boolean keepBlocks) {
+        Map<String, CongestionEngine> engines = new TreeMap<>();
+        for (var block : rowRepository.findCongestionBlocks(FROM, TO, congestedOnly)) {
+            engines.computeIfAbsent(block.counterName(), name -> new CongestionEngine(keepBlocks))
+                    .block(block.weight(), block.start(), block.end(), block.maxWait());
+        }
+        engines.values().forEach(CongestionEngine::finish);
+        return engines;
+    }
+
+    private static PeakCongestionDTO peakOf(Map<String, CongestionEngine> engines, String counterName) {
+        CongestionEngine engine = engines.get(counterName);
+        return engine != null ? engine.peak() : null;
+    }
+
+    private Map<String, List<Row>> readTimelines() {
+        Map<String, List<Row>> timelines = new LinkedHashMap<>();
+        jdbcTemplate.query("""
+                SELECT counter_name, timestamp, wait_time FROM mqtt_data
+                WHERE timestamp BETWEEN ? AND ?
+                ORDER BY counter_name, timestamp, id
+                """, rs -> {
+            String counterName = rs.getString(1);
+            timelines.computeIfAbsent(counterName, name -> new ArrayList<>()).add(new Row(counterName,
+                    rs.getObject(2, LocalDateTime.class), (Double) rs.getObject(3)));
+        }, FROM, TO);
+        return timelines;
+    }
+
+    private void insert(List<Object[]> rows) {
+        jdbcTemplate.batchUpdate("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, wait_time, timestamp, created_at)
+                VALUES (nextval('mqtt_data_seq'), 'dev-1', ?, ?, ?, now())
+                """, rows);
+    }
+}
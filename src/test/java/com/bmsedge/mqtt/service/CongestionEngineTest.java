@@ -0,0 +1,174 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.CongestionBlockDTO;
+import com.bmsedge.mqtt.dto.PeakCongestionDTO;
+import com.bmsedge.mqtt.service.LegacyCongestion.Row;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * CongestionEngine against the former algorithm (LegacyCongestion) on fixed
+ * timelines: same peak block, same session blocks, same weighted index
+ */
+class CongestionEngineTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 1, 12, 0);
+    private static final long SESSION_MINUTES = 240;
+
+    @Test
+    void equalPeaksKeepTheFirstBlock() {
+        // Two weight-2 blocks of two minutes, then a shorter one
+        List<Row> rows = timeline(6, 6, 6, 0, 7, 7, 7, 0, 5, 5);
+        assertSame(rows);
+        assertEquals(START, enginePeak(rows).getStart());
+    }
+
+    @Test
+    void longerBlockOfTheSameWeightWins() {
+        List<Row> rows = timeline(6, 6, 0, 7, 7, 7, 7, 1);
+        assertSame(rows);
+        assertEquals(START.plusMinutes(3), enginePeak(rows).getStart());
+    }
+
+    @Test
+    void higherWeightBeatsLongerBlock() {
+        List<Row> rows = timeline(6, 6, 6, 6, 6, 20, 20, 3, 4, 4);
+        assertSame(rows);
+        assertEquals(5, enginePeak(rows).getWeight());
+    }
+
+    @Test
+    void weightZeroRunsSplitBlocksAndNeverPeak() {
+        assertSame(timeline(0, 1, 2, 3, 3, 0, -1, 2));
+        assertNull(enginePeak(timeline(0, 1, 2, 3, 3, 0, -1, 2)));
+        // Idle start and end, a single congested reading in between
+        assertSame(timeline(0, 0, 9, 0, 0));
+        // Weight changes without an idle reading in between
+        assertSame(timeline(4, 6, 10, 13, 10, 6, 4));
+    }
+
+    @Test
+    void blockStillOpenAtTheEndIsClosed() {
+        List<Row> rows = timeline(1, 1, 13, 13, 14, 13);
+        assertSame(rows);
+        PeakCongestionDTO peak = enginePeak(rows);
+        assertEquals(START.plusMinutes(5), peak.getEnd());
+        assertEquals(14.0, peak.getPeakWaitTimeInBlock());
+    }
+
+    @Test
+    void singleReadingAndEmptyTimelines() {
+        assertSame(timeline(9));
+        assertSame(timeline(2));
+        assertSame(List.of());
+    }
+
+    @Test
+    void missingWaitTimesCountAsNoCongestion() {
+        Double[] waits = {6.0, null, 6.0, 6.0, null, null, 13.0};
+        List<Row> rows = new ArrayList<>();
+        List<Row> zeroed = new ArrayList<>();
+        for (int i = 0; i < waits.length; i++) {
+            rows.add(new Row("counter-1", START.plusMinutes(i), waits[i]));
+            zeroed.add(new Row("counter-1", START.plusMinutes(i), waits[i] != null ? waits[i] : 0.0));
+        }
+
+        // The former code unboxed the wait time and failed on a missing one
+        assertThrows(NullPointerException.class, () -> LegacyCongestion.extractPeakCongestion(rows));
+        assertEquals(describe(LegacyCongestion.extractPeakCongestion(zeroed)), describe(enginePeak(rows)));
+        assertEquals(describe(LegacyCongestion.sessionBlocks(zeroed)), describe(engineBlocks(rows)));
+    }
+
+    @Test
+    void sharedEdgeTimestampOnlyCountsTheBlocksOwnReadings() {
+        // Deliberate difference: the former peak wait scanned every row in [start, end] by timestamp, so
+        // the weight-1 reading (4.0) sharing the weight-2 block's last timestamp was taken as its peak
+        List<Row> rows = List.of(
+                new Row("counter-1", START, 3.5),
+                new Row("counter-1", START.plusMinutes(1), 3.5),
+                new Row("counter-1", START.plusMinutes(1), 4.0));
+
+        assertEquals(4.0, LegacyCongestion.extractPeakCongestion(rows).getPeakWaitTimeInBlock());
+        assertEquals(3.5, enginePeak(rows).getPeakWaitTimeInBlock());
+        assertEquals(describe(LegacyCongestion.sessionBlocks(rows)), describe(engineBlocks(rows)));
+    }
+
+    @Test
+    void randomTimelinesMatch() {
+        Random random = new Random(7);
+        double[] scale = {0, 1, 2, 2.5, 3, 3.5, 4, 4.5, 5, 8, 8.5, 12, 12.5, 13, 25, -1};
+        for (int t = 0; t < 500; t++) {
+            List<Row> rows = new ArrayList<>();
+            LocalDateTime ts = START;
+            double wait = scale[random.nextInt(scale.length)];
+            for (int i = 0, n = random.nextInt(300); i < n; i++) {
+                if (random.nextInt(4) == 0) {
+                    wait = scale[random.nextInt(scale.length)];
+                }
+                ts = ts.plusSeconds(1 + random.nextInt(90));
+                rows.add(new Row("counter-1", ts, wait));
+            }
+            assertSame(rows);
+        }
+    }
+
+    /* ------------------ FIXTURES ------------------ */
+
+    private static void assertSame(List<Row> rows) {
+        assertEquals(describe(LegacyCongestion.extractPeakCongestion(rows)), describe(enginePeak(rows)), "peak");
+
+        List<CongestionBlockDTO> legacyBlocks = LegacyCongestion.sessionBlocks(rows);
+        CongestionEngine engine = engine(rows, true);
+        assertEquals(describe(legacyBlocks), describe(engine.blocks()), "blocks");
+        assertEquals(LegacyCongestion.weightedCongestionIndex(legacyBlocks, SESSION_MINUTES),
+                engine.weightedIndex(SESSION_MINUTES), 1e-9, "weighted index");
+    }
+
+    private static PeakCongestionDTO enginePeak(List<Row> rows) {
+        return engine(rows, false).peak();
+    }
+
+    private static List<CongestionBlockDTO> engineBlocks(List<Row> rows) {
+        return engine(rows, true).blocks();
+    }
+
+    private static CongestionEngine engine(List<Row> rows, boolean keepBlocks) {
+        CongestionEngine engine = new CongestionEngine(keepBlocks);
+        rows.forEach(row -> engine.accept(row.timestamp(), row.waitTime()));
+        engine.finish();
+        return engine;
+    }
+
+    /**
+     * One reading per minute from START
+     */
+    private static List<Row> timeline(double... waits) {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < waits.length; i++) {
+            rows.add(new Row("counter-1", START.plusMinutes(i), waits[i]));
+        }
+        return rows;
+    }
+
+    static String describe(PeakCongestionDTO peak) {
+        return peak == null ? null : String.join("|", peak.getLevel(), String.valueOf(peak.getWeight()),
+                String.valueOf(peak.getStart()), String.valueOf(peak.getEnd()),
+                String.valueOf(peak.getDurationMinutes()), String.valueOf(peak.getPeakWaitTimeInBlock()));
+    }
+
+    static List<String> describe(List<CongestionBlockDTO> blocks) {
+        return blocks.stream()
+                .map(block -> String.join("|", block.getLevel(), String.valueOf(block.getWeight()),
+                        String.valueOf(block.getStart()), String.valueOf(block.getEnd()),
+                        String.valueOf(block.getDurationMinutes())))
+                .toList();
+    }
+}
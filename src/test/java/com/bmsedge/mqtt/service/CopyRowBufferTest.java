@@ -0,0 +1,120 @@
+package com.bmsedge.mqtt.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CopyRowBufferTest {
+
+    @Test
+    void nullsAreBackslashN() {
+        CopyRowBuffer buffer = new CopyRowBuffer(4);
+        buffer.appendLong(null);
+        buffer.appendInt(null);
+        buffer.appendDouble(null);
+        buffer.appendString(null);
+        buffer.appendTimestamp(null);
+        buffer.endRow();
+
+        assertEquals("\\N\t\\N\t\\N\t\\N\t\\N\n", text(buffer));
+    }
+
+    @Test
+    void controlCharactersAndBackslashAreEscaped() {
+        assertEquals("a\\\\b\\tc\\nd\\re\\\\N", string("a\\b\tc\nd\re\\N"));
+    }
+
+    @Test
+    void multiByteCharactersAreUtf8() {
+        String value = "sensör-ü 食堂 €5 😀 𝄞";
+        assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), bytes(value));
+    }
+
+    @Test
+    void loneSurrogatesAreWrittenAsStringGetBytesDoes() {
+        for (String value : new String[]{"a\uD83Db", "a\uDE00b", "\uD83D", "x\uDE00\uD83D", "\uD83D\uD83D\uDE00"}) {
+            assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), bytes(value), value);
+        }
+    }
+
+    @Test
+    void timestampsArePaddedToMicroseconds() {
+        CopyRowBuffer buffer = new CopyRowBuffer(1);
+        buffer.appendTimestamp(LocalDateTime.of(2026, 1, 2, 3, 4, 5));
+        buffer.appendTimestamp(LocalDateTime.of(987, 12, 31, 23, 59, 59, 1_000));
+        buffer.appendTimestamp(LocalDateTime.of(2026, 6, 1, 0, 0, 0, 123_456_789));
+        buffer.endRow();
+
+        assertEquals("2026-01-02 03:04:05.000000\t0987-12-31 23:59:59.000001\t2026-06-01 00:00:00.123456\n",
+                text(buffer));
+    }
+
+    @Test
+    void doublesAreWholeFractionalOrSpecial() {
+        assertEquals("5", dbl(5.0));
+        assertEquals("-12", dbl(-12.0));
+        assertEquals("0", dbl(0.0));
+        assertEquals("2.5", dbl(2.5));
+        assertEquals("1.0E-5", dbl(0.00001));
+        assertEquals("9.007199254740992E15", dbl(9.007199254740992E15));
+        assertEquals("NaN", dbl(Double.NaN));
+        assertEquals("Infinity", dbl(Double.POSITIVE_INFINITY));
+        assertEquals("-Infinity", dbl(Double.NEGATIVE_INFINITY));
+        for (String value : new String[]{"5", "-12", "2.5", "1.0E-5", "9.007199254740992E15"}) {
+            assertEquals(Double.parseDouble(value), Double.parseDouble(dbl(Double.parseDouble(value))));
+        }
+    }
+
+    @Test
+    void integersIncludingExtremes() {
+        CopyRowBuffer buffer = new CopyRowBuffer(1);
+        buffer.appendLong(Long.MIN_VALUE);
+        buffer.appendLong(Long.MAX_VALUE);
+        buffer.appendInt(-7);
+        buffer.appendInt(0);
+        buffer.endRow();
+
+        assertEquals(Long.MIN_VALUE + "\t" + Long.MAX_VALUE + "\t-7\t0\n", text(buffer));
+    }
+
+    @Test
+    void resetStartsANewBatch() {
+        CopyRowBuffer buffer = new CopyRowBuffer(2);
+        buffer.appendInt(1);
+        buffer.appendString("a");
+        buffer.endRow();
+        buffer.reset();
+        buffer.appendInt(2);
+        buffer.appendString("b");
+        buffer.endRow();
+        buffer.appendInt(3);
+        buffer.endRow();
+
+        assertEquals("2\tb\n3\n", text(buffer));
+    }
+
+    private static String string(String value) {
+        return new String(bytes(value), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        CopyRowBuffer buffer = new CopyRowBuffer(1);
+        buffer.appendString(value);
+        return Arrays.copyOf(buffer.array(), buffer.length());
+    }
+
+    private static String dbl(double value) {
+        CopyRowBuffer buffer = new CopyRowBuffer(1);
+        buffer.appendDouble(value);
+        return text(buffer);
+    }
+
+    private static String text(CopyRowBuffer buffer) {
+        return new String(buffer.array(), 0, buffer.length(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,302 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class IngestJournalTest {
+
+    // "dev-N" / "counter-1" with N < 10: 8 bytes header + 54 bytes payload
+    private static final int RECORD_BYTES = 62;
+    private static final int SEGMENT_BYTES = 1024 * 1024;
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void committedRecordsAreNotReplayed() throws Exception {
+        IngestJournal journal = journal(2);
+        for (int i = 0; i < 5; i++) {
+            journal.append(reading(i));
+        }
+
+        List<MqttDataEntity> out = new ArrayList<>();
+        assertEquals(5, journal.poll(out, 10, POLL_NANOS));
+        assertEquals(List.of(0, 1, 2, 3, 4), occupancies(out));
+        assertEquals("dev-3", out.get(3).getDeviceId());
+        assertEquals(reading(3).getTimestamp(), out.get(3).getTimestamp());
+        assertNull(out.get(3).getInCount());
+
+        journal.commit(5);
+        assertFalse(journal.hasBacklog());
+        journal.close();
+
+        IngestJournal reopened = journal(2);
+        assertFalse(reopened.hasBacklog());
+        assertEquals(0, reopened.poll(new ArrayList<>(), 10, POLL_NANOS));
+    }
+
+    @Test
+    void partialCommitRereadsTheRestAndSurvivesRestart() throws Exception {
+        IngestJournal journal = journal(2);
+        for (int i = 0; i < 5; i++) {
+            journal.append(reading(i));
+        }
+
+        List<MqttDataEntity> out = new ArrayList<>();
+        journal.poll(out, 10, POLL_NANOS);
+        journal.commit(2);
+
+        out.clear();
+        assertEquals(3, journal.poll(out, 10, POLL_NANOS));
+        assertEquals(List.of(2, 3, 4), occupancies(out));
+        journal.close();
+
+        assertEquals(List.of(2, 3, 4), occupancies(replay(journal(2))));
+    }
+
+    @Test
+    void rewindReadsTheUncommittedRecordsAgain() throws Exception {
+        IngestJournal journal = journal(2);
+        for (int i = 0; i < 3; i++) {
+            journal.append(reading(i));
+        }
+
+        List<MqttDataEntity> out = new ArrayList<>();
+        journal.poll(out, 10, POLL_NANOS);
+        journal.rewind();
+
+        out.clear();
+        assertEquals(3, journal.poll(out, 10, POLL_NANOS));
+        assertEquals(List.of(0, 1, 2), occupancies(out));
+    }
+
+    @Test
+    void corruptTailIsCutOffOnRecovery() throws Exception {
+        IngestJournal journal = journal(2);
+        for (int i = 0; i < 3; i++) {
+            journal.append(reading(i));
+        }
+        journal.close();
+
+        // Flip a payload byte of the last record: its CRC no longer matches
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            file.seek(2L * RECORD_BYTES + 20);
+            int value = file.read();
+            file.seek(2L * RECORD_BYTES + 20);
+            file.write(value ^ 0xFF);
+        }
+
+        IngestJournal reopened = journal(2);
+        assertEquals(2L * RECORD_BYTES, reopened.backlogBytes());
+        // The torn record is overwritten by the next append
+        reopened.append(reading(7));
+        assertEquals(List.of(0, 1, 7), occupancies(replay(reopened)));
+    }
+
+    @Test
+    void tornLengthIsCutOffOnRecovery() throws Exception {
+        IngestJournal journal = journal(2);
+        for (int i = 0; i < 2; i++) {
+            journal.append(reading(i));
+        }
+        journal.close();
+
+        // A length pointing past the end of the segment, as left by a half-written header
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            file.seek(RECORD_BYTES);
+            file.writeInt(SEGMENT_BYTES);
+        }
+
+        assertEquals(List.of(0), occupancies(replay(journal(2))));
+    }
+
+    @Test
+    void truncatedCheckpointFallsBackToASegmentScan() throws Exception {
+        IngestJournal journal = journal(2);
+        for (int i = 0; i < 3; i++) {
+            journal.append(reading(i));
+        }
+        journal.poll(new ArrayList<>(), 10, POLL_NANOS);
+        journal.commit(1);
+        journal.close();
+
+        Path checkpoint = directory.resolve("checkpoint");
+        byte[] bytes = Files.readAllBytes(checkpoint);
+        Files.write(checkpoint, Arrays.copyOf(bytes, 5));
+
+        // Everything still on disk is replayed (at-least-once)
+        assertEquals(List.of(0, 1, 2), occupancies(replay(journal(2))));
+    }
+
+    @Test
+    void checkpointWithBadCrcFallsBackToASegmentScan() throws Exception {
+        IngestJournal journal = journal(2);
+        for (int i = 0; i < 3; i++) {
+            journal.append(reading(i));
+        }
+        journal.poll(new ArrayList<>(), 10, POLL_NANOS);
+        journal.commit(2);
+        journal.close();
+
+        Path checkpoint = directory.resolve("checkpoint");
+        byte[] bytes = Files.readAllBytes(checkpoint);
+        assertEquals(16, bytes.length);
+        bytes[11] ^= 0x01;
+        Files.write(checkpoint, bytes);
+
+        assertEquals(List.of(0, 1, 2), occupancies(replay(journal(2))));
+    }
+
+    @Test
+    void legacyCheckpointWithoutCrcIsStillRead() throws Exception {
+        IngestJournal journal = journal(2);
+        for (int i = 0; i < 3; i++) {
+            journal.append(reading(i));
+        }
+        journal.close();
+
+        Files.write(directory.resolve("checkpoint"),
+                ByteBuffer.allocate(12).putInt(SEGMENT_BYTES).putLong(RECORD_BYTES).array());
+
+        assertEquals(List.of(1, 2), occupancies(replay(journal(2))));
+    }
+
+    @Test
+    void consumedSegmentsAreKeptAsSparesOrDeleted() throws Exception {
+        IngestJournal journal = journal(1);
+        int perSegment = SEGMENT_BYTES / RECORD_BYTES;
+        int total = perSegment * 3;
+        for (int i = 0; i < total; i++) {
+            journal.append(reading(i % 10));
+        }
+        assertEquals(3, journal.segmentCount());
+
+        List<MqttDataEntity> out = new ArrayList<>();
+        int read = 0;
+        while (read < total) {
+            out.clear();
+            read += journal.poll(out, 10_000, POLL_NANOS);
+        }
+        journal.commit(read);
+
+        // Segment 0 is kept as the one spare, segment 1 is unmapped and deleted
+        assertEquals(1, journal.segmentCount());
+        assertEquals(List.of("spare-00000000000000000000.log"), fileNames("spare-"));
+        assertEquals(List.of("segment-00000000000000000002.log"), fileNames("segment-"));
+
+        // The next rollover reuses the spare under the new segment number
+        for (int i = 0; i < perSegment / 2; i++) {
+            journal.append(reading(i % 10));
+        }
+        assertEquals(List.of(), fileNames("spare-"));
+        assertEquals(List.of("segment-00000000000000000002.log", "segment-00000000000000000003.log"),
+                fileNames("segment-"));
+        journal.close();
+
+        // The stale records in the second half of the reused spare never validate
+        assertEquals(perSegment / 2, replay(journal(1)).size());
+    }
+
+    @Test
+    void sparesOfThePreviousRunAreReusedNotReplayed() throws Exception {
+        IngestJournal journal = journal(2);
+        int perSegment = SEGMENT_BYTES / RECORD_BYTES;
+        for (int i = 0; i < perSegment + 1; i++) {
+            journal.append(reading(i % 10));
+        }
+        List<MqttDataEntity> out = new ArrayList<>();
+        int read = 0;
+        while (read < perSegment + 1) {
+            read += journal.poll(out, 10_000, POLL_NANOS);
+        }
+        journal.commit(read);
+        journal.close();
+        assertEquals(1, fileNames("spare-").size());
+
+        IngestJournal reopened = journal(2);
+        assertFalse(reopened.hasBacklog());
+        assertEquals(1, fileNames("spare-").size());
+    }
+
+    @Test
+    void rejectedRowsAreDeadLetteredInCopyFormat() throws Exception {
+        IngestJournal journal = journal(2);
+        journal.deadLetter(reading(1));
+        journal.deadLetter(MqttDataEntity.builder()
+                .deviceId("dev\t2")
+                .counterName(null)
+                .waitTime(1.5)
+                .timestamp(LocalDateTime.of(2026, 1, 1, 12, 0, 0, 250_000_000))
+                .build());
+
+        List<String> lines = Files.readAllLines(directory.resolve("dead-letter.copy"), StandardCharsets.UTF_8);
+        assertEquals(List.of(
+                "dev-1\tcounter-1\t1\t\\N\t\\N\t2026-01-01 12:00:01.000000",
+                "dev\\t2\t\\N\t\\N\t\\N\t1.5\t2026-01-01 12:00:00.250000"), lines);
+    }
+
+    /* ------------------ FIXTURES ------------------ */
+
+    private IngestJournal journal(int maxSpareSegments) throws IOException {
+        MqttProperties.JournalConfig config = new MqttProperties.JournalConfig();
+        config.setSegmentSizeMb(1);
+        config.setMaxSegments(8);
+        config.setMaxSpareSegments(maxSpareSegments);
+        config.setFsyncPolicy(MqttProperties.FsyncPolicy.NEVER);
+        return new IngestJournal(directory, config);
+    }
+
+    private static List<MqttDataEntity> replay(IngestJournal journal) throws InterruptedException {
+        List<MqttDataEntity> out = new ArrayList<>();
+        while (journal.poll(out, 10_000, POLL_NANOS) > 0) {
+            // drain
+        }
+        return out;
+    }
+
+    private static MqttDataEntity reading(int sequence) {
+        return MqttDataEntity.builder()
+                .deviceId("dev-" + sequence)
+                .counterName("counter-1")
+                .occupancy(sequence)
+                .timestamp(LocalDateTime.of(2026, 1, 1, 12, 0).plusSeconds(sequence))
+                .build();
+    }
+
+    private static List<Integer> occupancies(List<MqttDataEntity> rows) {
+        return rows.stream().map(MqttDataEntity::getOccupancy).toList();
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith("segment-")).sorted().toList();
+        }
+    }
+
+    private List<String> fileNames(String prefix) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.map(path -> path.getFileName().toString()).filter(name -> name.startsWith(prefix))
+                    .sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.PSQLState;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestLaneTest {
+
+    @Test
+    void rejectedRowsAreSplitOutAndTheRestOfTheBatchIsWritten() throws Exception {
+        // The database rejects rows without a device id (device_id NOT NULL)
+        RecordingWriter writer = new RecordingWriter(rows -> {
+            if (rows.stream().anyMatch(row -> row.getDeviceId() == null)) {
+                throw new DataIntegrityViolationException("null value in column \"device_id\"",
+                        new PSQLException("null value in column \"device_id\"", PSQLState.NOT_NULL_VIOLATION));
+            }
+        });
+        IngestLane lane = lane(writer, 0);
+
+        for (int i = 0; i < 40; i++) {
+            lane.enqueue(reading(i == 7 || i == 31 ? null : "dev-" + i, i));
+        }
+        lane.start();
+        lane.stop(5000);
+
+        assertEquals(38, lane.written());
+        assertEquals(2, lane.failed());
+        assertEquals(38, writer.written.size());
+        assertTrue(writer.written.stream().allMatch(row -> row.getDeviceId() != null));
+        // Order is kept across the split
+        List<Integer> order = writer.written.stream().map(MqttDataEntity::getOccupancy).toList();
+        List<Integer> sorted = new ArrayList<>(order);
+        Collections.sort(sorted);
+        assertEquals(sorted, order);
+    }
+
+    @Test
+    void transientFailureIsRetriedWithoutLosingRows() throws Exception {
+        AtomicInteger failures = new AtomicInteger(2);
+        RecordingWriter writer = new RecordingWriter(rows -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new CannotGetJdbcConnectionException("Connection refused");
+            }
+        });
+        IngestLane lane = lane(writer, 3);
+
+        for (int i = 0; i < 10; i++) {
+            lane.enqueue(reading("dev-" + i, i));
+        }
+        lane.start();
+        lane.stop(5000);
+
+        assertEquals(10, lane.written());
+        assertEquals(0, lane.failed());
+        assertEquals(2L, lane.getStats().get("retries"));
+    }
+
+    @Test
+    void transientFailureDropsTheBatchOnceRetriesAreExhausted() throws Exception {
+        RecordingWriter writer = new RecordingWriter(rows -> {
+            throw new CannotGetJdbcConnectionException("Connection refused");
+        });
+        IngestLane lane = lane(writer, 2);
+
+        for (int i = 0; i < 5; i++) {
+            lane.enqueue(reading("dev-" + i, i));
+        }
+        lane.start();
+        lane.stop(5000);
+
+        assertEquals(0, lane.written());
+        assertEquals(5, lane.failed());
+        // No splitting while the database is down: one attempt plus two retries for the single batch
+        assertEquals(3, writer.attempts.get());
+    }
+
+    @Test
+    void failedAttemptClearsIdsForTheRetry() throws Exception {
+        AtomicInteger failures = new AtomicInteger(1);
+        List<Long> idsSeen = Collections.synchronizedList(new ArrayList<>());
+        RecordingWriter writer = new RecordingWriter(rows -> {
+            rows.forEach(row -> idsSeen.add(row.getId()));
+            rows.forEach(row -> row.setId(100L));
+            if (failures.getAndDecrement() > 0) {
+                throw new CannotAcquireLockException("deadlock detected");
+            }
+        });
+        IngestLane lane = lane(writer, 1);
+
+        lane.enqueue(reading("dev-1", 1));
+        lane.start();
+        lane.stop(5000);
+
+        assertEquals(2, idsSeen.size());
+        assertNull(idsSeen.get(1));
+        assertEquals(1, lane.written());
+    }
+
+    @Test
+    void journaledRejectedRowsAreDeadLetteredAndCheckpointed(@TempDir Path directory) throws Exception {
+        RecordingWriter writer = new RecordingWriter(rows -> {
+            if (rows.stream().anyMatch(row -> row.getDeviceId() == null)) {
+                throw new DataIntegrityViolationException("null value in column \"device_id\"");
+            }
+        });
+        IngestLane lane = journaledLane(writer, journal(directory));
+
+        for (int i = 0; i < 10; i++) {
+            lane.enqueue(reading(i == 4 ? null : "dev-" + i, i));
+        }
+        lane.start();
+        lane.stop(5000);
+
+        assertEquals(9, lane.written());
+        assertEquals(0, lane.failed());
+        assertEquals(1, lane.deadLettered());
+        assertEquals(1L, lane.getStats().get("deadLettered"));
+        assertEquals(1, Files.readAllLines(directory.resolve("dead-letter.copy")).size());
+        // Written and dead-lettered rows are both past the checkpoint
+        assertFalse(journal(directory).hasBacklog());
+    }
+
+    @Test
+    void journaledRowsStillFailingOnStopStayJournaled(@TempDir Path directory) throws Exception {
+        RecordingWriter writer = new RecordingWriter(rows -> {
+            throw new CannotGetJdbcConnectionException("Connection refused");
+        });
+        IngestLane lane = journaledLane(writer, journal(directory));
+
+        for (int i = 0; i < 5; i++) {
+            lane.enqueue(reading("dev-" + i, i));
+        }
+        lane.start();
+        Thread.sleep(100);
+        lane.stop(5000);
+
+        // Retried past max-retries (2) while the lane ran, never dropped or split
+        assertTrue(writer.attempts.get() > 3);
+        assertEquals(0, lane.failed());
+        assertEquals(0, lane.deadLettered());
+
+        List<MqttDataEntity> replayed = new ArrayList<>();
+        journal(directory).poll(replayed, 10, TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(5, replayed.size());
+    }
+
+    @Test
+    void classifiesBySqlStateAndExceptionType() {
+        assertEquals(IngestLane.Failure.TRANSIENT,
+                IngestLane.classify(new RuntimeException(new SQLException("I/O error", "08006"))));
+        assertEquals(IngestLane.Failure.TRANSIENT,
+                IngestLane.classify(new SQLException("deadlock detected", "40P01")));
+        assertEquals(IngestLane.Failure.TRANSIENT,
+                IngestLane.classify(new SQLException("canceling statement due to statement timeout", "57014")));
+        assertEquals(IngestLane.Failure.TRANSIENT,
+                IngestLane.classify(new SQLException("could not obtain lock", "55P03")));
+        assertEquals(IngestLane.Failure.TRANSIENT,
+                IngestLane.classify(new CannotGetJdbcConnectionException("refused")));
+
+        assertEquals(IngestLane.Failure.PERMANENT,
+                IngestLane.classify(new SQLException("value too long", "22001")));
+        assertEquals(IngestLane.Failure.PERMANENT,
+                IngestLane.classify(new DataIntegrityViolationException("duplicate key")));
+
+        assertEquals(IngestLane.Failure.UNKNOWN,
+                IngestLane.classify(new SQLException("relation does not exist", "42P01")));
+        assertEquals(IngestLane.Failure.UNKNOWN, IngestLane.classify(new IllegalStateException("boom")));
+    }
+
+    @Test
+    void backoffDoublesUpToTheCap() {
+        assertEquals(500, IngestLane.backoffMillis(500, 0));
+        assertEquals(1000, IngestLane.backoffMillis(500, 1));
+        assertEquals(4000, IngestLane.backoffMillis(500, 3));
+        assertEquals(30_000, IngestLane.backoffMillis(500, 40));
+    }
+
+    /* ------------------ FIXTURES ------------------ */
+
+    private static IngestLane lane(MqttDataWriter writer, int maxRetries) {
+        MqttProperties.IngestConfig config = new MqttProperties.IngestConfig();
+        config.setBatchSize(500);
+        config.setFlushIntervalMs(20);
+        config.setMaxRetries(maxRetries);
+        config.setRetryBackoffMs(1);
+        return new IngestLane(0, config, writer, event -> {
+        }, null, 1);
+    }
+
+    private static IngestLane journaledLane(MqttDataWriter writer, IngestJournal journal) {
+        MqttProperties.IngestConfig config = new MqttProperties.IngestConfig();
+        config.setBatchSize(500);
+        config.setFlushIntervalMs(20);
+        config.setMaxRetries(2);
+        config.setRetryBackoffMs(1);
+        return new IngestLane(0, config, writer, event -> {
+        }, journal, 1);
+    }
+
+    private static IngestJournal journal(Path directory) throws IOException {
+        MqttProperties.JournalConfig config = new MqttProperties.JournalConfig();
+        config.setSegmentSizeMb(1);
+        config.setFsyncPolicy(MqttProperties.FsyncPolicy.NEVER);
+        return new IngestJournal(directory, config);
+    }
+
+    private static MqttDataEntity reading(String deviceId, int sequence) {
+        return MqttDataEntity.builder()
+                .deviceId(deviceId)
+                .counterName("counter-1")
+                .occupancy(sequence)
+                .timestamp(LocalDateTime.of(2026, 1, 1, 12, 0).plusSeconds(sequence))
+                .build();
+    }
+
+    interface BatchCheck {
+        void check(List<MqttDataEntity> rows);
+    }
+
+    /**
+     * Writer that commits nothing when the check throws, like a rolled-back transaction
+     */
+    private static final class RecordingWriter implements MqttDataWriter {
+
+        private final BatchCheck check;
+        private final List<MqttDataEntity> written = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        RecordingWriter(BatchCheck check) {
+            this.check = check;
+        }
+
+        @Override
+        public List<MqttDataEntity> writeBatch(List<MqttDataEntity> batch) {
+            attempts.incrementAndGet();
+            check.check(batch);
+            written.addAll(batch);
+            return batch;
+        }
+
+        @Override
+        public String getMode() {
+            return "test";
+        }
+    }
+}
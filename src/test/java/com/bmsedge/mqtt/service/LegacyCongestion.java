@@ -0,0 +1,211 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.CongestionBlockDTO;
+import com.bmsedge.mqtt.dto.PeakCongestionDTO;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reference for CongestionEngine: peak detection and session blocks as
+ * MqttAggregationService computed them before the engine (whole timeline
+ * grouped per counter, blocks materialized, peak wait found by a second scan
+ * of the rows), kept as it was for comparison tests and benchmarks
+ */
+final class LegacyCongestion {
+
+    /**
+     * The former CongestionTimelineView projection
+     */
+    interface TimelineRow {
+        String getCounterName();
+
+        LocalDateTime getTimestamp();
+
+        Double getWaitTime();
+    }
+
+    record Row(String counterName, LocalDateTime timestamp, Double waitTime) implements TimelineRow {
+
+        @Override
+        public String getCounterName() {
+            return counterName;
+        }
+
+        @Override
+        public LocalDateTime getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public Double getWaitTime() {
+            return waitTime;
+        }
+    }
+
+    private LegacyCongestion() {
+    }
+
+    static PeakCongestionDTO extractPeakCongestion(
+            List<? extends TimelineRow> rows
+    ) {
+
+        List<CongestionBlockDTO> blocks =
+                buildCongestionBlocks(rows);
+
+        return blocks.stream()
+                .max(Comparator
+                        .comparingInt(CongestionBlockDTO::getWeight)
+                        .thenComparingLong(CongestionBlockDTO::getDurationMinutes)
+                )
+                .map(b -> {
+
+                    PeakCongestionDTO dto = new PeakCongestionDTO();
+                    dto.setLevel(b.getLevel());
+                    dto.setWeight(b.getWeight());
+                    dto.setStart(b.getStart());
+                    dto.setEnd(b.getEnd());
+                    dto.setDurationMinutes(b.getDurationMinutes());
+
+                    double peakWaitInBlock = rows.stream()
+                            .filter(r ->
+                                    !r.getTimestamp().isBefore(b.getStart()) &&
+                                            !r.getTimestamp().isAfter(b.getEnd())
+                            )
+                            .mapToDouble(TimelineRow::getWaitTime)
+                            .max()
+                            .orElse(0);
+
+                    dto.setPeakWaitTimeInBlock(peakWaitInBlock);
+
+                    return dto;
+                })
+                .orElse(null);
+    }
+
+    private static List<CongestionBlockDTO> buildCongestionBlocks(
+            List<? extends TimelineRow> rows
+    ) {
+
+        List<CongestionBlockDTO> blocks = new ArrayList<>();
+        CongestionBlockDTO current = null;
+
+        for (TimelineRow row : rows) {
+
+            int weight = congestionWeight(row.getWaitTime());
+
+            if (weight == 0) {
+                if (current != null) {
+                    finalizeBlock(current);
+                    blocks.add(current);
+                    current = null;
+                }
+                continue;
+            }
+
+            String level = congestionLevel(weight);
+
+            if (current == null || current.getWeight() != weight) {
+
+                if (current != null) {
+                    finalizeBlock(current);
+                    blocks.add(current);
+                }
+
+                current = new CongestionBlockDTO();
+                current.setLevel(level);
+                current.setWeight(weight);
+                current.setStart(row.getTimestamp());
+            }
+
+            current.setEnd(row.getTimestamp());
+        }
+
+        if (current != null) {
+            finalizeBlock(current);
+            blocks.add(current);
+        }
+
+        return blocks;
+    }
+
+    /**
+     * Blocks of one counter's timeline as computeSessionCongestion built them (weight-0 runs included)
+     */
+    static List<CongestionBlockDTO> sessionBlocks(List<? extends TimelineRow> rows) {
+
+        List<CongestionBlockDTO> blocks = new ArrayList<>();
+
+        CongestionBlockDTO current = null;
+
+        for (TimelineRow row : rows) {
+
+            int weight = congestionWeight(row.getWaitTime());
+            String level = congestionLevel(weight);
+
+            if (current == null || current.getWeight() != weight) {
+
+                if (current != null) {
+                    finalizeBlock(current);
+                    blocks.add(current);
+                }
+
+                current = new CongestionBlockDTO();
+                current.setLevel(level);
+                current.setWeight(weight);
+                current.setStart(row.getTimestamp());
+            }
+
+            current.setEnd(row.getTimestamp());
+        }
+
+        if (current != null) {
+            finalizeBlock(current);
+            blocks.add(current);
+        }
+
+        return blocks;
+    }
+
+    static double weightedCongestionIndex(List<CongestionBlockDTO> blocks, long sessionMinutes) {
+        long weightedSum = blocks.stream()
+                .mapToLong(b ->
+                        b.getWeight() * b.getDurationMinutes()
+                )
+                .sum();
+
+        return (weightedSum / (double) (sessionMinutes * 5)) * 100;
+    }
+
+    private static void finalizeBlock(CongestionBlockDTO block) {
+        block.setDurationMinutes(
+                Duration.between(
+                        block.getStart(),
+                        block.getEnd()
+                ).toMinutes()
+        );
+    }
+
+    private static int congestionWeight(double waitTime) {
+        if (waitTime <= 0) return 0;
+        if (waitTime <= 2) return 0;
+        if (waitTime == 3) return 0;
+        if (waitTime == 4) return 1;
+        if (waitTime <= 8) return 2;
+        if (waitTime <= 12) return 3;
+        return 5;
+    }
+
+    private static String congestionLevel(int weight) {
+        return switch (weight) {
+            case 1 -> "High";
+            case 2 -> "Critical";
+            case 3 -> "Severe";
+            case 5 -> "Extreme";
+            default -> "Low";
+        };
+    }
+}
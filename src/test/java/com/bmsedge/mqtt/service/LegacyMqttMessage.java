@@ -1,142 +1,106 @@
-package com.bmsedge.mqtt.dto;
+package com.bmsedge.mqtt.service;
 
-import com.fasterxml.jackson.annotation.JsonAnySetter;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import com.bmsedge.mqtt.dto.MqttReading;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * MQTT Message DTO
- * Handles dynamic field names like Tandoor_occupancy, pan_pacific_occupancy, etc.
+ * Reference for MqttPayloadDecoder: the field resolution of the former
+ * MqttMessageDTO (payload as a String, every field in a HashMap, regex split
+ * of the wait-time text), kept as it was for comparison tests and benchmarks
  */
-@Data
-@Builder
-@NoArgsConstructor
-@AllArgsConstructor
-public class MqttMessageDTO {
+final class LegacyMqttMessage {
 
-    @JsonProperty("device_id")
-    private String deviceId;
+    private static final TypeReference<HashMap<String, Object>> MAP = new TypeReference<>() {
+    };
 
-    @JsonProperty("counter_name")
-    private String counterName;
+    private final String counterName;
+    private final Map<String, Object> additionalProperties;
 
-    // Store any additional properties dynamically
-    private Map<String, Object> additionalProperties = new HashMap<>();
+    private LegacyMqttMessage(String counterName, Map<String, Object> additionalProperties) {
+        this.counterName = counterName;
+        this.additionalProperties = additionalProperties;
+    }
 
-    @JsonAnySetter
-    public void setAdditionalProperty(String name, Object value) {
-        additionalProperties.put(name, value);
+    static MqttReading decode(ObjectMapper objectMapper, byte[] payload) throws IOException {
+        HashMap<String, Object> fields = objectMapper.readValue(new String(payload), MAP);
+        Object deviceId = fields.remove("device_id");
+        Object counterName = fields.remove("counter_name");
+        LegacyMqttMessage message = new LegacyMqttMessage(counterName != null ? counterName.toString() : null, fields);
+        return new MqttReading(
+                deviceId != null ? deviceId.toString() : null,
+                message.counterName,
+                message.getOccupancy(),
+                message.getInCount(),
+                message.getWaitTimeInMinutes()
+        );
     }
 
-    /**
-     * Get occupancy from dynamic field name
-     * Looks for: {counter_name}_occupancy or {counter_name}_oc_cupancy
-     */
-    public Integer getOccupancy() {
-        // Try exact match first
+    Integer getOccupancy() {
         String occupancyKey = counterName + "_occupancy";
         if (additionalProperties.containsKey(occupancyKey)) {
             return convertToInteger(additionalProperties.get(occupancyKey));
         }
-
-        // Try variations
         for (String key : additionalProperties.keySet()) {
             if (key.toLowerCase().contains("occupancy")) {
                 return convertToInteger(additionalProperties.get(key));
             }
         }
-
         return 0;
     }
 
-    /**
-     * Get in_count from dynamic field name
-     * Looks for: {counter_name}_incount
-     */
-    public Integer getInCount() {
+    Integer getInCount() {
         String inCountKey = counterName + "_incount";
         if (additionalProperties.containsKey(inCountKey)) {
             return convertToInteger(additionalProperties.get(inCountKey));
         }
-
-        // Try variations
         for (String key : additionalProperties.keySet()) {
             if (key.toLowerCase().contains("incount") || key.toLowerCase().contains("in_count")) {
                 return convertToInteger(additionalProperties.get(key));
             }
         }
-
         return 0;
     }
 
-    /**
-     * Get waiting time from dynamic field name
-     * Looks for: {counter_name}_waiting_time_min
-     */
-    public String getWaitTime() {
+    String getWaitTime() {
         String waitTimeKey = counterName + "_waiting_time_min";
         if (additionalProperties.containsKey(waitTimeKey)) {
             Object value = additionalProperties.get(waitTimeKey);
             return value != null ? value.toString() : "0";
         }
-
-        // Try variations
         for (String key : additionalProperties.keySet()) {
             if (key.toLowerCase().contains("waiting_time") || key.toLowerCase().contains("wait_time")) {
                 Object value = additionalProperties.get(key);
                 return value != null ? value.toString() : "0";
             }
         }
-
         return "0";
     }
 
-    /**
-     * Convert wait time string to minutes
-     * "ready to serve" -> 0.0
-     * "5 min" -> 5.0
-     */
-    public Double getWaitTimeInMinutes() {
+    Double getWaitTimeInMinutes() {
         String waitTime = getWaitTime();
-
         if (waitTime == null || waitTime.trim().isEmpty()) {
             return 0.0;
         }
-
         String cleaned = waitTime.toLowerCase().trim();
-
-        // Handle "ready to serve"
         if (cleaned.contains("ready")) {
             return 0.0;
         }
-
-        try {
-            // Extract numeric value
-            String[] parts = cleaned.split("\\s+");
-            for (String part : parts) {
-                try {
-                    return Double.parseDouble(part);
-                } catch (NumberFormatException ignored) {
-                    // Continue searching
-                }
+        for (String part : cleaned.split("\\s+")) {
+            try {
+                return Double.parseDouble(part);
+            } catch (NumberFormatException ignored) {
+                // Continue searching
             }
-        } catch (Exception e) {
-            // Default to 0 if parsing fails
         }
-
         return 0.0;
     }
 
-    /**
-     * Helper to convert Object to Integer
-     */
-    private Integer convertToInteger(Object value) {
+    private static Integer convertToInteger(Object value) {
         if (value == null) {
             return 0;
         }
@@ -152,4 +116,4 @@ public class MqttMessageDTO {
             return 0;
         }
     }
-}
\ No newline at end of file
+}
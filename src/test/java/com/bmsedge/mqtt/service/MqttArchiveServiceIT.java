@@ -0,0 +1,97 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Archive runs resume at the oldest raw row: counters of a day a previous
+ * run stopped in the middle of are archived, not skipped
+ */
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import({MqttArchiveService.class, MqttRollupBackfill.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MqttArchiveServiceIT {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 1, 1);
+
+    @Autowired
+    private MqttArchiveService archiveService;
+
+    @Autowired
+    private MqttRollupBackfill rollupBackfill;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void backfillDone() {
+        jdbcTemplate.update("UPDATE mqtt_rollup_backfill SET done_until = horizon");
+        rollupBackfill.init();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM mqtt_data");
+        jdbcTemplate.update("DELETE FROM mqtt_archive_chunk");
+    }
+
+    @Test
+    void countersLeftOnAPartiallyArchivedDayAreArchivedNextRun() {
+        insert("counter-a", DAY, 10);
+        archiveService.archive();
+        assertEquals(List.of("counter-a/" + DAY), chunks());
+
+        // As if the run had stopped after counter-a: counter-b still has raw rows on the same day
+        insert("counter-b", DAY, 10);
+        insert("counter-a", DAY.plusDays(1), 10);
+
+        archiveService.archive();
+
+        assertEquals(List.of("counter-a/" + DAY, "counter-a/" + DAY.plusDays(1), "counter-b/" + DAY), chunks());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM mqtt_data", Integer.class));
+    }
+
+    @Test
+    void lateRowsOfAnArchivedDayAreMergedIntoItsChunk() {
+        insert("counter-a", DAY, 10);
+        archiveService.archive();
+
+        insert("counter-a", DAY, 5);
+        archiveService.archive();
+
+        assertEquals(List.of("counter-a/" + DAY), chunks());
+        assertEquals(15, jdbcTemplate.queryForObject(
+                "SELECT row_count FROM mqtt_archive_chunk WHERE counter_name = 'counter-a'", Integer.class));
+    }
+
+    private List<String> chunks() {
+        return jdbcTemplate.queryForList(
+                "SELECT counter_name || '/' || day FROM mqtt_archive_chunk ORDER BY counter_name, day", String.class);
+    }
+
+    private void insert(String counterName, LocalDate day, int rows) {
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at)
+                SELECT nextval('mqtt_data_seq'), 'dev-1', ?, g, g, g / 2.0, ? + g * INTERVAL '1 minute', now()
+                FROM generate_series(1, ?) g
+                """, counterName, day.atTime(8, 0), rows);
+    }
+}
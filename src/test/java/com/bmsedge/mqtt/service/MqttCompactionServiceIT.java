@@ -0,0 +1,212 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compaction against PostgreSQL: rollups of compacted slices equal the
+ * raw-row aggregates taken before the delete, rows go in keyset batches,
+ * and a run stopped mid-slice resumes from the checkpoint without
+ * summarizing the half-deleted slice again
+ */
+@DataJpaTest(properties = {"spring.jpa.show-sql=false", "mqtt.compaction.batch-size=100",
+        "mqtt.compaction.pause-ms=0", "mqtt.compaction.older-than-days=90"})
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import({MqttCompactionService.class, MqttRollupBackfill.class, MqttIngestPipeline.class,
+        MqttCompactionServiceIT.Writer.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MqttCompactionServiceIT {
+
+    // Hours 0-2 of a day past the cutoff, one row every 7 s (515 per hour, several batches per slice)
+    private static final LocalDateTime START = LocalDate.now().minusDays(100).atStartOfDay();
+    private static final LocalDateTime RECENT = LocalDate.now().minusDays(1).atStartOfDay();
+
+    private static final String RAW_MINUTES_SQL = """
+            SELECT counter_name, date_trunc('minute', timestamp) AS bucket, COUNT(*) AS samples,
+                   COALESCE(SUM(in_count), 0) AS sum_in_count, MAX(in_count) AS max_in_count,
+                   MAX(occupancy) AS max_occupancy, MAX(wait_time) AS max_wait,
+                   COALESCE(SUM(wait_time), 0) AS sum_wait, MIN(timestamp) AS first_ts, MAX(timestamp) AS last_ts
+            FROM mqtt_data WHERE timestamp < ?
+            GROUP BY 1, 2 ORDER BY 1, 2
+            """;
+
+    private static final String ROLLUP_MINUTES_SQL = """
+            SELECT counter_name, bucket, samples, sum_in_count, max_in_count, max_occupancy, max_wait,
+                   sum_wait, first_ts, last_ts
+            FROM mqtt_rollup_minute WHERE bucket < ? ORDER BY 1, 2
+            """;
+
+    @Autowired
+    private MqttCompactionService compaction;
+
+    @Autowired
+    private MqttRollupBackfill backfill;
+
+    @Autowired
+    private MqttProperties mqttProperties;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        // Backfill finished: compaction is not held back behind it
+        jdbcTemplate.update("UPDATE mqtt_rollup_backfill SET done_until = horizon");
+        backfill.init();
+
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at)
+                SELECT nextval('mqtt_data_seq'), 'dev-1', 'counter-' || (g % 3), g % 40, g % 9,
+                       CASE WHEN g % 11 = 0 THEN NULL ELSE (g % 15)::float8 END, ? + g * INTERVAL '7 seconds', now()
+                FROM generate_series(0, 3 * 3600 / 7 - 1) g
+                """, START);
+        // Several rows sharing a timestamp, across batch boundaries
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at)
+                SELECT nextval('mqtt_data_seq'), 'dev-2', 'counter-9', 1, 1, 1.0, ?, now()
+                FROM generate_series(1, 250)
+                """, START.plusMinutes(30));
+        // Within the retention window: never touched
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, in_count, timestamp, created_at)
+                SELECT nextval('mqtt_data_seq'), 'dev-1', 'counter-1', 1, ? + g * INTERVAL '1 minute', now()
+                FROM generate_series(0, 59) g
+                """, RECENT);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM mqtt_data");
+        jdbcTemplate.update("DELETE FROM mqtt_rollup_minute");
+        jdbcTemplate.update("DELETE FROM mqtt_rollup_hour");
+        jdbcTemplate.update("DELETE FROM mqtt_compaction_checkpoint");
+        mqttProperties.getCompaction().setPauseMs(0);
+    }
+
+    @Test
+    void rollupsEqualTheRawAggregatesBeforeTheDelete() {
+        List<Map<String, Object>> raw = jdbcTemplate.queryForList(RAW_MINUTES_SQL, RECENT);
+        long rawRows = count(START, RECENT);
+        assertNull(compaction.rawDataFrom());
+
+        Map<String, Object> run = compaction.compact();
+
+        assertEquals(3, run.get("slices"));
+        assertEquals(rawRows, run.get("rowsDeleted"));
+        assertEquals(true, run.get("caughtUp"));
+        assertEquals(0, count(START, RECENT));
+        assertEquals(60, count(RECENT, RECENT.plusDays(1)));
+
+        assertEquals(raw, jdbcTemplate.queryForList(ROLLUP_MINUTES_SQL, RECENT));
+        assertEquals(rawRows, jdbcTemplate.queryForObject(
+                "SELECT SUM(samples) FROM mqtt_rollup_hour WHERE bucket < ?", Long.class, RECENT));
+        // 3 counters x 3 hours, plus counter-9 in hour 0
+        assertEquals(10, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM mqtt_rollup_hour WHERE bucket < ?", Integer.class, RECENT));
+
+        Map<String, Object> checkpoint = jdbcTemplate.queryForMap(
+                "SELECT rows_deleted, summarized, last_ts FROM mqtt_compaction_checkpoint");
+        assertEquals(rawRows, ((Number) checkpoint.get("rows_deleted")).longValue());
+        assertEquals(false, checkpoint.get("summarized"));
+        assertTrue(!compaction.rawDataFrom().isBefore(START.plusHours(3)));
+
+        // Caught up: the next run finds nothing
+        assertEquals(0L, compaction.compact().get("rowsDeleted"));
+    }
+
+    @Test
+    void runStoppedMidSliceResumesFromTheCheckpoint() throws Exception {
+        List<Map<String, Object>> raw = jdbcTemplate.queryForList(RAW_MINUTES_SQL, RECENT);
+        long rawRows = count(START, RECENT);
+
+        // Slow batches; interrupted once the first slice is partly deleted
+        mqttProperties.getCompaction().setPauseMs(60_000);
+        Thread run = new Thread(compaction::compact);
+        run.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (deletedSoFar() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        run.interrupt();
+        run.join(TimeUnit.SECONDS.toMillis(30));
+
+        Map<String, Object> checkpoint = jdbcTemplate.queryForMap(
+                "SELECT slice_start, summarized, last_ts, last_id, rows_deleted FROM mqtt_compaction_checkpoint");
+        assertEquals(Timestamp.valueOf(START), checkpoint.get("slice_start"));
+        assertEquals(true, checkpoint.get("summarized"));
+        assertEquals(100L, ((Number) checkpoint.get("rows_deleted")).longValue());
+        assertEquals(rawRows - 100, count(START, RECENT));
+        // Exactly the first 100 rows in (timestamp, id) order are gone
+        assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM mqtt_data WHERE (timestamp, id) <= (?, ?)", Integer.class,
+                checkpoint.get("last_ts"), checkpoint.get("last_id")));
+        assertEquals(START.plusHours(1), compaction.rawDataFrom());
+
+        // The half-deleted slice is not summarized again: its rollups still hold every row
+        mqttProperties.getCompaction().setPauseMs(0);
+        Map<String, Object> resumed = compaction.compact();
+
+        assertEquals(rawRows - 100, resumed.get("rowsDeleted"));
+        // Only hours 1 and 2: 60 minutes x 3 counters each
+        assertEquals(2 * 180L, resumed.get("minuteSummaries"));
+        assertEquals(0, count(START, RECENT));
+        assertEquals(raw, jdbcTemplate.queryForList(ROLLUP_MINUTES_SQL, RECENT));
+        assertEquals(rawRows, jdbcTemplate.queryForObject(
+                "SELECT rows_deleted FROM mqtt_compaction_checkpoint", Long.class));
+    }
+
+    private long deletedSoFar() {
+        List<Long> deleted = jdbcTemplate.queryForList("SELECT rows_deleted FROM mqtt_compaction_checkpoint", Long.class);
+        return deleted.isEmpty() ? 0 : deleted.get(0);
+    }
+
+    private long count(LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM mqtt_data WHERE timestamp >= ? AND timestamp < ?",
+                Long.class, from, to);
+    }
+
+    @TestConfiguration
+    static class Writer {
+
+        @Bean
+        MqttDataWriter mqttDataWriter() {
+            return new MqttDataWriter() {
+                @Override
+                public List<MqttDataEntity> writeBatch(List<MqttDataEntity> batch) {
+                    return batch;
+                }
+
+                @Override
+                public String getMode() {
+                    return "test";
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.event.EventListener;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MqttIngestPipelineTest {
+
+    private static final int ROWS = 20;
+
+    @Test
+    void replayedJournalRowsReachEventListeners(@TempDir Path directory) throws Exception {
+        MqttProperties properties = new MqttProperties();
+        properties.getIngest().setLanes(1);
+        properties.getIngest().setFlushIntervalMs(10);
+        properties.getJournal().setEnabled(true);
+        properties.getJournal().setDirectory(directory.toString());
+        properties.getJournal().setSegmentSizeMb(1);
+        properties.getJournal().setFsyncPolicy(MqttProperties.FsyncPolicy.NEVER);
+
+        // Left behind by the previous run
+        IngestJournal journal = new IngestJournal(directory.resolve("lane-0"), properties.getJournal());
+        for (int i = 0; i < ROWS; i++) {
+            journal.append(MqttDataEntity.builder()
+                    .deviceId("dev-1")
+                    .counterName("counter-1")
+                    .occupancy(i)
+                    .timestamp(LocalDateTime.of(2026, 1, 1, 12, 0).plusSeconds(i))
+                    .build());
+        }
+        journal.close();
+
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.registerBean(MqttProperties.class, () -> properties);
+            context.registerBean(MqttDataWriter.class, () -> new MqttDataWriter() {
+                @Override
+                public List<MqttDataEntity> writeBatch(List<MqttDataEntity> batch) {
+                    return batch;
+                }
+
+                @Override
+                public String getMode() {
+                    return "test";
+                }
+            });
+            context.registerBean(MqttIngestPipeline.class);
+            context.registerBean(Listener.class);
+            context.refresh();
+
+            Listener listener = context.getBean(Listener.class);
+            Thread.sleep(100);
+            assertEquals(0, listener.received.size(), "replay must wait for the application to be ready");
+
+            context.publishEvent(new ApplicationReadyEvent(new SpringApplication(), new String[0], context,
+                    Duration.ZERO));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (listener.received.size() < ROWS && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(ROWS, listener.received.size());
+            assertTrue(listener.received.stream().allMatch(data -> "counter-1".equals(data.getCounterName())));
+        }
+    }
+
+    static class Listener {
+
+        final List<MqttDataEntity> received = new CopyOnWriteArrayList<>();
+
+        @EventListener
+        public void onMqttData(MqttDataEvent event) {
+            received.add(event.getData());
+        }
+    }
+}
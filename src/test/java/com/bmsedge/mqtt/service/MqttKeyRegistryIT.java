@@ -0,0 +1,102 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Rebuild against flush: deltas of rows already in history are not counted
+ * twice, deltas recorded after the rebuild are kept and flushed
+ */
+@DataJpaTest(properties = "spring.jpa.show-sql=false")
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import(MqttKeyRegistry.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MqttKeyRegistryIT {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 1, 12, 0);
+
+    @Autowired
+    private MqttKeyRegistry registry;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM mqtt_data");
+        jdbcTemplate.update("DELETE FROM mqtt_registry");
+    }
+
+    @Test
+    void rebuildDropsDeltasOfRowsItCountsAndKeepsLaterOnes() {
+        for (int i = 0; i < 3; i++) {
+            insert("dev-1", i);
+            registry.onMqttData(event("dev-1", i));
+        }
+        assertEquals(3L, messageCount("dev-1"));
+
+        registry.rebuild();
+        assertEquals(3L, messageCount("dev-1"));
+
+        insert("dev-1", 3);
+        registry.onMqttData(event("dev-1", 3));
+        registry.flush();
+
+        assertEquals(4L, messageCount("dev-1"));
+        assertEquals(4L, jdbcTemplate.queryForObject(
+                "SELECT message_count FROM mqtt_registry WHERE kind = 'device' AND name = 'dev-1'", Long.class));
+        assertEquals(START.plusSeconds(3), registry.lastSeen());
+    }
+
+    @Test
+    void rebuildDropsKeysThatAreGoneFromHistory() {
+        insert("dev-1", 0);
+        registry.onMqttData(event("dev-1", 0));
+        registry.onMqttData(event("dev-gone", 0));
+        registry.flush();
+
+        registry.rebuild();
+
+        assertEquals(List.of("dev-1"), registry.getDeviceIds());
+    }
+
+    private long messageCount(String deviceId) {
+        return registry.getDeviceDetails().stream()
+                .filter(details -> deviceId.equals(details.get("deviceId")))
+                .map(details -> (Long) details.get("messageCount"))
+                .findFirst().orElse(0L);
+    }
+
+    private void insert(String deviceId, int second) {
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, timestamp, created_at)
+                VALUES (nextval('mqtt_data_seq'), ?, 'counter-1', ?, now())
+                """, deviceId, START.plusSeconds(second));
+    }
+
+    private static MqttDataEvent event(String deviceId, int second) {
+        return new MqttDataEvent(MqttKeyRegistryIT.class, MqttDataEntity.builder()
+                .deviceId(deviceId)
+                .counterName("counter-1")
+                .timestamp(START.plusSeconds(second))
+                .build());
+    }
+}
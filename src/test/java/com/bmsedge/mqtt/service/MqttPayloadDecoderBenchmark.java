@@ -0,0 +1,71 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.MqttReading;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload decoding: MqttPayloadDecoder against the former MqttMessageDTO path
+ * (LegacyMqttMessage), per payload. Run with -prof gc for bytes allocated per
+ * operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MqttPayloadDecoderBenchmark {
+
+    private static final byte[] TANDOOR = bytes("""
+            {"device_id": "edge-07", "counter_name": "Tandoor",
+             "Tandoor_occupancy": 5, "Tandoor_incount": 120, "Tandoor_waiting_time_min": "5 min"}""");
+
+    private static final byte[] PAN_PACIFIC = bytes("""
+            {"device_id": "edge-02", "counter_name": "pan_pacific",
+             "pan_pacific_occupancy": "8", "pan_pacific_incount": 342,
+             "pan_pacific_waiting_time_min": "ready to serve"}""");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MqttPayloadDecoder decoder = new MqttPayloadDecoder(objectMapper);
+
+    @Setup
+    public void sameReadings() throws IOException {
+        for (byte[] payload : new byte[][]{TANDOOR, PAN_PACIFIC}) {
+            MqttReading expected = LegacyMqttMessage.decode(objectMapper, payload);
+            if (!expected.equals(decoder.decode(payload))) {
+                throw new IllegalStateException("Decoders disagree on " + new String(payload, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Benchmark
+    public void streamingDecoder(Blackhole blackhole) throws IOException {
+        blackhole.consume(decoder.decode(TANDOOR));
+        blackhole.consume(decoder.decode(PAN_PACIFIC));
+    }
+
+    @Benchmark
+    public void legacyMessage(Blackhole blackhole) throws IOException {
+        blackhole.consume(LegacyMqttMessage.decode(objectMapper, TANDOOR));
+        blackhole.consume(LegacyMqttMessage.decode(objectMapper, PAN_PACIFIC));
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
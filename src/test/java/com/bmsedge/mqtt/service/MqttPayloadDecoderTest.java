@@ -0,0 +1,147 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.dto.MqttReading;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MqttPayloadDecoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MqttPayloadDecoder decoder = new MqttPayloadDecoder(objectMapper);
+
+    @Test
+    void exactCounterKeysWinOverOtherMatches() throws IOException {
+        MqttReading reading = decode("""
+                {"device_id": "dev-1", "counter_name": "Tandoor",
+                 "other_occupancy": 9, "Tandoor_occupancy": 5,
+                 "other_incount": 99, "Tandoor_incount": 120,
+                 "other_waiting_time_min": "9 min", "Tandoor_waiting_time_min": "5 min"}
+                """);
+
+        assertEquals(new MqttReading("dev-1", "Tandoor", 5, 120, 5.0), reading);
+    }
+
+    @Test
+    void counterNameMayFollowTheValueFields() throws IOException {
+        MqttReading reading = decode("""
+                {"Tandoor_occupancy": 7, "x_occupancy": 1, "Tandoor_incount": 3,
+                 "Tandoor_waiting_time_min": 4, "counter_name": "Tandoor", "device_id": "dev-1"}
+                """);
+
+        assertEquals(new MqttReading("dev-1", "Tandoor", 7, 3, 4.0), reading);
+    }
+
+    @Test
+    void fallsBackToKeysContainingTheKeyword() throws IOException {
+        MqttReading reading = decode("""
+                {"device_id": "dev-1", "counter_name": "Tandoor",
+                 "pan_pacific_OCCUPANCY": 4, "total_in_count": 80, "avg_wait_time": "12 min"}
+                """);
+
+        assertEquals(new MqttReading("dev-1", "Tandoor", 4, 80, 12.0), reading);
+    }
+
+    @Test
+    void firstFallbackMatchInDocumentOrderWins() throws IOException {
+        MqttReading reading = decode("""
+                {"counter_name": "Tandoor", "a_occupancy": 1, "b_occupancy": 2, "a_incount": 3, "b_in_count": 4}
+                """);
+
+        assertEquals(1, reading.occupancy());
+        assertEquals(3, reading.inCount());
+    }
+
+    @Test
+    void missingValuesAreZero() throws IOException {
+        MqttReading reading = decode("""
+                {"device_id": "dev-1", "counter_name": "Tandoor", "temperature": 21}
+                """);
+
+        assertEquals(new MqttReading("dev-1", "Tandoor", 0, 0, 0.0), reading);
+    }
+
+    @Test
+    void nullValuesAreZero() throws IOException {
+        MqttReading reading = decode("""
+                {"device_id": null, "counter_name": "Tandoor", "Tandoor_occupancy": null,
+                 "Tandoor_incount": null, "Tandoor_waiting_time_min": null}
+                """);
+
+        assertNull(reading.deviceId());
+        assertEquals(new MqttReading(null, "Tandoor", 0, 0, 0.0), reading);
+    }
+
+    @Test
+    void integerValuesAreTruncatedOrParsed() throws IOException {
+        assertEquals(5, decode("{\"counter_name\": \"c\", \"c_occupancy\": 5.9}").occupancy());
+        assertEquals(12, decode("{\"counter_name\": \"c\", \"c_occupancy\": \"12\"}").occupancy());
+        assertEquals(-2, decode("{\"counter_name\": \"c\", \"c_occupancy\": \"-2\"}").occupancy());
+        assertEquals(3, decode("{\"counter_name\": \"c\", \"c_occupancy\": \"+3\"}").occupancy());
+        assertEquals(0, decode("{\"counter_name\": \"c\", \"c_occupancy\": \"12 people\"}").occupancy());
+        assertEquals(0, decode("{\"counter_name\": \"c\", \"c_occupancy\": \" 3\"}").occupancy());
+        assertEquals(0, decode("{\"counter_name\": \"c\", \"c_occupancy\": true}").occupancy());
+        assertEquals(0, decode("{\"counter_name\": \"c\", \"c_occupancy\": \"99999999999\"}").occupancy());
+    }
+
+    @Test
+    void waitTimeTextIsConvertedToMinutes() throws IOException {
+        assertEquals(0.0, waitTime("\"ready to serve\""));
+        assertEquals(0.0, waitTime("\"Ready in 5 min\""));
+        assertEquals(5.0, waitTime("\"5 min\""));
+        assertEquals(7.5, waitTime("\"about 7.5 minutes\""));
+        assertEquals(3.0, waitTime("\"  3\\tmin \""));
+        assertEquals(0.0, waitTime("\"soon\""));
+        assertEquals(0.0, waitTime("\"5min\""));
+        assertEquals(0.0, waitTime("\"\""));
+        assertEquals(2.5, waitTime("2.5"));
+        assertEquals(0.0, waitTime("false"));
+    }
+
+    @Test
+    void nestedValuesAreSkipped() throws IOException {
+        MqttReading reading = decode("""
+                {"counter_name": "c", "meta": {"c_occupancy": 9, "list": [1, {"x": 2}]},
+                 "c_occupancy_history": [1, 2], "c_occupancy": 4, "device_id": "dev-1"}
+                """);
+
+        assertEquals(new MqttReading("dev-1", "c", 4, 0, 0.0), reading);
+    }
+
+    @Test
+    void rejectsPayloadsThatAreNotObjects() {
+        assertThrows(IOException.class, () -> decode("[1, 2]"));
+        assertThrows(IOException.class, () -> decode("{\"device_id\": {\"id\": 1}}"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"device_id\": \"d\", \"counter_name\": \"Tandoor\", \"Tandoor_occupancy\": 5, \"Tandoor_incount\": 120, \"Tandoor_waiting_time_min\": \"5 min\"}",
+            "{\"device_id\": \"d\", \"counter_name\": \"pan_pacific\", \"pan_pacific_occupancy\": \"8\", \"pan_pacific_incount\": 3.7, \"pan_pacific_waiting_time_min\": \"ready to serve\"}",
+            "{\"device_id\": \"d\", \"counter_name\": \"Mediterranean\", \"Occupancy\": 2, \"In_Count\": \"x\", \"Wait_Time\": \"wait 1e1 min\"}",
+            "{\"device_id\": \"d\", \"counter_name\": \"c\", \"c_waiting_time_min\": 6, \"c_incount\": null}",
+            "{\"device_id\": \"d\", \"counter_name\": \"c\", \"c_waiting_time_min\": \"-4 min\", \"c_occupancy\": -1}",
+            "{\"device_id\": \"d\", \"counter_name\": null, \"null_occupancy\": 3}",
+            "{\"device_id\": \"d\"}"
+    })
+    void decodesLikeTheLegacyMessage(String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        assertEquals(LegacyMqttMessage.decode(objectMapper, bytes), decoder.decode(bytes));
+    }
+
+    private MqttReading decode(String payload) throws IOException {
+        return decoder.decode(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private double waitTime(String json) throws IOException {
+        return decode("{\"counter_name\": \"c\", \"c_waiting_time_min\": " + json + "}").waitTimeMinutes();
+    }
+}
@@ -0,0 +1,128 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Backfill of the history that predates the rollup tables: slice by slice
+ * up to the horizon, rollups equal to the raw-row aggregates afterwards
+ * (including buckets ingest had already written partially), coverage moves
+ * with the checkpoint
+ */
+@DataJpaTest(properties = {"spring.jpa.show-sql=false", "mqtt.rollup.backfill-pause-ms=0"})
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import(MqttRollupBackfill.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MqttRollupBackfillIT {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 1, 0, 0);
+    private static final LocalDateTime HORIZON = START.plusHours(6);
+
+    private static final String RAW_MINUTES_SQL = """
+            SELECT counter_name, date_trunc('minute', timestamp) AS bucket, COUNT(*) AS samples,
+                   COALESCE(SUM(in_count), 0) AS sum_in_count, MAX(occupancy) AS max_occupancy,
+                   MAX(wait_time) AS max_wait
+            FROM mqtt_data WHERE timestamp < ?
+            GROUP BY 1, 2 ORDER BY 1, 2
+            """;
+
+    @Autowired
+    private MqttRollupBackfill backfill;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM mqtt_data");
+        jdbcTemplate.update("DELETE FROM mqtt_rollup_minute");
+        jdbcTemplate.update("DELETE FROM mqtt_rollup_hour");
+    }
+
+    @Test
+    void historyIsSummarizedSliceBySliceUpToTheHorizon() {
+        // Hours 0, 1 and 4 hold rows, 2 and 3 are a gap
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at)
+                SELECT nextval('mqtt_data_seq'), 'dev-1', 'counter-' || (g % 3), g % 40, g, (g % 15)::float8,
+                       ? + g * INTERVAL '7 seconds', now()
+                FROM generate_series(0, 3000) g
+                WHERE g * 7 < 2 * 3600 OR (g * 7 >= 4 * 3600 AND g * 7 < 5 * 3600)
+                """, START);
+        // A minute ingest had partially summarized before the backfill reaches it
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_rollup_minute VALUES ('counter-0', ?, 1, 1, 1, 1, 1, 1, ?, ?)
+                """, START, START, START);
+        jdbcTemplate.update("UPDATE mqtt_rollup_backfill SET horizon = ?, done_until = NULL", HORIZON);
+        backfill.init();
+
+        assertFalse(backfill.covers(START, START.plusHours(1)));
+        assertTrue(backfill.covers(HORIZON, HORIZON.plusHours(1)));
+        assertEquals(LocalDateTime.of(1970, 1, 1, 0, 0), backfill.pendingFrom());
+
+        // Hours 0, 1 and 4; empty hours are skipped
+        assertEquals(3, backfill.backfill());
+
+        assertTrue(backfill.isComplete());
+        assertTrue(backfill.covers(START, START.plusHours(1)));
+        assertNull(backfill.pendingFrom());
+
+        List<Map<String, Object>> raw = jdbcTemplate.queryForList(RAW_MINUTES_SQL, HORIZON);
+        List<Map<String, Object>> rollups = jdbcTemplate.queryForList("""
+                SELECT counter_name, bucket, samples, sum_in_count, max_occupancy, max_wait
+                FROM mqtt_rollup_minute WHERE bucket < ? ORDER BY 1, 2
+                """, HORIZON);
+        assertEquals(raw, rollups);
+
+        assertEquals(jdbcTemplate.queryForObject(
+                        "SELECT COUNT(*) FROM mqtt_data WHERE timestamp < ?", Long.class, HORIZON),
+                jdbcTemplate.queryForObject(
+                        "SELECT SUM(samples) FROM mqtt_rollup_hour WHERE bucket < ?", Long.class, HORIZON));
+        assertEquals(3 * 3, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM mqtt_rollup_hour WHERE bucket < ?", Integer.class, HORIZON));
+
+        // Nothing left: a second instance (or the next schedule) finds the checkpoint at the horizon
+        assertEquals(0, backfill.backfill());
+    }
+
+    @Test
+    void restartResumesAfterTheLastFinishedSlice() {
+        jdbcTemplate.update("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, in_count, timestamp, created_at)
+                SELECT nextval('mqtt_data_seq'), 'dev-1', 'counter-1', 1, ? + g * INTERVAL '10 minutes', now()
+                FROM generate_series(0, 35) g
+                """, START);
+        // Hours 0-2 were finished by a previous run
+        jdbcTemplate.update("UPDATE mqtt_rollup_backfill SET horizon = ?, done_until = ?", HORIZON, START.plusHours(3));
+        backfill.init();
+
+        assertTrue(backfill.covers(START, START.plusHours(2).plusMinutes(59)));
+        assertFalse(backfill.covers(START, START.plusHours(3)));
+        assertEquals(START.plusHours(3), backfill.pendingFrom());
+
+        assertEquals(3, backfill.backfill());
+
+        assertEquals(List.of(START.plusHours(3), START.plusHours(4), START.plusHours(5)), jdbcTemplate.queryForList(
+                "SELECT bucket FROM mqtt_rollup_hour ORDER BY bucket", LocalDateTime.class));
+    }
+}
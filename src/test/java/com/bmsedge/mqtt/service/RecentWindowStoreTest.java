@@ -0,0 +1,136 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.dto.MqttDataRow;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
+import com.bmsedge.mqtt.service.MqttHistoryService.HistoryCursor;
+import com.bmsedge.mqtt.service.MqttHistoryService.HistoryFilter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecentWindowStoreTest {
+
+    // Several SCAN_CHUNKs, two rows per timestamp so chunk boundaries fall between equal timestamps
+    private static final int ROWS = 5_000;
+
+    private final LocalDateTime start = LocalDateTime.now().minusHours(1).truncatedTo(ChronoUnit.SECONDS);
+    private final MqttProperties properties = new MqttProperties();
+    private RecentWindowStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new RecentWindowStore(new MqttDataRowRepository(null) {
+            @Override
+            public void streamSince(LocalDateTime from, int fetchSize, Consumer<MqttDataRow> sink) {
+            }
+        }, properties);
+        store.warmUp();
+    }
+
+    @Test
+    void scansBothWaysAcrossChunkBoundariesWithACursor() {
+        List<MqttDataRow> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(row(i + 1, start.plusNanos((i / 2) * 1_000L), i % 7 == 0 ? null : i * 0.5));
+        }
+        // Appended out of order, as several ingest lanes would
+        for (int i = ROWS - 1; i >= 0; i -= 2) {
+            publish(rows.get(i));
+        }
+        for (int i = 0; i < ROWS; i += 2) {
+            publish(rows.get(i));
+        }
+
+        List<MqttDataRow> descending = new ArrayList<>(rows);
+        descending.sort(Comparator.comparing(MqttDataRow::timestamp).thenComparing(MqttDataRow::id).reversed());
+
+        assertEquals(rows, scan(false, null, null, Long.MAX_VALUE));
+        assertEquals(descending, scan(true, null, null, Long.MAX_VALUE));
+
+        // Resume after a cursor, paging through the chunk boundary
+        for (boolean desc : new boolean[]{false, true}) {
+            List<MqttDataRow> expected = desc ? descending : rows;
+            List<MqttDataRow> paged = new ArrayList<>(scan(desc, null, null, 1_500));
+            while (paged.size() < ROWS) {
+                List<MqttDataRow> page = scan(desc, null, HistoryCursor.of(paged.get(paged.size() - 1)), 1_500);
+                assertTrue(!page.isEmpty());
+                paged.addAll(page);
+            }
+            assertEquals(expected, paged);
+        }
+
+        // Bounded range: [row 1200, row 3800], inclusive of both timestamps
+        LocalDateTime from = rows.get(1_200).timestamp();
+        LocalDateTime to = rows.get(3_800).timestamp();
+        List<MqttDataRow> ranged = new ArrayList<>();
+        store.scan(HistoryFilter.counter("counter-1", from, to, true), from, null, Long.MAX_VALUE, ranged::add);
+        assertEquals(descending.subList(ROWS - 3_802, ROWS - 1_200), ranged);
+    }
+
+    @Test
+    void nullAndNaNWaitTimesStayDistinct() {
+        publish(row(1, start, null));
+        publish(row(2, start.plusSeconds(1), Double.NaN));
+
+        List<MqttDataRow> rows = scan(false, null, null, 10);
+        assertNull(rows.get(0).waitTime());
+        assertTrue(rows.get(1).waitTime().isNaN());
+    }
+
+    @Test
+    void coveredFromMovesPastEvictedSamples() {
+        HistoryFilter filter = HistoryFilter.counter("counter-1", null, null, false);
+        LocalDateTime warmed = store.coveredFrom(filter);
+        assertTrue(warmed.isBefore(start.minusHours(4)));
+        assertNull(store.coveredFrom(new HistoryFilter("dev-1", "counter-1", null, null, false)));
+
+        properties.getRecentWindow().setMaxSamplesPerSeries(1_000);
+        for (int i = 0; i < 1_500; i++) {
+            publish(row(i + 1, start.plusSeconds(i), 1.0));
+        }
+
+        // 500 oldest evicted: coverage starts just after the newest of them
+        assertEquals(start.plusSeconds(499).plusNanos(1_000), store.coveredFrom(filter));
+        List<MqttDataRow> rows = scan(false, null, null, Long.MAX_VALUE);
+        assertEquals(1_000, rows.size());
+        assertEquals(start.plusSeconds(500), rows.get(0).timestamp());
+    }
+
+    private List<MqttDataRow> scan(boolean descending, LocalDateTime to, HistoryCursor after, long limit) {
+        List<MqttDataRow> rows = new ArrayList<>();
+        HistoryFilter filter = HistoryFilter.counter("counter-1", start.minusHours(2), to, descending);
+        long emitted = store.scan(filter, filter.from(), after, limit, rows::add);
+        assertEquals(rows.size(), emitted);
+        return rows;
+    }
+
+    private void publish(MqttDataRow row) {
+        store.onMqttData(new MqttDataEvent(this, MqttDataEntity.builder()
+                .id(row.id())
+                .deviceId(row.deviceId())
+                .counterName(row.counterName())
+                .occupancy(row.occupancy())
+                .inCount(row.inCount())
+                .waitTime(row.waitTime())
+                .timestamp(row.timestamp())
+                .createdAt(row.createdAt())
+                .build()));
+    }
+
+    private static MqttDataRow row(long id, LocalDateTime timestamp, Double waitTime) {
+        return new MqttDataRow(id, "dev-1", "counter-1", (int) id % 50, null, waitTime, timestamp, timestamp);
+    }
+}
@@ -0,0 +1,123 @@
+package com.bmsedge.mqtt.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SampleSeriesTest {
+
+    @Test
+    void outOfOrderRowsAreInsertedInPlaceAndDuplicatesIgnored() {
+        SampleSeries series = new SampleSeries(16);
+        insert(series, 30, 3);
+        insert(series, 10, 1);
+        insert(series, 20, 5);
+        insert(series, 20, 2);
+        insert(series, 40, 4);
+        insert(series, 20, 5);
+
+        assertEquals(5, series.size());
+        assertEquals(List.of(10L, 20L, 20L, 30L, 40L), timestamps(series));
+        assertEquals(List.of(1L, 2L, 5L, 3L, 4L), ids(series));
+        assertEquals(1, series.lowerBound(20, 0));
+        assertEquals(3, series.upperBound(20, 5));
+        assertEquals(5, series.upperBound(40, Long.MAX_VALUE));
+    }
+
+    @Test
+    void wrapAroundThenGrowKeepsOrderAndColumns() {
+        SampleSeries series = new SampleSeries(16);
+        for (int i = 0; i < 16; i++) {
+            insert(series, i * 10L, i);
+        }
+        // head moves to slot 10; the next inserts wrap to the front of the arrays
+        for (int i = 0; i < 10; i++) {
+            series.evictOldest();
+        }
+        for (int i = 16; i < 25; i++) {
+            insert(series, i * 10L, i);
+        }
+        // Out of order: shifts the tail across the wrap point, filling the ring
+        insert(series, 155, 100);
+        assertEquals(16, series.capacity());
+        assertEquals(16, series.size());
+
+        // Full: the next insert grows and unrolls the ring
+        insert(series, 5, 101);
+        insert(series, 1000, 102);
+        assertEquals(32, series.capacity());
+        assertEquals(18, series.size());
+
+        List<Long> expected = new ArrayList<>();
+        expected.add(5L);
+        for (int i = 10; i < 25; i++) {
+            expected.add(i * 10L);
+            if (i == 15) {
+                expected.add(155L);
+            }
+        }
+        expected.add(1000L);
+        assertEquals(expected, timestamps(series));
+        for (int i = 0; i < series.size(); i++) {
+            long id = series.id(i);
+            assertEquals(id + 1_000, series.createdAt(i));
+            assertEquals((int) id, series.occupancy(i));
+            assertEquals(id / 2.0, series.waitTime(i));
+        }
+    }
+
+    @Test
+    void evictedUpToIsTheNewestEvictedTimestamp() {
+        SampleSeries series = new SampleSeries(16);
+        assertEquals(SampleSeries.NULL_TIME, series.evictedUpTo());
+        for (int i = 1; i <= 5; i++) {
+            insert(series, i * 10L, i);
+        }
+
+        series.evictBefore(30);
+        assertEquals(20, series.evictedUpTo());
+        assertEquals(30, series.timestamp(0));
+
+        series.evictOldest();
+        assertEquals(30, series.evictedUpTo());
+        series.evictBefore(0);
+        assertEquals(30, series.evictedUpTo());
+        assertEquals(2, series.size());
+    }
+
+    @Test
+    void nullWaitIsNotANaNReading() {
+        assertNull(SampleSeries.fromWait(SampleSeries.toWait(null)));
+        Double nan = SampleSeries.fromWait(SampleSeries.toWait(Double.NaN));
+        assertTrue(nan != null && nan.isNaN());
+        // A NaN that happens to carry the null payload is still a reading
+        Double payload = SampleSeries.fromWait(SampleSeries.toWait(SampleSeries.NULL_WAIT));
+        assertTrue(payload != null && payload.isNaN());
+        assertEquals(-0.5, SampleSeries.fromWait(SampleSeries.toWait(-0.5)));
+    }
+
+    private static void insert(SampleSeries series, long timestamp, long id) {
+        series.insert(timestamp, id, id + 1_000, (int) id, SampleSeries.NULL_INT, id / 2.0, -1);
+    }
+
+    private static List<Long> timestamps(SampleSeries series) {
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < series.size(); i++) {
+            values.add(series.timestamp(i));
+        }
+        return values;
+    }
+
+    private static List<Long> ids(SampleSeries series) {
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < series.size(); i++) {
+            values.add(series.id(i));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,104 @@
+package com.bmsedge.mqtt.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SeriesDownsamplerTest {
+
+    @Test
+    void bucketsSplitTheRangeEvenly() {
+        SeriesDownsampler downsampler = SeriesDownsampler.create(SeriesDownsampler.Method.LTTB, 1_000, 1_999, 12);
+
+        assertEquals(0, downsampler.bucketOf(1_000, 10));
+        assertEquals(0, downsampler.bucketOf(1_099, 10));
+        assertEquals(1, downsampler.bucketOf(1_100, 10));
+        assertEquals(9, downsampler.bucketOf(1_999, 10));
+        // Outside [from, to]: clamped
+        assertEquals(0, downsampler.bucketOf(0, 10));
+        assertEquals(9, downsampler.bucketOf(5_000, 10));
+    }
+
+    @Test
+    void wideRangesDoNotOverflow() {
+        // (timestamp - from) * buckets exceeds a long here
+        long from = 0;
+        long to = Long.MAX_VALUE / 2;
+        SeriesDownsampler downsampler = SeriesDownsampler.create(SeriesDownsampler.Method.MINMAX, from, to, 5_000);
+
+        assertEquals(0, downsampler.bucketOf(from, 5_000));
+        assertEquals(2_499, downsampler.bucketOf(to / 2, 5_000));
+        assertEquals(4_999, downsampler.bucketOf(to, 5_000));
+
+        long previous = 0;
+        for (long timestamp = from; timestamp < to - to / 64; timestamp += to / 64) {
+            long bucket = downsampler.bucketOf(timestamp, 5_000);
+            assertTrue(bucket >= previous, "bucket went back at " + timestamp);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    void rangesWiderThanALongAreCapped() {
+        SeriesDownsampler downsampler = SeriesDownsampler.create(
+                SeriesDownsampler.Method.LTTB, Long.MIN_VALUE, Long.MAX_VALUE, 102);
+
+        // The span is Long.MAX_VALUE: buckets cover [from, from + Long.MAX_VALUE), the rest is the last one
+        assertEquals(0, downsampler.bucketOf(Long.MIN_VALUE, 100));
+        assertEquals(49, downsampler.bucketOf(Long.MIN_VALUE + Long.MAX_VALUE / 2, 100));
+        assertEquals(99, downsampler.bucketOf(-1, 100));
+        assertEquals(99, downsampler.bucketOf(Long.MAX_VALUE, 100));
+    }
+
+    @Test
+    void lttbBucketHoldsBoundedCandidates() {
+        SeriesDownsampler.Candidates bucket = new SeriesDownsampler.Candidates();
+        int rows = 1_000_000;
+        for (int i = 0; i < rows; i++) {
+            bucket.add(i, Math.sin(i / 100.0), (long) i * SeriesDownsampler.SUB_BUCKETS / rows);
+        }
+        bucket.complete();
+
+        assertTrue(bucket.points().size() <= 4 * SeriesDownsampler.SUB_BUCKETS);
+        assertEquals(rows, bucket.count());
+        assertEquals((rows - 1) / 2.0, bucket.averageT(), 1e-6);
+    }
+
+    @Test
+    void lttbWithOneBucketOverManyRowsKeepsTheSpike() {
+        // points = 3: one bucket covering the whole range
+        int rows = 2_000_000;
+        SeriesDownsampler downsampler = SeriesDownsampler.create(SeriesDownsampler.Method.LTTB, 0, rows - 1, 3);
+        for (int t = 0; t < rows; t++) {
+            downsampler.accept(t, t == 1_234_567 ? 500 : t % 7);
+        }
+
+        SeriesDownsampler.Series series = downsampler.finish();
+        assertEquals(3, series.values().length);
+        assertEquals(1_234_567, series.timestamps()[1]);
+        assertEquals(500, series.values()[1]);
+    }
+
+    @Test
+    void minMaxKeepsTheExtremesOfEveryBucket() {
+        SeriesDownsampler downsampler = SeriesDownsampler.create(SeriesDownsampler.Method.MINMAX, 0, 99, 4);
+        for (int t = 0; t < 100; t++) {
+            downsampler.accept(t, t == 20 ? 100 : t == 70 ? -5 : t % 10);
+        }
+
+        SeriesDownsampler.Series series = downsampler.finish();
+        assertEquals(4, series.values().length);
+        assertTrue(contains(series.values(), 100));
+        assertTrue(contains(series.values(), -5));
+    }
+
+    private static boolean contains(double[] values, double value) {
+        for (double v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
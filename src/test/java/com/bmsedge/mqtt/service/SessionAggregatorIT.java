@@ -0,0 +1,142 @@
+package com.bmsedge.mqtt.service;
+
+import com.bmsedge.mqtt.config.MqttProperties;
+import com.bmsedge.mqtt.config.PersistenceConfig;
+import com.bmsedge.mqtt.dto.SessionAggregate;
+import com.bmsedge.mqtt.event.MqttDataEvent;
+import com.bmsedge.mqtt.model.MqttDataEntity;
+import com.bmsedge.mqtt.repository.MqttDataRowRepository;
+import com.bmsedge.mqtt.repository.SessionSnapshotRepository;
+import io.zonky.test.db.AutoConfigureEmbeddedDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static io.zonky.test.db.AutoConfigureEmbeddedDatabase.DatabaseProvider.ZONKY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Late readings for an earlier day: the snapshotted session is reopened, so
+ * aggregates come from stored readings (day no longer held) or from a new
+ * snapshot (day still pending) instead of the stale snapshot
+ */
+@DataJpaTest(properties = {"spring.jpa.show-sql=false", "mqtt.rollup.enabled=false"})
+@AutoConfigureEmbeddedDatabase(provider = ZONKY)
+@EnableConfigurationProperties(MqttProperties.class)
+@Import({PersistenceConfig.class, MqttDataRowRepository.class, SessionSnapshotRepository.class,
+        SessionAggregator.class, MqttAggregationService.class, MqttRollupBackfill.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class SessionAggregatorIT {
+
+    private static final Set<String> SESSIONS = Set.of("morning", "afternoon", "evening");
+
+    @Autowired
+    private SessionAggregator aggregator;
+
+    @Autowired
+    private MqttAggregationService aggregationService;
+
+    @Autowired
+    private SessionSnapshotRepository snapshotRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        cleanUp();
+        aggregator.warmUp();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbcTemplate.update("DELETE FROM mqtt_data");
+        jdbcTemplate.update("DELETE FROM mqtt_session_snapshot");
+        jdbcTemplate.update("DELETE FROM mqtt_session_close");
+    }
+
+    @Test
+    void lateReadingForADayNoLongerHeldFallsBackToStoredReadings() {
+        LocalDate day = LocalDate.now().minusDays(2);
+        MqttDataEntity early = store(day.atTime(8, 0), 5);
+        snapshotRepository.save(day, "morning", List.of(aggregate(day, early)));
+        snapshotRepository.save(day, "afternoon", List.of());
+        snapshotRepository.save(day, "evening", List.of());
+        assertEquals(5, morning(day).maxInCount());
+
+        aggregator.onMqttData(new MqttDataEvent(this, store(day.atTime(9, 30), 9)));
+
+        assertEquals(Set.of("afternoon", "evening"), snapshotRepository.findClosedSessions(day));
+        SessionAggregate morning = morning(day);
+        assertEquals(9, morning.maxInCount());
+        assertEquals(2, morning.samples());
+
+        // Outside every session: nothing to reopen
+        aggregator.onMqttData(new MqttDataEvent(this, store(day.atTime(15, 30), 1)));
+        assertEquals(Set.of("afternoon", "evening"), snapshotRepository.findClosedSessions(day));
+    }
+
+    @Test
+    void lateReadingForAPendingDayIsSnapshottedAgain() {
+        LocalDate today = LocalDate.now();
+        // Morning was snapshotted before this start
+        snapshotRepository.save(today, "morning", List.of(aggregate(today, store(today.atTime(8, 0), 5))));
+        aggregator.warmUp();
+
+        // Midnight passes: today is pending with the morning closed
+        aggregator.onMqttData(new MqttDataEvent(this, store(today.plusDays(1).atTime(0, 0, 1), 1)));
+        aggregator.onMqttData(new MqttDataEvent(this, store(today.atTime(10, 0), 12)));
+
+        // Reopened right away, so the stale snapshot is not served meanwhile
+        assertEquals(Set.of(), snapshotRepository.findClosedSessions(today));
+        assertEquals(12, morning(today).maxInCount());
+
+        aggregator.checkpoint();
+
+        assertEquals(SESSIONS, snapshotRepository.findClosedSessions(today));
+        List<SessionAggregate> snapshot = snapshotRepository.findByDay(today);
+        assertEquals(1, snapshot.size());
+        assertEquals(12, snapshot.get(0).maxInCount());
+        assertEquals(2, snapshot.get(0).samples());
+    }
+
+    private SessionAggregate morning(LocalDate day) {
+        return aggregationService.aggregateSessions(day).stream()
+                .filter(aggregate -> aggregate.session().equals("morning"))
+                .findFirst().orElseThrow();
+    }
+
+    private MqttDataEntity store(LocalDateTime timestamp, int inCount) {
+        Long id = jdbcTemplate.queryForObject("""
+                INSERT INTO mqtt_data (id, device_id, counter_name, occupancy, in_count, wait_time, timestamp, created_at)
+                VALUES (nextval('mqtt_data_seq'), 'dev-1', 'counter-1', 3, ?, 2.0, ?, now())
+                RETURNING id
+                """, Long.class, inCount, timestamp);
+        return MqttDataEntity.builder()
+                .id(id)
+                .deviceId("dev-1")
+                .counterName("counter-1")
+                .occupancy(3)
+                .inCount(inCount)
+                .waitTime(2.0)
+                .timestamp(timestamp)
+                .build();
+    }
+
+    private static SessionAggregate aggregate(LocalDate day, MqttDataEntity data) {
+        return new SessionAggregate(day, "morning", data.getCounterName(), 1, data.getInCount(), data.getOccupancy(),
+                data.getWaitTime(), data.getTimestamp(), data.getTimestamp(), null, null);
+    }
+}